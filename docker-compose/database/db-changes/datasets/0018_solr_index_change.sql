@@ -0,0 +1,6 @@
+CREATE TABLE `solr_index_change` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `object_type` int(11) DEFAULT NULL,
+  `object_id` bigint(20) DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
@@ -0,0 +1,65 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.anonymization.anonymization;
+
+/**
+ * The actions of the anonymization profiles, as written in anonymization.xlsx.
+ */
+public enum AnonymizationAction {
+
+	/** X: remove the tag */
+	DELETE("X"),
+
+	/** Z: replace by an empty value, also used for unknown letters */
+	EMPTY("Z"),
+
+	/** D: replace by a random dummy value */
+	DUMMY("D"),
+
+	/** U: replace by a new UID */
+	UID("U"),
+
+	/** K: keep the tag */
+	KEEP("K");
+
+	private final String letter;
+
+	private AnonymizationAction(final String letter) {
+		this.letter = letter;
+	}
+
+	public String getLetter() {
+		return letter;
+	}
+
+	/**
+	 * Returns the action of a profile letter. As before the rules were compiled,
+	 * a missing or unknown letter empties the tag.
+	 *
+	 * @param letter
+	 * @return the action, never null
+	 */
+	public static AnonymizationAction getAction(final String letter) {
+		if (letter != null) {
+			for (AnonymizationAction action : values()) {
+				if (action.letter.equals(letter)) {
+					return action;
+				}
+			}
+		}
+		return EMPTY;
+	}
+
+}
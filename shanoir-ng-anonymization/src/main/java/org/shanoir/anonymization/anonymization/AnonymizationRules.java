@@ -0,0 +1,180 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.anonymization.anonymization;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An anonymization profile compiled once into int keyed tables, to be looked up
+ * for each tag of each file without any allocation: the public tags and their
+ * actions are kept in two sorted arrays, the tag ranges of the profile
+ * (private, curve and overlay tags) are checked with bit masks and bounds.
+ */
+public class AnonymizationRules {
+
+	static final String PRIVATE_TAGS = "0xggggeeee";
+	static final String CURVE_DATA_TAGS = "0x50xxxxxx";
+	static final String OVERLAY_COMMENTS_TAGS = "0x60xx4000";
+	static final String OVERLAY_DATA_TAGS = "0x60xx3000";
+
+	/** 0x50xxxxxx */
+	private static final int CURVE_DATA_MASK = 0xFF000000;
+	private static final int CURVE_DATA_VALUE = 0x50000000;
+
+	/**
+	 * 0x60xx4000 and 0x60xx3000, checked as bounds as always done before: all the
+	 * elements of the overlay groups between them are concerned, 0x60020010 included
+	 */
+	private static final int OVERLAY_COMMENTS_MIN = 0x60004000;
+	private static final int OVERLAY_COMMENTS_MAX = 0x60FF4000;
+	private static final int OVERLAY_DATA_MIN = 0x60003000;
+	private static final int OVERLAY_DATA_MAX = 0x60FF3000;
+
+	/** Sorted public tags of the profile */
+	private final int[] tags;
+
+	/** Action of tags[i] */
+	private final AnonymizationAction[] actions;
+
+	private final AnonymizationAction privateTagsAction;
+
+	private final AnonymizationAction curveDataAction;
+
+	private final AnonymizationAction overlayCommentsAction;
+
+	private final AnonymizationAction overlayDataAction;
+
+	/** Sorted private tags to delete, by manufacturer */
+	private final Map<String, int[]> tagsToDeleteForManufacturer;
+
+	private AnonymizationRules(int[] tags, AnonymizationAction[] actions, Map<String, String> anonymizationMap,
+			Map<String, int[]> tagsToDeleteForManufacturer) {
+		this.tags = tags;
+		this.actions = actions;
+		this.privateTagsAction = AnonymizationAction.getAction(anonymizationMap.get(PRIVATE_TAGS));
+		this.curveDataAction = AnonymizationAction.getAction(anonymizationMap.get(CURVE_DATA_TAGS));
+		this.overlayCommentsAction = AnonymizationAction.getAction(anonymizationMap.get(OVERLAY_COMMENTS_TAGS));
+		this.overlayDataAction = AnonymizationAction.getAction(anonymizationMap.get(OVERLAY_DATA_TAGS));
+		this.tagsToDeleteForManufacturer = tagsToDeleteForManufacturer;
+	}
+
+	/**
+	 * Compiles a profile, as read from anonymization.xlsx.
+	 *
+	 * @param anonymizationMap
+	 *            action letter by tag, as "0x0020000E"
+	 * @param tagsToDeleteForManufacturer
+	 *            tags, as "0x0029100C", by manufacturer
+	 * @return the compiled rules
+	 */
+	public static AnonymizationRules compile(Map<String, String> anonymizationMap,
+			Map<String, List<String>> tagsToDeleteForManufacturer) {
+		TreeMap<Integer, AnonymizationAction> sortedActions = new TreeMap<>();
+		for (Map.Entry<String, String> entry : anonymizationMap.entrySet()) {
+			Integer tag = parseTag(entry.getKey());
+			// the tag ranges are not parsed and handled separately
+			if (tag != null) {
+				sortedActions.put(tag, AnonymizationAction.getAction(entry.getValue()));
+			}
+		}
+		int[] tags = new int[sortedActions.size()];
+		AnonymizationAction[] actions = new AnonymizationAction[sortedActions.size()];
+		int i = 0;
+		for (Map.Entry<Integer, AnonymizationAction> entry : sortedActions.entrySet()) {
+			tags[i] = entry.getKey();
+			actions[i++] = entry.getValue();
+		}
+		Map<String, int[]> tagsToDelete = new HashMap<>();
+		if (tagsToDeleteForManufacturer != null) {
+			for (Map.Entry<String, List<String>> entry : tagsToDeleteForManufacturer.entrySet()) {
+				tagsToDelete.put(entry.getKey(), entry.getValue().stream()
+						.map(AnonymizationRules::parseTag)
+						.filter(tag -> tag != null)
+						.mapToInt(Integer::intValue)
+						.sorted()
+						.toArray());
+			}
+		}
+		return new AnonymizationRules(tags, actions, anonymizationMap, tagsToDelete);
+	}
+
+	/**
+	 * @return the tag of "0x0020000E", null if not a tag (as "0x50xxxxxx")
+	 */
+	private static Integer parseTag(String tagString) {
+		if (tagString == null || tagString.length() != 10 || !tagString.startsWith("0x")) {
+			return null;
+		}
+		try {
+			return Integer.parseUnsignedInt(tagString.substring(2), 16);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Private tags have an odd group number.
+	 */
+	public static boolean isPrivateTag(int tag) {
+		return (tag & 0x00010000) != 0;
+	}
+
+	/**
+	 * @return the action of a public tag, explicitly listed in the profile or in one
+	 *         of its curve/overlay ranges, null if the tag is not concerned by the profile
+	 */
+	public AnonymizationAction getAction(int tag) {
+		int index = Arrays.binarySearch(tags, tag);
+		if (index >= 0) {
+			return actions[index];
+		}
+		return getRangeAction(tag);
+	}
+
+	/**
+	 * @return true if the tag is explicitly listed in the profile
+	 */
+	public boolean containsTag(int tag) {
+		return Arrays.binarySearch(tags, tag) >= 0;
+	}
+
+	private AnonymizationAction getRangeAction(int tag) {
+		if ((tag & CURVE_DATA_MASK) == CURVE_DATA_VALUE) {
+			return curveDataAction;
+		} else if (OVERLAY_COMMENTS_MIN <= tag && tag <= OVERLAY_COMMENTS_MAX) {
+			return overlayCommentsAction;
+		} else if (OVERLAY_DATA_MIN <= tag && tag <= OVERLAY_DATA_MAX) {
+			return overlayDataAction;
+		}
+		return null;
+	}
+
+	public AnonymizationAction getPrivateTagsAction() {
+		return privateTagsAction;
+	}
+
+	/**
+	 * @return true if the private tag has to be deleted for this manufacturer
+	 */
+	public boolean isTagToDeleteForManufacturer(String manufacturer, int tag) {
+		int[] tagsToDelete = tagsToDeleteForManufacturer.get(manufacturer);
+		return tagsToDelete != null && Arrays.binarySearch(tagsToDelete, tag) >= 0;
+	}
+
+}
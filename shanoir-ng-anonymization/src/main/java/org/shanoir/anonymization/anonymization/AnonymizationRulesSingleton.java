@@ -133,6 +133,9 @@ public class AnonymizationRulesSingleton {
 			LOG.error("Unable to read anonymization file: {}", e);
 		}
 
+		for (Profile profile : profiles.values()) {
+			profile.setRules(AnonymizationRules.compile(profile.getAnonymizationMap(), tagsToDeleteForManufacturer));
+		}
 	}
 
 	public static AnonymizationRulesSingleton getInstance() {
@@ -17,17 +17,27 @@ package org.shanoir.anonymization.anonymization;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.SpecificCharacterSet;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
+import org.dcm4che3.io.BulkDataDescriptor;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.io.DicomOutputStream;
 import org.shanoir.ng.anonymization.uid.generation.UIDGeneration;
@@ -47,38 +57,46 @@ public class AnonymizationServiceImpl implements AnonymizationService {
 
 	private static final Logger LOG = LoggerFactory.getLogger(AnonymizationServiceImpl.class);
 
-	private static final String PRIVATE_TAGS = "0xggggeeee";
-	private static final String CURVE_DATA_TAGS = "0x50xxxxxx";
-	private static final String OVERLAY_COMMENTS_TAGS = "0x60xx4000";
-	private static final String OVERLAY_DATA_TAGS = "0x60xx3000";
-	
 	private Random rand = new Random();
-	
-	private static Map<String, List<String>> tagsToDeleteForManufacturer;
+
+	/** Number of files anonymized in parallel. */
+	private final int nbThreads;
+
+	/** Pool shared by all anonymizations of this instance, null if nbThreads == 1. */
+	private final ExecutorService executor;
+
+	/**
+	 * Anonymizes the files one by one, on the calling thread.
+	 */
+	public AnonymizationServiceImpl() {
+		this(1);
+	}
+
+	/**
+	 * Anonymizes the files of each call in parallel, on a pool of nbThreads daemon threads,
+	 * shared by all the calls to this instance.
+	 * 
+	 * @param nbThreads
+	 *            the number of files anonymized in parallel, 1 to anonymize on the calling thread
+	 */
+	public AnonymizationServiceImpl(int nbThreads) {
+		this.nbThreads = Math.max(1, nbThreads);
+		if (this.nbThreads > 1) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			this.executor = Executors.newFixedThreadPool(this.nbThreads, runnable -> {
+				Thread thread = new Thread(runnable, "anonymization-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			this.executor = null;
+		}
+	}
 
 	@Override
 	public void anonymize(ArrayList<File> dicomFiles, String profile) throws Exception {
-		long startTime = System.currentTimeMillis();
-		final int totalAmount = dicomFiles.size();
-		LOG.info("Start anonymization, for {} DICOM files.", totalAmount);
-		Map<String, Profile> profiles = AnonymizationRulesSingleton.getInstance().getProfiles();
-		Map<String, String> anonymizationMap = profiles.get(profile).getAnonymizationMap();
-		tagsToDeleteForManufacturer = AnonymizationRulesSingleton.getInstance().getTagsToDeleteForManufacturer();
-		// init here for multi-threading reasons
-		Map<String, String> seriesInstanceUIDs = new HashMap<>();
-		Map<String, String> studyInstanceUIDs = new HashMap<>();
-		Map<String, String> studyIds = new HashMap<>();
-		LOG.debug("anonymize : totalAmount={}", totalAmount);
-		int current = 0;
-		for (int i = 0; i < dicomFiles.size(); ++i) {
-			final File file = dicomFiles.get(i);
-			// Perform the anonymization
-			performAnonymization(file, anonymizationMap, false, "", "", seriesInstanceUIDs, studyInstanceUIDs, studyIds);
-			current++;
-			final int currentPercent = current * 100 / totalAmount;
-			LOG.debug("anonymize : anonymization current percent= {} %", currentPercent);
-		}
-		logInfos("End anonymization", startTime);
+		AnonymizationRules rules = AnonymizationRulesSingleton.getInstance().getProfiles().get(profile).getRules();
+		anonymize(dicomFiles, rules, false, "", "");
 	}
 
 	@Override
@@ -90,26 +108,63 @@ public class AnonymizationServiceImpl implements AnonymizationService {
 
 	@Override
 	public void anonymizeForShanoir(ArrayList<File> dicomFiles, String profile, String patientName, String patientID) throws Exception {
-		long startTime = System.currentTimeMillis();
-		final int totalAmount = dicomFiles.size();
-		LOG.info("Start anonymization, for {} DICOM files.", totalAmount);
-		Map<String, Profile> profiles = AnonymizationRulesSingleton.getInstance().getProfiles();
-		Map<String, String> anonymizationMap = profiles.get(profile).getAnonymizationMap();
-		tagsToDeleteForManufacturer = AnonymizationRulesSingleton.getInstance().getTagsToDeleteForManufacturer();
+		AnonymizationRules rules = AnonymizationRulesSingleton.getInstance().getProfiles().get(profile).getRules();
+		anonymize(dicomFiles, rules, true, patientName, patientID);
+	}
+
+	void anonymize(List<File> dicomFiles, AnonymizationRules rules, boolean isShanoirAnonymization,
+			String patientName, String patientID) throws Exception {
 		// init here for multi-threading reasons
+		anonymize(dicomFiles, rules, isShanoirAnonymization, patientName, patientID,
+				new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+	}
 
-		Map<String, String> seriesInstanceUIDs = new HashMap<>();
-		Map<String, String> studyInstanceUIDs = new HashMap<>();
-		Map<String, String> studyIds = new HashMap<>();
+	/**
+	 * Anonymizes the files, in parallel if nbThreads > 1. The UID maps are shared by all
+	 * the files and filled atomically: all the files of a serie/study get the same new UID,
+	 * whatever the thread, and each file is written exactly as with a serial anonymization.
+	 */
+	void anonymize(List<File> dicomFiles, AnonymizationRules rules, boolean isShanoirAnonymization,
+			String patientName, String patientID, ConcurrentMap<String, String> seriesInstanceUIDs,
+			ConcurrentMap<String, String> studyInstanceUIDs, ConcurrentMap<String, String> studyIds) throws Exception {
+		long startTime = System.currentTimeMillis();
+		final int totalAmount = dicomFiles.size();
+		LOG.info("Start anonymization, for {} DICOM files, {} in parallel.", totalAmount, nbThreads);
 		LOG.debug("anonymize : totalAmount={}", totalAmount);
-		int current = 0;
-		for (int i = 0; i < dicomFiles.size(); ++i) {
-			final File file = dicomFiles.get(i);
-			// Perform the anonymization
-			performAnonymization(file, anonymizationMap, true, patientName, patientID, seriesInstanceUIDs, studyInstanceUIDs, studyIds);
-			current++;
-			final int currentPercent = current * 100 / totalAmount;
-			LOG.debug("anonymize : anonymization current percent= {} %", currentPercent);
+		AtomicInteger current = new AtomicInteger();
+		if (executor == null || totalAmount < 2) {
+			for (File file : dicomFiles) {
+				// Perform the anonymization
+				performAnonymization(file, rules, isShanoirAnonymization, patientName, patientID, seriesInstanceUIDs, studyInstanceUIDs, studyIds);
+				LOG.debug("anonymize : anonymization current percent= {} %", current.incrementAndGet() * 100 / totalAmount);
+			}
+		} else {
+			List<Future<Void>> futures = new ArrayList<>(totalAmount);
+			try {
+				for (File file : dicomFiles) {
+					futures.add(executor.submit(() -> {
+						// Perform the anonymization
+						performAnonymization(file, rules, isShanoirAnonymization, patientName, patientID, seriesInstanceUIDs, studyInstanceUIDs, studyIds);
+						LOG.debug("anonymize : anonymization current percent= {} %", current.incrementAndGet() * 100 / totalAmount);
+						return null;
+					}));
+				}
+				for (Future<Void> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof Exception) {
+							throw (Exception) e.getCause();
+						}
+						throw e;
+					}
+				}
+			} finally {
+				// in case of error: the remaining files are not anonymized
+				for (Future<Void> future : futures) {
+					future.cancel(true);
+				}
+			}
 		}
 		logInfos("End anonymization", startTime);
 	}
@@ -149,29 +204,35 @@ public class AnonymizationServiceImpl implements AnonymizationService {
 	 * Further does each part of an UID has to start with a non-zero value, see
 	 * UIDGeneration code.
 	 * 
+	 * The pixel data is never loaded into memory: it is read as a bulk data reference
+	 * to the original file, and copied from there into a temporary file written next
+	 * to it with the anonymized header. The temporary file then replaces the original
+	 * one, so the memory used is bounded by the size of the header, not of the image.
+	 * 
 	 * @param dicomFile
 	 *            the image path
 	 * @param profile
 	 *            anonymization profile
 	 * @throws Exception
 	 */
-	public void performAnonymization(final File dicomFile, Map<String, String> anonymizationMap, boolean isShanoirAnonymization,
+	public void performAnonymization(final File dicomFile, AnonymizationRules rules, boolean isShanoirAnonymization,
 			String patientName, String patientID, Map<String, String> seriesInstanceUIDs,
 			Map<String, String> studyInstanceUIDs, Map<String, String> studyIds) throws Exception {
 		DicomInputStream din = null;
 		DicomOutputStream dos = null;
+		File anonymizedFile = null;
 		try {
 			din = new DicomInputStream(dicomFile);
+			din.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
+			din.setBulkDataDescriptor(BulkDataDescriptor.PIXELDATA);
 			
 			/**
 			 * DICOM "header"/meta-information fields: read tags
 			 */
 			Attributes metaInformationAttributes = din.readFileMetaInformation();
 			for (int tagInt : metaInformationAttributes.tags()) {
-				String tagString = String.format("0x%08x", Integer.valueOf(tagInt));
-				if (anonymizationMap.containsKey(tagString)) {
-					final String action = anonymizationMap.get(tagString);
-					anonymizeTag(tagInt, action, metaInformationAttributes);
+				if (rules.containsTag(tagInt)) {
+					anonymizeTag(tagInt, rules.getAction(tagInt), metaInformationAttributes);
 				}
 			}
 			final String mediaStorageSOPInstanceUIDGenerated = metaInformationAttributes
@@ -182,35 +243,32 @@ public class AnonymizationServiceImpl implements AnonymizationService {
 			 */
 			Attributes datasetAttributes = din.readDataset(-1, -1);
 			
-			// temporarily keep the patient credentials in memory to search in private tags
-			String patientNameAttr = datasetAttributes.getString(Tag.PatientName);
-			String[] patientNameArrayAttr = null;
-			if (patientNameAttr != null && !patientNameAttr.isEmpty()) {
-				patientNameArrayAttr = patientNameAttr.split("\\^");
-			}
-			String patientIDAttr = datasetAttributes.getString(Tag.PatientID);
-			String patientBirthNameAttr = datasetAttributes.getString(Tag.PatientBirthName);
+			// temporarily keep the patient credentials in memory to search in private tags,
+			// encoded once per file to search them directly in the bytes of the private tags
+			String manufacturer = datasetAttributes.getString(Tag.Manufacturer);
+			byte[][] phiValues = getPHIValues(datasetAttributes);
 			// temporarily keep the patient birth date for isShanoirAnonymization
 			String patientBirthDateAttr = datasetAttributes.getString(Tag.PatientBirthDate);
 
 			// anonymize DICOM files according to selected profile
 			for (int tagInt : datasetAttributes.tags()) {
-				String tagString = String.format("0x%08X", Integer.valueOf(tagInt));
-				String gggg = tagString.substring(2, 6);
-				Integer intgggg = Integer.decode("0x" + gggg);
 				// odd: for private tags
-				if (intgggg % 2 == 1) {
-					String action = anonymizationMap.get(PRIVATE_TAGS);
-					String value = datasetAttributes.getString(tagInt);
+				if (AnonymizationRules.isPrivateTag(tagInt)) {
+					AnonymizationAction action = rules.getPrivateTagsAction();
 					// only act below in case of K: keep, if X: delete for private tags, no need
-					if (value != null && !value.isEmpty() && action.equals("K")) {
-						action = checkForPHIInPrivateTags(patientNameArrayAttr, patientIDAttr, patientBirthNameAttr, patientBirthDateAttr, tagInt, value, action);
-						action = handleTagsToDeleteForManufacturer(datasetAttributes, tagString, action);
+					if (action == AnonymizationAction.KEEP && hasValue(datasetAttributes, tagInt)) {
+						if (checkForPHIInPrivateTag(datasetAttributes, tagInt, phiValues)
+								|| rules.isTagToDeleteForManufacturer(manufacturer, tagInt)) {
+							action = AnonymizationAction.DELETE;
+						}
 					}
 					anonymizeTag(tagInt, action, datasetAttributes);
 				// even: public tags
-				} else if (anonymizationMap.containsKey(tagString)) {
-					if (tagInt == Tag.SOPInstanceUID) {
+				} else {
+					AnonymizationAction action = rules.getAction(tagInt);
+					if (action == null) {
+						// not concerned by the profile
+					} else if (tagInt == Tag.SOPInstanceUID) {
 						anonymizeSOPInstanceUID(tagInt, datasetAttributes, mediaStorageSOPInstanceUIDGenerated);
 					} else if (tagInt == Tag.SeriesInstanceUID) {
 						anonymizeSeriesInstanceUID(tagInt, datasetAttributes, seriesInstanceUIDs);
@@ -219,18 +277,6 @@ public class AnonymizationServiceImpl implements AnonymizationService {
 					} else if (tagInt == Tag.StudyID) {
 						anonymizeStudyId(tagInt, datasetAttributes, studyIds);
 					} else {
-						final String action = anonymizationMap.get(tagString);
-						anonymizeTag(tagInt, action, datasetAttributes);
-					}
-				} else {
-					if (0x50000000 <= tagInt && tagInt <= 0x50FFFFFF) {
-						final String action = anonymizationMap.get(CURVE_DATA_TAGS);
-						anonymizeTag(tagInt, action, datasetAttributes);
-					} else if (0x60004000 <= tagInt && tagInt <= 0x60FF4000) {
-						final String action = anonymizationMap.get(OVERLAY_COMMENTS_TAGS);
-						anonymizeTag(tagInt, action, datasetAttributes);
-					} else if (0x60003000 <= tagInt && tagInt <= 0x60FF3000) {
-						final String action = anonymizationMap.get(OVERLAY_DATA_TAGS);
 						anonymizeTag(tagInt, action, datasetAttributes);
 					}
 				}
@@ -240,8 +286,17 @@ public class AnonymizationServiceImpl implements AnonymizationService {
 				anonymizePatientMetaData(datasetAttributes, patientName, patientID, patientBirthDateAttr);
 			}
 			LOG.debug("finish anonymization: begin storage");
-			dos = new DicomOutputStream(dicomFile);
+			// in the same folder, to replace the original file with a rename
+			anonymizedFile = File.createTempFile("." + dicomFile.getName() + ".", ".tmp", dicomFile.getAbsoluteFile().getParentFile());
+			dos = new DicomOutputStream(anonymizedFile);
+			// copies the pixel data from the original file
 			dos.writeDataset(metaInformationAttributes, datasetAttributes);
+			dos.close();
+			dos = null;
+			din.close();
+			din = null;
+			Files.move(anonymizedFile.toPath(), dicomFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			anonymizedFile = null;
 			LOG.debug("finish anonymization: end storage");
 		} catch (final IOException exc) {
 			LOG.error("performAnonymization : error while anonimizing file " + dicomFile.toString() + " : ", exc);
@@ -256,90 +311,101 @@ public class AnonymizationServiceImpl implements AnonymizationService {
 			} catch (IOException e) {
 				LOG.error(e.getMessage(), e);
 			}
+			// the original file is kept unchanged in case of error
+			if (anonymizedFile != null && !anonymizedFile.delete()) {
+				LOG.error("performAnonymization : unable to delete temporary file {}", anonymizedFile);
+			}
 		}
 	}
 
 	/**
-	 * Handle tags to delete for manufacturer here
+	 * Returns the patient name parts, id, birth name and birth date, encoded with the
+	 * character set of the file, that are searched in the private tags. As before, values
+	 * of less than 3 characters are ignored.
 	 * 
 	 * @param datasetAttributes
-	 * @param tagString
-	 * @param action
-	 * @return
+	 * @return the encoded values
 	 */
-	private String handleTagsToDeleteForManufacturer(Attributes datasetAttributes, String tagString, String action) {
-		String manufacturer = datasetAttributes.getString(Tag.Manufacturer);
-		List<String> tagsToDelete = tagsToDeleteForManufacturer.get(manufacturer);
-		if (tagsToDelete != null) {
-			for (Iterator<String> iterator = tagsToDelete.iterator(); iterator.hasNext();) {
-				String tagToDelete = iterator.next();
-				if (tagString.equals(tagToDelete)) {
-					action = "X";
-					break;
-				}
-			}
+	private byte[][] getPHIValues(Attributes datasetAttributes) {
+		List<String> values = new ArrayList<>();
+		String patientName = datasetAttributes.getString(Tag.PatientName);
+		if (patientName != null) {
+			values.addAll(Arrays.asList(patientName.split("\\^")));
 		}
-		return action;
+		values.add(datasetAttributes.getString(Tag.PatientID));
+		values.add(datasetAttributes.getString(Tag.PatientBirthName));
+		values.add(datasetAttributes.getString(Tag.PatientBirthDate));
+		SpecificCharacterSet characterSet = datasetAttributes.getSpecificCharacterSet();
+		return values.stream()
+				.filter(value -> value != null && value.length() > 2)
+				.map(value -> characterSet.encode(value, "\\"))
+				.toArray(byte[][]::new);
 	}
 
-	/**
-	 * @param patientNameArrayAttr
-	 * @param patientIDAttr
-	 * @param patientBirthNameAttr
-	 * @param patientBirthDateAttr
-	 * @param tagInt
-	 * @param value
-	 * @throws Exception
-	 */
-	private String checkForPHIInPrivateTags(String[] patientNameArrayAttr, String patientIDAttr, String patientBirthNameAttr,
-			String patientBirthDateAttr, int tagInt, String value, String action) throws Exception {
-		// check for patient name elements
-		for (int i = 0; i < patientNameArrayAttr.length; i++) {
-			String patientNamePart = patientNameArrayAttr[i];
-			if(checkTagContainsValuePHI(tagInt, value, patientNamePart)) {
-				return "X";
-			}
-		}
-		if (checkTagContainsValuePHI(tagInt, value, patientIDAttr)
-			|| checkTagContainsValuePHI(tagInt, value, patientBirthNameAttr)
-			|| checkTagContainsValuePHI(tagInt, value, patientBirthDateAttr)) {
-			return "X";
+	private boolean hasValue(Attributes datasetAttributes, int tagInt) {
+		Object value = datasetAttributes.getValue(tagInt);
+		if (value instanceof byte[]) {
+			return ((byte[]) value).length != 0;
 		}
-		return action;
+		// values not read from a file
+		String stringValue = datasetAttributes.getString(tagInt);
+		return stringValue != null && !stringValue.isEmpty();
 	}
 
 	/**
+	 * Searches the PHI values in the bytes of a private tag, without decoding it.
+	 * 
+	 * @param datasetAttributes
 	 * @param tagInt
-	 * @param value
-	 * @param compareValuePHI
-	 * @throws Exception
+	 * @param phiValues
+	 * @return true if the tag contains PHI
 	 */
-	private boolean checkTagContainsValuePHI(int tagInt, String value, String compareValuePHI) throws Exception {
-		if (compareValuePHI != null && !compareValuePHI.isEmpty() && compareValuePHI.length() > 2 && value.contains(compareValuePHI)) {
-			LOG.warn("Potential PHI found in private tag (--> remove/delete): " + tagInt + ": " + value);
-			return true;
+	private boolean checkForPHIInPrivateTag(Attributes datasetAttributes, int tagInt, byte[][] phiValues) {
+		Object value = datasetAttributes.getValue(tagInt);
+		byte[] bytes = value instanceof byte[] ? (byte[]) value
+				: datasetAttributes.getSpecificCharacterSet().encode(datasetAttributes.getString(tagInt, ""), "\\");
+		for (byte[] phiValue : phiValues) {
+			if (indexOf(bytes, phiValue) != -1) {
+				LOG.warn("Potential PHI found in private tag (--> remove/delete): " + tagInt + ": " + datasetAttributes.getString(tagInt));
+				return true;
+			}
 		}
 		return false;
 	}
 
+	private static int indexOf(byte[] bytes, byte[] searched) {
+		for (int i = 0, last = bytes.length - searched.length; i <= last; i++) {
+			int j = 0;
+			while (j < searched.length && bytes[i + j] == searched[j]) {
+				j++;
+			}
+			if (j == searched.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * Tag Anonymization
 	 * 
 	 * @param tagInt
 	 *            : the tag to anonymize
 	 * @param action
-	 *            : the action letter to apply
+	 *            : the action to apply
 	 * @param attributes
 	 *            : the list of dicom attributes to modify
 	 */
-	private void anonymizeTag(Integer tagInt, String action, Attributes attributes) {
-		String value = getFinalValueForTag(action);
-		if (value == null) {
+	private void anonymizeTag(int tagInt, AnonymizationAction action, Attributes attributes) {
+		switch (action) {
+		case KEEP:
+			break;
+		case DELETE:
 			attributes.remove(tagInt);
-		} else if ("KEEP".equals(value)) {
-			// do nothing
-		} else {
-			anonymizeTagAccordingToVR(attributes, tagInt, value);
+			break;
+		default:
+			anonymizeTagAccordingToVR(attributes, tagInt, getFinalValueForTag(action));
+			break;
 		}
 	}
 
@@ -348,92 +414,64 @@ public class AnonymizationServiceImpl implements AnonymizationService {
 	}
 
 	private void anonymizeSeriesInstanceUID(int tagInt, Attributes attributes, Map<String, String> seriesInstanceUIDs) {
-		String value;
-		if (seriesInstanceUIDs != null && seriesInstanceUIDs.size() != 0
-				&& seriesInstanceUIDs.get(attributes.getString(tagInt)) != null) {
-			value = seriesInstanceUIDs.get(attributes.getString(tagInt));
-		} else {
-			UIDGeneration generator = new UIDGeneration();
-			String newUID = null;
-			try {
-				newUID = generator.getNewUID();
-			} catch (Exception e) {
-				LOG.error(e.getMessage());
-			}
-			value = newUID;
-			seriesInstanceUIDs.put(attributes.getString(tagInt), value);
-		}
+		String value = seriesInstanceUIDs.computeIfAbsent(getMapKey(attributes, tagInt), key -> generateUID());
 		anonymizeTagAccordingToVR(attributes, tagInt, value);
 	}
 
 	private void anonymizeStudyInstanceUID(int tagInt, Attributes attributes, Map<String, String> studyInstanceUIDs) {
-		String value;
-		if (studyInstanceUIDs != null && studyInstanceUIDs.size() != 0
-				&& studyInstanceUIDs.get(attributes.getString(tagInt)) != null) {
-			value = studyInstanceUIDs.get(attributes.getString(tagInt));
-		} else {
-			UIDGeneration generator = new UIDGeneration();
-			String newUID = null;
-			try {
-				newUID = generator.getNewUID();
-			} catch (Exception e) {
-				LOG.error(e.getMessage());
-			}
-			value = newUID;
-			studyInstanceUIDs.put(attributes.getString(tagInt), value);
-		}
+		String value = studyInstanceUIDs.computeIfAbsent(getMapKey(attributes, tagInt), key -> generateUID());
 		anonymizeTagAccordingToVR(attributes, tagInt, value);
 	}
 
 	private void anonymizeStudyId(int tagInt, Attributes attributes, Map<String, String> studyIds) {
-		String value;
-		if (studyIds != null && studyIds.size() != 0 && studyIds.get(attributes.getString(tagInt)) != null) {
-			value = studyIds.get(attributes.getString(tagInt));
-		} else {
+		String value = studyIds.computeIfAbsent(getMapKey(attributes, tagInt), key -> {
 			char[] chars = "abcdefghijklmnopqrstuvwxyz".toCharArray();
 			StringBuilder sb = new StringBuilder();
 			for (int i = 0; i < 10; i++) {
 				char c = chars[rand.nextInt(chars.length)];
 				sb.append(c);
 			}
-			String output = sb.toString();
-			value = output.toString();
-			studyIds.put(attributes.getString(tagInt), value);
-		}
+			return sb.toString();
+		});
 		anonymizeTagAccordingToVR(attributes, tagInt, value);
 	}
 
+	/**
+	 * The maps are concurrent maps, that do not accept null keys: an empty value is used instead.
+	 */
+	private String getMapKey(Attributes attributes, int tagInt) {
+		String value = attributes.getString(tagInt);
+		return value != null ? value : "";
+	}
+
+	private String generateUID() {
+		UIDGeneration generator = new UIDGeneration();
+		String newUID = null;
+		try {
+			newUID = generator.getNewUID();
+		} catch (Exception e) {
+			LOG.error(e.getMessage());
+		}
+		return newUID;
+	}
+
 	/**
 	 * Get the anonymized value of the tag
 	 * 
 	 * @param action
-	 *            : the action letter to apply
+	 *            : the action to apply, that replaces the value
 	 * @return
 	 */
-	private String getFinalValueForTag(final String action) {
-		String result = "";
-		if (action != null) {
-			if (action.equals("X")) {
-				result = null;
-			} else if (action.equals("Z")) {
-				result = "";
-			} else if (action.equals("D")) {
-				SecureRandom random = new SecureRandom();
-				result = new BigInteger(130, random).toString(32);
-			} else if (action.equals("U")) {
-				UIDGeneration generator = new UIDGeneration();
-				String newUID = null;
-				try {
-					newUID = generator.getNewUID();
-				} catch (Exception e) {
-					LOG.error(e.getMessage());
-				}
-				result = newUID;
-			} else if (action.equals("K")) {
-				result = "KEEP";
-			}
+	private String getFinalValueForTag(final AnonymizationAction action) {
+		switch (action) {
+		case DUMMY:
+			SecureRandom random = new SecureRandom();
+			return new BigInteger(130, random).toString(32);
+		case UID:
+			return generateUID();
+		default:
+			return "";
 		}
-		return result;
 	}
 
 	/**
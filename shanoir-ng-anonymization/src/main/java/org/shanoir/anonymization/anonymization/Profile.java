@@ -9,6 +9,8 @@ public class Profile {
 	
 	private Map<String, String> anonymizationMap;
 
+	private AnonymizationRules rules;
+
 	public Profile(Integer profileColumn) {
 		super();
 		this.profileColumn = profileColumn;
@@ -27,4 +29,15 @@ public class Profile {
 		this.anonymizationMap = anonymizationMap;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * @return the anonymization map, compiled for the anonymization of the files
+	 */
+	public AnonymizationRules getRules() {
+		return rules;
+	}
+
+	public void setRules(AnonymizationRules rules) {
+		this.rules = rules;
+	}
+
+}
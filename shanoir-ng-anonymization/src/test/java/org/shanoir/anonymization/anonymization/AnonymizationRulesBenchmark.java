@@ -0,0 +1,73 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.anonymization.anonymization;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs the number of tags looked up per second, with the string keyed lookup done
+ * before and with the compiled AnonymizationRules, on the tags of the synthetic
+ * multi-frame file of AnonymizationRulesTest. Not part of the default build:
+ * run with mvn test -Pbenchmark.
+ */
+public class AnonymizationRulesBenchmark {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AnonymizationRulesBenchmark.class);
+
+	private static final String PROFILE = "Profile Neurinfo";
+
+	private static final int NB_FILES = 2000;
+
+	@Test
+	public void benchmarkLookup() {
+		Profile profile = AnonymizationRulesSingleton.getInstance().getProfiles().get(PROFILE);
+		int[] tags = AnonymizationRulesTest.createMultiFrameAttributes().tags();
+		// warm up both lookups first
+		for (int i = 0; i < 2; i++) {
+			benchmark("string keyed", tags, () -> {
+				int count = 0;
+				for (int tag : tags) {
+					count += AnonymizationRulesTest.legacyAction(profile.getAnonymizationMap(), tag) != null ? 1 : 0;
+				}
+				return count;
+			});
+			benchmark("compiled", tags, () -> {
+				int count = 0;
+				for (int tag : tags) {
+					count += AnonymizationRulesTest.compiledAction(profile.getRules(), tag) != null ? 1 : 0;
+				}
+				return count;
+			});
+		}
+	}
+
+	private void benchmark(String mode, int[] tags, FileLookup lookup) {
+		long start = System.nanoTime();
+		int count = 0;
+		for (int file = 0; file < NB_FILES; file++) {
+			count += lookup.lookup();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		LOG.info("Anonymization rules lookup {}: {} tags ({} with an action) in {} s, {} tags/s", mode, NB_FILES * tags.length,
+				count, String.format("%.3f", seconds), String.format("%.0f", NB_FILES * tags.length / seconds));
+	}
+
+	private interface FileLookup {
+		int lookup();
+	}
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.anonymization.anonymization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+
+/**
+ * Tests the compiled AnonymizationRules against the string keyed lookup of the profiles,
+ * as done before for each tag, on the tags of a synthetic multi-frame file.
+ */
+public class AnonymizationRulesTest {
+
+	private static final int NB_FRAMES = 500;
+
+	@Test
+	public void testCompiledRulesMatchProfiles() {
+		int[] tags = createMultiFrameAttributes().tags();
+		for (Profile profile : AnonymizationRulesSingleton.getInstance().getProfiles().values()) {
+			Map<String, String> anonymizationMap = profile.getAnonymizationMap();
+			AnonymizationRules rules = profile.getRules();
+			for (int tag : tags) {
+				assertEquals(legacyAction(anonymizationMap, tag), compiledAction(rules, tag));
+			}
+			for (String tagString : anonymizationMap.keySet()) {
+				if (tagString.matches("0x[0-9A-F]{8}")) {
+					int tag = Integer.parseUnsignedInt(tagString.substring(2), 16);
+					assertEquals(legacyAction(anonymizationMap, tag), compiledAction(rules, tag));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRanges() {
+		AnonymizationRules rules = AnonymizationRules.compile(Collections.singletonMap(AnonymizationRules.OVERLAY_COMMENTS_TAGS, "X"),
+				Collections.singletonMap("SIEMENS", Arrays.asList("0x0029100C", "0x00291008")));
+		assertTrue(AnonymizationRules.isPrivateTag(0x00291010));
+		assertFalse(AnonymizationRules.isPrivateTag(Tag.PatientName));
+		assertEquals(AnonymizationAction.DELETE, rules.getAction(0x60024000));
+		// the bounds [0x60004000, 0x60FF4000] contain the other elements of the overlay groups
+		assertEquals(AnonymizationAction.DELETE, rules.getAction(0x60020010));
+		assertEquals(AnonymizationAction.DELETE, rules.getAction(0x60023000));
+		// missing action: empty, as before, for [0x60003000, 0x60FF3000] out of the comments bounds
+		assertEquals(AnonymizationAction.EMPTY, rules.getAction(0x60003000));
+		assertEquals(AnonymizationAction.EMPTY, rules.getAction(0x60003100));
+		assertEquals(AnonymizationAction.EMPTY, rules.getAction(0x50001234));
+		assertNull(rules.getAction(0x60002FFF));
+		assertNull(rules.getAction(0x60FF4001));
+		assertNull(rules.getAction(Tag.PatientName));
+		assertTrue(rules.isTagToDeleteForManufacturer("SIEMENS", 0x0029100C));
+		assertFalse(rules.isTagToDeleteForManufacturer("SIEMENS", 0x00291010));
+		assertFalse(rules.isTagToDeleteForManufacturer(null, 0x0029100C));
+	}
+
+	static AnonymizationAction compiledAction(AnonymizationRules rules, int tag) {
+		if (AnonymizationRules.isPrivateTag(tag)) {
+			return rules.getPrivateTagsAction();
+		}
+		return rules.getAction(tag);
+	}
+
+	/**
+	 * The lookup done for each tag before the compilation of the profiles.
+	 */
+	static AnonymizationAction legacyAction(Map<String, String> anonymizationMap, int tagInt) {
+		String tagString = String.format("0x%08X", Integer.valueOf(tagInt));
+		String gggg = tagString.substring(2, 6);
+		Integer intgggg = Integer.decode("0x" + gggg);
+		if (intgggg % 2 == 1) {
+			return AnonymizationAction.getAction(anonymizationMap.get(AnonymizationRules.PRIVATE_TAGS));
+		} else if (anonymizationMap.containsKey(tagString)) {
+			return AnonymizationAction.getAction(anonymizationMap.get(tagString));
+		} else if (0x50000000 <= tagInt && tagInt <= 0x50FFFFFF) {
+			return AnonymizationAction.getAction(anonymizationMap.get(AnonymizationRules.CURVE_DATA_TAGS));
+		} else if (0x60004000 <= tagInt && tagInt <= 0x60FF4000) {
+			return AnonymizationAction.getAction(anonymizationMap.get(AnonymizationRules.OVERLAY_COMMENTS_TAGS));
+		} else if (0x60003000 <= tagInt && tagInt <= 0x60FF3000) {
+			return AnonymizationAction.getAction(anonymizationMap.get(AnonymizationRules.OVERLAY_DATA_TAGS));
+		}
+		return null;
+	}
+
+	/**
+	 * An enhanced MR header, with the usual public and private tags of a multi-frame file,
+	 * and two overlay groups.
+	 */
+	static Attributes createMultiFrameAttributes() {
+		Attributes attributes = new Attributes();
+		attributes.setString(Tag.SOPClassUID, VR.UI, UID.EnhancedMRImageStorage);
+		attributes.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+		attributes.setString(Tag.StudyDate, VR.DA, "20220101");
+		attributes.setString(Tag.Modality, VR.CS, "MR");
+		attributes.setString(Tag.Manufacturer, VR.LO, "SIEMENS");
+		attributes.setString(Tag.InstitutionName, VR.LO, "Hospital");
+		attributes.setString(Tag.ReferringPhysicianName, VR.PN, "Doctor");
+		attributes.setString(Tag.PatientName, VR.PN, "Doe^John");
+		attributes.setString(Tag.PatientID, VR.LO, "123456");
+		attributes.setString(Tag.PatientBirthDate, VR.DA, "19700312");
+		attributes.setString(Tag.PatientSex, VR.CS, "M");
+		attributes.setString(Tag.PatientAge, VR.AS, "052Y");
+		attributes.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+		attributes.setString(Tag.SeriesInstanceUID, VR.UI, "1.2.3.1");
+		attributes.setString(Tag.StudyID, VR.SH, "STUDY");
+		attributes.setInt(Tag.NumberOfFrames, VR.IS, NB_FRAMES);
+		attributes.setInt(Tag.Rows, VR.US, 256);
+		attributes.setInt(Tag.Columns, VR.US, 256);
+		for (int element = 0x10; element < 0x100; element++) {
+			attributes.setString(0x00190000 | element, VR.LO, "private");
+			attributes.setString(0x00290000 | element, VR.LO, "private");
+			attributes.setString(0x00510000 | element, VR.LO, "private");
+		}
+		attributes.setInt(0x50000005, VR.US, 1);
+		attributes.setNull(0x60003000, VR.OW);
+		attributes.setString(0x60004000, VR.LT, "overlay");
+		attributes.setInt(0x60020010, VR.US, 256);
+		attributes.setInt(0x60020011, VR.US, 256);
+		attributes.setNull(0x60023000, VR.OW);
+		attributes.setNull(Tag.PixelData, VR.OW);
+		return attributes;
+	}
+
+}
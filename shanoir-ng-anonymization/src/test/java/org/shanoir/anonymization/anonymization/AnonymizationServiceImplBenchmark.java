@@ -0,0 +1,74 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.anonymization.anonymization;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs the number of files anonymized per second by AnonymizationServiceImpl for
+ * each size of its pool, the files of each size being compared to the serial ones.
+ * Not part of the default build: run with mvn test -Pbenchmark.
+ */
+public class AnonymizationServiceImplBenchmark {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AnonymizationServiceImplBenchmark.class);
+
+	private static final int NB_SERIES = 4;
+
+	private static final int NB_INSTANCES_PER_SERIE = 100;
+
+	private static final int INSTANCE_PIXEL_DATA_SIZE = 128 * 1024;
+
+	private static final int[] POOL_SIZES = { 2, 4, 8 };
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	@Test
+	public void benchmarkPoolSizes() throws Exception {
+		AnonymizationRules rules = DicomTestFiles.createDeterministicRules();
+		List<File> sourceFiles = DicomTestFiles.createFiles(testFolder.newFolder(), NB_SERIES, NB_INSTANCES_PER_SERIE, INSTANCE_PIXEL_DATA_SIZE);
+		// the first run warms up the serial anonymization
+		benchmark(sourceFiles, rules, 1);
+		List<File> reference = benchmark(sourceFiles, rules, 1);
+		for (int nbThreads : POOL_SIZES) {
+			List<File> files = benchmark(sourceFiles, rules, nbThreads);
+			for (int i = 0; i < files.size(); i++) {
+				assertArrayEquals(Files.readAllBytes(reference.get(i).toPath()), Files.readAllBytes(files.get(i).toPath()));
+			}
+		}
+	}
+
+	private List<File> benchmark(List<File> sourceFiles, AnonymizationRules rules, int nbThreads) throws Exception {
+		List<File> files = DicomTestFiles.copyFiles(sourceFiles, testFolder.newFolder());
+		long start = System.nanoTime();
+		DicomTestFiles.anonymize(files, rules, NB_SERIES, nbThreads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		LOG.info("Anonymization with {} thread(s): {} files in {} s, {} files/s", nbThreads, files.size(),
+				String.format("%.2f", seconds), String.format("%.0f", files.size() / seconds));
+		return files;
+	}
+
+}
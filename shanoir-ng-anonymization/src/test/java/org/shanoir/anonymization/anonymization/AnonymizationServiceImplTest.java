@@ -0,0 +1,141 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.anonymization.anonymization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the parallel anonymization of AnonymizationServiceImpl against the serial one,
+ * on generated DICOM files, and the copy of their pixel data.
+ */
+public class AnonymizationServiceImplTest {
+
+	private static final int NB_SERIES = 4;
+
+	private static final int NB_INSTANCES_PER_SERIE = 20;
+
+	private static final int INSTANCE_PIXEL_DATA_SIZE = 16 * 1024;
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private AnonymizationRules rules;
+
+	private List<File> sourceFiles;
+
+	@Before
+	public void setup() throws IOException {
+		rules = DicomTestFiles.createDeterministicRules();
+		sourceFiles = DicomTestFiles.createFiles(testFolder.newFolder(), NB_SERIES, NB_INSTANCES_PER_SERIE, INSTANCE_PIXEL_DATA_SIZE);
+	}
+
+	@Test
+	public void testParallelAnonymizationConsistentUIDs() throws Exception {
+		List<File> files = DicomTestFiles.copyFiles(sourceFiles, testFolder.newFolder());
+
+		new AnonymizationServiceImpl(4).anonymize(files, rules, true, "subject", "subject");
+
+		Set<String> studyUIDs = new HashSet<>();
+		Set<String> studyIds = new HashSet<>();
+		Set<String> seriesUIDs = new HashSet<>();
+		for (File file : files) {
+			try (DicomInputStream din = new DicomInputStream(file)) {
+				Attributes attributes = din.readDataset(-1, Tag.PixelData);
+				studyUIDs.add(attributes.getString(Tag.StudyInstanceUID));
+				studyIds.add(attributes.getString(Tag.StudyID));
+				seriesUIDs.add(attributes.getString(Tag.SeriesInstanceUID));
+				assertEquals("subject", attributes.getString(Tag.PatientName));
+				// the private tag contains the patient name
+				assertNull(attributes.getString(DicomTestFiles.PRIVATE_TAG));
+			}
+		}
+		assertEquals(1, studyUIDs.size());
+		assertFalse(studyUIDs.contains(DicomTestFiles.STUDY_UID));
+		assertEquals(1, studyIds.size());
+		assertEquals(NB_SERIES, seriesUIDs.size());
+	}
+
+	@Test
+	public void testPixelDataCopiedWithoutTemporaryFile() throws Exception {
+		List<File> files = DicomTestFiles.copyFiles(sourceFiles, testFolder.newFolder());
+
+		new AnonymizationServiceImpl().anonymize(files.subList(0, NB_INSTANCES_PER_SERIE), rules, true, "subject", "subject");
+
+		for (int instance = 0; instance < NB_INSTANCES_PER_SERIE; instance++) {
+			try (DicomInputStream din = new DicomInputStream(files.get(instance))) {
+				Attributes attributes = din.readDataset(-1, -1);
+				assertEquals("subject", attributes.getString(Tag.PatientName));
+				assertArrayEquals(DicomTestFiles.createPixelData(instance, INSTANCE_PIXEL_DATA_SIZE), attributes.getBytes(Tag.PixelData));
+			}
+		}
+		// only the anonymized files, the temporary files were renamed
+		assertEquals(files.size(), files.get(0).getParentFile().list().length);
+	}
+
+	@Test
+	public void testParallelAnonymizationSameAsSerial() throws Exception {
+		List<File> reference = DicomTestFiles.copyFiles(sourceFiles, testFolder.newFolder());
+		DicomTestFiles.anonymize(reference, rules, NB_SERIES, 1);
+		List<File> files = DicomTestFiles.copyFiles(sourceFiles, testFolder.newFolder());
+		DicomTestFiles.anonymize(files, rules, NB_SERIES, 4);
+		for (int i = 0; i < files.size(); i++) {
+			assertArrayEquals(Files.readAllBytes(reference.get(i).toPath()), Files.readAllBytes(files.get(i).toPath()));
+		}
+	}
+
+	@Test
+	public void testPHIInAnyValueOfPrivateTag() throws Exception {
+		Attributes attributes = DicomTestFiles.createAttributes(0, 0, INSTANCE_PIXEL_DATA_SIZE);
+		// the patient id only in the second value
+		attributes.setString(0x00291011, VR.LO, "first value", "123456");
+		attributes.setString(0x00291012, VR.LO, "first value", "second value");
+		// overlay rows, in the bounds [0x60004000, 0x60FF4000] of the overlay comments
+		attributes.setInt(0x60020010, VR.US, 256);
+		File file = new File(testFolder.newFolder(), "phi.dcm");
+		DicomTestFiles.writeDicomFile(file, attributes);
+
+		new AnonymizationServiceImpl().anonymize(Collections.singletonList(file), rules, true, "subject", "subject");
+
+		try (DicomInputStream din = new DicomInputStream(file)) {
+			Attributes anonymized = din.readDataset(-1, Tag.PixelData);
+			assertFalse(anonymized.contains(0x00291011));
+			assertTrue(anonymized.contains(0x00291012));
+			assertEquals("second value", anonymized.getStrings(0x00291012)[1]);
+			assertFalse(anonymized.contains(0x60020010));
+		}
+	}
+
+}
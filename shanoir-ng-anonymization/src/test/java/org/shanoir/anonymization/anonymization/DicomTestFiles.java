@@ -0,0 +1,141 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.anonymization.anonymization;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+
+/**
+ * Generates the DICOM files of a study, serie "1.2.3.n" having the instances "1.2.3.n.m",
+ * with the patient name in a private tag, and anonymizes them reproducibly.
+ */
+final class DicomTestFiles {
+
+	static final String STUDY_UID = "1.2.3";
+
+	static final int PRIVATE_TAG = 0x00291010;
+
+	static final String PATIENT_NAME = "Doe^John";
+
+	private DicomTestFiles() {
+	}
+
+	/**
+	 * @return a profile of only deterministic actions, to compare the files byte per byte
+	 */
+	static AnonymizationRules createDeterministicRules() {
+		Map<String, String> anonymizationMap = new HashMap<>();
+		anonymizationMap.put("0xggggeeee", "K");
+		anonymizationMap.put("0x50xxxxxx", "X");
+		anonymizationMap.put("0x60xx4000", "X");
+		anonymizationMap.put("0x60xx3000", "X");
+		anonymizationMap.put("0x00080018", "U");
+		anonymizationMap.put("0x00100010", "Z");
+		anonymizationMap.put("0x00100030", "X");
+		anonymizationMap.put("0x0020000D", "U");
+		anonymizationMap.put("0x0020000E", "U");
+		anonymizationMap.put("0x00200010", "U");
+		return AnonymizationRules.compile(anonymizationMap, Collections.emptyMap());
+	}
+
+	/**
+	 * Creates the files serie_instance.dcm in the folder.
+	 */
+	static List<File> createFiles(File folder, int nbSeries, int nbInstancesPerSerie, int pixelDataSize) throws IOException {
+		List<File> files = new ArrayList<>();
+		for (int serie = 0; serie < nbSeries; serie++) {
+			for (int instance = 0; instance < nbInstancesPerSerie; instance++) {
+				File file = new File(folder, serie + "_" + instance + ".dcm");
+				writeDicomFile(file, createAttributes(serie, instance, pixelDataSize));
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Copies the files in the folder, to anonymize them in place.
+	 */
+	static List<File> copyFiles(List<File> sourceFiles, File folder) throws IOException {
+		List<File> files = new ArrayList<>();
+		for (File sourceFile : sourceFiles) {
+			File file = new File(folder, sourceFile.getName());
+			Files.copy(sourceFile.toPath(), file.toPath());
+			files.add(file);
+		}
+		return files;
+	}
+
+	/**
+	 * The new UIDs are random: the maps are seeded, to get the same files at each run.
+	 */
+	static void anonymize(List<File> files, AnonymizationRules rules, int nbSeries, int nbThreads) throws Exception {
+		ConcurrentMap<String, String> seriesInstanceUIDs = new ConcurrentHashMap<>();
+		for (int serie = 0; serie < nbSeries; serie++) {
+			seriesInstanceUIDs.put(STUDY_UID + "." + serie, "2.25.1." + serie);
+		}
+		ConcurrentMap<String, String> studyInstanceUIDs = new ConcurrentHashMap<>();
+		studyInstanceUIDs.put(STUDY_UID, "2.25.1");
+		ConcurrentMap<String, String> studyIds = new ConcurrentHashMap<>();
+		studyIds.put("STUDY", "anonymized");
+		new AnonymizationServiceImpl(nbThreads).anonymize(files, rules, true, "subject", "subject", seriesInstanceUIDs, studyInstanceUIDs, studyIds);
+	}
+
+	static Attributes createAttributes(int serie, int instance, int pixelDataSize) {
+		String instanceUID = STUDY_UID + "." + serie + "." + instance;
+		Attributes attributes = new Attributes();
+		attributes.setString(Tag.SOPClassUID, VR.UI, UID.MRImageStorage);
+		attributes.setString(Tag.SOPInstanceUID, VR.UI, instanceUID);
+		attributes.setString(Tag.PatientName, VR.PN, PATIENT_NAME);
+		attributes.setString(Tag.PatientID, VR.LO, "123456");
+		attributes.setString(Tag.PatientBirthDate, VR.DA, "19700312");
+		attributes.setString(Tag.StudyInstanceUID, VR.UI, STUDY_UID);
+		attributes.setString(Tag.StudyID, VR.SH, "STUDY");
+		attributes.setString(Tag.SeriesInstanceUID, VR.UI, STUDY_UID + "." + serie);
+		attributes.setString(0x00290010, VR.LO, "SIEMENS CSA HEADER");
+		attributes.setString(PRIVATE_TAG, VR.LO, "acquired for " + PATIENT_NAME);
+		attributes.setBytes(Tag.PixelData, VR.OW, createPixelData(instance, pixelDataSize));
+		return attributes;
+	}
+
+	static byte[] createPixelData(int instance, int pixelDataSize) {
+		byte[] pixelData = new byte[pixelDataSize];
+		for (int i = 0; i < pixelData.length; i++) {
+			pixelData[i] = (byte) (i * 31 + instance);
+		}
+		return pixelData;
+	}
+
+	static void writeDicomFile(File file, Attributes attributes) throws IOException {
+		try (DicomOutputStream dos = new DicomOutputStream(file)) {
+			dos.writeDataset(attributes.createFileMetaInformation(UID.ExplicitVRLittleEndian), attributes);
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.configuration;
+
+import javax.annotation.PreDestroy;
+
+import org.shanoir.ng.dicom.web.PacsStreamInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Async processing of the MVC requests, as the streamed DICOMWeb responses: they are
+ * written by a bounded pool of threads, instead of one new thread per response.
+ */
+@Configuration
+public class WebMvcAsyncConfiguration implements WebMvcConfigurer {
+
+	@Value("${spring.mvc.async.threads:50}")
+	private int asyncThreads;
+
+	@Value("${spring.mvc.async.queue-capacity:500}")
+	private int asyncQueueCapacity;
+
+	private ThreadPoolTaskExecutor asyncExecutor;
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		asyncExecutor = new ThreadPoolTaskExecutor();
+		asyncExecutor.setCorePoolSize(asyncThreads);
+		asyncExecutor.setMaxPoolSize(asyncThreads);
+		asyncExecutor.setQueueCapacity(asyncQueueCapacity);
+		asyncExecutor.setThreadNamePrefix("mvc-async-");
+		asyncExecutor.initialize();
+		configurer.setTaskExecutor(asyncExecutor);
+		configurer.registerCallableInterceptors(new PacsStreamInterceptor());
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdown();
+		}
+	}
+
+}
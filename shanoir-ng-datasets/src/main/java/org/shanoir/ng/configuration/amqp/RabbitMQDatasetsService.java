@@ -16,6 +16,7 @@ package org.shanoir.ng.configuration.amqp;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -24,6 +25,7 @@ import org.shanoir.ng.bids.service.BIDSService;
 import org.shanoir.ng.dataset.model.Dataset;
 import org.shanoir.ng.datasetacquisition.model.DatasetAcquisition;
 import org.shanoir.ng.datasetacquisition.service.DatasetAcquisitionService;
+import org.shanoir.ng.dicom.web.StudyInstanceUIDHandler;
 import org.shanoir.ng.examination.model.Examination;
 import org.shanoir.ng.examination.repository.ExaminationRepository;
 import org.shanoir.ng.examination.service.ExaminationService;
@@ -39,6 +41,7 @@ import org.shanoir.ng.shared.model.Tag;
 import org.shanoir.ng.shared.repository.CenterRepository;
 import org.shanoir.ng.shared.repository.StudyRepository;
 import org.shanoir.ng.shared.repository.SubjectRepository;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
 import org.shanoir.ng.solr.service.SolrService;
 import org.shanoir.ng.study.rights.ampq.RabbitMqStudyUserService;
 import org.shanoir.ng.studycard.model.StudyCard;
@@ -59,7 +62,6 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.CollectionUtils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -98,6 +100,9 @@ public class RabbitMQDatasetsService {
 	@Autowired
 	private StudyCardRepository studyCardRepository;
 
+	@Autowired
+	private StudyInstanceUIDHandler studyInstanceUIDHandler;
+
 	@Autowired
 	private BIDSService bidsService;
 	
@@ -165,9 +170,7 @@ public class RabbitMQDatasetsService {
 			}
 			if (stud.getId() == null) throw new IllegalStateException("The entity should must have an id ! Received string : \"" + studyStr + "\"");
 			this.studyRepository.save(stud);
-			List<Long> subjectIds = new ArrayList<>();
-			stud.getSubjectStudyList().forEach(subStu -> subjectIds.add(subStu.getSubject().getId()));
-			updateSolr(subjectIds);
+			solrService.registerChanges(SolrIndexChangeType.STUDY, Collections.singletonList(stud.getId()));
 		} catch (Exception e) {
 			throw new AmqpRejectAndDontRequeueException(RABBIT_MQ_ERROR, e);
 		}
@@ -198,9 +201,7 @@ public class RabbitMQDatasetsService {
 			subjectRepository.save(su);
 			
 			// Update solr references
-			List<Long> subjectIdList = new ArrayList<Long>();
-			subjectIdList.add(su.getId());
-			updateSolr(subjectIdList);
+			solrService.registerChanges(SolrIndexChangeType.SUBJECT, Collections.singletonList(su.getId()));
 			
 			// Update BIDS
 			Set<Long> studyIds = new HashSet<>();
@@ -217,29 +218,12 @@ public class RabbitMQDatasetsService {
 		}
 	}
 
-	/**
-	 * Updates all the solr references for this subject.
-	 * @param subjectId the subject ID updated
-	 */
-	private void updateSolr(final List<Long> subjectIds) {
-		Set<Long> datasetsToUpdate = new HashSet<>();
-		for (Examination exam : examinationRepository.findBySubjectIdIn(subjectIds)) {
-			for (DatasetAcquisition acq : exam.getDatasetAcquisitions()) {
-				for (Dataset ds : acq.getDatasets()) {
-					datasetsToUpdate.add(ds.getId());
-				}
-			}
-		}
-		if (!CollectionUtils.isEmpty(datasetsToUpdate)) {
-			this.solrService.indexDatasets(new ArrayList<>(datasetsToUpdate));
-		}
-	}
-
 	@Transactional
 	@RabbitListener(queues = RabbitMQConfiguration.CENTER_NAME_UPDATE_QUEUE)
 	@RabbitHandler
 	public void receiveCenterNameUpdate(final String centerStr) {
-		receiveAndUpdateIdNameEntity(centerStr, Center.class, centerRepository);
+		Center center = receiveAndUpdateIdNameEntity(centerStr, Center.class, centerRepository);
+		solrService.registerChanges(SolrIndexChangeType.CENTER, Collections.singletonList(center.getId()));
 	}
 	
 	private <T extends IdName> T receiveAndUpdateIdNameEntity(final String receivedStr, final Class<T> clazz, final CrudRepository<T, Long> repository) {
@@ -292,7 +276,7 @@ public class RabbitMQDatasetsService {
 					datasetIds.add(ds.getId());
 				}
 			}
-			solrService.indexDatasets(datasetIds);
+			solrService.registerChanges(SolrIndexChangeType.DATASET, datasetIds);
 		} catch (Exception e) {
 			LOG.error("Could not index datasets while creating new Dataset acquisition: ", e);
 			throw new AmqpRejectAndDontRequeueException(RABBIT_MQ_ERROR + e.getMessage());
@@ -370,4 +354,26 @@ public class RabbitMQDatasetsService {
 			throw new AmqpRejectAndDontRequeueException(RABBIT_MQ_ERROR + e.getMessage(), e);
 		}
 	}
+
+	/**
+	 * Receives a shanoirEvent as a json object, concerning an examination deletion:
+	 * the examination is removed from the DICOMWeb cache. The queue is anonymous, so
+	 * each instance of the microservice receives the event for its own cache.
+	 * @param eventAsString the event as a json string.
+	 */
+	@RabbitListener(bindings = @QueueBinding(
+			key = ShanoirEventType.DELETE_EXAMINATION_EVENT,
+			value = @Queue,
+			exchange = @Exchange(value = RabbitMQConfiguration.EVENTS_EXCHANGE, ignoreDeclarationExceptions = "true",
+			autoDelete = "false", durable = "true", type=ExchangeTypes.TOPIC))
+			)
+	public void deleteExamination(String eventAsString) throws AmqpRejectAndDontRequeueException {
+		try {
+			ShanoirEvent event = objectMapper.readValue(eventAsString, ShanoirEvent.class);
+			studyInstanceUIDHandler.removeExamination(Long.valueOf(event.getObjectId()));
+		} catch (Exception e) {
+			LOG.error("Something went wrong deserializing the event. {}", e.getMessage());
+			throw new AmqpRejectAndDontRequeueException(RABBIT_MQ_ERROR + e.getMessage(), e);
+		}
+	}
 }
@@ -88,6 +88,8 @@ public class SecurityConfiguration extends KeycloakWebSecurityConfigurerAdapter
 			.addFilterAfter(multipartRelatedRequestFilter, FilterSecurityInterceptor.class)
 			.authorizeRequests()
 				.antMatchers("/v2/api-docs", "/configuration/**", "/swagger*/**", "/webjars/**").permitAll()
+				// served on the management port only, not proxied by nginx
+				.antMatchers("/actuator/health", "/actuator/prometheus").permitAll()
 				.anyRequest().authenticated();
 	}
 
@@ -16,6 +16,7 @@
 package org.shanoir.ng.dataset.controler;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -24,6 +25,7 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -119,6 +121,10 @@ public class DatasetApiController implements DatasetApi {
 
 	private static final String DOWNLOAD = ".download";
 
+	private static final String ZIP_CONTENT_TYPE = "application/zip";
+
+	private static final String ERROR_FILE_NAME = "0000_ERROR_datasets.txt";
+
 	private static final String JAVA_IO_TMPDIR = "java.io.tmpdir";
 
     private static final String SUB_PREFIX = "sub-";
@@ -130,6 +136,10 @@ public class DatasetApiController implements DatasetApi {
 	@Value("${datasets-data}")
 	private String niftiStorageDir;
 
+	/** Massive downloads are streamed as zip to the response, without staging in tmp folder. */
+	@Value("${download.streaming:true}")
+	private boolean streamingDownload;
+
 	@Autowired
 	private DatasetMapper datasetMapper;
 
@@ -527,6 +537,10 @@ public class DatasetApiController implements DatasetApi {
 	}
 
 	public void massiveDownload(String format, List<Dataset> datasets, HttpServletResponse response) throws EntityNotFoundException, RestServiceException, IOException {
+		if (streamingDownload) {
+			massiveDownloadAsStream(format, datasets, response);
+			return;
+		}
 		// STEP 3: Get the data
 		// Check rights on at least one of the datasets and filter the datasetIds list
 		File userDir = DatasetFileUtils.getUserImportDir(System.getProperty(JAVA_IO_TMPDIR));
@@ -549,28 +563,8 @@ public class DatasetApiController implements DatasetApi {
 					continue;
 				}
 				// Create a new folder organized by subject / examination
-				String subjectName = subjectRepo.findById(dataset.getSubjectId()).orElse(null).getName();
-				if (subjectName.contains(File.separator)) {
-					subjectName = subjectName.replaceAll(File.separator, "_");
-				}
-				String studyName = studyRepo.findById(dataset.getStudyId()).orElse(null).getName();
-
-				Examination exam;
-				if (dataset.getDatasetAcquisition() == null && dataset.getDatasetProcessing() != null) {
-					exam = dataset.getDatasetProcessing().getInputDatasets().get(0).getDatasetAcquisition().getExamination();
-				} else {
-					exam = dataset.getDatasetAcquisition().getExamination();
-				}
-				
-				String datasetFilePath = studyName + "_" + subjectName + "_Exam-" + exam.getId();
-				if (exam.getComment() != null) {
-					datasetFilePath += "-" + exam.getComment();
-				}
-				datasetFilePath = datasetFilePath. replaceAll("[^a-zA-Z0-9_\\-]", "_");
-				if(datasetFilePath.length() > 255 ){
-					datasetFilePath = datasetFilePath.substring(0, 254);
-				}
-				datasetFilePath = tmpFile.getAbsolutePath() + File.separator + datasetFilePath;
+				String subjectName = getSubjectNameForDownload(dataset);
+				String datasetFilePath = tmpFile.getAbsolutePath() + File.separator + getDatasetFolderName(dataset, subjectName);
 				File datasetFile = new File(datasetFilePath);
 				if (!datasetFile.exists()) {
 					datasetFile.mkdir();
@@ -626,18 +620,8 @@ public class DatasetApiController implements DatasetApi {
 		// Check for errors
 		if (!failingDatasets.isEmpty()) {
 			FileUtils.deleteQuietly(tmpFile);
-			StringBuilder listOfDatasets = new StringBuilder();
-			for (Dataset dataset : failingDatasets) {
-				listOfDatasets.append("(ID = ").append(dataset.getId())
-						.append(") ")
-						.append(dataset.getName())
-						.append(", ");
-			}
-			listOfDatasets.deleteCharAt(listOfDatasets.length() - 1);
-			listOfDatasets.deleteCharAt(listOfDatasets.length() - 1);
-
 			throw new RestServiceException(
-					new ErrorModel(HttpStatus.UNPROCESSABLE_ENTITY.value(), "Error while retrieving files for the following datasets: " + listOfDatasets.toString()));
+					new ErrorModel(HttpStatus.UNPROCESSABLE_ENTITY.value(), getFailingDatasetsMessage(failingDatasets)));
 		}
 
 		// Zip it
@@ -666,6 +650,179 @@ public class DatasetApiController implements DatasetApi {
 		}
 	}
 
+	/**
+	 * Streaming version of the massive download: each dataset file is written into a zip
+	 * wrapped around the response output stream as soon as it is available, so nothing is
+	 * staged in the tmp folder and the first bytes are sent immediately. As the response is
+	 * already committed when a dataset fails, the list of failing datasets is sent as a
+	 * trailing entry of the zip, instead of as an error. A dataset failing while it is
+	 * streamed is reported there as incomplete, as its first files were already sent.
+	 * 
+	 * @param format
+	 * @param datasets
+	 * @param response
+	 * @throws RestServiceException
+	 * @throws IOException
+	 */
+	private void massiveDownloadAsStream(String format, List<Dataset> datasets, HttpServletResponse response) throws RestServiceException, IOException {
+		if (!DCM.equals(format) && !NII.equals(format) && !EEG.equals(format) && !BIDS.equals(format)) {
+			throw new RestServiceException(
+					new ErrorModel(HttpStatus.UNPROCESSABLE_ENTITY.value(), "Please choose either nifti, dicom or eeg file type.", null));
+		}
+
+		// Resolve the files and the folder of each dataset before sending anything,
+		// so that an empty download can still be answered with an error
+		List<Dataset> failingDatasets = new ArrayList<>();
+		List<Dataset> datasetsToZip = new ArrayList<>();
+		List<String> subjectNames = new ArrayList<>();
+		List<String> folderNames = new ArrayList<>();
+		List<List<URL>> datasetsPathURLs = new ArrayList<>();
+		for (Dataset dataset : datasets) {
+			try {
+				// Ignore non adapted datasets
+				if (EEG.equals(format) != (dataset instanceof EegDataset)) {
+					continue;
+				}
+				if (DCM.equals(format) && dataset.getDatasetProcessing() != null) {
+					// Do not load dicom for processed dataset
+					continue;
+				}
+				String subjectName = getSubjectNameForDownload(dataset);
+				String folderName = getDatasetFolderName(dataset, subjectName);
+
+				List<URL> pathURLs = new ArrayList<>();
+				if (dataset instanceof EegDataset) {
+					DatasetFileUtils.getDatasetFilePathURLs(dataset, pathURLs, DatasetExpressionFormat.EEG);
+				} else if (DCM.equals(format)) {
+					DatasetFileUtils.getDatasetFilePathURLs(dataset, pathURLs, DatasetExpressionFormat.DICOM);
+				} else if (NII.equals(format)) {
+					DatasetFileUtils.getDatasetFilePathURLs(dataset, pathURLs, DatasetExpressionFormat.NIFTI_SINGLE_FILE);
+				} else {
+					DatasetFileUtils.getDatasetFilePathURLs(dataset, pathURLs, DatasetExpressionFormat.BIDS);
+				}
+				if (pathURLs.isEmpty()) {
+					failingDatasets.add(dataset);
+					continue;
+				}
+				datasetsToZip.add(dataset);
+				subjectNames.add(subjectName);
+				folderNames.add(folderName);
+				datasetsPathURLs.add(pathURLs);
+			} catch (Exception e) {
+				LOG.error("Error while retrieving files of dataset: ", e);
+				failingDatasets.add(dataset);
+			}
+		}
+
+		// Check emptiness => no data at all
+		if (datasetsToZip.isEmpty()) {
+			LOG.error("No files could be found for the dataset(s).");
+			throw new RestServiceException(
+					new ErrorModel(HttpStatus.UNPROCESSABLE_ENTITY.value(), "No files could be found for the dataset(s)."));
+		}
+
+		SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss");
+		String zipName = "Datasets" + formatter.format(new DateTime().toDate()) + ZIP;
+
+		String ids = String.join(",", datasets.stream().map(dataset -> dataset.getId().toString()).collect(Collectors.toList()));
+		ShanoirEvent event = new ShanoirEvent(ShanoirEventType.DOWNLOAD_DATASET_EVENT, ids, KeycloakUtil.getTokenUserId(), ids + "." + format, ShanoirEvent.IN_PROGRESS);
+		eventService.publishEvent(event);
+
+		response.setHeader("Content-Disposition", "attachment;filename=" + zipName);
+		response.setContentType(ZIP_CONTENT_TYPE);
+		List<Dataset> incompleteDatasets = new ArrayList<>();
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(response.getOutputStream())) {
+			for (int i = 0; i < datasetsToZip.size(); i++) {
+				Dataset dataset = datasetsToZip.get(i);
+				try {
+					if (DCM.equals(format) && !(dataset instanceof EegDataset)) {
+						downloader.downloadDicomFilesForURLsAsZip(datasetsPathURLs.get(i), zipOutputStream, folderNames.get(i), subjectNames.get(i), dataset);
+					} else {
+						DatasetFileUtils.zipNiftiFilesForURLs(datasetsPathURLs.get(i), zipOutputStream, folderNames.get(i), dataset, subjectNames.get(i), BIDS.equals(format));
+					}
+				} catch (Exception e) {
+					// Here we just keep in memory the list of failing files
+					LOG.error("Error while streaming files: ", e);
+					failingDatasets.add(dataset);
+					// Some of its files may already be in the zip
+					incompleteDatasets.add(dataset);
+					// Stop here if the client is gone, as nothing can be sent anymore
+					zipOutputStream.flush();
+				}
+			}
+			if (!failingDatasets.isEmpty()) {
+				String message = getFailingDatasetsMessage(failingDatasets);
+				if (!incompleteDatasets.isEmpty()) {
+					message += "\nThe following datasets were only partially written in this archive, their files are incomplete: "
+							+ getDatasetsList(incompleteDatasets);
+				}
+				try (InputStream is = new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8))) {
+					DatasetFileUtils.addToZip(zipOutputStream, ERROR_FILE_NAME, is);
+				}
+			}
+			zipOutputStream.finish();
+			response.flushBuffer();
+		} catch (IOException e) {
+			event.setStatus(ShanoirEvent.ERROR);
+			eventService.publishEvent(event);
+			throw e;
+		}
+		event.setStatus(failingDatasets.isEmpty() ? ShanoirEvent.SUCCESS : ShanoirEvent.ERROR);
+		eventService.publishEvent(event);
+	}
+
+	/**
+	 * Returns the subject name of a dataset, usable in a file path.
+	 */
+	private String getSubjectNameForDownload(Dataset dataset) {
+		String subjectName = subjectRepo.findById(dataset.getSubjectId()).orElse(null).getName();
+		if (subjectName.contains(File.separator)) {
+			subjectName = subjectName.replaceAll(File.separator, "_");
+		}
+		return subjectName;
+	}
+
+	/**
+	 * Returns the name of the download folder of a dataset, organized by subject / examination.
+	 */
+	private String getDatasetFolderName(Dataset dataset, String subjectName) {
+		String studyName = studyRepo.findById(dataset.getStudyId()).orElse(null).getName();
+
+		Examination exam;
+		if (dataset.getDatasetAcquisition() == null && dataset.getDatasetProcessing() != null) {
+			exam = dataset.getDatasetProcessing().getInputDatasets().get(0).getDatasetAcquisition().getExamination();
+		} else {
+			exam = dataset.getDatasetAcquisition().getExamination();
+		}
+
+		String datasetFilePath = studyName + "_" + subjectName + "_Exam-" + exam.getId();
+		if (exam.getComment() != null) {
+			datasetFilePath += "-" + exam.getComment();
+		}
+		datasetFilePath = datasetFilePath. replaceAll("[^a-zA-Z0-9_\\-]", "_");
+		if(datasetFilePath.length() > 255 ){
+			datasetFilePath = datasetFilePath.substring(0, 254);
+		}
+		return datasetFilePath;
+	}
+
+	private String getFailingDatasetsMessage(List<Dataset> failingDatasets) {
+		return "Error while retrieving files for the following datasets: " + getDatasetsList(failingDatasets);
+	}
+
+	private String getDatasetsList(List<Dataset> datasets) {
+		StringBuilder listOfDatasets = new StringBuilder();
+		for (Dataset dataset : datasets) {
+			listOfDatasets.append("(ID = ").append(dataset.getId())
+					.append(") ")
+					.append(dataset.getName())
+					.append(", ");
+		}
+		listOfDatasets.deleteCharAt(listOfDatasets.length() - 1);
+		listOfDatasets.deleteCharAt(listOfDatasets.length() - 1);
+		return listOfDatasets.toString();
+	}
+
 	/**
 	 * Receives a list of URLs containing file:/// urls and copies the files to a folder named workFolder.
 	 * @param urls
@@ -17,17 +17,10 @@ package org.shanoir.ng.dataset.repository;
 import java.util.List;
 
 import org.shanoir.ng.dataset.model.Dataset;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 public interface DatasetRepository extends PagingAndSortingRepository<Dataset, Long>, DatasetRepositoryCustom {
 
-	Page<Dataset> findByDatasetAcquisitionExaminationStudyIdIn(Iterable<Long> studyIds, Pageable pageable);
-
-	Iterable<Dataset> findByDatasetAcquisitionExaminationStudyIdIn(Iterable<Long> studyIds, Sort sort);
-
 	Iterable<Dataset> findByDatasetAcquisitionExaminationStudyId(Long studyId);
 	
 	Iterable<Dataset> findByDatasetAcquisitionId(Long acquisitionId);
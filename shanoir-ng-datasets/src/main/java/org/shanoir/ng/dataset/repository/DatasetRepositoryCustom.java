@@ -1,7 +1,33 @@
 package org.shanoir.ng.dataset.repository;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.apache.commons.math3.util.Pair;
+import org.shanoir.ng.dataset.model.Dataset;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
 public interface DatasetRepositoryCustom {
 	public List<Object[]> queryStatistics(String studyNameInRegExp, String studyNameOutRegExp, String subjectNameInRegExp, String subjectNameOutRegExp) throws Exception;
+
+	/**
+	 * Finds the study, center, related studies and processing inputs of the datasets,
+	 * with a constant number of queries whatever the number of datasets.
+	 * 
+	 * @param datasetIds
+	 * @return one element per existing dataset
+	 */
+	public List<DatasetStudyCenter> findStudyCenters(Collection<Long> datasetIds);
+
+	/**
+	 * Finds a page of the datasets of the studies, or of the study/center pairs,
+	 * paginated and counted by the database.
+	 * 
+	 * @param studyCenterIds the study/center pairs
+	 * @param studyIds the studies without center restriction
+	 * @param pageable
+	 * @return the page of datasets
+	 */
+	public Page<Dataset> findPageByStudyCenterOrStudyIdIn(Iterable<Pair<Long, Long>> studyCenterIds, Iterable<Long> studyIds, Pageable pageable);
 }
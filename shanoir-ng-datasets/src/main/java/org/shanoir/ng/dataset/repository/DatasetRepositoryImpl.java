@@ -1,12 +1,21 @@
 package org.shanoir.ng.dataset.repository;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.ParameterMode;
 import javax.persistence.PersistenceContext;
 import javax.persistence.StoredProcedureQuery;
 
+import org.apache.commons.math3.util.Pair;
+import org.shanoir.ng.dataset.model.Dataset;
+import org.shanoir.ng.shared.repository.StudyCenterPageQuery;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -41,4 +50,61 @@ public class DatasetRepositoryImpl implements DatasetRepositoryCustom {
 		return results;
     }
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<DatasetStudyCenter> findStudyCenters(Collection<Long> datasetIds) {
+		if (datasetIds == null || datasetIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		Map<Long, DatasetStudyCenter> studyCenters = new LinkedHashMap<>();
+		List<Object[]> rows = entityManager.createNativeQuery(
+				"SELECT d.id, e.study_id, e.center_id, d.dataset_processing_id FROM dataset d"
+				+ " LEFT JOIN dataset_acquisition da ON da.id = d.dataset_acquisition_id"
+				+ " LEFT JOIN examination e ON e.id = da.examination_id"
+				+ " WHERE d.id IN (:ids)")
+				.setParameter("ids", datasetIds).getResultList();
+		for (Object[] row : rows) {
+			Long datasetId = toLong(row[0]);
+			studyCenters.put(datasetId, new DatasetStudyCenter(datasetId, toLong(row[1]), toLong(row[2]), toLong(row[3])));
+		}
+
+		rows = entityManager.createNativeQuery(
+				"SELECT rd.dataset_id, rd.study_id FROM related_datasets rd WHERE rd.dataset_id IN (:ids)")
+				.setParameter("ids", datasetIds).getResultList();
+		for (Object[] row : rows) {
+			DatasetStudyCenter studyCenter = studyCenters.get(toLong(row[0]));
+			if (studyCenter != null) {
+				studyCenter.getRelatedStudyIds().add(toLong(row[1]));
+			}
+		}
+
+		rows = entityManager.createNativeQuery(
+				"SELECT d.id, i.dataset_id FROM dataset d"
+				+ " JOIN input_of_dataset_processing i ON i.processing_id = d.dataset_processing_id"
+				+ " WHERE d.id IN (:ids)")
+				.setParameter("ids", datasetIds).getResultList();
+		for (Object[] row : rows) {
+			DatasetStudyCenter studyCenter = studyCenters.get(toLong(row[0]));
+			if (studyCenter != null) {
+				studyCenter.getInputDatasetIds().add(toLong(row[1]));
+			}
+		}
+		return new ArrayList<>(studyCenters.values());
+	}
+
+	@Override
+	public Page<Dataset> findPageByStudyCenterOrStudyIdIn(Iterable<Pair<Long, Long>> studyCenterIds,
+			Iterable<Long> studyIds, Pageable pageable) {
+		return new StudyCenterPageQuery<>(entityManager, Dataset.class, "ds",
+				"Dataset as ds join ds.datasetAcquisition as da join da.examination as ex", studyCenterIds, studyIds)
+				.findPage(pageable);
+	}
+
+	/**
+	 * Native queries return BigInteger ids with MySQL.
+	 */
+	private Long toLong(Object id) {
+		return id == null ? null : ((Number) id).longValue();
+	}
+
 }
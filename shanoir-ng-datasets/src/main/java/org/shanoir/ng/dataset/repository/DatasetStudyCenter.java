@@ -0,0 +1,73 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.dataset.repository;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What the rights on a dataset depend on, without loading the dataset:
+ * the study and center of its examination, the studies it is shared with
+ * and, for a processed dataset, the ids of the input datasets.
+ */
+public class DatasetStudyCenter {
+
+	private Long datasetId;
+
+	/** Null for a processed dataset */
+	private Long studyId;
+
+	private Long centerId;
+
+	private Long processingId;
+
+	private Set<Long> relatedStudyIds = new HashSet<>();
+
+	private List<Long> inputDatasetIds = new ArrayList<>();
+
+	public DatasetStudyCenter(Long datasetId, Long studyId, Long centerId, Long processingId) {
+		this.datasetId = datasetId;
+		this.studyId = studyId;
+		this.centerId = centerId;
+		this.processingId = processingId;
+	}
+
+	public Long getDatasetId() {
+		return datasetId;
+	}
+
+	public Long getStudyId() {
+		return studyId;
+	}
+
+	public Long getCenterId() {
+		return centerId;
+	}
+
+	public Long getProcessingId() {
+		return processingId;
+	}
+
+	public Set<Long> getRelatedStudyIds() {
+		return relatedStudyIds;
+	}
+
+	public List<Long> getInputDatasetIds() {
+		return inputDatasetIds;
+	}
+
+}
@@ -16,6 +16,7 @@ package org.shanoir.ng.dataset.security;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -27,6 +28,7 @@ import java.util.stream.Collectors;
 import org.shanoir.ng.dataset.dto.DatasetDTO;
 import org.shanoir.ng.dataset.model.Dataset;
 import org.shanoir.ng.dataset.repository.DatasetRepository;
+import org.shanoir.ng.dataset.repository.DatasetStudyCenter;
 import org.shanoir.ng.datasetacquisition.dto.DatasetAcquisitionDTO;
 import org.shanoir.ng.datasetacquisition.dto.ExaminationDatasetAcquisitionDTO;
 import org.shanoir.ng.datasetacquisition.model.DatasetAcquisition;
@@ -350,11 +352,21 @@ public class DatasetSecurityService {
      * @throws EntityNotFoundException
      */
     public boolean hasAtLeastRightOnOneDataset(List<Long> datasetIds, String rightStr) throws EntityNotFoundException {
-    	boolean hasRight = false;
-    	for(Long datasetId : datasetIds) {
-    		hasRight = hasRight || hasRightOnDataset(datasetId, rightStr);
+    	if (KeycloakUtil.getTokenRoles().contains(ROLE_ADMIN)) {
+			return true;
+		}
+    	DatasetRights rights = new DatasetRights(datasetIds, rightStr);
+    	for (Long datasetId : datasetIds) {
+    		if (!rights.isFound(datasetId)) {
+    			throw new EntityNotFoundException("Cannot find dataset with id " + datasetId);
+    		}
     	}
-    	return hasRight;
+    	for (Long datasetId : datasetIds) {
+    		if (rights.hasRightOnTrustedDataset(datasetId)) {
+    			return true;
+    		}
+    	}
+    	return false;
     }
     
     /**
@@ -375,26 +387,13 @@ public class DatasetSecurityService {
 			return true;
 		}
     	
-    	Iterable<Dataset> datasets = datasetRepository.findAllById(datasetIds);
-    	 
-    	boolean hasRight = true;
-    	for (Dataset dataset : datasets) {
-            if (dataset.getDatasetAcquisition() == null 
-                    || dataset.getDatasetAcquisition().getExamination() == null
-                    || dataset.getDatasetAcquisition().getExamination().getStudyId() == null) {
-                
-                if (dataset.getDatasetProcessing() != null && dataset.getDatasetProcessing().getInputDatasets() != null) {
-                    for (Dataset inputDs : dataset.getDatasetProcessing().getInputDatasets()) {
-                    	hasRight &= hasRightOnTrustedDataset(inputDs, rightStr);
-                    }
-                } else {
-                    throw new IllegalStateException("Cannot check dataset n°" + dataset.getId() + " rights, this dataset has neither examination nor processing parent !");                
-                }
-            } else {
-            	hasRight &= this.hasRightOnStudyCenter(dataset.getDatasetAcquisition().getExamination().getCenterId(), dataset.getDatasetAcquisition().getExamination().getStudyId(), rightStr);
-            }
+    	DatasetRights rights = new DatasetRights(datasetIds, rightStr);
+    	for (Long datasetId : datasetIds) {
+    		if (rights.isFound(datasetId) && !rights.hasRightOnDataset(datasetId)) {
+    			return false;
+    		}
     	}
-    	return hasRight;
+    	return true;
     }
 
     /**
@@ -429,7 +428,7 @@ public class DatasetSecurityService {
 		    Long studyId = dataset.getDatasetAcquisition().getExamination().getStudyId();
 		    Set<Long> studies = new HashSet<>();
 		    studies.add(studyId);
-		    List<Long> studiesRelated = studyRepository.findByDatasetId(studyId).stream().map(BigInteger::longValue).collect(Collectors.toList());
+		    List<Long> studiesRelated = studyRepository.findByDatasetId(dataset.getId()).stream().map(BigInteger::longValue).collect(Collectors.toList());
 		    if (studiesRelated != null && !studiesRelated.isEmpty()) {
 		        studies.addAll(studiesRelated);
 		    }
@@ -554,18 +553,12 @@ public class DatasetSecurityService {
      * @return true or false
      */
     public boolean checkDatasetPage(Iterable<Dataset> page, String rightStr) {
-    	Set<Long> studyIds = new HashSet<>();
-    	page.forEach((Dataset dataset) -> studyIds.add(dataset.getStudyId()));
-    	Set<Long> checkedIds = commService.hasRightOnStudies(studyIds, rightStr); //
-    	
-    	// Also check for centers    	
-    	for (Dataset dataset : page) {
-    		if (!checkedIds.contains(dataset.getStudyId())) {
+    	List<Long> datasetIds = new ArrayList<>();
+    	page.forEach((Dataset dataset) -> datasetIds.add(dataset.getId()));
+    	DatasetRights rights = new DatasetRights(datasetIds, rightStr);
+    	for (Long datasetId : datasetIds) {
+    		if (!rights.hasRightOnDataset(datasetId)) {
     			return false;
-    		} else {
-    			if (!this.hasRightOnStudyCenter(dataset.getDatasetAcquisition().getExamination().getCenterId(), dataset.getDatasetAcquisition().getExamination().getStudyId(), rightStr)) {
-    				return false;
-    			}
     		}
     	}
     	return true;
@@ -604,27 +597,11 @@ public class DatasetSecurityService {
      * @return true
      */
     public boolean filterDatasetList(List<Dataset> list, String rightStr) {
-    	Set<Dataset> toRemove = new HashSet<>();
-    	list.forEach((Dataset ds) -> {
-            if (ds.getDatasetAcquisition() == null 
-                    || ds.getDatasetAcquisition().getExamination() == null
-                    || ds.getDatasetAcquisition().getExamination().getStudyId() == null) {
-                
-                if (ds.getDatasetProcessing() != null && ds.getDatasetProcessing().getInputDatasets() != null) {
-                    for (Dataset inputDs : ds.getDatasetProcessing().getInputDatasets()) {
-                        if (!hasRightOnTrustedDataset(inputDs, rightStr)) {
-                        	toRemove.add(ds);
-                        }
-                    }
-                } else {
-                    throw new IllegalStateException("Cannot check dataset n°" + ds.getId() + " rights, this dataset has neither examination nor processing parent !");                
-                }
-            }
-            else if (!this.hasRightOnStudyCenter(ds.getDatasetAcquisition().getExamination().getCenterId(), ds.getDatasetAcquisition().getExamination().getStudyId(), rightStr)) {
-        		toRemove.add(ds);
-        	}
-    	});
-    	list.removeAll(toRemove);
+    	if (list == null || list.isEmpty()) {
+    		return true;
+    	}
+    	DatasetRights rights = new DatasetRights(list.stream().map(Dataset::getId).collect(Collectors.toSet()), rightStr);
+    	list.removeIf((Dataset ds) -> !rights.hasRightOnDataset(ds.getId()));
     	return true;
     }
     
@@ -948,4 +925,111 @@ public class DatasetSecurityService {
 		return hasRightOnExamination(id, rightStr);
     }
    
+
+    /**
+     * Rights of the connected user on a set of datasets, resolved at once: the studies and
+     * centers of the datasets are read with one query per level of processing inputs, and the
+     * rights on all their studies are checked with one call.
+     */
+    private class DatasetRights {
+
+    	private final Map<Long, DatasetStudyCenter> studyCenters = new HashMap<>();
+
+    	private final Set<Long> allowedStudyIds;
+
+    	/** Memoized results of hasRightOnTrustedDataset, by dataset id */
+    	private final Map<Long, Boolean> trustedRights = new HashMap<>();
+
+    	DatasetRights(Collection<Long> datasetIds, String rightStr) {
+    		Set<Long> resolved = new HashSet<>();
+    		Set<Long> toResolve = new HashSet<>(datasetIds);
+    		while (!toResolve.isEmpty()) {
+    			resolved.addAll(toResolve);
+    			Set<Long> inputIds = new HashSet<>();
+    			for (DatasetStudyCenter studyCenter : datasetRepository.findStudyCenters(toResolve)) {
+    				studyCenters.put(studyCenter.getDatasetId(), studyCenter);
+    				if (studyCenter.getStudyId() == null) {
+    					inputIds.addAll(studyCenter.getInputDatasetIds());
+    				}
+    			}
+    			inputIds.removeAll(resolved);
+    			toResolve = inputIds;
+    		}
+    		Set<Long> studyIds = new HashSet<>();
+    		for (DatasetStudyCenter studyCenter : studyCenters.values()) {
+    			if (studyCenter.getStudyId() != null) {
+    				studyIds.add(studyCenter.getStudyId());
+    				studyIds.addAll(studyCenter.getRelatedStudyIds());
+    			}
+    		}
+    		allowedStudyIds = studyIds.isEmpty() ? new HashSet<>() : commService.hasRightOnStudies(studyIds, rightStr);
+    	}
+
+    	boolean isFound(Long datasetId) {
+    		return studyCenters.containsKey(datasetId);
+    	}
+
+    	/**
+    	 * Same as hasRightOnStudyCenter for an acquired dataset, every input is required for a processed one.
+    	 */
+    	boolean hasRightOnDataset(Long datasetId) {
+    		DatasetStudyCenter studyCenter = studyCenters.get(datasetId);
+    		if (studyCenter == null) {
+    			return false;
+    		}
+    		if (studyCenter.getStudyId() != null) {
+    			return allowedStudyIds.contains(studyCenter.getStudyId())
+    					&& commService.hasRightOnCenter(studyCenter.getStudyId(), studyCenter.getCenterId());
+    		}
+    		checkParent(studyCenter);
+    		for (Long inputId : studyCenter.getInputDatasetIds()) {
+    			if (!hasRightOnTrustedDataset(inputId)) {
+    				return false;
+    			}
+    		}
+    		return true;
+    	}
+
+    	/**
+    	 * Same as DatasetSecurityService.hasRightOnTrustedDataset: the related studies are accepted
+    	 * for an acquired dataset, one input is enough for a processed one.
+    	 */
+    	boolean hasRightOnTrustedDataset(Long datasetId) {
+    		Boolean hasRight = trustedRights.get(datasetId);
+    		if (hasRight == null) {
+    			// false while computed, for the inputs processed from their own outputs
+    			trustedRights.put(datasetId, false);
+    			hasRight = computeRightOnTrustedDataset(datasetId);
+    			trustedRights.put(datasetId, hasRight);
+    		}
+    		return hasRight;
+    	}
+
+    	private boolean computeRightOnTrustedDataset(Long datasetId) {
+    		DatasetStudyCenter studyCenter = studyCenters.get(datasetId);
+    		if (studyCenter == null) {
+    			return false;
+    		}
+    		if (studyCenter.getStudyId() != null) {
+    			Set<Long> studies = new HashSet<>(studyCenter.getRelatedStudyIds());
+    			studies.add(studyCenter.getStudyId());
+    			return studies.stream().anyMatch(allowedStudyIds::contains)
+    					&& commService.hasRightOnCenter(studies, studyCenter.getCenterId());
+    		}
+    		checkParent(studyCenter);
+    		for (Long inputId : studyCenter.getInputDatasetIds()) {
+    			if (hasRightOnTrustedDataset(inputId)) {
+    				return true;
+    			}
+    		}
+    		return false;
+    	}
+
+    	private void checkParent(DatasetStudyCenter studyCenter) {
+    		if (studyCenter.getProcessingId() == null) {
+    			throw new IllegalStateException("Cannot check dataset n°" + studyCenter.getDatasetId() + " rights, this dataset has neither examination nor processing parent !");
+    		}
+    	}
+    }
+
 }
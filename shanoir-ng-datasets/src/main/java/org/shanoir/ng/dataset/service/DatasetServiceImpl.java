@@ -17,16 +17,20 @@ package org.shanoir.ng.dataset.service;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.math3.util.Pair;
 import org.shanoir.ng.dataset.modality.MrDataset;
 import org.shanoir.ng.dataset.model.Dataset;
 import org.shanoir.ng.dataset.model.DatasetExpression;
@@ -39,10 +43,10 @@ import org.shanoir.ng.shared.event.ShanoirEventService;
 import org.shanoir.ng.shared.event.ShanoirEventType;
 import org.shanoir.ng.shared.exception.EntityNotFoundException;
 import org.shanoir.ng.shared.exception.ShanoirException;
-import org.shanoir.ng.shared.paging.PageImpl;
 import org.shanoir.ng.shared.security.rights.StudyUserRight;
+import org.shanoir.ng.shared.service.SecurityService;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
 import org.shanoir.ng.solr.service.SolrService;
-import org.shanoir.ng.study.rights.StudyUser;
 import org.shanoir.ng.study.rights.StudyUserRightsRepository;
 import org.shanoir.ng.utils.KeycloakUtil;
 import org.shanoir.ng.utils.Utils;
@@ -51,7 +55,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
 import org.springframework.web.util.UriUtils;
 
 /**
@@ -75,6 +78,9 @@ public class DatasetServiceImpl implements DatasetService {
 	@Autowired
 	private ShanoirEventService shanoirEventService;
 
+	@Autowired
+	private SecurityService securityService;
+
 	@Autowired
 	private SolrService solrService;
 
@@ -155,7 +161,7 @@ public class DatasetServiceImpl implements DatasetService {
 		Dataset ds = repository.save(dataset);
 		// Do not index processed dataset for the moment
 		if (ds.getDatasetProcessing() == null) {
-			solrService.indexDataset(ds.getId());
+			solrService.registerChanges(SolrIndexChangeType.DATASET, Collections.singletonList(ds.getId()));
 		}
 		shanoirEventService.publishEvent(new ShanoirEvent(ShanoirEventType.CREATE_DATASET_EVENT, ds.getId().toString(), KeycloakUtil.getTokenUserId(null), "", ShanoirEvent.SUCCESS, ds.getStudyId()));
 		return ds;
@@ -169,6 +175,7 @@ public class DatasetServiceImpl implements DatasetService {
 		}
 		updateDatasetValues(datasetDb, dataset);
 		Dataset ds = repository.save(datasetDb);
+		solrService.registerChanges(SolrIndexChangeType.DATASET, Collections.singletonList(ds.getId()));
 		shanoirEventService.publishEvent(new ShanoirEvent(ShanoirEventType.UPDATE_DATASET_EVENT, ds.getId().toString(), KeycloakUtil.getTokenUserId(null), "", ShanoirEvent.SUCCESS, datasetDb.getStudyId()));
 		return ds;
 	}
@@ -212,40 +219,10 @@ public class DatasetServiceImpl implements DatasetService {
 		if (KeycloakUtil.getTokenRoles().contains("ROLE_ADMIN")) {
 			return repository.findAll(pageable);
 		} else {
-			Long userId = KeycloakUtil.getTokenUserId();
-			List<Long> studyIds = rightsRepository.findDistinctStudyIdByUserId(userId, StudyUserRight.CAN_SEE_ALL.getId());
-
-			// Check if user has restrictions.
-			boolean hasRestrictions = false;
-			List<StudyUser> studyUsers = Utils.toList(rightsRepository.findByUserId(userId));
-			Map<Long, List<Long>> studyUserCenters = new HashMap<>();
-			for (StudyUser studyUser : studyUsers) {
-				if (! CollectionUtils.isEmpty(studyUser.getCenterIds())) {
-					hasRestrictions = true;
-					studyUserCenters.put(studyUser.getStudyId(), studyUser.getCenterIds());
-				}
-			}
-			// If yes, get all examinations and filter by centers
-			if (hasRestrictions) {
-				List<Dataset> datasets = Utils.toList(repository.findByDatasetAcquisitionExaminationStudyIdIn(studyIds, pageable.getSort()));
-				
-				if (CollectionUtils.isEmpty(datasets)) {
-					return new PageImpl<>(datasets);
-				}
-				
-				datasets = datasets.stream().filter(ds -> 
-						studyUserCenters.get(ds.getStudyId()) != null &&
-						studyUserCenters.get(ds.getStudyId()).contains(ds.getDatasetAcquisition().getExamination().getCenterId()))
-						.collect(Collectors.toList());
-				int size = datasets.size();
-
-				datasets = datasets.subList(pageable.getPageSize() * pageable.getPageNumber(), Math.min(datasets.size(), pageable.getPageSize() * (pageable.getPageNumber() + 1)));
-				
-				Page<Dataset> page = new PageImpl<>(datasets, pageable, size);
-				return page;
-			} else {
-				return repository.findByDatasetAcquisitionExaminationStudyIdIn(studyIds, pageable);
-			}
+			List<Pair<Long, Long>> studyCenters = new ArrayList<>();
+			Set<Long> unrestrictedStudies = new HashSet<Long>();
+			securityService.getStudyCentersAndUnrestrictedStudies(studyCenters, unrestrictedStudies);
+			return repository.findPageByStudyCenterOrStudyIdIn(studyCenters, unrestrictedStudies, pageable);
 		}
 	}
 
@@ -20,6 +20,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.math3.util.Pair;
 import org.shanoir.ng.dataset.model.Dataset;
@@ -33,6 +34,7 @@ import org.shanoir.ng.shared.exception.EntityNotFoundException;
 import org.shanoir.ng.shared.exception.ShanoirException;
 import org.shanoir.ng.shared.security.rights.StudyUserRight;
 import org.shanoir.ng.shared.service.SecurityService;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
 import org.shanoir.ng.solr.service.SolrService;
 import org.shanoir.ng.study.rights.StudyUser;
 import org.shanoir.ng.study.rights.StudyUserRightsRepository;
@@ -115,6 +117,9 @@ public class DatasetAcquisitionServiceImpl implements DatasetAcquisitionService
 	@Override
 	public DatasetAcquisition create(DatasetAcquisition entity) {
 		DatasetAcquisition savedEntity = repository.save(entity);
+		if (savedEntity.getDatasets() != null) {
+			solrService.registerChanges(SolrIndexChangeType.DATASET, savedEntity.getDatasets().stream().map(Dataset::getId).collect(Collectors.toList()));
+		}
 		shanoirEventService.publishEvent(new ShanoirEvent(ShanoirEventType.CREATE_DATASET_ACQUISITION_EVENT, entity.getId().toString(), KeycloakUtil.getTokenUserId(null), "", ShanoirEvent.SUCCESS));
 
 		return savedEntity;
@@ -6,14 +6,17 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.shanoir.ng.shared.exception.ErrorModel;
 import org.shanoir.ng.shared.exception.RestServiceException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -57,7 +60,7 @@ public interface DICOMWebApi {
 			@ApiResponse(code = 500, message = "unexpected error", response = ErrorModel.class) })
 	@GetMapping(value = "/studies", produces = { "application/dicom+json" })
 	@PreAuthorize("hasAnyRole('ADMIN', 'EXPERT', 'USER')")
-	ResponseEntity<String> findStudies(@RequestParam Map<String, String> allParams) throws RestServiceException, JsonMappingException, JsonProcessingException;
+	ResponseEntity<StreamingResponseBody> findStudies(@RequestParam Map<String, String> allParams) throws RestServiceException, JsonMappingException, JsonProcessingException;
 
 	@ApiOperation(value = "", notes = "Returns all DICOM series/acquisitions", response = String.class, responseContainer = "List", tags = {})
 	@ApiResponses(value = {
@@ -79,7 +82,7 @@ public interface DICOMWebApi {
 			@ApiResponse(code = 500, message = "unexpected error", response = ErrorModel.class) })
 	@GetMapping(value = "/studies/{examinationUID}/series", produces = { "application/dicom+json" })
 	@PreAuthorize("hasRole('ADMIN') or (hasAnyRole('EXPERT', 'USER') and @datasetSecurityService.hasRightOnExamination(#examinationUID, 'CAN_SEE_ALL'))")
-	ResponseEntity<String> findSeriesOfStudy(
+	ResponseEntity<StreamingResponseBody> findSeriesOfStudy(
 			@ApiParam(value = "examinationUID", required = true) @PathVariable("examinationUID") String examinationUID
 		) throws RestServiceException, JsonMappingException, JsonProcessingException;
 	
@@ -92,7 +95,7 @@ public interface DICOMWebApi {
 			@ApiResponse(code = 500, message = "unexpected error", response = ErrorModel.class) })
 	@GetMapping(value = "/studies/{examinationUID}/series/{serieInstanceUID}/metadata", produces = { "application/dicom+json" })
 	@PreAuthorize("hasRole('ADMIN') or (hasAnyRole('EXPERT', 'USER') and @datasetSecurityService.hasRightOnExamination(#examinationUID, 'CAN_SEE_ALL'))")
-	ResponseEntity<String> findSerieMetadataOfStudy(
+	ResponseEntity<StreamingResponseBody> findSerieMetadataOfStudy(
 			@ApiParam(value = "examinationUID", required = true) @PathVariable("examinationUID") String examinationUID,
 			@ApiParam(value = "serieInstanceUID", required = true) @PathVariable("serieInstanceUID") String serieInstanceUID
 		) throws RestServiceException, JsonMappingException, JsonProcessingException;
@@ -120,10 +123,11 @@ public interface DICOMWebApi {
 			@ApiResponse(code = 500, message = "unexpected error", response = ErrorModel.class) })
 	@GetMapping(value = "/studies/{examinationUID}/series/{serieInstanceUID}/instances/{sopInstanceUID}")
 	@PreAuthorize("hasRole('ADMIN') or (hasAnyRole('EXPERT', 'USER') and @datasetSecurityService.hasRightOnExamination(#examinationUID, 'CAN_SEE_ALL'))")
-	ResponseEntity findInstance(
+	ResponseEntity<StreamingResponseBody> findInstance(
 			@ApiParam(value = "examinationUID", required = true) @PathVariable("examinationUID") String examinationUID,
 			@ApiParam(value = "serieInstanceUID", required = true) @PathVariable("serieInstanceUID") String serieInstanceUID,
-			@ApiParam(value = "sopInstanceUID", required = true) @PathVariable("sopInstanceUID") String sopInstanceUID
+			@ApiParam(value = "sopInstanceUID", required = true) @PathVariable("sopInstanceUID") String sopInstanceUID,
+			@ApiParam(value = "range of bytes") @RequestHeader(value = HttpHeaders.RANGE, required = false) String range
 		) throws RestServiceException;
 	
 	@ApiOperation(value = "", notes = "Returns a frame of a DICOM instance/dataset, of a study and serie", response = String.class, responseContainer = "List", tags = {})
@@ -135,11 +139,12 @@ public interface DICOMWebApi {
 			@ApiResponse(code = 500, message = "unexpected error", response = ErrorModel.class) })
 	@GetMapping(value = "/studies/{examinationUID}/series/{serieInstanceUID}/instances/{sopInstanceUID}/frames/{frame}")
 	@PreAuthorize("hasRole('ADMIN') or (hasAnyRole('EXPERT', 'USER') and @datasetSecurityService.hasRightOnExamination(#examinationUID, 'CAN_SEE_ALL'))")
-	ResponseEntity findFrameOfStudyOfSerieOfInstance(
+	ResponseEntity<StreamingResponseBody> findFrameOfStudyOfSerieOfInstance(
 			@ApiParam(value = "examinationUID", required = true) @PathVariable("examinationUID") String examinationUID,
 			@ApiParam(value = "serieInstanceUID", required = true) @PathVariable("serieInstanceUID") String serieInstanceUID,
 			@ApiParam(value = "sopInstanceUID", required = true) @PathVariable("sopInstanceUID") String sopInstanceUID,
-			@ApiParam(value = "frame", required = true) @PathVariable("frame") String frame
+			@ApiParam(value = "frame", required = true) @PathVariable("frame") String frame,
+			@ApiParam(value = "range of bytes") @RequestHeader(value = HttpHeaders.RANGE, required = false) String range
 		) throws RestServiceException;
 	
 	@ApiOperation(value = "", notes = "Returns all DICOM instances/datasets", response = String.class, responseContainer = "List", tags = {})
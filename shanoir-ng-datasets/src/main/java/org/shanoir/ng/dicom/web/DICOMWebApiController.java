@@ -1,7 +1,9 @@
 package org.shanoir.ng.dicom.web;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -17,9 +19,12 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -29,6 +34,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class DICOMWebApiController implements DICOMWebApi {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(DICOMWebApiController.class);
+
+	private static final MediaType DICOM_JSON = MediaType.valueOf("application/dicom+json");
 	
 	@Autowired
 	private ExaminationService examinationService;
@@ -48,7 +55,7 @@ public class DICOMWebApiController implements DICOMWebApi {
 	}
 
 	@Override
-	public ResponseEntity<String> findStudies(Map<String, String> allParams) throws RestServiceException, JsonMappingException, JsonProcessingException {
+	public ResponseEntity<StreamingResponseBody> findStudies(Map<String, String> allParams) throws RestServiceException, JsonMappingException, JsonProcessingException {
 		int offset = Integer.valueOf(allParams.get("offset"));
 		int limit = Integer.valueOf(allParams.get("limit"));
 		Pageable pageable = PageRequest.of(offset, limit);
@@ -58,27 +65,34 @@ public class DICOMWebApiController implements DICOMWebApi {
 		if (examinations.getContent().isEmpty()) {
 			return new ResponseEntity<>(HttpStatus.NO_CONTENT);
 		}
-		StringBuffer studies = new StringBuffer();
-		studies.append("[");
-		Iterator<Examination> iterator = examinations.iterator();
-		while (iterator.hasNext()) {
-			Examination examination = iterator.next();
+		List<String> examinationUIDs = new ArrayList<>();
+		List<String> studyInstanceUIDs = new ArrayList<>();
+		for (Examination examination : examinations) {
 			String examinationUID = StudyInstanceUIDHandler.PREFIX + examination.getId();
 			String studyInstanceUID = studyInstanceUIDHandler.findStudyInstanceUIDFromCacheOrDatabase(examinationUID);
 			if (studyInstanceUID != null) {
-				String studyJson = dicomWebService.findStudy(studyInstanceUID);
-				JsonNode root = mapper.readTree(studyJson);
-				studyInstanceUIDHandler.replaceStudyInstanceUIDsWithExaminationUIDs(root, examinationUID, true);
-				studyJson = mapper.writeValueAsString(root);
-				studyJson = studyJson.substring(1, studyJson.length() - 1);
-				studies.append(studyJson);
-				if (iterator.hasNext()) {
-					studies.append(",");
-				}
+				examinationUIDs.add(examinationUID);
+				studyInstanceUIDs.add(studyInstanceUID);
 			}
 		}
-		studies.append("]");
-		return new ResponseEntity<String>(studies.toString(), HttpStatus.OK);
+		// all the studies of the page are queried at once, and written in the page order as they arrive
+		Map<String, CompletableFuture<JsonNode>> studies = dicomWebService.findStudies(studyInstanceUIDs);
+		StreamingResponseBody body = outputStream -> {
+			try (JsonGenerator generator = mapper.getFactory().createGenerator(outputStream)) {
+				generator.writeStartArray();
+				for (int i = 0; i < examinationUIDs.size(); i++) {
+					JsonNode study = studies.get(studyInstanceUIDs.get(i)).join();
+					if (study != null) {
+						// copy, as examinations can share the same study in the PACS
+						JsonNode root = study.deepCopy();
+						studyInstanceUIDHandler.replaceStudyInstanceUIDsWithExaminationUIDs(root, examinationUIDs.get(i), true);
+						mapper.writeTree(generator, root);
+					}
+				}
+				generator.writeEndArray();
+			}
+		};
+		return ResponseEntity.ok().contentType(DICOM_JSON).body(body);
 	}
 
 	@Override
@@ -87,40 +101,36 @@ public class DICOMWebApiController implements DICOMWebApi {
 	}
 
 	@Override
-	public ResponseEntity<String> findSeriesOfStudy(String examinationUID)
+	public ResponseEntity<StreamingResponseBody> findSeriesOfStudy(String examinationUID)
 			throws RestServiceException, JsonMappingException, JsonProcessingException {
 		String studyInstanceUID = studyInstanceUIDHandler.findStudyInstanceUIDFromCacheOrDatabase(examinationUID);
 		if (studyInstanceUID != null) {
-			String response = dicomWebService.findSeriesOfStudy(studyInstanceUID);
-			JsonNode root = mapper.readTree(response);
-			studyInstanceUIDHandler.replaceStudyInstanceUIDsWithExaminationUIDs(root, examinationUID, false);
-			return new ResponseEntity<String>(mapper.writeValueAsString(root), HttpStatus.OK);
+			return dicomWebService.findSeriesOfStudy(studyInstanceUID, (content, outputStream) ->
+					studyInstanceUIDHandler.replaceStudyInstanceUIDsWithExaminationUIDs(content, outputStream, examinationUID, false));
 		} else {
 			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		}
 	}
 	
 	@Override
-	public ResponseEntity<String> findSerieMetadataOfStudy(String examinationUID, String serieId)
+	public ResponseEntity<StreamingResponseBody> findSerieMetadataOfStudy(String examinationUID, String serieId)
 			throws RestServiceException, JsonMappingException, JsonProcessingException {
 		String studyInstanceUID = studyInstanceUIDHandler.findStudyInstanceUIDFromCacheOrDatabase(examinationUID);
 		if (studyInstanceUID != null && serieId != null) {
-			String response = dicomWebService.findSerieMetadataOfStudy(studyInstanceUID, serieId);
-			JsonNode root = mapper.readTree(response);
-			studyInstanceUIDHandler.replaceStudyInstanceUIDsWithExaminationUIDs(root, examinationUID, false);
-			return new ResponseEntity<String>(mapper.writeValueAsString(root), HttpStatus.OK);
+			return dicomWebService.findSerieMetadataOfStudy(studyInstanceUID, serieId, (content, outputStream) ->
+					studyInstanceUIDHandler.replaceStudyInstanceUIDsWithExaminationUIDs(content, outputStream, examinationUID, false));
 		} else {
 			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		}
 	}
 	
 	@Override
-	public ResponseEntity findFrameOfStudyOfSerieOfInstance(String examinationUID, String serieInstanceUID,
-			String sopInstanceUID, String frame) throws RestServiceException {
+	public ResponseEntity<StreamingResponseBody> findFrameOfStudyOfSerieOfInstance(String examinationUID, String serieInstanceUID,
+			String sopInstanceUID, String frame, String range) throws RestServiceException {
 		String studyInstanceUID = studyInstanceUIDHandler.findStudyInstanceUIDFromCacheOrDatabase(examinationUID);
 		if (!StringUtils.isEmpty(studyInstanceUID) && !StringUtils.isEmpty(serieInstanceUID)
 				&& !StringUtils.isEmpty(sopInstanceUID) && !StringUtils.isEmpty(frame))  {
-			return dicomWebService.findFrameOfStudyOfSerieOfInstance(studyInstanceUID, serieInstanceUID, sopInstanceUID, frame);
+			return dicomWebService.findFrameOfStudyOfSerieOfInstance(studyInstanceUID, serieInstanceUID, sopInstanceUID, frame, range);
 		} else {
 			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		}
@@ -133,12 +143,12 @@ public class DICOMWebApiController implements DICOMWebApi {
 	}
 	
 	@Override
-	public ResponseEntity findInstance(String examinationUID, String serieInstanceUID, String sopInstanceUID)
-			throws RestServiceException {
+	public ResponseEntity<StreamingResponseBody> findInstance(String examinationUID, String serieInstanceUID, String sopInstanceUID,
+			String range) throws RestServiceException {
 		String studyInstanceUID = studyInstanceUIDHandler.findStudyInstanceUIDFromCacheOrDatabase(examinationUID);
 		if (!StringUtils.isEmpty(studyInstanceUID) && !StringUtils.isEmpty(serieInstanceUID)
 				&& !StringUtils.isEmpty(sopInstanceUID))  {
-			return dicomWebService.findInstance(studyInstanceUID, serieInstanceUID, sopInstanceUID);
+			return dicomWebService.findInstance(studyInstanceUID, serieInstanceUID, sopInstanceUID, range);
 		} else {
 			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		}
@@ -0,0 +1,56 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.dicom.web;
+
+import java.util.concurrent.Callable;
+
+import org.shanoir.ng.dicom.web.service.DICOMWebService;
+import org.shanoir.ng.dicom.web.service.DICOMWebService.PacsStream;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+/**
+ * Closes the PACS response proxied by a DICOMWeb request when its async processing
+ * times out, fails or completes: a streaming thread blocked on the PACS is released,
+ * and a response never streamed does not keep its connection to the PACS.
+ */
+public class PacsStreamInterceptor implements CallableProcessingInterceptor {
+
+	@Override
+	public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) throws Exception {
+		abort(request);
+		return RESULT_NONE;
+	}
+
+	@Override
+	public <T> Object handleError(NativeWebRequest request, Callable<T> task, Throwable t) throws Exception {
+		abort(request);
+		return RESULT_NONE;
+	}
+
+	@Override
+	public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) throws Exception {
+		abort(request);
+	}
+
+	private void abort(NativeWebRequest request) {
+		Object pacsStream = request.getAttribute(DICOMWebService.PACS_STREAM_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+		if (pacsStream instanceof PacsStream) {
+			((PacsStream) pacsStream).abort();
+		}
+	}
+
+}
@@ -1,8 +1,15 @@
 package org.shanoir.ng.dicom.web;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,13 +25,24 @@ import org.shanoir.ng.datasetacquisition.model.mr.MrDatasetAcquisition;
 import org.shanoir.ng.datasetacquisition.model.pet.PetDatasetAcquisition;
 import org.shanoir.ng.datasetfile.DatasetFile;
 import org.shanoir.ng.examination.model.Examination;
+import org.shanoir.ng.examination.repository.ExaminationRepository;
 import org.shanoir.ng.examination.service.ExaminationService;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
@@ -38,9 +56,12 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
  * Furthermore the StudyInstanceUIDHandler replaces the StudyInstanceUIDs + retrieveURLs
  * send from the backup PACS in the DICOMWeb Json, to match the examinationId.
  * 
- * StudyInstanceUIDHandler contains a internal cache, that is cleaned at 6:00h every
- * morning, to accelerate the resolution between examinationUID and StudyInstanceUID;
- * what avoids database look ups for every request.
+ * StudyInstanceUIDHandler contains a internal cache, to accelerate the resolution
+ * between examinationUID and StudyInstanceUID; what avoids database look ups for
+ * every request. The cache is bounded (least recently used examinations evicted),
+ * its entries expire after a time to live, it is loaded in bulk at startup and
+ * refreshed at 6:00h every morning, and deleted examinations are removed from it
+ * on their delete events.
  * 
  * @author mkain
  *
@@ -50,9 +71,9 @@ public class StudyInstanceUIDHandler {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(StudyInstanceUIDHandler.class);
 
-	private static final String WADO_URI_STUDY_UID_SERIES_UID = "studyUID=(.*?)\\&seriesUID";
+	private static final Pattern WADO_URI_STUDY_UID_SERIES_UID = Pattern.compile("studyUID=(.*?)\\&seriesUID");
 	
-	private static final String WADO_RS_STUDY_UID_SERIES_UID = "/studies/(.*?)/series/";
+	private static final Pattern WADO_RS_STUDY_UID_SERIES_UID = Pattern.compile("/studies/(.*?)/series/");
 
 	private static final String DICOM_TAG_STUDY_INSTANCE_UID = "0020000D";
 
@@ -60,9 +81,9 @@ public class StudyInstanceUIDHandler {
 
 	private static final String VALUE = "Value";
 
-	private static final String RETRIEVE_URL_SERIE_LEVEL = "/studies/(.*)/series/";
+	private static final Pattern RETRIEVE_URL_SERIE_LEVEL = Pattern.compile("/studies/(.*)/series/");
 
-	private static final String RETRIEVE_URL_STUDY_LEVEL = "/studies/(.*)";
+	private static final Pattern RETRIEVE_URL_STUDY_LEVEL = Pattern.compile("/studies/(.*)");
 
 	private static final String STUDIES = "/studies/";
 
@@ -70,23 +91,156 @@ public class StudyInstanceUIDHandler {
 	
 	public static final String PREFIX = UIDGeneration.ROOT + ".";
 
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	/** Number of examinations per query when the cache is loaded in bulk */
+	private static final int LOAD_BATCH_SIZE = 500;
+
 	@Autowired
 	private ExaminationService examinationService;
-	
-	private ConcurrentHashMap<String, String> examinationUIDToStudyInstanceUIDCache;
+
+	@Autowired
+	private ExaminationRepository examinationRepository;
+
+	@Autowired
+	private ShanoirMetrics shanoirMetrics;
+
+	/** Maximum number of examinations in the cache, the least recently used are evicted */
+	@Value("${dcm4chee-arc.dicom.web.cache.max.size:10000}")
+	private int cacheMaxSize;
+
+	/** Time to live of a StudyInstanceUID in the cache, after its load */
+	@Value("${dcm4chee-arc.dicom.web.cache.ttl.minutes:1440}")
+	private long cacheTtlMinutes;
+
+	/** Number of the latest examinations loaded in the cache at startup */
+	@Value("${dcm4chee-arc.dicom.web.cache.warm.size:1000}")
+	private int cacheWarmSize;
+
+	/** In access order, synchronized on itself */
+	private LinkedHashMap<String, CacheEntry> examinationUIDToStudyInstanceUIDCache;
 	
 	@PostConstruct
 	public void init() {
-		examinationUIDToStudyInstanceUIDCache = new ConcurrentHashMap<String, String>(1000);
-		LOG.info("DICOMWeb cache created: examinationUIDToStudyInstanceUIDCache");
+		examinationUIDToStudyInstanceUIDCache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > cacheMaxSize;
+			}
+		};
+		shanoirMetrics.gauge(ShanoirMetrics.DICOMWEB_CACHE_SIZE, examinationUIDToStudyInstanceUIDCache, Map::size);
+		LOG.info("DICOMWeb cache created: examinationUIDToStudyInstanceUIDCache, max size: " + cacheMaxSize);
 	}
-	
+
+	/**
+	 * Loads the StudyInstanceUIDs of the latest examinations, so the first viewer
+	 * sessions after a restart do not pay a database load for each study.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void warmExaminationUIDToStudyInstanceUIDCache() {
+		if (cacheWarmSize <= 0) {
+			return;
+		}
+		try {
+			List<Long> examinationIds = examinationRepository.findLatestIds(PageRequest.of(0, cacheWarmSize));
+			int loaded = loadStudyInstanceUIDs(examinationIds);
+			LOG.info("DICOMWeb cache warmed: examinationUIDToStudyInstanceUIDCache, " + loaded + " examinations");
+		} catch (Exception e) {
+			LOG.error("DICOMWeb cache could not be warmed: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reloads in bulk the examinations accessed during the time to live, before the
+	 * first viewer sessions of the day, and removes the others. The deleted examinations
+	 * are removed from the cache when they are deleted, see removeExamination().
+	 */
 	@Scheduled(cron = "0 0 6 * * *", zone="Europe/Paris")
-	public void clearExaminationIdToStudyInstanceUIDCache() {
-		examinationUIDToStudyInstanceUIDCache.clear();
-		LOG.info("DICOMWeb cache cleared: examinationUIDToStudyInstanceUIDCache");
+	public void refreshExaminationUIDToStudyInstanceUIDCache() {
+		long accessedAfter = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(cacheTtlMinutes);
+		List<Long> examinationIds = new ArrayList<>();
+		synchronized (examinationUIDToStudyInstanceUIDCache) {
+			Iterator<Map.Entry<String, CacheEntry>> iterator = examinationUIDToStudyInstanceUIDCache.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, CacheEntry> entry = iterator.next();
+				if (entry.getValue().lastAccess < accessedAfter) {
+					iterator.remove();
+				} else {
+					examinationIds.add(extractExaminationId(entry.getKey()));
+				}
+			}
+		}
+		int loaded = loadStudyInstanceUIDs(examinationIds);
+		LOG.info("DICOMWeb cache refreshed: examinationUIDToStudyInstanceUIDCache, " + loaded + " examinations");
 	}
-	
+
+	/**
+	 * Removes a deleted examination from the cache.
+	 * 
+	 * @param examinationId
+	 */
+	public void removeExamination(Long examinationId) {
+		String examinationUID = PREFIX + examinationId;
+		CacheEntry removed;
+		synchronized (examinationUIDToStudyInstanceUIDCache) {
+			removed = examinationUIDToStudyInstanceUIDCache.remove(examinationUID);
+		}
+		if (removed != null) {
+			LOG.info("DICOMWeb cache removing: " + examinationUID + ", " + removed.studyInstanceUID);
+		}
+	}
+
+	/**
+	 * Loads the StudyInstanceUIDs of examinations in the cache, with one query per batch
+	 * of examinations, keeping the order of the list for the least recently used ones.
+	 * 
+	 * @param examinationIds
+	 * @return the number of examinations loaded
+	 */
+	private int loadStudyInstanceUIDs(List<Long> examinationIds) {
+		Map<Long, String> studyInstanceUIDs = new HashMap<>();
+		for (int i = 0; i < examinationIds.size(); i += LOAD_BATCH_SIZE) {
+			List<Long> batch = examinationIds.subList(i, Math.min(examinationIds.size(), i + LOAD_BATCH_SIZE));
+			for (Object[] examinationPath : examinationRepository.findPacsPathsByExaminationIdIn(batch, DatasetExpressionFormat.DICOM.getId())) {
+				Long examinationId = (Long) examinationPath[0];
+				if (!studyInstanceUIDs.containsKey(examinationId)) {
+					String studyInstanceUID = findStudyInstanceUID((String) examinationPath[1]);
+					if (studyInstanceUID != null) {
+						studyInstanceUIDs.put(examinationId, studyInstanceUID);
+					}
+				}
+			}
+		}
+		long now = System.currentTimeMillis();
+		synchronized (examinationUIDToStudyInstanceUIDCache) {
+			for (Long examinationId : examinationIds) {
+				String studyInstanceUID = studyInstanceUIDs.get(examinationId);
+				if (studyInstanceUID != null) {
+					examinationUIDToStudyInstanceUIDCache.put(PREFIX + examinationId, new CacheEntry(studyInstanceUID, now));
+				}
+			}
+		}
+		return studyInstanceUIDs.size();
+	}
+
+	private String getFromCache(String examinationUID) {
+		long now = System.currentTimeMillis();
+		synchronized (examinationUIDToStudyInstanceUIDCache) {
+			CacheEntry entry = examinationUIDToStudyInstanceUIDCache.get(examinationUID);
+			if (entry == null) {
+				return null;
+			}
+			if (now - entry.loadTime > TimeUnit.MINUTES.toMillis(cacheTtlMinutes)) {
+				examinationUIDToStudyInstanceUIDCache.remove(examinationUID);
+				return null;
+			}
+			entry.lastAccess = now;
+			return entry.studyInstanceUID;
+		}
+	}
+
 	/**
 	 * This method replaces StudyInstanceUIDs returned from the PACS with IDs
 	 * of examinations in Shanoir, in the Json returned.
@@ -113,15 +267,9 @@ public class StudyInstanceUIDHandler {
 				for (int i = 0; i < retrieveURLArray.size(); i++) {
 					JsonNode arrayElement = retrieveURLArray.get(i);
 					String retrieveURL = arrayElement.asText();
-					if (studyLevel) { // study level
-						retrieveURL = retrieveURL.replaceFirst(RETRIEVE_URL_STUDY_LEVEL, STUDIES + examinationUID);
-						retrieveURLArray.remove(i);
-						retrieveURLArray.insert(i, retrieveURL);
-					} else { // serie level
-						retrieveURL = retrieveURL.replaceFirst(RETRIEVE_URL_SERIE_LEVEL, STUDIES + examinationUID + SERIES);
-						retrieveURLArray.remove(i);
-						retrieveURLArray.insert(i, retrieveURL);
-					}
+					retrieveURL = replaceRetrieveURL(retrieveURL, examinationUID, studyLevel);
+					retrieveURLArray.remove(i);
+					retrieveURLArray.insert(i, retrieveURL);
 				}				
 			}
 		} else if (root.isArray()) {
@@ -133,6 +281,69 @@ public class StudyInstanceUIDHandler {
 		}
 	}
 
+	/**
+	 * This method does the same replacements as above, while the Json is read from the
+	 * PACS response and written to the client, token by token, without building a tree:
+	 * the memory used does not depend on the size of the response, e.g. of the metadata
+	 * of a serie. The streams are not closed.
+	 * 
+	 * @param in the Json returned by the PACS
+	 * @param out
+	 * @param examinationUID
+	 * @param studyLevel
+	 * @throws IOException
+	 */
+	public void replaceStudyInstanceUIDsWithExaminationUIDs(InputStream in, OutputStream out, String examinationUID, boolean studyLevel) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(in);
+				JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+			parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				String tag = token == JsonToken.VALUE_STRING ? findTagOfValue(parser.getParsingContext()) : null;
+				if (DICOM_TAG_STUDY_INSTANCE_UID.equals(tag)) {
+					generator.writeString(examinationUID);
+				} else if (DICOM_TAG_RETRIEVE_URL.equals(tag)) {
+					generator.writeString(replaceRetrieveURL(parser.getText(), examinationUID, studyLevel));
+				} else {
+					generator.copyCurrentEvent(parser);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the tag of the attribute, when the current value is in its "Value" array,
+	 * and the attribute is in a dataset at the top level of the Json, as above.
+	 */
+	private String findTagOfValue(JsonStreamContext context) {
+		if (!context.inArray()) {
+			return null;
+		}
+		JsonStreamContext attribute = context.getParent();
+		if (!attribute.inObject() || !VALUE.equals(attribute.getCurrentName())) {
+			return null;
+		}
+		JsonStreamContext dataset = attribute.getParent();
+		if (!dataset.inObject()) {
+			return null;
+		}
+		for (JsonStreamContext parent = dataset.getParent(); !parent.inRoot(); parent = parent.getParent()) {
+			if (!parent.inArray()) {
+				return null;
+			}
+		}
+		return dataset.getCurrentName();
+	}
+
+	private String replaceRetrieveURL(String retrieveURL, String examinationUID, boolean studyLevel) {
+		if (studyLevel) { // study level
+			return RETRIEVE_URL_STUDY_LEVEL.matcher(retrieveURL).replaceFirst(Matcher.quoteReplacement(STUDIES + examinationUID));
+		} else { // serie level
+			return RETRIEVE_URL_SERIE_LEVEL.matcher(retrieveURL).replaceFirst(Matcher.quoteReplacement(STUDIES + examinationUID + SERIES));
+		}
+	}
+
 	/**
 	 * This method returns the corresponding StudyInstanceUID, that is generated during the import in Shanoir
 	 * with the pseudonymization module and present in the PACS, either from a local cache to accelerate the
@@ -142,16 +353,19 @@ public class StudyInstanceUIDHandler {
 	 * @return
 	 */
 	public String findStudyInstanceUIDFromCacheOrDatabase(String examinationUID) {
-		String studyInstanceUID = examinationUIDToStudyInstanceUIDCache.get(examinationUID);
+		String studyInstanceUID = getFromCache(examinationUID);
+		shanoirMetrics.increment(ShanoirMetrics.DICOMWEB_CACHE, 1, ShanoirMetrics.TAG_RESULT,
+				studyInstanceUID != null ? ShanoirMetrics.HIT : ShanoirMetrics.MISS);
 		if (studyInstanceUID == null) {
 			Long examinationId = extractExaminationId(examinationUID);
 			Examination examination = examinationService.findById(examinationId);
 			if (examination != null) {
 				studyInstanceUID = findStudyInstanceUID(examination);
 				if (studyInstanceUID != null) {
-					examinationUIDToStudyInstanceUIDCache.put(examinationUID, studyInstanceUID);
+					synchronized (examinationUIDToStudyInstanceUIDCache) {
+						examinationUIDToStudyInstanceUIDCache.put(examinationUID, new CacheEntry(studyInstanceUID, System.currentTimeMillis()));
+					}
 					LOG.info("DICOMWeb cache adding: " + examinationUID + ", " + studyInstanceUID);
-					LOG.info("DICOMWeb cache, size: " + examinationUIDToStudyInstanceUIDCache.size());
 				}
 			}
 		}
@@ -205,13 +419,11 @@ public class StudyInstanceUIDHandler {
 	 * @param path
 	 */
 	private String findStudyInstanceUID(String path) {
-		Pattern p = Pattern.compile(WADO_URI_STUDY_UID_SERIES_UID);
-		Matcher m = p.matcher(path);
+		Matcher m = WADO_URI_STUDY_UID_SERIES_UID.matcher(path);
 		while (m.find()) {
 			return m.group(1);
 		}
-		p = Pattern.compile(WADO_RS_STUDY_UID_SERIES_UID);
-		m = p.matcher(path);
+		m = WADO_RS_STUDY_UID_SERIES_UID.matcher(path);
 		while (m.find()) {
 			return m.group(1);
 		}
@@ -223,5 +435,21 @@ public class StudyInstanceUIDHandler {
 		Long id = Long.parseLong(examinationUIDWithoutPrefix);
 		return id;
 	}
-	
+
+	private static class CacheEntry {
+
+		private final String studyInstanceUID;
+
+		private final long loadTime;
+
+		private long lastAccess;
+
+		CacheEntry(String studyInstanceUID, long loadTime) {
+			this.studyInstanceUID = studyInstanceUID;
+			this.loadTime = loadTime;
+			this.lastAccess = loadTime;
+		}
+
+	}
+
 }
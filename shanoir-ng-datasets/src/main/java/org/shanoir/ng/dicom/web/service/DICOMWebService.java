@@ -1,19 +1,33 @@
 package org.shanoir.ng.dicom.web.service;
 
-import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.hc.client5.http.classic.methods.HttpDelete;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.entity.mime.ContentBody;
+import org.apache.hc.client5.http.entity.mime.FileBody;
 import org.apache.hc.client5.http.entity.mime.InputStreamBody;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 import org.apache.hc.client5.http.entity.mime.MultipartPart;
@@ -23,18 +37,28 @@ import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.shanoir.ng.shared.exception.ShanoirException;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.shanoir.ng.utils.TimedExecChainHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * This class handles all calls to the shanoir backup pacs using DICOMWeb.
@@ -51,6 +75,9 @@ public class DICOMWebService {
 
 	private static final Logger LOG = LoggerFactory.getLogger(DICOMWebService.class);
 
+	/** Request attribute of the PacsStream of a proxied request, closed by the PacsStreamInterceptor */
+	public static final String PACS_STREAM_ATTRIBUTE = DICOMWebService.class.getName() + ".PACS_STREAM";
+
 	private static final String CONTENT_TYPE_MULTIPART = "multipart/related";
 	
 	private static final String RELATED = "related";
@@ -65,6 +92,24 @@ public class DICOMWebService {
 
 	private static final String REJECT_SUFFIX = "/reject/113001%5EDCM";
 
+	private static final long STOW_RETRY_DELAY_MS = 1000;
+
+	private static final EntityWriter COPY = (content, outputStream) -> content.transferTo(outputStream);
+
+	private static final String DICOM_TAG_STUDY_INSTANCE_UID = "0020000D";
+
+	private static final String VALUE = "Value";
+
+	/** Headers of the PACS response forwarded by the WADO-RS proxy, with content type and length */
+	private static final String[] FORWARDED_HEADERS = { HttpHeaders.CONTENT_RANGE, HttpHeaders.ACCEPT_RANGES,
+			HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED };
+
+	@Autowired
+	private ShanoirMetrics shanoirMetrics;
+
+	@Autowired
+	private ObjectMapper mapper;
+
 	private CloseableHttpClient httpClient;
 
 	private String serverURL;
@@ -87,6 +132,30 @@ public class DICOMWebService {
 	@Value("${dcm4chee-arc.dicom.web.http.client.max.per.route}")
 	private int dicomWebHttpClientMaxPerRoute;
 
+	/** Maximum number of StudyInstanceUIDs in one QIDO-RS query */
+	@Value("${dcm4chee-arc.dicom.web.qido.batch.size:20}")
+	private int qidoBatchSize;
+
+	/** Maximum number of QIDO-RS queries sent at the same time to the PACS, for all searches */
+	@Value("${dcm4chee-arc.dicom.web.qido.max.in.flight:8}")
+	private int qidoMaxInFlight;
+
+	private ExecutorService qidoExecutor;
+
+	/** Maximum size of the dicom files sent in one STOW-RS request, a larger serie is sent with several requests */
+	@Value("${dcm4chee-arc.dicom.web.stow.batch.max.size.mb:256}")
+	private long stowBatchMaxSizeMB;
+
+	/** Maximum number of STOW-RS requests sent at the same time to the PACS, for all imports */
+	@Value("${dcm4chee-arc.dicom.web.stow.max.in.flight:4}")
+	private int stowMaxInFlight;
+
+	/** Number of times a failed STOW-RS request is sent again */
+	@Value("${dcm4chee-arc.dicom.web.stow.retries:2}")
+	private int stowRetries;
+
+	private ExecutorService stowExecutor;
+
 	@PostConstruct
 	public void init() {
 		this.serverURL = dcm4cheeProtocol + dcm4cheeHost + ":" + dcm4cheePort + dicomWebRS;
@@ -94,10 +163,29 @@ public class DICOMWebService {
 			final PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
 	        cm.setMaxTotal(dicomWebHttpClientMaxTotal);
 	        cm.setDefaultMaxPerRoute(dicomWebHttpClientMaxPerRoute);
-			httpClient = HttpClients.custom().setConnectionManager(cm).build();
+			httpClient = HttpClients.custom().setConnectionManager(cm)
+					.addExecInterceptorFirst(TimedExecChainHandler.NAME, new TimedExecChainHandler(shanoirMetrics, ShanoirMetrics.DICOMWEB_REQUEST))
+					.build();
 		} catch (Exception e) {
 			LOG.error(e.getMessage(), e);
 		}
+		final AtomicInteger threadIndex = new AtomicInteger();
+		qidoExecutor = Executors.newFixedThreadPool(qidoMaxInFlight, runnable -> {
+			Thread thread = new Thread(runnable, "qido-" + threadIndex.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		stowExecutor = Executors.newFixedThreadPool(stowMaxInFlight, runnable -> {
+			Thread thread = new Thread(runnable, "stow-" + threadIndex.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void destroy() {
+		qidoExecutor.shutdownNow();
+		stowExecutor.shutdownNow();
 	}
 
 	public String findStudy(String studyInstanceUID) {
@@ -117,134 +205,271 @@ public class DICOMWebService {
 		return null;
 	}
 
-	public String findSeriesOfStudy(String studyInstanceUID) {
-		try {
-			String url = this.serverURL + "/" + studyInstanceUID + "/series";
-			HttpGet httpGet = new HttpGet(url);
-			try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
-				HttpEntity entity = response.getEntity();
-				if (entity != null) {
-					return EntityUtils.toString(entity);
-				} else {
-					LOG.error("DICOMWeb: findSeriesOfStudy: empty response entity.");				
-				}
+	/**
+	 * Searches the studies of a page of StudyInstanceUIDs with UID list matching:
+	 * the UIDs are sent by batches of qidoBatchSize in one QIDO-RS query each,
+	 * and the batches are sent concurrently, at most qidoMaxInFlight at the same time.
+	 * 
+	 * @param studyInstanceUIDs
+	 * @return for each StudyInstanceUID, the future of its study json, null if not found
+	 */
+	public Map<String, CompletableFuture<JsonNode>> findStudies(List<String> studyInstanceUIDs) {
+		List<String> uids = new ArrayList<>(new LinkedHashSet<>(studyInstanceUIDs));
+		Map<String, CompletableFuture<JsonNode>> studies = new HashMap<>();
+		for (int i = 0; i < uids.size(); i += qidoBatchSize) {
+			List<String> batch = uids.subList(i, Math.min(uids.size(), i + qidoBatchSize));
+			CompletableFuture<Map<String, JsonNode>> batchStudies = CompletableFuture.supplyAsync(() -> findStudiesOfBatch(batch), qidoExecutor);
+			for (String uid : batch) {
+				studies.put(uid, batchStudies.thenApply(batchResult -> batchResult.get(uid)));
 			}
-		} catch (Exception e) {
-			LOG.error(e.getMessage(), e);
 		}
-		return null;
+		return studies;
 	}
 
-	public String findSerieMetadataOfStudy(String studyInstanceUID, String serieInstanceUID) {
-		try {
-			String url = this.serverURL + "/" + studyInstanceUID + "/series/" + serieInstanceUID + "/metadata";
-			HttpGet httpGet = new HttpGet(url);
-			try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
-				HttpEntity entity = response.getEntity();
-				if (entity != null) {
-					return EntityUtils.toString(entity);
-				} else {
-					LOG.error("DICOMWeb: findSerieMetadataOfStudy: empty response entity.");				
+	private Map<String, JsonNode> findStudiesOfBatch(List<String> studyInstanceUIDs) {
+		Map<String, JsonNode> studies = new HashMap<>();
+		String response = findStudy(String.join(",", studyInstanceUIDs));
+		if (response != null) {
+			try {
+				for (JsonNode study : mapper.readTree(response)) {
+					String studyInstanceUID = study.path(DICOM_TAG_STUDY_INSTANCE_UID).path(VALUE).path(0).asText(null);
+					if (studyInstanceUID != null) {
+						studies.put(studyInstanceUID, study);
+					}
 				}
+			} catch (JsonProcessingException e) {
+				LOG.error("DICOMWeb: findStudies: invalid response: " + e.getMessage(), e);
 			}
-		} catch (Exception e) {
-			LOG.error(e.getMessage(), e);
 		}
-		return null;
+		return studies;
 	}
 
-	public ResponseEntity findFrameOfStudyOfSerieOfInstance(String studyInstanceUID, String serieInstanceUID,
-			String sopInstanceUID, String frame) {
-		try {
-			String url = this.serverURL + "/" + studyInstanceUID + "/series/" + serieInstanceUID + "/instances/"
-					+ sopInstanceUID + "/frames/" + frame;
-			HttpGet httpGet = new HttpGet(url);
-			try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
-				HttpEntity entity = response.getEntity();
-				if (entity != null) {
-					ByteArrayResource byteArrayResource = new ByteArrayResource(EntityUtils.toByteArray(entity));
-					HttpHeaders responseHeaders = new HttpHeaders();
-					responseHeaders.setContentLength(entity.getContentLength());
-					return new ResponseEntity(byteArrayResource, responseHeaders, HttpStatus.OK);
-				} else {
-					LOG.error("DICOMWeb: findFrameOfStudyOfSerieOfInstance: empty response entity.");				
-				}
-			}
-		} catch (Exception e) {
-			LOG.error(e.getMessage(), e);
-		}
-		return null;
+	public ResponseEntity<StreamingResponseBody> findSeriesOfStudy(String studyInstanceUID, EntityWriter writer) {
+		String url = this.serverURL + "/" + studyInstanceUID + "/series";
+		return streamFromPacs(url, null, writer, "findSeriesOfStudy");
 	}
-	
-	public ResponseEntity findInstance(String studyInstanceUID, String serieInstanceUID, String sopInstanceUID) {
+
+	public ResponseEntity<StreamingResponseBody> findSerieMetadataOfStudy(String studyInstanceUID, String serieInstanceUID,
+			EntityWriter writer) {
+		String url = this.serverURL + "/" + studyInstanceUID + "/series/" + serieInstanceUID + "/metadata";
+		return streamFromPacs(url, null, writer, "findSerieMetadataOfStudy");
+	}
+
+	public ResponseEntity<StreamingResponseBody> findFrameOfStudyOfSerieOfInstance(String studyInstanceUID, String serieInstanceUID,
+			String sopInstanceUID, String frame, String range) {
+		String url = this.serverURL + "/" + studyInstanceUID + "/series/" + serieInstanceUID + "/instances/"
+				+ sopInstanceUID + "/frames/" + frame;
+		return streamFromPacs(url, range, null, "findFrameOfStudyOfSerieOfInstance");
+	}
+
+	public ResponseEntity<StreamingResponseBody> findInstance(String studyInstanceUID, String serieInstanceUID, String sopInstanceUID,
+			String range) {
+		String url = this.serverURL + "/" + studyInstanceUID + "/series/" + serieInstanceUID + "/instances/" + sopInstanceUID;
+		return streamFromPacs(url, range, null, "findInstance");
+	}
+
+	/**
+	 * Proxies a request to the PACS: the PACS entity is copied to the servlet response
+	 * while it is read, after the request thread has been released, so the heap used
+	 * does not depend on the size of the entity. Status, content type, length and
+	 * range headers of the PACS are forwarded. If the client disconnects, the request
+	 * to the PACS is cancelled instead of reading the rest of the entity. The PacsStream
+	 * is kept in the request, to be closed as well on async timeout, error or completion.
+	 * 
+	 * @param url
+	 * @param range the Range header of the client, or null
+	 * @param writer rewrites a successful entity while it is copied, or null to copy it as it is
+	 * @param method for the logs
+	 * @return the streamed response or null in case of error
+	 */
+	private ResponseEntity<StreamingResponseBody> streamFromPacs(String url, String range, EntityWriter writer, String method) {
+		HttpGet httpGet = new HttpGet(url);
+		if (range != null) {
+			httpGet.setHeader(HttpHeaders.RANGE, range);
+		}
+		PacsStream pacsStream = null;
 		try {
-			String url = this.serverURL + "/" + studyInstanceUID + "/series/" + serieInstanceUID + "/instances/" + sopInstanceUID;
-			HttpGet httpGet = new HttpGet(url);
-			try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
-				HttpEntity entity = response.getEntity();
-				if (entity != null) {
-					ByteArrayResource byteArrayResource = new ByteArrayResource(EntityUtils.toByteArray(entity));
-					HttpHeaders responseHeaders = new HttpHeaders();
+			CloseableHttpResponse response = httpClient.execute(httpGet);
+			pacsStream = new PacsStream(httpGet, response);
+			HttpEntity entity = response.getEntity();
+			if (entity == null) {
+				LOG.error("DICOMWeb: " + method + ": empty response entity.");
+				pacsStream.close();
+				return null;
+			}
+			// the length and ranges of the PACS do not apply anymore to a rewritten entity
+			EntityWriter entityWriter = writer != null && response.getCode() == HttpStatus.OK.value() ? writer : COPY;
+			HttpHeaders responseHeaders = new HttpHeaders();
+			if (entity.getContentType() != null) {
+				responseHeaders.set(HttpHeaders.CONTENT_TYPE, entity.getContentType());
+			}
+			if (entityWriter == COPY) {
+				if (entity.getContentLength() >= 0) {
 					responseHeaders.setContentLength(entity.getContentLength());
-					return new ResponseEntity(byteArrayResource, responseHeaders, HttpStatus.OK);
-				} else {
-					LOG.error("DICOMWeb: findInstance: empty response entity.");				
+				}
+				for (String name : FORWARDED_HEADERS) {
+					Header header = response.getFirstHeader(name);
+					if (header != null) {
+						responseHeaders.set(name, header.getValue());
+					}
 				}
 			}
+			RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+			if (requestAttributes != null) {
+				requestAttributes.setAttribute(PACS_STREAM_ATTRIBUTE, pacsStream, RequestAttributes.SCOPE_REQUEST);
+			}
+			final PacsStream stream = pacsStream;
+			StreamingResponseBody body = outputStream -> {
+				try {
+					entityWriter.write(entity.getContent(), outputStream);
+					// reading until the end releases the connection to the pool
+					EntityUtils.consume(entity);
+					stream.close();
+				} catch (IOException e) {
+					LOG.warn("DICOMWeb: " + method + ": streaming aborted: " + e.getMessage());
+					throw e;
+				} finally {
+					// client disconnected, PACS failure or timeout: without reading the rest
+					stream.abort();
+				}
+			};
+			return ResponseEntity.status(response.getCode()).headers(responseHeaders).body(body);
 		} catch (Exception e) {
 			LOG.error(e.getMessage(), e);
+			if (pacsStream != null) {
+				pacsStream.abort();
+			}
 		}
 		return null;
 	}
 
+	/**
+	 * Sends the dicom files of a folder to the PACS with STOW-RS. The files are read
+	 * from the disk while the requests are sent, and a large serie is sent with several
+	 * requests of at most stowBatchMaxSizeMB, at most stowMaxInFlight at the same time.
+	 * A failed request is sent again, stowRetries times, without sending the others again.
+	 * 
+	 * @param directoryWithDicomFiles
+	 * @throws ShanoirException if a request failed, after its retries
+	 */
 	public void sendDicomFilesToPacs(File directoryWithDicomFiles) throws ShanoirException {
 		if (directoryWithDicomFiles == null || !directoryWithDicomFiles.exists() || !directoryWithDicomFiles.isDirectory()) {
 			LOG.error("sendDicomFilesToPacs called with null, or file: not existing or not a directory.");
 			throw new ShanoirException("sendDicomFilesToPacs called with null, or file: not existing or not a directory.");
 		}
 		File[] dicomFiles = directoryWithDicomFiles.listFiles();
-		LOG.info("Start: STOW-RS sending " + dicomFiles.length + " dicom files to PACS from folder: " + directoryWithDicomFiles.getAbsolutePath());
+		List<List<File>> batches = splitInBatches(dicomFiles);
+		LOG.info("Start: STOW-RS sending " + dicomFiles.length + " dicom files to PACS in " + batches.size()
+				+ " requests from folder: " + directoryWithDicomFiles.getAbsolutePath());
+		List<Future<Void>> futures = new ArrayList<>();
+		for (List<File> batch : batches) {
+			futures.add(stowExecutor.submit(() -> {
+				sendBatchToPacs(batch);
+				return null;
+			}));
+		}
+		int failedBatches = 0;
+		String lastError = null;
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				failedBatches++;
+				lastError = e.getCause().getMessage();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				futures.forEach(f -> f.cancel(true));
+				throw new ShanoirException("STOW-RS sending interrupted for folder: " + directoryWithDicomFiles.getAbsolutePath());
+			}
+		}
+		if (failedBatches > 0) {
+			LOG.error("DICOMWeb: sendDicomFilesToPacs: " + failedBatches + " of " + batches.size() + " requests failed, last error: " + lastError);
+			throw new ShanoirException("DICOMWeb: sendDicomFilesToPacs: " + failedBatches + " of " + batches.size()
+					+ " requests failed, last error: " + lastError);
+		}
+		LOG.info("Finished: STOW-RS sending " + dicomFiles.length + " dicom files to PACS from folder: " + directoryWithDicomFiles.getAbsolutePath());
+	}
+
+	/**
+	 * Splits the files in consecutive batches of at most stowBatchMaxSizeMB,
+	 * a larger file being alone in its batch.
+	 */
+	private List<List<File>> splitInBatches(File[] dicomFiles) {
+		long batchMaxSize = stowBatchMaxSizeMB * 1024 * 1024;
+		List<List<File>> batches = new ArrayList<>();
+		List<File> batch = new ArrayList<>();
+		long batchSize = 0;
+		for (File dicomFile : dicomFiles) {
+			long fileSize = dicomFile.length();
+			if (!batch.isEmpty() && batchSize + fileSize > batchMaxSize) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+				batchSize = 0;
+			}
+			batch.add(dicomFile);
+			batchSize += fileSize;
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+	private void sendBatchToPacs(List<File> dicomFiles) throws ShanoirException {
+		for (int attempt = 0; ; attempt++) {
+			try {
+				sendMultipartRequest(createMultipartEntity(dicomFiles));
+				return;
+			} catch (ShanoirException e) {
+				if (attempt >= stowRetries) {
+					throw e;
+				}
+				LOG.warn("DICOMWeb: STOW-RS request of " + dicomFiles.size() + " files failed, sent again: " + e.getMessage());
+				try {
+					Thread.sleep(STOW_RETRY_DELAY_MS * (attempt + 1));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	private HttpEntity createMultipartEntity(List<File> dicomFiles) {
 		MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create();
 		multipartEntityBuilder.setBoundary(BOUNDARY);
 		multipartEntityBuilder.setMimeSubtype(RELATED);
-		// create one multipart part for each file
+		// create one multipart part for each file, read from the disk when the request is written
 		for (File dicomFile : dicomFiles) {
-			try(FileInputStream fileIS = new FileInputStream(dicomFile)) {
-				ContentBody contentBody = new InputStreamBody(
-						new ByteArrayInputStream(fileIS.readAllBytes()), ContentType.create(CONTENT_TYPE_DICOM));
-				// build MultipartPart
-				MultipartPartBuilder partBuilder = MultipartPartBuilder.create();
-				partBuilder.addHeader(CONTENT_TYPE, CONTENT_TYPE_DICOM);
-				partBuilder.setBody(contentBody);
-				MultipartPart multipartPart = partBuilder.build();
-				multipartEntityBuilder.addPart(multipartPart);
-			} catch(Exception e) {
-				LOG.error(e.getMessage(), e);
-				throw new ShanoirException(e.getMessage());
-			}
+			multipartEntityBuilder.addPart(createDicomPart(new FileBody(dicomFile, ContentType.create(CONTENT_TYPE_DICOM))));
 		}
-		HttpEntity entity = multipartEntityBuilder.build();
-		sendMultipartRequest(entity);
-		LOG.info("Finished: STOW-RS sending " + dicomFiles.length + " dicom files to PACS from folder: " + directoryWithDicomFiles.getAbsolutePath());
+		return multipartEntityBuilder.build();
+	}
+
+	private MultipartPart createDicomPart(ContentBody contentBody) {
+		MultipartPartBuilder partBuilder = MultipartPartBuilder.create();
+		partBuilder.addHeader(CONTENT_TYPE, CONTENT_TYPE_DICOM);
+		partBuilder.setBody(contentBody);
+		return partBuilder.build();
 	}
 
+	/**
+	 * Sends a dicom file to the PACS with STOW-RS, the stream being read while the
+	 * request is sent. The stream can not be read twice, so the request is not sent again.
+	 * 
+	 * @param inputStream
+	 * @throws ShanoirException
+	 */
 	@PreAuthorize("hasAnyRole('ADMIN', 'EXPERT', 'USER')")
 	public void sendDicomInputStreamToPacs(InputStream inputStream) throws ShanoirException {
 		LOG.info("Start: STOW-RS sending dicom file input stream to PACS.");
 		try {
-			// create content body
-			ContentBody contentBody = new InputStreamBody(
-					new ByteArrayInputStream(inputStream.readAllBytes()), ContentType.create(CONTENT_TYPE_DICOM));
-			// build MultipartPart
-			MultipartPartBuilder partBuilder = MultipartPartBuilder.create();
-			partBuilder.addHeader(CONTENT_TYPE, CONTENT_TYPE_DICOM);
-			partBuilder.setBody(contentBody);
-			MultipartPart multipartPart = partBuilder.build();
+			ContentBody contentBody = new InputStreamBody(inputStream, ContentType.create(CONTENT_TYPE_DICOM));
 			// build MultipartEntity
 			MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create();
 			multipartEntityBuilder.setBoundary(BOUNDARY);
 			multipartEntityBuilder.setMimeSubtype(RELATED);
-			multipartEntityBuilder.addPart(multipartPart);
+			multipartEntityBuilder.addPart(createDicomPart(contentBody));
 			HttpEntity entity = multipartEntityBuilder.build();
 			sendMultipartRequest(entity);
 		} catch(Exception e) {
@@ -374,5 +599,67 @@ public class DICOMWebService {
 		}
 		return defaultValue;
 	}
-	
+
+	/**
+	 * The request and response of the PACS proxied by streamFromPacs. They are closed
+	 * once only, by the streaming thread or by the servlet container thread, whichever
+	 * comes first: on timeout the copy blocked on the PACS is then interrupted.
+	 */
+	public static class PacsStream implements Closeable {
+
+		private final HttpGet request;
+
+		private final CloseableHttpResponse response;
+
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		PacsStream(HttpGet request, CloseableHttpResponse response) {
+			this.request = request;
+			this.response = response;
+		}
+
+		/**
+		 * Closes the response, once its entity has been read until the end.
+		 */
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true)) {
+				closeResponse();
+			}
+		}
+
+		/**
+		 * Cancels the request without reading the rest of the entity and closes the response.
+		 */
+		public void abort() {
+			if (closed.compareAndSet(false, true)) {
+				request.cancel();
+				closeResponse();
+			}
+		}
+
+		public boolean isClosed() {
+			return closed.get();
+		}
+
+		private void closeResponse() {
+			try {
+				response.close();
+			} catch (IOException e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+
+	}
+
+	/**
+	 * Writes the entity of a PACS response to the client, in streamFromPacs.
+	 */
+	@FunctionalInterface
+	public interface EntityWriter {
+
+		void write(InputStream content, OutputStream outputStream) throws IOException;
+
+	}
+
 }
@@ -0,0 +1,276 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.download;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads a multipart/related body, as returned by a PACS for WADO-RS
+ * requests, as a stream: each part is given as an InputStream that reads directly
+ * from the underlying (HTTP) stream until the next boundary. Contrary to MimeMultipart,
+ * no part is buffered in memory, only a fixed size buffer is used.
+ *
+ * Usage:
+ * while (reader.nextPart()) {
+ *     reader.getPartContentType();
+ *     Files.copy(reader.getPartInputStream(), path);
+ * }
+ *
+ * Specification: https://www.rfc-editor.org/rfc/rfc2046#section-5.1.1
+ */
+public class MultipartRelatedReader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** A header line of a part can not be longer than the buffer */
+	private static final String LINE_TOO_LONG = "Multipart header line too long.";
+
+	private static final String BOUNDARY_PARAMETER = "boundary=";
+
+	private static final String CONTENT_TYPE_HEADER = "content-type:";
+
+	private final InputStream in;
+
+	/** CRLF + "--" + boundary */
+	private final byte[] delimiter;
+
+	private final byte[] buffer;
+
+	private int pos;
+
+	private int limit;
+
+	/** No delimiter starts before this position in the buffer */
+	private int scanPos;
+
+	/** Position of the next delimiter in the buffer, -1 if not yet found */
+	private int delimiterPos = -1;
+
+	private boolean eof;
+
+	private boolean finished;
+
+	private int partIndex = -1;
+
+	private String partContentType;
+
+	public MultipartRelatedReader(final InputStream in, final String boundary) {
+		this.in = in;
+		this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+		this.buffer = new byte[BUFFER_SIZE + delimiter.length];
+		// The first boundary of a body is not preceded by a CRLF: add one,
+		// to find all the delimiters the same way.
+		buffer[0] = '\r';
+		buffer[1] = '\n';
+		limit = 2;
+	}
+
+	/**
+	 * Extracts the boundary parameter of a multipart content type header value.
+	 *
+	 * @param contentType
+	 * @return the boundary or null if none
+	 */
+	public static String extractBoundary(final String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		for (String parameter : contentType.split(";")) {
+			parameter = parameter.trim();
+			if (parameter.toLowerCase().startsWith(BOUNDARY_PARAMETER)) {
+				String boundary = parameter.substring(BOUNDARY_PARAMETER.length()).trim();
+				if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+					boundary = boundary.substring(1, boundary.length() - 1);
+				}
+				return boundary;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Moves to the next part: the rest of the current part is skipped
+	 * and the headers of the next part are read.
+	 *
+	 * @return false if there is no more part
+	 * @throws IOException
+	 */
+	public boolean nextPart() throws IOException {
+		if (finished) {
+			return false;
+		}
+		// Skip the rest of the current part, or the preamble
+		byte[] skipBuffer = new byte[4096];
+		while (readBody(skipBuffer, 0, skipBuffer.length) != -1) {
+			// skip
+		}
+		ensure(delimiter.length + 2);
+		pos += delimiter.length;
+		delimiterPos = -1;
+		if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+			// Close delimiter: epilogue is ignored
+			finished = true;
+			partContentType = null;
+			return false;
+		}
+		// End of the boundary line (transport padding)
+		readLine();
+		partContentType = null;
+		String header;
+		while (!(header = readLine()).isEmpty()) {
+			if (header.toLowerCase().startsWith(CONTENT_TYPE_HEADER)) {
+				partContentType = header.substring(CONTENT_TYPE_HEADER.length()).trim();
+			}
+		}
+		partIndex++;
+		return true;
+	}
+
+	/**
+	 * @return the content type of the current part, null if not given
+	 */
+	public String getPartContentType() {
+		return partContentType;
+	}
+
+	/**
+	 * @return a stream on the body of the current part, that is valid until the next call to nextPart
+	 */
+	public InputStream getPartInputStream() {
+		final int index = partIndex;
+		return new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				int n = read(b, 0, 1);
+				return n == -1 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (index != partIndex) {
+					throw new IOException("Multipart stream has moved to another part.");
+				}
+				if (len == 0) {
+					return 0;
+				}
+				return readBody(b, off, len);
+			}
+		};
+	}
+
+	/**
+	 * Reads body bytes until the next delimiter.
+	 *
+	 * @return the number of bytes read, -1 when the delimiter is reached
+	 */
+	private int readBody(final byte[] b, final int off, final int len) throws IOException {
+		while (true) {
+			int available;
+			if (delimiterPos == -1) {
+				delimiterPos = indexOfDelimiter();
+			}
+			if (delimiterPos != -1) {
+				available = delimiterPos - pos;
+				if (available == 0) {
+					return -1;
+				}
+			} else {
+				// Keep the bytes that could be the beginning of a delimiter
+				available = limit - pos - (delimiter.length - 1);
+				if (available <= 0) {
+					if (eof) {
+						throw new EOFException("Multipart stream ended before its close delimiter.");
+					}
+					fill();
+					continue;
+				}
+			}
+			int n = Math.min(available, len);
+			System.arraycopy(buffer, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+	}
+
+	private int indexOfDelimiter() {
+		int last = limit - delimiter.length;
+		for (int i = Math.max(pos, scanPos); i <= last; i++) {
+			if (buffer[i] == delimiter[0]) {
+				int j = 1;
+				while (j < delimiter.length && buffer[i + j] == delimiter[j]) {
+					j++;
+				}
+				if (j == delimiter.length) {
+					return i;
+				}
+			}
+		}
+		scanPos = Math.max(pos, last + 1);
+		return -1;
+	}
+
+	private String readLine() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while (true) {
+			ensure(2);
+			if (buffer[pos] == '\r' && buffer[pos + 1] == '\n') {
+				pos += 2;
+				return line.toString(StandardCharsets.US_ASCII.name());
+			}
+			if (line.size() == BUFFER_SIZE) {
+				throw new IOException(LINE_TOO_LONG);
+			}
+			line.write(buffer[pos++]);
+		}
+	}
+
+	private void ensure(final int length) throws IOException {
+		while (limit - pos < length) {
+			if (eof) {
+				throw new EOFException("Multipart stream ended unexpectedly.");
+			}
+			fill();
+		}
+	}
+
+	private void fill() throws IOException {
+		if (pos > 0) {
+			System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+			limit -= pos;
+			scanPos = Math.max(0, scanPos - pos);
+			if (delimiterPos != -1) {
+				delimiterPos -= pos;
+			}
+			pos = 0;
+		}
+		if (limit == buffer.length) {
+			// nothing could be read anymore: a malformed or hostile response would loop forever
+			throw new IOException(LINE_TOO_LONG);
+		}
+		int n = in.read(buffer, limit, buffer.length - limit);
+		if (n == -1) {
+			eof = true;
+		} else {
+			limit += n;
+		}
+	}
+
+}
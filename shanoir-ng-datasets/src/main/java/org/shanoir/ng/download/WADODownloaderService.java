@@ -16,28 +16,48 @@ package org.shanoir.ng.download;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.ZipOutputStream;
 
 import javax.annotation.PostConstruct;
-import javax.mail.BodyPart;
+import javax.annotation.PreDestroy;
 import javax.mail.MessagingException;
-import javax.mail.internet.MimeMultipart;
-import javax.mail.util.ByteArrayDataSource;
 
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.io.DicomInputStream;
 import org.shanoir.ng.dataset.model.Dataset;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.shanoir.ng.utils.DatasetFileUtils;
+import org.shanoir.ng.utils.TimedExecChainHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -60,7 +80,7 @@ import org.springframework.web.client.RestTemplate;
  * 
  * As the responses are encoded as multipart/related messages,
  * this class extracts as well the files contained in the response to
- * the file system.
+ * the file system, streamed with MultipartRelatedReader.
  * 
  * WADO-URI: http://dcm4chee-arc:8081/dcm4chee-arc/aets/DCM4CHEE/wado?requestType=WADO
  * &studyUID=1.4.9.12.22.1.8444.518952078217568647576155668816300281982444
@@ -106,20 +126,65 @@ public class WADODownloaderService {
 
 	private static final String ERROR = "0000_ERROR_";
 
+	private static final String DOWNLOAD_ERROR_MESSAGE = "An error occured during the download of this .DCM file, please contact a shanoir administrator if necessary.";
+
+	private static final String SERIE_PART_PREFIX = "wado_serie_";
+
 	private static final Logger LOG = LoggerFactory.getLogger(WADODownloaderService.class);
-	
+
 	@Autowired
 	private RestTemplate restTemplate;
-	
+
+	@Autowired
+	private ShanoirMetrics shanoirMetrics;
+
+	/** Maximum number of requests sent at the same time to the PACS, for all downloads */
+	@Value("${dcm4chee-arc.dicom.wado.max.in.flight:8}")
+	private int wadoMaxInFlight;
+
+	/**
+	 * Retrieve the instances of a serie with one serie-level WADO-RS request. Off by default,
+	 * as the whole serie is then sent by the PACS even if the dataset only covers a part of it.
+	 */
+	@Value("${dcm4chee-arc.dicom.wado.series.level:false}")
+	private boolean wadoSeriesLevel;
+
+	private CloseableHttpClient httpClient;
+
+	private ExecutorService wadoExecutor;
+
 	@PostConstruct
 	public void initRestTemplate() {
 		restTemplate.getMessageConverters().add(new ByteArrayHttpMessageConverter());
+		final PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+		cm.setMaxTotal(wadoMaxInFlight);
+		cm.setDefaultMaxPerRoute(wadoMaxInFlight);
+		httpClient = HttpClients.custom().setConnectionManager(cm)
+				.addExecInterceptorFirst(TimedExecChainHandler.NAME, new TimedExecChainHandler(shanoirMetrics, ShanoirMetrics.WADO_FETCH))
+				.build();
+		final AtomicInteger threadIndex = new AtomicInteger();
+		wadoExecutor = Executors.newFixedThreadPool(wadoMaxInFlight, runnable -> {
+			Thread thread = new Thread(runnable, "wado-" + threadIndex.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void destroy() throws IOException {
+		wadoExecutor.shutdownNow();
+		httpClient.close();
 	}
 
 	/**
 	 * This method receives a list of URLs containing WADO-RS or WADO-URI urls and downloads
 	 * their received dicom files to a folder named workFolder.
 	 * 
+	 * Instances are retrieved concurrently, with at most wadoMaxInFlight requests sent to the PACS
+	 * for all downloads. When possible, the instances of the same serie are retrieved with one
+	 * serie-level WADO-RS request. Responses are streamed to disk without being held in memory.
+	 * An error file is written in workFolder for each instance that could not be downloaded.
+	 * 
 	 * @param urls
 	 * @param workFolder
 	 * @param subjectName
@@ -128,52 +193,292 @@ public class WADODownloaderService {
 	 * @throws MessagingException
 	 */
 	public void downloadDicomFilesForURLs(final List<URL> urls, final File workFolder, String subjectName, Dataset dataset) throws IOException, MessagingException {
-		int i = 0;
+		final AtomicInteger errorIndex = new AtomicInteger();
+		// WADO-RS instances, grouped by serie URL: instanceUID -> instance URL
+		final Map<String, Map<String, String>> instanceURLsBySerie = new LinkedHashMap<>();
+		final List<Callable<Void>> wadoURITasks = new ArrayList<>();
 		for (Iterator<URL> iterator = urls.iterator(); iterator.hasNext();) {
 			String url = ((URL) iterator.next()).toString();
-			String instanceUID = null;
 			// handle and check at first for WADO-RS URLs by "/instances/"
 			int indexInstanceUID = url.lastIndexOf(WADO_REQUEST_TYPE_WADO_RS);
 			if (indexInstanceUID > 0) {
-				instanceUID = url.substring(indexInstanceUID + WADO_REQUEST_TYPE_WADO_RS.length());
-				byte[] responseBody = downloadFileFromPACS(url);
-				extractDICOMFilesFromMHTMLFile(responseBody, instanceUID, workFolder);
+				String instanceUID = url.substring(indexInstanceUID + WADO_REQUEST_TYPE_WADO_RS.length());
+				instanceURLsBySerie.computeIfAbsent(url.substring(0, indexInstanceUID), k -> new LinkedHashMap<>()).put(instanceUID, url);
 			} else {
 				// handle and check secondly for WADO-URI URLs by "objectUID="
 				// instanceUID == objectUID
 				indexInstanceUID = url.lastIndexOf(WADO_REQUEST_TYPE_WADO_URI);
 				if (indexInstanceUID > 0) {
-					instanceUID = extractInstanceUID(url, instanceUID);
+					String instanceUID = extractInstanceUID(url, null);
+					String name = buildDicomFileName(subjectName, dataset, instanceUID);
+					wadoURITasks.add(() -> downloadWADOURIInstance(url, name, workFolder, errorIndex));
+				} else {
+					throw new IOException("URL for download is neither in WADO-RS nor in WADO-URI format. Please verify database contents.");
+				}
+			}
+		}
+
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			List<Future<Map<String, String>>> serieFutures = new ArrayList<>();
+			for (Map.Entry<String, Map<String, String>> serie : instanceURLsBySerie.entrySet()) {
+				if (wadoSeriesLevel && serie.getValue().size() > 1) {
+					Future<Map<String, String>> serieFuture = wadoExecutor.submit(() -> downloadWADORSSerie(serie.getKey(), serie.getValue(), workFolder));
+					serieFutures.add(serieFuture);
+					futures.add(serieFuture);
+				} else {
+					submitWADORSInstances(serie.getValue(), workFolder, errorIndex, futures);
+				}
+			}
+			for (Callable<Void> wadoURITask : wadoURITasks) {
+				futures.add(wadoExecutor.submit(wadoURITask));
+			}
+			// Instances missing in a serie-level response are retrieved one by one
+			for (Future<Map<String, String>> serieFuture : serieFutures) {
+				submitWADORSInstances(waitFor(serieFuture), workFolder, errorIndex, futures);
+			}
+			for (Future<?> future : futures) {
+				waitFor(future);
+			}
+		} finally {
+			// Nothing to do if all went well, stop the remaining retrievals otherwise
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	private void submitWADORSInstances(final Map<String, String> instanceURLs, final File workFolder, final AtomicInteger errorIndex, final List<Future<?>> futures) {
+		for (Map.Entry<String, String> instance : instanceURLs.entrySet()) {
+			futures.add(wadoExecutor.submit(() -> downloadWADORSInstance(instance.getValue(), instance.getKey(), workFolder, errorIndex)));
+		}
+	}
 
-					String serieDescription = dataset.getUpdatedMetadata().getName();
-					DateTimeFormatter formatter = DateTimeFormatter.ofPattern("YYYYMMdd");
-					String examDate = dataset.getDatasetAcquisition().getExamination().getExaminationDate().format(formatter);
-					String name = subjectName + "_" + examDate + "_" + serieDescription + "_" + instanceUID;
+	private <T> T waitFor(final Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Download from the pacs interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Download from the pacs failed.", e.getCause());
+		}
+	}
 
-					// Replace all forbidden characters.
-					name = name.replaceAll("[^a-zA-Z0-9\\.\\-]", "_");
+	/**
+	 * Retrieves all the instances of a serie with one WADO-RS request. The instances of the
+	 * response, that are part of instanceURLs, are written as instanceUID.dcm in workFolder,
+	 * the others are ignored.
+	 * 
+	 * @param serieURL
+	 * @param instanceURLs instanceUID -> WADO-RS URL of the wanted instances
+	 * @param workFolder
+	 * @return the wanted instances, that were not found in the response
+	 */
+	private Map<String, String> downloadWADORSSerie(final String serieURL, final Map<String, String> instanceURLs, final File workFolder) {
+		Map<String, String> missingInstanceURLs = new LinkedHashMap<>(instanceURLs);
+		Path partPath = null;
+		try (CloseableHttpResponse response = httpClient.execute(createWADOGet(serieURL))) {
+			MultipartRelatedReader reader = createMultipartReader(response);
+			while (reader.nextPart()) {
+				checkDicomPart(reader);
+				partPath = Files.createTempFile(workFolder.toPath(), SERIE_PART_PREFIX, null);
+				Files.copy(reader.getPartInputStream(), partPath, StandardCopyOption.REPLACE_EXISTING);
+				String instanceUID = readSOPInstanceUID(partPath.toFile());
+				if (instanceUID != null && missingInstanceURLs.remove(instanceUID) != null) {
+					Files.move(partPath, new File(workFolder, instanceUID + DCM).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} else {
+					Files.delete(partPath);
+				}
+				partPath = null;
+			}
+		} catch (Exception e) {
+			LOG.warn("Serie could not be retrieved at once from the pacs, its instances are retrieved one by one: " + serieURL, e);
+		} finally {
+			deleteQuietly(partPath);
+		}
+		return missingInstanceURLs;
+	}
 
-					File extractedDicomFile = new File(workFolder.getPath() + File.separator + name + DCM);
+	/**
+	 * Retrieves one instance with a WADO-RS request, written as instanceUID.dcm in workFolder.
+	 * 
+	 * @param url
+	 * @param instanceUID
+	 * @param workFolder
+	 * @param errorIndex
+	 * @return null
+	 * @throws IOException if the error file can not be written
+	 */
+	private Void downloadWADORSInstance(final String url, final String instanceUID, final File workFolder, final AtomicInteger errorIndex) throws IOException {
+		Path partPath = null;
+		try (CloseableHttpResponse response = httpClient.execute(createWADOGet(url))) {
+			MultipartRelatedReader reader = createMultipartReader(response);
+			int part = 0;
+			while (reader.nextPart()) {
+				checkDicomPart(reader);
+				if (part == 0) {
+					partPath = new File(workFolder, instanceUID + DCM).toPath();
+				} else {
+					partPath = new File(workFolder, instanceUID + UNDER_SCORE + part + DCM).toPath();
+				}
+				Files.copy(reader.getPartInputStream(), partPath, StandardCopyOption.REPLACE_EXISTING);
+				partPath = null;
+				part++;
+			}
+		} catch (Exception e) {
+			deleteQuietly(partPath);
+			writeErrorFile(workFolder, instanceUID, errorIndex);
+			LOG.error("A dicom file could not be downloaded from the pacs:", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Retrieves one instance with a WADO-URI request, written as name.dcm in workFolder.
+	 * 
+	 * @param url
+	 * @param name
+	 * @param workFolder
+	 * @param errorIndex
+	 * @return null
+	 * @throws IOException if the error file can not be written
+	 */
+	private Void downloadWADOURIInstance(final String url, final String name, final File workFolder, final AtomicInteger errorIndex) throws IOException {
+		Path extractedDicomPath = new File(workFolder, name + DCM).toPath();
+		try (CloseableHttpResponse response = httpClient.execute(createWADOGet(url))) {
+			if (response.getCode() != HttpStatus.OK.value() || response.getEntity() == null) {
+				throw new IOException("Download did not work: wrong status code received.");
+			}
+			try (InputStream inputStream = response.getEntity().getContent()) {
+				Files.copy(inputStream, extractedDicomPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (Exception e) {
+			// Just insert an error log into the file for missing dicoms.
+			deleteQuietly(extractedDicomPath);
+			writeErrorFile(workFolder, name, errorIndex);
+			LOG.error("A dicom file could not be downloaded from the pacs:", e);
+		}
+		return null;
+	}
+
+	private HttpGet createWADOGet(final String url) {
+		HttpGet httpGet = new HttpGet(url);
+		httpGet.addHeader(HttpHeaders.ACCEPT, CONTENT_TYPE_MULTIPART + "; type=" + CONTENT_TYPE_DICOM + ";");
+		return httpGet;
+	}
+
+	private MultipartRelatedReader createMultipartReader(final CloseableHttpResponse response) throws IOException {
+		if (response.getCode() != HttpStatus.OK.value() || response.getEntity() == null) {
+			throw new IOException("Download did not work: wrong status code received.");
+		}
+		String boundary = MultipartRelatedReader.extractBoundary(response.getEntity().getContentType());
+		if (boundary == null) {
+			throw new IOException("Answer file from PACS is not a multipart/related message.");
+		}
+		return new MultipartRelatedReader(response.getEntity().getContent(), boundary);
+	}
 
-					byte[] responseBody = null;
+	private void checkDicomPart(final MultipartRelatedReader reader) throws IOException {
+		String partContentType = reader.getPartContentType();
+		if (partContentType == null
+				|| !(partContentType.startsWith(CONTENT_TYPE_DICOM_XML) || partContentType.startsWith(CONTENT_TYPE_DICOM))) {
+			throw new IOException("Answer file from PACS contains other content-type than DICOM, stop here.");
+		}
+	}
+
+	/**
+	 * Reads the SOPInstanceUID of a dicom file, from its meta information
+	 * if present, from its header otherwise. Pixel data are not read.
+	 */
+	private String readSOPInstanceUID(final File dicomFile) throws IOException {
+		try (DicomInputStream dIS = new DicomInputStream(dicomFile)) {
+			Attributes metaInformationAttributes = dIS.readFileMetaInformation();
+			if (metaInformationAttributes != null && metaInformationAttributes.getString(Tag.MediaStorageSOPInstanceUID) != null) {
+				return metaInformationAttributes.getString(Tag.MediaStorageSOPInstanceUID);
+			}
+			return dIS.readDataset(-1, Tag.PixelData).getString(Tag.SOPInstanceUID);
+		}
+	}
+
+	private void writeErrorFile(final File workFolder, final String name, final AtomicInteger errorIndex) throws IOException {
+		File errorFile = new File(workFolder.getPath() + File.separator + ERROR + errorIndex.getAndIncrement() + "_" + name + TXT);
+		Files.write(errorFile.toPath(), DOWNLOAD_ERROR_MESSAGE.getBytes());
+	}
+
+	private void deleteQuietly(final Path path) {
+		if (path != null) {
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				LOG.error("Could not delete file: " + path, e);
+			}
+		}
+	}
+
+	/**
+	 * This method receives a list of URLs containing WADO-RS or WADO-URI urls and writes
+	 * their received dicom files directly as entries of the zip stream, inside the folder
+	 * zipFolderPath. Responses are streamed into the zip and nothing is staged on disk.
+	 * 
+	 * @param urls
+	 * @param zipOutputStream
+	 * @param zipFolderPath
+	 * @param subjectName
+	 * @param dataset
+	 * @throws IOException
+	 * @throws MessagingException
+	 */
+	public void downloadDicomFilesForURLsAsZip(final List<URL> urls, final ZipOutputStream zipOutputStream, final String zipFolderPath, String subjectName, Dataset dataset) throws IOException, MessagingException {
+		int i = 0;
+		for (Iterator<URL> iterator = urls.iterator(); iterator.hasNext();) {
+			String url = ((URL) iterator.next()).toString();
+			String instanceUID = null;
+			// handle and check at first for WADO-RS URLs by "/instances/"
+			int indexInstanceUID = url.lastIndexOf(WADO_REQUEST_TYPE_WADO_RS);
+			if (indexInstanceUID > 0) {
+				instanceUID = url.substring(indexInstanceUID + WADO_REQUEST_TYPE_WADO_RS.length());
+				try (CloseableHttpResponse response = httpClient.execute(createWADOGet(url))) {
+					MultipartRelatedReader reader = createMultipartReader(response);
+					int part = 0;
+					while (reader.nextPart()) {
+						checkDicomPart(reader);
+						String entryName = zipFolderPath + DatasetFileUtils.ZIP_SEPARATOR + instanceUID;
+						if (part > 0) {
+							entryName += UNDER_SCORE + part;
+						}
+						DatasetFileUtils.addToZip(zipOutputStream, entryName + DCM, reader.getPartInputStream());
+						part++;
+					}
+				}
+			} else {
+				// handle and check secondly for WADO-URI URLs by "objectUID="
+				// instanceUID == objectUID
+				indexInstanceUID = url.lastIndexOf(WADO_REQUEST_TYPE_WADO_URI);
+				if (indexInstanceUID > 0) {
+					instanceUID = extractInstanceUID(url, instanceUID);
+					String name = buildDicomFileName(subjectName, dataset, instanceUID);
+					CloseableHttpResponse response = null;
 					try {
-						responseBody = downloadFileFromPACS(url);
+						response = httpClient.execute(createWADOGet(url));
+						if (response.getCode() != HttpStatus.OK.value() || response.getEntity() == null) {
+							throw new IOException("Download did not work: wrong status code received.");
+						}
 					} catch (Exception e) {
-						// Just insert an error log into the file for missing dicoms.
-						File errorFile = new File(workFolder.getPath() + File.separator + ERROR + i + "_" + name + TXT);
+						if (response != null) {
+							response.close();
+						}
+						// Just insert an error log into the zip for missing dicoms.
+						try (ByteArrayInputStream bIS = new ByteArrayInputStream(DOWNLOAD_ERROR_MESSAGE.getBytes())) {
+							DatasetFileUtils.addToZip(zipOutputStream, zipFolderPath + DatasetFileUtils.ZIP_SEPARATOR + ERROR + i + "_" + name + TXT, bIS);
+						}
 						i++;
-						errorFile.createNewFile();
-					    String error = "An error occured during the download of this .DCM file, please contact a shanoir administrator if necessary.";
-					    Path path = Paths.get(errorFile.getAbsolutePath());
-					    byte[] strToBytes = error.getBytes();
-					    Files.write(path, strToBytes);
-					    
-					    // LOG the error
-					    LOG.error("A dicom file could not be downloaded from the pacs:", e);
-					    continue;
+						LOG.error("A dicom file could not be downloaded from the pacs:", e);
+						continue;
 					}
-					try (ByteArrayInputStream bIS = new ByteArrayInputStream(responseBody)) {
-						Files.copy(bIS, extractedDicomFile.toPath());
+					try (CloseableHttpResponse closeableResponse = response;
+							InputStream inputStream = response.getEntity().getContent()) {
+						DatasetFileUtils.addToZip(zipOutputStream, zipFolderPath + DatasetFileUtils.ZIP_SEPARATOR + name + DCM, inputStream);
 					}
 				} else {
 					throw new IOException("URL for download is neither in WADO-RS nor in WADO-URI format. Please verify database contents.");
@@ -181,7 +486,20 @@ public class WADODownloaderService {
 			}
 		}
 	}
-	
+
+	/**
+	 * Builds the name of a dicom file downloaded with WADO-URI, without extension.
+	 */
+	private String buildDicomFileName(String subjectName, Dataset dataset, String instanceUID) {
+		String serieDescription = dataset.getUpdatedMetadata().getName();
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("YYYYMMdd");
+		String examDate = dataset.getDatasetAcquisition().getExamination().getExaminationDate().format(formatter);
+		String name = subjectName + "_" + examDate + "_" + serieDescription + "_" + instanceUID;
+
+		// Replace all forbidden characters.
+		return name.replaceAll("[^a-zA-Z0-9\\.\\-]", "_");
+	}
+
 	public String downloadDicomMetadataForURL(final URL url) throws IOException, MessagingException, RestClientException {
 		if (url != null) {
 			String urlStr = url.toString();
@@ -215,28 +533,6 @@ public class WADODownloaderService {
 		return instanceUID;
 	}
 
-	/**
-	 * This method contacts the PACS with a WADO-RS url and does the actual download.
-	 * 
-	 * @param url
-	 * @param targetFile
-	 * @return
-	 * @throws IOException
-	 */
-	private byte[] downloadFileFromPACS(final String url) throws IOException {
-		HttpHeaders headers = new HttpHeaders();
-		headers.add(HttpHeaders.ACCEPT, CONTENT_TYPE_MULTIPART + "; type=" + CONTENT_TYPE_DICOM + ";");
-		HttpEntity<String> entity = new HttpEntity<>(headers);
-		ResponseEntity<byte[]> response = restTemplate.exchange(url,
-				HttpMethod.GET, entity, byte[].class, "1");
-		if (response.getStatusCode() == HttpStatus.OK) {
-			return response.getBody();
-		} else {
-			throw new IOException("Download did not work: wrong status code received.");
-		}
-	}
-	
-	
 	private String downloadMetadataFromPACS(final String url) throws IOException, RestClientException {
 		restTemplate.getMessageConverters().add(new ByteArrayHttpMessageConverter());
 		HttpHeaders headers = new HttpHeaders();
@@ -252,45 +548,6 @@ public class WADODownloaderService {
 		}
 	}
 
-	/**
-	 * This method reads in a file in format MHTML, one representation of a multipart/related response, that is given from
-	 * a PACS server, that supports WADO-RS requests.
-	 * 
-	 * MHTML, short for MIME Encapsulation of Aggregate HTML Documents, is a web page archive format used to combine in a single document
-	 * the HTML code and its companion resources that are otherwise represented by external links (such as images, Flash animations, Java applets,
-	 * and audio files). The content of an MHTML file is encoded as if it were an HTML e-mail message, using the MIME type multipart/related.
-	 * 
-	 * @param responseBody
-	 * @param instanceUID
-	 * @param workFolder
-	 * @throws FileNotFoundException
-	 * @throws IOException
-	 * @throws MessagingException
-	 */
-	private void extractDICOMFilesFromMHTMLFile(final byte[] responseBody, final String instanceUID, final File workFolder)
-			throws IOException, MessagingException {
-		try(ByteArrayInputStream bIS = new ByteArrayInputStream(responseBody)) {
-			ByteArrayDataSource datasource = new ByteArrayDataSource(bIS, CONTENT_TYPE_MULTIPART);
-			MimeMultipart multipart = new MimeMultipart(datasource);
-			int count = multipart.getCount();
-			for (int i = 0; i < count; i++) {
-				BodyPart bodyPart = multipart.getBodyPart(i);
-				if (bodyPart.isMimeType(CONTENT_TYPE_DICOM) || bodyPart.isMimeType(CONTENT_TYPE_DICOM_XML)) {
-					File extractedDicomFile = null;
-					if (count == 1) {
-						extractedDicomFile = new File(workFolder.getPath() + File.separator + instanceUID + DCM);
-					} else {
-						extractedDicomFile = new File(workFolder.getPath() + File.separator + instanceUID + UNDER_SCORE + count + DCM);
-					}
-					Files.copy(bodyPart.getInputStream(), extractedDicomFile.toPath());
-				} else {
-					throw new IOException("Answer file from PACS contains other content-type than DICOM, stop here.");
-				}
-			}
-		}
-	}
-	
-	
 	private String wadoURItoWadoRS(String url) {
 		return url
 				.replace("wado?requestType=WADO", "rs")
@@ -97,4 +97,27 @@ public interface ExaminationRepository extends PagingAndSortingRepository<Examin
 	 */
 	Page<Examination> findAllBySubjectName(String patientName, Pageable pageable);
 
+	/**
+	 * Get the ids of the latest examinations.
+	 * 
+	 * @param pageable number of ids.
+	 * @return list of examination ids, the latest first.
+	 */
+	@Query("SELECT e.id FROM Examination e ORDER BY e.id DESC")
+	List<Long> findLatestIds(Pageable pageable);
+
+	/**
+	 * Get the paths of the DICOM files in the PACS of MR, CT and PET acquisitions of
+	 * examinations, in one query, to read their StudyInstanceUID.
+	 * 
+	 * @param examinationIds
+	 * @param format id of the DICOM dataset expression format
+	 * @return pairs of examination id and path, several per examination.
+	 */
+	@Query("SELECT a.examination.id, f.path FROM DatasetFile f JOIN f.datasetExpression e JOIN e.dataset d"
+			+ " JOIN d.datasetAcquisition a WHERE a.examination.id IN :examinationIds AND f.pacs = true"
+			+ " AND e.datasetExpressionFormat = :format"
+			+ " AND TYPE(a) IN (MrDatasetAcquisition, CtDatasetAcquisition, PetDatasetAcquisition)")
+	List<Object[]> findPacsPathsByExaminationIdIn(@Param("examinationIds") List<Long> examinationIds, @Param("format") Integer format);
+
 }
@@ -18,6 +18,7 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -39,6 +40,7 @@ import org.shanoir.ng.shared.exception.ShanoirException;
 import org.shanoir.ng.shared.model.Subject;
 import org.shanoir.ng.shared.repository.SubjectRepository;
 import org.shanoir.ng.shared.service.SecurityService;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
 import org.shanoir.ng.solr.service.SolrService;
 import org.shanoir.ng.utils.KeycloakUtil;
 import org.slf4j.Logger;
@@ -217,6 +219,7 @@ public class ExaminationServiceImpl implements ExaminationService {
 		}
 		updateExaminationValues(examinationDb, examination);
 		examinationRepository.save(examinationDb);
+		solrService.registerChanges(SolrIndexChangeType.EXAMINATION, Collections.singletonList(examinationDb.getId()));
 		return examinationDb;
 	}
 
@@ -68,6 +68,11 @@ public class ImportJob implements Serializable {
 	private ShanoirEvent shanoirEvent;
 	
 	private Long userId;
+
+	/** The file with the patients, studies and series, when not sent in the message */
+	private String seriesFile;
+
+	private Integer seriesCount;
 	
 	public Long getUserId() {
 		return userId;
@@ -79,6 +84,22 @@ public class ImportJob implements Serializable {
 
 	private Map<String, String> properties = new HashMap();
 
+	public String getSeriesFile() {
+		return seriesFile;
+	}
+
+	public void setSeriesFile(String seriesFile) {
+		this.seriesFile = seriesFile;
+	}
+
+	public Integer getSeriesCount() {
+		return seriesCount;
+	}
+
+	public void setSeriesCount(Integer seriesCount) {
+		this.seriesCount = seriesCount;
+	}
+
 	public String getArchive() {
 		return archive;
 	}
@@ -17,6 +17,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.tomcat.util.json.JSONParser;
@@ -41,6 +42,8 @@ import org.shanoir.ng.shared.configuration.RabbitMQConfiguration;
 import org.shanoir.ng.shared.event.ShanoirEvent;
 import org.shanoir.ng.shared.event.ShanoirEventService;
 import org.shanoir.ng.shared.event.ShanoirEventType;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
+import org.shanoir.ng.solr.service.SolrService;
 import org.shanoir.ng.utils.KeycloakUtil;
 import org.shanoir.ng.utils.SecurityContextUtil;
 import org.slf4j.Logger;
@@ -80,6 +83,9 @@ public class BidsImporterService {
 
 	@Autowired
 	private DatasetAcquisitionRepository datasetAcquisitionRepository;
+
+	@Autowired
+	private SolrService solrService;
 	
 	@Value("${datasets-data}")
 	private String niftiStorageDir;
@@ -274,7 +280,8 @@ public class BidsImporterService {
 
 		datasetAcquisition.setDatasets(new ArrayList<>(datasets));
 		datasetAcquisition.setAcquisitionEquipmentId(equipmentId);
-		datasetAcquisitionRepository.save(datasetAcquisition);
+		DatasetAcquisition savedAcquisition = datasetAcquisitionRepository.save(datasetAcquisition);
+		solrService.registerChanges(SolrIndexChangeType.DATASET, savedAcquisition.getDatasets().stream().map(Dataset::getId).collect(Collectors.toList()));
 		eventService.publishEvent(new ShanoirEvent(ShanoirEventType.CREATE_DATASET_ACQUISITION_EVENT, datasetAcquisition.getId().toString(), KeycloakUtil.getTokenUserId(null), "", ShanoirEvent.SUCCESS, examination.getStudyId()));
 		
 		event.setStatus(ShanoirEvent.SUCCESS);
@@ -0,0 +1,123 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.shanoir.ng.importer.dto.ImportJob;
+import org.shanoir.ng.importer.dto.Patient;
+import org.shanoir.ng.importer.dto.Serie;
+import org.shanoir.ng.importer.dto.Study;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Iterates over the series of an import job, in the order of the patients and studies.
+ *
+ * When the import MS sends the job with a series file (claim check), the patients, studies
+ * and series are not in the message: they are read from the file, written in the import
+ * folder with one line per patient, study and serie, one serie at a time. The patients are
+ * added to the job when read, without their studies, as the dataset strategies use them.
+ */
+public class ImportJobSeriesIterator implements Iterator<Serie>, Closeable {
+
+	static final String PATIENT = "patient";
+
+	static final String SERIE = "serie";
+
+	private final ImportJob importJob;
+
+	private final ObjectMapper objectMapper;
+
+	private final int seriesCount;
+
+	private Iterator<Serie> seriesIt;
+
+	private MappingIterator<JsonNode> linesIt;
+
+	private Serie nextSerie;
+
+	public ImportJobSeriesIterator(ImportJob importJob, ObjectMapper objectMapper) throws IOException {
+		this.importJob = importJob;
+		this.objectMapper = objectMapper;
+		if (importJob.getSeriesFile() == null) {
+			List<Serie> series = new ArrayList<>();
+			for (Patient patient : importJob.getPatients()) {
+				for (Study study : patient.getStudies()) {
+					series.addAll(study.getSeries());
+				}
+			}
+			seriesCount = series.size();
+			seriesIt = series.iterator();
+		} else {
+			seriesCount = importJob.getSeriesCount() != null ? importJob.getSeriesCount() : 0;
+			importJob.setPatients(new ArrayList<>());
+			linesIt = objectMapper.readerFor(JsonNode.class).readValues(new File(importJob.getSeriesFile()));
+		}
+	}
+
+	public int getSeriesCount() {
+		return seriesCount;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (seriesIt != null) {
+			return seriesIt.hasNext();
+		}
+		try {
+			while (nextSerie == null && linesIt.hasNextValue()) {
+				JsonNode line = linesIt.nextValue();
+				if (line.has(SERIE)) {
+					nextSerie = objectMapper.treeToValue(line.get(SERIE), Serie.class);
+				} else if (line.has(PATIENT)) {
+					importJob.getPatients().add(objectMapper.treeToValue(line.get(PATIENT), Patient.class));
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Error while reading the series file " + importJob.getSeriesFile(), e);
+		}
+		return nextSerie != null;
+	}
+
+	@Override
+	public Serie next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		if (seriesIt != null) {
+			return seriesIt.next();
+		}
+		Serie serie = nextSerie;
+		nextSerie = null;
+		return serie;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (linesIt != null) {
+			linesIt.close();
+		}
+	}
+
+}
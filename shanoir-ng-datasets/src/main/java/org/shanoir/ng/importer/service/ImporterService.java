@@ -64,10 +64,8 @@ import org.shanoir.ng.examination.repository.ExaminationRepository;
 import org.shanoir.ng.examination.service.ExaminationService;
 import org.shanoir.ng.importer.dto.EegImportJob;
 import org.shanoir.ng.importer.dto.ImportJob;
-import org.shanoir.ng.importer.dto.Patient;
 import org.shanoir.ng.importer.dto.ProcessedDatasetImportJob;
 import org.shanoir.ng.importer.dto.Serie;
-import org.shanoir.ng.importer.dto.Study;
 import org.shanoir.ng.processing.model.DatasetProcessing;
 import org.shanoir.ng.shared.configuration.RabbitMQConfiguration;
 import org.shanoir.ng.shared.email.EmailBase;
@@ -77,6 +75,7 @@ import org.shanoir.ng.shared.event.ShanoirEvent;
 import org.shanoir.ng.shared.event.ShanoirEventService;
 import org.shanoir.ng.shared.event.ShanoirEventType;
 import org.shanoir.ng.shared.exception.ShanoirException;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
 import org.shanoir.ng.solr.service.SolrService;
 import org.shanoir.ng.study.rights.StudyUser;
 import org.shanoir.ng.study.rights.StudyUserRightsRepository;
@@ -172,22 +171,22 @@ public class ImporterService {
 			Set<DatasetAcquisition> generatedAcquisitions = new HashSet<>();
 			if (examination != null) {
 				int rank = 0;
-				for (Patient patient : importJob.getPatients()) {
-					for (Study study : patient.getStudies()) {
-						float progress = 0.5f;
-						for (Serie serie : study.getSeries() ) {
-							if (serie.getSelected() != null && serie.getSelected()) {
-								DatasetAcquisition acquisition = createDatasetAcquisitionForSerie(serie, rank, examination, importJob);
-								if (acquisition != null) {
-									generatedAcquisitions.add(acquisition);
-								}
-								rank++;
+				int treatedSeries = 0;
+				// the series are read one at a time, when the job was sent with a series file
+				try (ImportJobSeriesIterator seriesIt = new ImportJobSeriesIterator(importJob, objectMapper)) {
+					while (seriesIt.hasNext()) {
+						Serie serie = seriesIt.next();
+						if (serie.getSelected() != null && serie.getSelected()) {
+							DatasetAcquisition acquisition = createDatasetAcquisitionForSerie(serie, rank, examination, importJob);
+							if (acquisition != null) {
+								generatedAcquisitions.add(acquisition);
 							}
-							progress += 0.5f / study.getSeries().size();
-							event.setMessage("Treating serie " + serie.getSeriesDescription()+ " for examination " + importJob.getExaminationId());
-							event.setProgress(progress);
-							eventService.publishEvent(event);
+							rank++;
 						}
+						treatedSeries++;
+						event.setMessage("Treating serie " + serie.getSeriesDescription()+ " for examination " + importJob.getExaminationId());
+						event.setProgress(0.5f + 0.5f * treatedSeries / Math.max(treatedSeries, seriesIt.getSeriesCount()));
+						eventService.publishEvent(event);
 					}
 				}
 			} else {
@@ -656,7 +655,7 @@ public class ImporterService {
 
 			dataset = datasetService.create(dataset);
 			
-			solrService.indexDataset(dataset.getId());
+			solrService.registerChanges(SolrIndexChangeType.DATASET, Collections.singletonList(dataset.getId()));
 
 			event.setStatus(ShanoirEvent.SUCCESS);
 			event.setMessage(importJob.getStudyName() + "(" + importJob.getStudyId() + ")"
@@ -0,0 +1,203 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.shared.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.math3.util.Pair;
+import org.shanoir.ng.shared.core.model.AbstractEntity;
+import org.shanoir.ng.shared.paging.PageImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+/**
+ * JPQL query of the entities of an examination restricted to the studies of the user and, for the
+ * studies where the user is restricted to some centers, to these centers. The centers are grouped
+ * by study, the condition has one term per restricted study instead of one per study/center pair.
+ *
+ * A page is read in two steps: the ids of the page are selected, sorted and limited by the database,
+ * then only these entities are loaded. The offset is applied on the ids only, for the deep pages.
+ *
+ * @param <T> the entity type
+ */
+public class StudyCenterPageQuery<T extends AbstractEntity> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StudyCenterPageQuery.class);
+
+	private final EntityManager entityManager;
+
+	private final Class<T> type;
+
+	private final String alias;
+
+	private final String from;
+
+	private final Set<Long> studyIds = new HashSet<>();
+
+	private final Map<Long, Set<Long>> centerIdsByStudy = new LinkedHashMap<>();
+
+	private final List<String> conditions = new ArrayList<>();
+
+	private final Map<String, Object> parameters = new HashMap<>();
+
+	/**
+	 * @param entityManager
+	 * @param type the entity type
+	 * @param alias the alias of the entity in the from clause
+	 * @param from the from clause, joining the entity to its examination aliased 'ex'
+	 * @param studyCenterIds the study/center pairs the user is restricted to
+	 * @param studyIds the studies where the user has no center restriction
+	 */
+	public StudyCenterPageQuery(EntityManager entityManager, Class<T> type, String alias, String from,
+			Iterable<Pair<Long, Long>> studyCenterIds, Iterable<Long> studyIds) {
+		this.entityManager = entityManager;
+		this.type = type;
+		this.alias = alias;
+		this.from = from;
+		if (studyIds != null) {
+			studyIds.forEach(this.studyIds::add);
+		}
+		if (studyCenterIds != null) {
+			for (Pair<Long, Long> studyCenter : studyCenterIds) {
+				centerIdsByStudy.computeIfAbsent(studyCenter.getFirst(), id -> new HashSet<>()).add(studyCenter.getSecond());
+			}
+		}
+	}
+
+	/**
+	 * Adds a condition on the entities.
+	 *
+	 * @param condition the jpql condition, using the parameter
+	 * @param name the parameter name
+	 * @param value the parameter value
+	 * @return this query
+	 */
+	public StudyCenterPageQuery<T> and(String condition, String name, Object value) {
+		conditions.add(condition);
+		parameters.put(name, value);
+		return this;
+	}
+
+	/**
+	 * @param sort
+	 * @return all the entities, sorted
+	 */
+	public List<T> findAll(Sort sort) {
+		if (studyIds.isEmpty() && centerIdsByStudy.isEmpty()) {
+			return new ArrayList<>();
+		}
+		String queryStr = "select " + alias + " " + getQueryEnd() + getOrderBy(sort);
+		LOG.debug("{} query : {}", type.getSimpleName(), queryStr);
+		TypedQuery<T> query = entityManager.createQuery(queryStr, type);
+		setParameters(query);
+		return query.getResultList();
+	}
+
+	/**
+	 * @param pageable
+	 * @return the page of entities, with the total count
+	 */
+	public Page<T> findPage(Pageable pageable) {
+		if (studyIds.isEmpty() && centerIdsByStudy.isEmpty()) {
+			return new PageImpl<>(new ArrayList<>(), pageable, 0);
+		}
+		String queryEnd = getQueryEnd();
+		TypedQuery<Long> countQuery = entityManager.createQuery("select count(" + alias + ") " + queryEnd, Long.class);
+		setParameters(countQuery);
+		long total = countQuery.getSingleResult();
+		if (total <= pageable.getOffset()) {
+			return new PageImpl<>(new ArrayList<>(), pageable, total);
+		}
+
+		// id added to the sort, for the pages not to overlap
+		String idsQueryStr = "select " + alias + ".id " + queryEnd + getOrderBy(pageable.getSort().and(Sort.by("id")));
+		LOG.debug("{} paging query : {}", type.getSimpleName(), idsQueryStr);
+		TypedQuery<Long> idsQuery = entityManager.createQuery(idsQueryStr, Long.class);
+		setParameters(idsQuery);
+		idsQuery.setFirstResult(Math.toIntExact(pageable.getOffset()));
+		idsQuery.setMaxResults(pageable.getPageSize());
+		List<Long> ids = idsQuery.getResultList();
+		if (ids.isEmpty()) {
+			return new PageImpl<>(new ArrayList<>(), pageable, total);
+		}
+
+		Map<Long, T> entitiesById = new HashMap<>();
+		entityManager.createQuery("select e from " + type.getSimpleName() + " e where e.id in :ids", type)
+				.setParameter("ids", ids).getResultList()
+				.forEach(entity -> entitiesById.put(entity.getId(), entity));
+		List<T> entities = new ArrayList<>(ids.size());
+		for (Long id : ids) {
+			entities.add(entitiesById.get(id));
+		}
+		return new PageImpl<>(entities, pageable, total);
+	}
+
+	private String getQueryEnd() {
+		List<String> studyCenterTerms = new ArrayList<>();
+		if (!studyIds.isEmpty()) {
+			studyCenterTerms.add("ex.studyId in :studyIds");
+		}
+		for (int i = 0; i < centerIdsByStudy.size(); i++) {
+			studyCenterTerms.add("(ex.studyId = :study" + i + " and ex.centerId in :centers" + i + ")");
+		}
+		String queryEnd = "from " + from + " where (" + String.join(" or ", studyCenterTerms) + ")";
+		for (String condition : conditions) {
+			queryEnd += " and " + condition;
+		}
+		return queryEnd;
+	}
+
+	private String getOrderBy(Sort sort) {
+		if (sort == null || sort.isUnsorted()) {
+			return "";
+		}
+		List<String> orders = new ArrayList<>();
+		Set<String> properties = new HashSet<>();
+		for (Sort.Order order : sort) {
+			// Sort.and keeps the duplicates
+			if (properties.add(order.getProperty())) {
+				orders.add(alias + "." + order.getProperty() + " " + order.getDirection());
+			}
+		}
+		return " order by " + String.join(", ", orders);
+	}
+
+	private void setParameters(Query query) {
+		if (!studyIds.isEmpty()) {
+			query.setParameter("studyIds", studyIds);
+		}
+		int i = 0;
+		for (Map.Entry<Long, Set<Long>> entry : centerIdsByStudy.entrySet()) {
+			query.setParameter("study" + i, entry.getKey());
+			query.setParameter("centers" + i, entry.getValue());
+			i++;
+		}
+		parameters.forEach(query::setParameter);
+	}
+
+}
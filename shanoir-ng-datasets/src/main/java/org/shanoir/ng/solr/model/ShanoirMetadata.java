@@ -20,12 +20,14 @@
 package org.shanoir.ng.solr.model;
 
 import java.time.LocalDate;
+import java.util.List;
 
 import javax.persistence.ColumnResult;
 import javax.persistence.ConstructorResult;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.SqlResultSetMapping;
+import javax.persistence.Transient;
 
 import org.shanoir.ng.dataset.modality.MrDatasetNature;
 import org.shanoir.ng.dataset.model.DatasetModalityType;
@@ -83,6 +85,10 @@ public class ShanoirMetadata {
 	private Double magneticFieldStrength;
 	
 	private Long subjectId;
+
+	/** Tags of the subject in the study, not part of the result mapping. */
+	@Transient
+	private List<String> tags;
 	
 	public ShanoirMetadata () {
 		
@@ -310,5 +316,19 @@ public class ShanoirMetadata {
 	public void setSubjectId(Long subjectId) {
 		this.subjectId = subjectId;
 	}
-	
-}
\ No newline at end of file
+
+	/**
+	 * @return the tags
+	 */
+	public List<String> getTags() {
+		return tags;
+	}
+
+	/**
+	 * @param tags the tags to set
+	 */
+	public void setTags(List<String> tags) {
+		this.tags = tags;
+	}
+
+}
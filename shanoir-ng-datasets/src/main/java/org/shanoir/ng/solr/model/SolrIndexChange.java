@@ -0,0 +1,83 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.solr.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import org.shanoir.ng.shared.core.model.AbstractEntity;
+
+/**
+ * Entry of the solr index change log: an object whose datasets have to be
+ * (re)indexed. The log is written in the same transaction as the change itself,
+ * and consumed in id order by the incremental indexing of SolrService.
+ *
+ */
+@Entity
+@Table(name = "solr_index_change")
+public class SolrIndexChange extends AbstractEntity {
+
+	/**
+	 * UID
+	 */
+	private static final long serialVersionUID = 4530412874602385547L;
+
+	/** Type of the changed object, see SolrIndexChangeType. */
+	private Integer objectType;
+
+	/** Id of the changed object. */
+	private Long objectId;
+
+	public SolrIndexChange() {
+	}
+
+	public SolrIndexChange(final SolrIndexChangeType objectType, final Long objectId) {
+		setObjectType(objectType);
+		this.objectId = objectId;
+	}
+
+	/**
+	 * @return the objectType
+	 */
+	public SolrIndexChangeType getObjectType() {
+		return SolrIndexChangeType.getType(objectType);
+	}
+
+	/**
+	 * @param objectType the objectType to set
+	 */
+	public void setObjectType(SolrIndexChangeType objectType) {
+		if (objectType == null) {
+			this.objectType = null;
+		} else {
+			this.objectType = objectType.getId();
+		}
+	}
+
+	/**
+	 * @return the objectId
+	 */
+	public Long getObjectId() {
+		return objectId;
+	}
+
+	/**
+	 * @param objectId the objectId to set
+	 */
+	public void setObjectId(Long objectId) {
+		this.objectId = objectId;
+	}
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.solr.model;
+
+/**
+ * Type of the object concerned by a solr index change.
+ *
+ */
+public enum SolrIndexChangeType {
+
+	/**
+	 * Dataset created, updated or deleted.
+	 */
+	DATASET(1),
+
+	/**
+	 * Examination updated: all its datasets.
+	 */
+	EXAMINATION(2),
+
+	/**
+	 * Subject updated: all its datasets.
+	 */
+	SUBJECT(3),
+
+	/**
+	 * Study updated (name, tags): all its datasets.
+	 */
+	STUDY(4),
+
+	/**
+	 * Center updated: all the datasets of its examinations.
+	 */
+	CENTER(5);
+
+	private int id;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param id
+	 *            id
+	 */
+	private SolrIndexChangeType(final int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Get a solr index change type by its id.
+	 * 
+	 * @param id
+	 *            type id.
+	 * @return solr index change type.
+	 */
+	public static SolrIndexChangeType getType(final Integer id) {
+		if (id == null) {
+			return null;
+		}
+		for (SolrIndexChangeType type : SolrIndexChangeType.values()) {
+			if (id.equals(type.getId())) {
+				return type;
+			}
+		}
+		throw new IllegalArgumentException("No matching solr index change type for id " + id);
+	}
+
+	/**
+	 * @return the id
+	 */
+	public int getId() {
+		return id;
+	}
+
+}
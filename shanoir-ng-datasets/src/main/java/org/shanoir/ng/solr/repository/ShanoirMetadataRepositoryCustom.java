@@ -22,20 +22,48 @@ package org.shanoir.ng.solr.repository;
 import java.util.List;
 
 import org.shanoir.ng.solr.model.ShanoirMetadata;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
 
 /**
  * @author yyao
  *
  */
 public interface ShanoirMetadataRepositoryCustom {
+
 	/**
-	 * Find in all tables information to construct ShanoirSolrDocument.
+	 * Find in all tables information to construct ShanoirSolrDocument, for the given datasets,
+	 * with the tags of their subject in their study.
+	 * A dataset can be returned more than once (processed dataset), the last result prevails.
 	 * 
-	 * @return list of ShanoirSolrDocument.
+	 * @param datasetIds the dataset ids.
+	 * @return list of ShanoirMetadata.
 	 */
-	List<ShanoirMetadata> findAllAsSolrDoc();
+	List<ShanoirMetadata> findSolrDocs(List<Long> datasetIds);
 
-	ShanoirMetadata findOneSolrDoc(Long datasetId);
+	/**
+	 * Find a page of dataset ids, ordered, starting after the given id.
+	 * 
+	 * @param lastDatasetId the last id of the previous page, 0 for the first page.
+	 * @param size the page size.
+	 * @return the dataset ids.
+	 */
+	List<Long> findDatasetIdsAfter(Long lastDatasetId, int size);
 
-	List<ShanoirMetadata> findSolrDocs(List<Long> datasetIds);
+	/**
+	 * Find the ids of the datasets directly attached to the given objects.
+	 * 
+	 * @param objectType type of the objects.
+	 * @param objectIds ids of the objects.
+	 * @return the dataset ids.
+	 */
+	List<Long> findDatasetIds(SolrIndexChangeType objectType, List<Long> objectIds);
+
+	/**
+	 * Find the ids of the processed and measurement datasets whose solr document
+	 * is built from the given datasets.
+	 * 
+	 * @param datasetIds the input/referenced dataset ids.
+	 * @return the derived dataset ids.
+	 */
+	List<Long> findDerivedDatasetIds(List<Long> datasetIds);
 }
@@ -21,7 +21,10 @@ package org.shanoir.ng.solr.repository;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
@@ -29,8 +32,7 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 
 import org.shanoir.ng.solr.model.ShanoirMetadata;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
@@ -43,125 +45,19 @@ import org.springframework.util.CollectionUtils;
 @SuppressWarnings("unchecked")
 public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryCustom {
 
-	private static final Logger LOG = LoggerFactory.getLogger(ShanoirMetadataRepositoryImpl.class);
-	
+	private static final String DATASET_IDS_QUERY = "SELECT d.id FROM dataset d"
+			+ " LEFT JOIN dataset_acquisition da ON da.id = d.dataset_acquisition_id"
+			+ " LEFT JOIN examination e ON e.id = da.examination_id";
+
 	@PersistenceContext
 	private EntityManager em;
 	
 	@Override
-	public List<ShanoirMetadata> findAllAsSolrDoc() {
-		List<ShanoirMetadata> result = new ArrayList<>();
-		Query mrQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, mdm.mr_dataset_nature as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, mrp.slice_thickness as sliceThickness, mrp.pixel_bandwidth as pixelBandwidth, mrp.magnetic_field_strength as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN mr_dataset_acquisition mda on mda.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN mr_protocol mrp on mrp.id = mda.mr_protocol_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, dataset_metadata dm, mr_dataset md"
-				+ " LEFT JOIN mr_dataset_metadata mdm ON md.updated_mr_metadata_id = mdm.id"
-				+ " WHERE d.updated_metadata_id = dm.id AND md.id = d.id", "SolrResult");
-		Query petQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, pet_dataset pd, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND pd.id = d.id", "SolrResult");
-		Query ctQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, ct_dataset cd, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND cd.id = d.id;", "SolrResult");
-		Query genericQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, generic_dataset cd, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND cd.id = d.id", "SolrResult");
-		Query eegQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, eeg_dataset ed, dataset_metadata dm"
-				+ " WHERE d.origin_metadata_id = dm.id AND ed.id = d.id", "SolrResult");
-		Query bidsQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, bids_dataset ed, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND ed.id = d.id", "SolrResult");
-		Query processedQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId"
-				+ ", dm.name as datasetName"
-				+ ", dm.dataset_modality_type as datasetType"
-				+ ", null as datasetNature"
-				+ ", d.creation_date as datasetCreationDate"
-				+ ", e.comment as examinationComment"
-				+ ", e.examination_date as examinationDate"
-				+ ", su.name as subjectName"
-				+ ", su.id as subjectId"
-				+ ", st.name as studyName"
-				+ ", e.study_id as studyId"
-				+ ", c.name as centerName"
-				+ ", null as sliceThickness"
-				+ ", null as pixelBandwidth"
-				+ ", null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset dp ON dp.id ="
-				+ " (SELECT dataset_id from input_of_dataset_processing WHERE processing_id = d.dataset_processing_id LIMIT 1)"
-				+ " LEFT JOIN dataset_acquisition da on da.id = dp.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, dataset_metadata dm"
-				+ " WHERE d.origin_metadata_id = dm.id"
-				+ " AND d.dataset_processing_id is not null;", "SolrResult");
-		Query measurementQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, "
-						+ "d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, "
-						+ "su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, "
-						+ "null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset refd ON refd.id = d.referenced_dataset_for_superimposition_id"
-				+ " LEFT JOIN dataset_acquisition da on da.id = refd.dataset_acquisition_id"				
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, measurement_dataset md, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND md.id = d.id", "SolrResult");
-
-		result.addAll(mrQuery.getResultList());
-		result.addAll(petQuery.getResultList());
-		result.addAll(ctQuery.getResultList());
-		result.addAll(eegQuery.getResultList());
-		result.addAll(bidsQuery.getResultList());
-		result.addAll(genericQuery.getResultList());
-		result.addAll(processedQuery.getResultList());
-		result.addAll(measurementQuery.getResultList());
-
-		return result;
-	}
-
-	@Override
-	public ShanoirMetadata findOneSolrDoc(Long datasetId) {
+	public List<ShanoirMetadata> findSolrDocs(List<Long> datasetIds) {
+		if (CollectionUtils.isEmpty(datasetIds)) {
+			return Collections.emptyList();
+		}
+		String ids = datasetIds.stream().map(element -> element.toString()).collect(Collectors.joining(","));
 		List<ShanoirMetadata> result = new ArrayList<>();
 
 		Query mrQuery = em.createNativeQuery(
@@ -175,7 +71,7 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 				+ " LEFT JOIN center c ON c.id = e.center_id"
 				+ " LEFT JOIN subject su ON su.id = d.subject_id, dataset_metadata dm, mr_dataset md"
 				+ " LEFT JOIN mr_dataset_metadata mdm ON md.updated_mr_metadata_id = mdm.id"
-				+ " WHERE d.updated_metadata_id = dm.id AND md.id = d.id AND d.id = " + datasetId + ";", "SolrResult");
+				+ " WHERE d.updated_metadata_id = dm.id AND md.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
 		Query petQuery = em.createNativeQuery(
 				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
 				+ " FROM dataset d"
@@ -184,7 +80,7 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 				+ " LEFT JOIN study st ON st.id = e.study_id"
 				+ " LEFT JOIN center c ON c.id = e.center_id"
 				+ " LEFT JOIN subject su ON su.id = d.subject_id, pet_dataset pd, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND pd.id = d.id AND d.id = " + datasetId + ";", "SolrResult");
+				+ " WHERE d.updated_metadata_id = dm.id AND pd.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
 		Query ctQuery = em.createNativeQuery(
 				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
 				+ " FROM dataset d"
@@ -193,7 +89,7 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 				+ " LEFT JOIN study st ON st.id = e.study_id"
 				+ " LEFT JOIN center c ON c.id = e.center_id"
 				+ " LEFT JOIN subject su ON su.id = d.subject_id, ct_dataset cd, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND cd.id = d.id AND d.id = " + datasetId + ";", "SolrResult");
+				+ " WHERE d.updated_metadata_id = dm.id AND cd.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
 		Query genericQuery = em.createNativeQuery(
 				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
 				+ " FROM dataset d"
@@ -202,7 +98,7 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 				+ " LEFT JOIN study st ON st.id = e.study_id"
 				+ " LEFT JOIN center c ON c.id = e.center_id"
 				+ " LEFT JOIN subject su ON su.id = d.subject_id, generic_dataset gd, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND gd.id = d.id AND d.id = " + datasetId + ";", "SolrResult");
+				+ " WHERE d.updated_metadata_id = dm.id AND gd.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
 		Query eegQuery = em.createNativeQuery(
 				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
 				+ " FROM dataset d"
@@ -211,7 +107,7 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 				+ " LEFT JOIN study st ON st.id = e.study_id"
 				+ " LEFT JOIN center c ON c.id = e.center_id"
 				+ " LEFT JOIN subject su ON su.id = d.subject_id, eeg_dataset ed, dataset_metadata dm"
-				+ " WHERE d.origin_metadata_id = dm.id AND ed.id = d.id AND d.id = " + datasetId + ";", "SolrResult");
+				+ " WHERE d.origin_metadata_id = dm.id AND ed.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
 		Query bidsQuery = em.createNativeQuery(
 				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
 				+ " FROM dataset d"
@@ -220,7 +116,7 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 				+ " LEFT JOIN study st ON st.id = e.study_id"
 				+ " LEFT JOIN center c ON c.id = e.center_id"
 				+ " LEFT JOIN subject su ON su.id = d.subject_id, bids_dataset ed, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND ed.id = d.id AND d.id = " + datasetId + ";", "SolrResult");
+				+ " WHERE d.updated_metadata_id = dm.id AND ed.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
 		Query processedQuery = em.createNativeQuery(
 				"SELECT d.id as datasetId"
 				+ ", dm.name as datasetName"
@@ -236,7 +132,7 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 				+ ", c.name as centerName"
 				+ ", null as sliceThickness"
 				+ ", null as pixelBandwidth"
-				+ ", null as magneticFieldStrength"
+				+ ", null as magneticFieldStrength\n"
 				+ " FROM dataset d"
 				+ " LEFT JOIN dataset dp ON dp.id ="
 				+ " (SELECT dataset_id from input_of_dataset_processing WHERE processing_id = d.dataset_processing_id LIMIT 1)"
@@ -246,8 +142,7 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 				+ " LEFT JOIN center c ON c.id = e.center_id"
 				+ " LEFT JOIN subject su ON su.id = d.subject_id, dataset_metadata dm"
 				+ " WHERE d.origin_metadata_id = dm.id"
-				+ " AND d.id = " + datasetId
-				+ " AND d.dataset_processing_id is not null;", "SolrResult");
+				+ " AND d.dataset_processing_id is not null AND d.id IN (" + ids + ");", "SolrResult");
 		Query measurementQuery = em.createNativeQuery(
 				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, "
 						+ "null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, "
@@ -260,7 +155,7 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 				+ " LEFT JOIN study st ON st.id = e.study_id"
 				+ " LEFT JOIN center c ON c.id = e.center_id"
 				+ " LEFT JOIN subject su ON su.id = d.subject_id, measurement_dataset md, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND md.id = d.id AND d.id = " + datasetId + ";", "SolrResult");
+				+ " WHERE d.updated_metadata_id = dm.id AND md.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
 		
 		result.addAll(mrQuery.getResultList());
 		result.addAll(petQuery.getResultList());
@@ -270,108 +165,87 @@ public class ShanoirMetadataRepositoryImpl implements ShanoirMetadataRepositoryC
 		result.addAll(genericQuery.getResultList());
 		result.addAll(processedQuery.getResultList());
 		result.addAll(measurementQuery.getResultList());
-		
-		List<ShanoirMetadata> processedResult = processedQuery.getResultList();
-		
-		if (!processedResult.isEmpty()) {
-			return processedResult.get(0);
+
+		setTags(result);
+		return result;
+	}
+
+	/**
+	 * Sets the tags of the subjects in their studies, with one query for all the given metadata.
+	 */
+	private void setTags(List<ShanoirMetadata> metadatas) {
+		List<Long> studyIds = metadatas.stream().map(ShanoirMetadata::getStudyId).filter(Objects::nonNull).distinct().collect(Collectors.toList());
+		List<Long> subjectIds = metadatas.stream().map(ShanoirMetadata::getSubjectId).filter(Objects::nonNull).distinct().collect(Collectors.toList());
+		if (studyIds.isEmpty() || subjectIds.isEmpty()) {
+			return;
 		}
-		
-		if (result.size() != 1) {
-			LOG.error("Solr query returned multiple result for a single query. Please check database consistency.");
-			return null;
+		Query tagQuery = em.createNativeQuery("SELECT ss.study_id, ss.subject_id, t.name FROM subject_study ss"
+				+ " INNER JOIN subject_study_tag sst ON sst.subject_study_id = ss.id"
+				+ " INNER JOIN tag t ON t.id = sst.tags_id"
+				+ " WHERE ss.study_id IN (:studyIds) AND ss.subject_id IN (:subjectIds)");
+		tagQuery.setParameter("studyIds", studyIds);
+		tagQuery.setParameter("subjectIds", subjectIds);
+		Map<String, List<String>> tags = new HashMap<>();
+		for (Object[] row : (List<Object[]>) tagQuery.getResultList()) {
+			tags.computeIfAbsent(row[0] + "_" + row[1], key -> new ArrayList<>()).add((String) row[2]);
+		}
+		for (ShanoirMetadata metadata : metadatas) {
+			metadata.setTags(tags.get(metadata.getStudyId() + "_" + metadata.getSubjectId()));
 		}
-		
-		return result.get(0);
 	}
 
 	@Override
-	public List<ShanoirMetadata> findSolrDocs(List<Long> datasetIds) {
-		if (CollectionUtils.isEmpty(datasetIds)) {
+	public List<Long> findDatasetIdsAfter(Long lastDatasetId, int size) {
+		// Keyset pagination: each page is read from the primary key index, whatever its offset
+		Query query = em.createNativeQuery("SELECT d.id FROM dataset d WHERE d.id > :lastId ORDER BY d.id");
+		query.setParameter("lastId", lastDatasetId);
+		query.setMaxResults(size);
+		return toIds(query.getResultList());
+	}
+
+	@Override
+	public List<Long> findDatasetIds(SolrIndexChangeType objectType, List<Long> objectIds) {
+		if (CollectionUtils.isEmpty(objectIds)) {
 			return Collections.emptyList();
 		}
-		String ids = datasetIds.stream().map(element -> element.toString()).collect(Collectors.joining(","));
-		List<ShanoirMetadata> result = new ArrayList<>();
+		String where;
+		switch (objectType) {
+			case DATASET:
+				where = " WHERE d.id IN (:ids)";
+				break;
+			case EXAMINATION:
+				where = " WHERE e.id IN (:ids)";
+				break;
+			case SUBJECT:
+				where = " WHERE d.subject_id IN (:ids)";
+				break;
+			case STUDY:
+				where = " WHERE e.study_id IN (:ids) OR d.study_id IN (:ids)";
+				break;
+			case CENTER:
+				where = " WHERE e.center_id IN (:ids)";
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown solr index change type " + objectType);
+		}
+		Query query = em.createNativeQuery(DATASET_IDS_QUERY + where);
+		query.setParameter("ids", objectIds);
+		return toIds(query.getResultList());
+	}
 
-		Query mrQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, mdm.mr_dataset_nature as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, mrp.slice_thickness as sliceThickness, mrp.pixel_bandwidth as pixelBandwidth, mrp.magnetic_field_strength as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN mr_dataset_acquisition mda on mda.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN mr_protocol mrp on mrp.id = mda.mr_protocol_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, dataset_metadata dm, mr_dataset md"
-				+ " LEFT JOIN mr_dataset_metadata mdm ON md.updated_mr_metadata_id = mdm.id"
-				+ " WHERE d.updated_metadata_id = dm.id AND md.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
-		Query petQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, pet_dataset pd, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND pd.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
-		Query ctQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, ct_dataset cd, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND cd.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
-		Query genericQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, generic_dataset gd, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND gd.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
-		Query eegQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, eeg_dataset ed, dataset_metadata dm"
-				+ " WHERE d.origin_metadata_id = dm.id AND ed.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
-		Query bidsQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset_acquisition da on da.id = d.dataset_acquisition_id"
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, bids_dataset ed, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND ed.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
-		Query measurementQuery = em.createNativeQuery(
-				"SELECT d.id as datasetId, dm.name as datasetName, dm.dataset_modality_type as datasetType, "
-						+ "null as datasetNature, d.creation_date as datasetCreationDate, e.comment as examinationComment, "
-						+ "e.examination_date as examinationDate, su.name as subjectName, su.id as subjectId, st.name as studyName, "
-						+ "e.study_id as studyId, c.name as centerName, null as sliceThickness, null as pixelBandwidth, null as magneticFieldStrength\n"
-				+ " FROM dataset d"
-				+ " LEFT JOIN dataset refd ON refd.id = d.referenced_dataset_for_superimposition_id"
-				+ " LEFT JOIN dataset_acquisition da on da.id = refd.dataset_acquisition_id"				
-				+ " LEFT JOIN examination e ON e.id = da.examination_id"
-				+ " LEFT JOIN study st ON st.id = e.study_id"
-				+ " LEFT JOIN center c ON c.id = e.center_id"
-				+ " LEFT JOIN subject su ON su.id = d.subject_id, measurement_dataset md, dataset_metadata dm"
-				+ " WHERE d.updated_metadata_id = dm.id AND md.id = d.id AND d.id IN (" + ids + ");", "SolrResult");
-		
-		result.addAll(mrQuery.getResultList());
-		result.addAll(petQuery.getResultList());
-		result.addAll(ctQuery.getResultList());
-		result.addAll(eegQuery.getResultList());
-		result.addAll(bidsQuery.getResultList());
-		result.addAll(genericQuery.getResultList());
-		result.addAll(measurementQuery.getResultList());
+	@Override
+	public List<Long> findDerivedDatasetIds(List<Long> datasetIds) {
+		if (CollectionUtils.isEmpty(datasetIds)) {
+			return Collections.emptyList();
+		}
+		Query query = em.createNativeQuery("SELECT d.id FROM dataset d"
+				+ " WHERE d.referenced_dataset_for_superimposition_id IN (:ids)"
+				+ " OR d.dataset_processing_id IN (SELECT processing_id FROM input_of_dataset_processing WHERE dataset_id IN (:ids))");
+		query.setParameter("ids", datasetIds);
+		return toIds(query.getResultList());
+	}
 
-		return result;
+	private List<Long> toIds(List<Object> result) {
+		return result.stream().map(id -> ((Number) id).longValue()).collect(Collectors.toList());
 	}
-}
\ No newline at end of file
+}
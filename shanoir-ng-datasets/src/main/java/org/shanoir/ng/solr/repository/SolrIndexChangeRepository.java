@@ -0,0 +1,51 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.solr.repository;
+
+import java.util.List;
+
+import org.shanoir.ng.solr.model.SolrIndexChange;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Repository for the solr index change log.
+ *
+ */
+public interface SolrIndexChangeRepository extends CrudRepository<SolrIndexChange, Long> {
+
+	/**
+	 * Find the oldest changes of the log.
+	 * 
+	 * @param pageable the number of changes to get.
+	 * @return the changes, ordered by id.
+	 */
+	List<SolrIndexChange> findAllByOrderByIdAsc(Pageable pageable);
+
+	/**
+	 * Delete the given changes, once they are indexed. Only the changes read are deleted:
+	 * a change with a lower id can be committed after the read.
+	 * 
+	 * @param ids the indexed change ids.
+	 */
+	@Transactional
+	@Modifying
+	@Query("DELETE FROM SolrIndexChange c WHERE c.id IN ?1")
+	void deleteByIdIn(List<Long> ids);
+
+}
@@ -19,12 +19,14 @@
  */
 package org.shanoir.ng.solr.service;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.shanoir.ng.shared.exception.RestServiceException;
 import org.shanoir.ng.shared.paging.FacetPageable;
 import org.shanoir.ng.solr.model.ShanoirSolrDocument;
 import org.shanoir.ng.solr.model.ShanoirSolrQuery;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.solr.core.query.result.FacetFieldEntry;
@@ -44,12 +46,27 @@ public interface SolrService {
 	
 	public void deleteFromIndex(List<Long> datasetIds);
 	
+	/**
+	 * Rebuilds the whole index in a shadow core, then swaps it with the searched core.
+	 */
 	void indexAll();
 
+	/**
+	 * Logs objects whose datasets have to be reindexed, in the current transaction:
+	 * they are indexed asynchronously by indexChanges.
+	 * 
+	 * @param objectType type of the changed objects.
+	 * @param objectIds ids of the changed objects.
+	 */
+	void registerChanges(SolrIndexChangeType objectType, Collection<Long> objectIds);
+
+	/**
+	 * Indexes the datasets of the objects logged by registerChanges, in batches.
+	 */
+	void indexChanges();
+
 	SolrResultPage<ShanoirSolrDocument> facetSearch(ShanoirSolrQuery query, Pageable pageable) throws RestServiceException;
 
-	void indexDataset(Long datasetId);
-	
 	void indexDatasets(List<Long> datasetIds);
 
 	Page<ShanoirSolrDocument> getByIdIn(List<Long> datasetIds, Pageable pageable);
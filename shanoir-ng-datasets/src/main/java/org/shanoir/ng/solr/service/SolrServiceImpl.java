@@ -19,42 +19,57 @@
  */
 package org.shanoir.ng.solr.service;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.common.params.CoreAdminParams.CoreAdminAction;
 import org.shanoir.ng.shared.dateTime.DateTimeUtils;
 import org.shanoir.ng.shared.exception.RestServiceException;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
 import org.shanoir.ng.shared.model.Center;
-import org.shanoir.ng.shared.model.SubjectStudy;
-import org.shanoir.ng.shared.model.Tag;
 import org.shanoir.ng.shared.paging.PageImpl;
 import org.shanoir.ng.shared.repository.CenterRepository;
-import org.shanoir.ng.shared.repository.SubjectStudyRepository;
 import org.shanoir.ng.shared.security.rights.StudyUserRight;
 import org.shanoir.ng.solr.model.ShanoirMetadata;
 import org.shanoir.ng.solr.model.ShanoirSolrDocument;
 import org.shanoir.ng.solr.model.ShanoirSolrQuery;
+import org.shanoir.ng.solr.model.SolrIndexChange;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
 import org.shanoir.ng.solr.repository.ShanoirMetadataRepository;
+import org.shanoir.ng.solr.repository.SolrIndexChangeRepository;
 import org.shanoir.ng.solr.repository.SolrRepository;
 import org.shanoir.ng.study.rights.StudyUser;
 import org.shanoir.ng.study.rights.StudyUserRightsRepository;
 import org.shanoir.ng.utils.KeycloakUtil;
 import org.shanoir.ng.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.solr.core.SolrTemplate;
+import org.springframework.data.solr.core.query.Criteria;
+import org.springframework.data.solr.core.query.SimpleQuery;
 import org.springframework.data.solr.core.query.result.SolrResultPage;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Isolation;
-import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
@@ -65,7 +80,18 @@ import org.springframework.util.CollectionUtils;
 @Service
 public class SolrServiceImpl implements SolrService {
 
-	//	private static final Logger LOG = LoggerFactory.getLogger(SolrServiceImpl.class);
+	private static final Logger LOG = LoggerFactory.getLogger(SolrServiceImpl.class);
+
+	/** Core searched by the application, see ShanoirSolrDocument. */
+	private static final String SOLR_CORE = "shanoir";
+
+	/** Core in which a full rebuild is done, before being swapped with the searched core. */
+	private static final String SOLR_REBUILD_CORE = "shanoir_rebuild";
+
+	private static final String DATASET_ID_FIELD = "datasetId";
+
+	@Value("${solr.batch.size:500}")
+	private int batchSize;
 
 	@Autowired
 	private SolrRepository solrRepository;
@@ -74,14 +100,26 @@ public class SolrServiceImpl implements SolrService {
 	private ShanoirMetadataRepository shanoirMetadataRepository;
 
 	@Autowired
-	private StudyUserRightsRepository rightsRepository;
+	private SolrIndexChangeRepository solrIndexChangeRepository;
 
 	@Autowired
-	private SubjectStudyRepository subjectStudyRepo;
+	private StudyUserRightsRepository rightsRepository;
 
 	@Autowired
 	private CenterRepository centerRepository;
 
+	@Autowired
+	private SolrTemplate solrTemplate;
+
+	@Autowired
+	private SolrClient solrClient;
+
+	@Autowired
+	private ShanoirMetrics shanoirMetrics;
+
+	/** A full rebuild and the indexing of the change log must not overlap. */
+	private final ReentrantLock indexLock = new ReentrantLock();
+
 	@Transactional
 	@Override
 	public void addToIndex (final ShanoirSolrDocument document) {
@@ -98,102 +136,157 @@ public class SolrServiceImpl implements SolrService {
 	@Override
 	public void deleteFromIndex(Long datasetId) {
 		solrRepository.deleteByDatasetId(datasetId);
+		// A running full rebuild could have indexed it already in the shadow core
+		registerChanges(SolrIndexChangeType.DATASET, Collections.singletonList(datasetId));
 	}
 
 	@Transactional
 	@Override
 	public void deleteFromIndex(List<Long> datasetIds) {
 		solrRepository.deleteByDatasetIdIn(datasetIds);
-	}
-
-	@Transactional
-	public void deleteAll() {
-		solrRepository.deleteAll();
+		// A running full rebuild could have indexed them already in the shadow core
+		registerChanges(SolrIndexChangeType.DATASET, datasetIds);
 	}
 
 	@Transactional
 	@Override
-	@Scheduled(cron = "0 0 6 * * *", zone="Europe/Paris")
-	public void indexAll() {
-		// 1. delete all
-		deleteAll();
-
-		// 2. get all datasets
-		List<ShanoirMetadata> documents = shanoirMetadataRepository.findAllAsSolrDoc();
-		indexDocumentsInSolr(documents);
-	}
-
-	@Transactional
-	@Override
-	public void indexDatasets(List<Long> datasetIds) {
-		// Get all associated datasets and index them to solr
-		List<ShanoirMetadata> shanoirMetadatas = shanoirMetadataRepository.findSolrDocs(datasetIds);
-		indexDocumentsInSolr(shanoirMetadatas);
+	public void registerChanges(SolrIndexChangeType objectType, Collection<Long> objectIds) {
+		if (CollectionUtils.isEmpty(objectIds)) {
+			return;
+		}
+		List<SolrIndexChange> changes = objectIds.stream().filter(Objects::nonNull).distinct()
+				.map(objectId -> new SolrIndexChange(objectType, objectId)).collect(Collectors.toList());
+		solrIndexChangeRepository.saveAll(changes);
 	}
 
+	/**
+	 * Consumes the change log, batchSize changes at a time: the datasets of the changed
+	 * objects are reindexed, then exactly these changes are removed from the log. On failure,
+	 * the remaining changes are kept for the next run.
+	 * Nothing is done while a full rebuild is running: the changes are indexed after the swap.
+	 */
 	@Override
-	@Transactional(isolation = Isolation.READ_UNCOMMITTED,  propagation = Propagation.REQUIRES_NEW)
-	public void indexDataset(Long datasetId) {
-		ShanoirMetadata shanoirMetadata = shanoirMetadataRepository.findOneSolrDoc(datasetId);
-		if (shanoirMetadata == null) throw new IllegalStateException("shanoir metadata with id " +  datasetId + " query failed to return any result");
-		ShanoirSolrDocument doc = getShanoirSolrDocument(shanoirMetadata);
-
-		// Get tags
-		List<SubjectStudy> list = subjectStudyRepo.findByStudyIdInAndSubjectIdIn(Collections.singletonList(shanoirMetadata.getStudyId()), Collections.singletonList(shanoirMetadata.getSubjectId()));
-
-		List<String> tags = new ArrayList<>();
-		if (list != null) {
-			for (SubjectStudy susu : list) {
-				if (susu.getTags() != null) {
-					for (Tag tag : susu.getTags()) {
-						tags.add(tag.getName());
+	@Scheduled(fixedDelayString = "${solr.changes.delay:10000}")
+	public void indexChanges() {
+		if (!indexLock.tryLock()) {
+			return;
+		}
+		try {
+			List<SolrIndexChange> changes;
+			while (!(changes = solrIndexChangeRepository.findAllByOrderByIdAsc(PageRequest.of(0, batchSize))).isEmpty()) {
+				Map<SolrIndexChangeType, List<Long>> objectIdsByType = changes.stream().collect(Collectors.groupingBy(
+						SolrIndexChange::getObjectType, Collectors.mapping(SolrIndexChange::getObjectId, Collectors.toList())));
+				Set<Long> datasetIds = new TreeSet<>();
+				for (Map.Entry<SolrIndexChangeType, List<Long>> objectIds : objectIdsByType.entrySet()) {
+					if (objectIds.getKey() == SolrIndexChangeType.DATASET) {
+						// Kept as is: the deleted datasets have to be removed from the index
+						datasetIds.addAll(objectIds.getValue());
+					} else {
+						List<Long> ids = shanoirMetadataRepository.findDatasetIds(objectIds.getKey(), objectIds.getValue());
+						datasetIds.addAll(ids);
+						for (List<Long> batch : partition(ids)) {
+							datasetIds.addAll(shanoirMetadataRepository.findDerivedDatasetIds(batch));
+						}
 					}
 				}
+				for (List<Long> batch : partition(new ArrayList<>(datasetIds))) {
+					indexBatch(batch, SOLR_CORE);
+					solrTemplate.commit(SOLR_CORE);
+				}
+				solrIndexChangeRepository.deleteByIdIn(changes.stream().map(SolrIndexChange::getId).collect(Collectors.toList()));
+				LOG.debug("Solr: {} changes indexed, {} datasets updated.", changes.size(), datasetIds.size());
 			}
+		} catch (RuntimeException e) {
+			LOG.error("Solr: could not index the change log, it will be retried.", e);
+		} finally {
+			indexLock.unlock();
 		}
+	}
 
-		doc.setTags(tags);
+	/**
+	 * Rebuilds the whole index in the shadow core, batchSize datasets at a time, and swaps it
+	 * with the searched core at the end: the searched core stays complete during the rebuild.
+	 * The changes logged meanwhile are indexed after the swap by indexChanges.
+	 */
+	@Override
+	@Scheduled(cron = "${solr.rebuild.cron:-}", zone="Europe/Paris")
+	public void indexAll() {
+		indexLock.lock();
+		try {
+			// 1. clear the shadow core (the previous index after the last swap)
+			solrTemplate.delete(SOLR_REBUILD_CORE, new SimpleQuery("*:*"));
+
+			// 2. index all datasets in the shadow core, page by page: only one page is in memory
+			long count = 0;
+			Long lastDatasetId = 0L;
+			List<Long> datasetIds;
+			while (!(datasetIds = shanoirMetadataRepository.findDatasetIdsAfter(lastDatasetId, batchSize)).isEmpty()) {
+				indexBatch(datasetIds, SOLR_REBUILD_CORE);
+				lastDatasetId = datasetIds.get(datasetIds.size() - 1);
+				count += datasetIds.size();
+			}
+			solrTemplate.commit(SOLR_REBUILD_CORE);
+
+			// 3. swap: the shadow core becomes the searched core
+			CoreAdminRequest swap = new CoreAdminRequest();
+			swap.setAction(CoreAdminAction.SWAP);
+			swap.setCoreName(SOLR_REBUILD_CORE);
+			swap.setOtherCoreName(SOLR_CORE);
+			swap.process(solrClient);
+			LOG.info("Solr: full rebuild of {} datasets done.", count);
+		} catch (SolrServerException | IOException e) {
+			throw new IllegalStateException("Solr: could not swap core " + SOLR_REBUILD_CORE + " with core " + SOLR_CORE, e);
+		} finally {
+			indexLock.unlock();
+		}
+	}
 
-		solrRepository.save(doc);
+	@Override
+	public void indexDatasets(List<Long> datasetIds) {
+		for (List<Long> batch : partition(datasetIds)) {
+			indexBatch(batch, SOLR_CORE);
+		}
+		solrTemplate.commit(SOLR_CORE);
 	}
 
-	private void indexDocumentsInSolr(List<ShanoirMetadata> metadatas) {
-		Iterator<ShanoirMetadata> docIt = metadatas.iterator();
+	/**
+	 * Indexes the given datasets in the given core, the datasets that do not exist anymore
+	 * are removed from it. No commit is done.
+	 */
+	private void indexBatch(List<Long> datasetIds, String core) {
+		// The last result prevails for a dataset, as with a full index
+		Map<Long, ShanoirMetadata> metadatas = new LinkedHashMap<>();
+		for (ShanoirMetadata metadata : shanoirMetadataRepository.findSolrDocs(datasetIds)) {
+			metadatas.put(metadata.getDatasetId(), metadata);
+		}
+		List<Long> deletedIds = datasetIds.stream().filter(id -> !metadatas.containsKey(id)).collect(Collectors.toList());
+		shanoirMetrics.time(ShanoirMetrics.SOLR_INDEX, () -> {
+			if (!metadatas.isEmpty()) {
+				solrTemplate.saveBeans(core, getShanoirSolrDocuments(metadatas.values()));
+			}
+			if (!deletedIds.isEmpty()) {
+				solrTemplate.delete(core, new SimpleQuery(Criteria.where(DATASET_ID_FIELD).in(deletedIds)));
+			}
+			return null;
+		}, ShanoirMetrics.TAG_OPERATION, "indexBatch");
+	}
 
+	private List<ShanoirSolrDocument> getShanoirSolrDocuments(Collection<ShanoirMetadata> metadatas) {
 		List<ShanoirSolrDocument> solrDocuments = new ArrayList<>();
-
-		while (docIt.hasNext()) {
-			ShanoirMetadata shanoirMetadata = docIt.next();
+		for (ShanoirMetadata shanoirMetadata : metadatas) {
 			ShanoirSolrDocument doc = getShanoirSolrDocument(shanoirMetadata);
+			doc.setTags(shanoirMetadata.getTags());
 			solrDocuments.add(doc);
 		}
+		return solrDocuments;
+	}
 
-		if (CollectionUtils.isEmpty(solrDocuments)) {
-			return;
-		}
-
-		List<SubjectStudy> subjstuds = Utils.toList(subjectStudyRepo.findAll());
-
-		Map<Long, Map<String, List<Tag>>> tags = new HashMap<>();
-
-		for (SubjectStudy subjstud : subjstuds) {
-			if (tags.get(subjstud.getStudy().getId()) == null) {
-				tags.put(subjstud.getStudy().getId(), new HashMap<>());
-			}
-			tags.get(subjstud.getStudy().getId()).put(subjstud.getSubject().getName(), subjstud.getTags() != null ? subjstud.getTags() : Collections.emptyList());
+	private List<List<Long>> partition(List<Long> ids) {
+		List<List<Long>> batches = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += batchSize) {
+			batches.add(ids.subList(i, Math.min(i + batchSize, ids.size())));
 		}
-		
-		// Update tags
-		for (ShanoirSolrDocument doc : solrDocuments) {
-			if (doc != null && tags != null && tags.get(doc.getStudyId()) != null) {
-				List<Tag> list = tags.get(doc.getStudyId()).get(doc.getSubjectName());
-				if (list != null && !list.isEmpty()) {
-					doc.setTags(list.stream().map(Tag::getName).collect(Collectors.toList()));
-				}				
-			}
-		}
-
-		this.addAllToIndex(solrDocuments);
+		return batches;
 	}
 
 	private ShanoirSolrDocument getShanoirSolrDocument(ShanoirMetadata shanoirMetadata) {
@@ -210,7 +303,9 @@ public class SolrServiceImpl implements SolrService {
 		SolrResultPage<ShanoirSolrDocument> result = null;
 		pageable = prepareTextFields(pageable);
 		if (KeycloakUtil.getTokenRoles().contains("ROLE_ADMIN")) {
-			result = solrRepository.findByFacetCriteriaForAdmin(query, pageable);
+			Pageable adminPageable = pageable;
+			result = shanoirMetrics.time(ShanoirMetrics.SOLR_QUERY, () -> solrRepository.findByFacetCriteriaForAdmin(query, adminPageable),
+					ShanoirMetrics.TAG_OPERATION, "facetSearch");
 		} else {
 			List<StudyUser> studyUsers = Utils.toList(rightsRepository.findByUserId(KeycloakUtil.getTokenUserId()));
 			Map<Long, List<String>> studiesCenter = new HashMap<>();
@@ -218,7 +313,9 @@ public class SolrServiceImpl implements SolrService {
 			for(StudyUser su : studyUsers) {
 				studiesCenter.put(su.getStudyId(), su.getCenterIds().stream().map(centerId -> findCenterName(centers, centerId)).collect(Collectors.toList()));
 			}
-			result = solrRepository.findByStudyIdInAndFacetCriteria(studiesCenter, query, pageable);
+			Pageable userPageable = pageable;
+			result = shanoirMetrics.time(ShanoirMetrics.SOLR_QUERY, () -> solrRepository.findByStudyIdInAndFacetCriteria(studiesCenter, query, userPageable),
+					ShanoirMetrics.TAG_OPERATION, "facetSearch");
 		}
 		return result;
 	}
@@ -252,13 +349,17 @@ public class SolrServiceImpl implements SolrService {
 		Page<ShanoirSolrDocument> result;
 		pageable = prepareTextFields(pageable);
 		if (KeycloakUtil.getTokenRoles().contains("ROLE_ADMIN")) {
-			result = solrRepository.findByDatasetIdIn(datasetIds, pageable);
+			Pageable adminPageable = pageable;
+			result = shanoirMetrics.time(ShanoirMetrics.SOLR_QUERY, () -> solrRepository.findByDatasetIdIn(datasetIds, adminPageable),
+					ShanoirMetrics.TAG_OPERATION, "getByIdIn");
 		} else {
 			List<Long> studyIds = rightsRepository.findDistinctStudyIdByUserId(KeycloakUtil.getTokenUserId(), StudyUserRight.CAN_SEE_ALL.getId());
 			if (studyIds.isEmpty()) {
 				return new PageImpl<>();
 			}
-			result = solrRepository.findByStudyIdInAndDatasetIdIn(studyIds, datasetIds, pageable);
+			Pageable userPageable = pageable;
+			result = shanoirMetrics.time(ShanoirMetrics.SOLR_QUERY, () -> solrRepository.findByStudyIdInAndDatasetIdIn(studyIds, datasetIds, userPageable),
+					ShanoirMetrics.TAG_OPERATION, "getByIdIn");
 		}
 		return result;
 	}
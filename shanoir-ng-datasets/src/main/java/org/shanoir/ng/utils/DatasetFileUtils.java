@@ -14,6 +14,7 @@ import org.springframework.web.util.UriUtils;
 import javax.mail.MessagingException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
@@ -24,12 +25,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipOutputStream;
 
 public class DatasetFileUtils {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatasetFileUtils.class);
 
+    /** Path separator inside zip files, whatever the platform. */
+    public static final String ZIP_SEPARATOR = "/";
+
 
     public static File getUserImportDir(String importDir) {
         final Long userId = KeycloakUtil.getTokenUserId();
@@ -75,50 +80,95 @@ public class DatasetFileUtils {
         for (Iterator<URL> iterator = urls.iterator(); iterator.hasNext();) {
             URL url =  iterator.next();
             File srcFile = new File(UriUtils.decode(url.getPath(), "UTF-8"));
+            String fileName = getNiftiFileName(srcFile, dataset, subjectName, keepName, index);
+            File destFile = new File(workFolder.getAbsolutePath() + File.separator + fileName);
+            Files.copy(srcFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            index++;
+        }
+    }
 
-            // Consider processed datasets
-            if (dataset.getDatasetProcessing() != null || dataset.getDatasetAcquisition() == null) {
-                File destFile = new File(workFolder.getAbsolutePath() + File.separator + srcFile.getName());
-                Files.copy(srcFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                index++;
-                continue;
+    /**
+     * Receives a list of URLs containing file:/// urls and writes the files directly
+     * as entries of the given zip stream, inside the folder zipFolderPath. Nothing is staged on disk.
+     * @param urls
+     * @param zipOutputStream
+     * @param zipFolderPath the folder of the entries inside the zip
+     * @param subjectName the subjectName
+     * @throws IOException
+     */
+    public static void zipNiftiFilesForURLs(final List<URL> urls, final ZipOutputStream zipOutputStream, final String zipFolderPath, Dataset dataset, Object subjectName, boolean keepName) throws IOException {
+        int index = 0;
+        for (Iterator<URL> iterator = urls.iterator(); iterator.hasNext();) {
+            URL url =  iterator.next();
+            File srcFile = new File(UriUtils.decode(url.getPath(), "UTF-8"));
+            String fileName = getNiftiFileName(srcFile, dataset, subjectName, keepName, index);
+            try (InputStream inputStream = Files.newInputStream(srcFile.toPath())) {
+                addToZip(zipOutputStream, zipFolderPath + ZIP_SEPARATOR + fileName, inputStream);
             }
+            index++;
+        }
+    }
+
+    /**
+     * Writes the content of inputStream as a new entry of the zip stream.
+     * A duplicated entry name is logged and ignored, as a copy on disk would have replaced the file.
+     * @param zipOutputStream
+     * @param entryName
+     * @param inputStream
+     * @throws IOException
+     */
+    public static void addToZip(final ZipOutputStream zipOutputStream, final String entryName, final InputStream inputStream) throws IOException {
+        try {
+            zipOutputStream.putNextEntry(new ZipEntry(entryName));
+        } catch (ZipException e) {
+            LOG.warn("Entry {} already exists in zip, ignored.", entryName);
+            return;
+        }
+        inputStream.transferTo(zipOutputStream);
+        zipOutputStream.closeEntry();
+    }
+
+    /**
+     * Theorical file name:  NomSujet_SeriesDescription_SeriesNumberInProtocol_SeriesNumberInSequence.nii(.gz)
+     * Processed datasets keep the name of their source file.
+     */
+    private static String getNiftiFileName(final File srcFile, Dataset dataset, Object subjectName, boolean keepName, int index) {
+        // Consider processed datasets
+        if (dataset.getDatasetProcessing() != null || dataset.getDatasetAcquisition() == null) {
+            return srcFile.getName();
+        }
 
-            // Theorical file name:  NomSujet_SeriesDescription_SeriesNumberInProtocol_SeriesNumberInSequence.nii(.gz)
-            StringBuilder name = new StringBuilder("");
+        StringBuilder name = new StringBuilder("");
 
-            if (keepName) {
-                name.append(srcFile.getName());
+        if (keepName) {
+            name.append(srcFile.getName());
+        } else {
+            name.append(subjectName).append("_");
+            if (dataset instanceof EegDataset) {
+                name.append(dataset.getName()).append("_");
             } else {
-                name.append(subjectName).append("_");
-                if (dataset instanceof EegDataset) {
-                    name.append(dataset.getName()).append("_");
-                } else {
-                    if (dataset.getUpdatedMetadata().getComment() != null) {
-                        name.append(dataset.getUpdatedMetadata().getComment()).append("_");
-                    }
-                    name.append(dataset.getDatasetAcquisition().getSortingIndex()).append("_");
-                    if (dataset.getUpdatedMetadata().getName() != null && dataset.getUpdatedMetadata().getName().lastIndexOf(" ") != -1) {
-                        name.append(dataset.getUpdatedMetadata().getName().substring(dataset.getUpdatedMetadata().getName().lastIndexOf(" ") + 1)).append("_");
-                    }
+                if (dataset.getUpdatedMetadata().getComment() != null) {
+                    name.append(dataset.getUpdatedMetadata().getComment()).append("_");
                 }
-                name.append(dataset.getDatasetAcquisition().getRank()).append("_")
-                        .append(index)
-                        .append(".");
-                if (srcFile.getName().endsWith(".nii.gz")) {
-                    name.append("nii.gz");
-                } else {
-                    name.append(FilenameUtils.getExtension(srcFile.getName()));
+                name.append(dataset.getDatasetAcquisition().getSortingIndex()).append("_");
+                if (dataset.getUpdatedMetadata().getName() != null && dataset.getUpdatedMetadata().getName().lastIndexOf(" ") != -1) {
+                    name.append(dataset.getUpdatedMetadata().getName().substring(dataset.getUpdatedMetadata().getName().lastIndexOf(" ") + 1)).append("_");
                 }
             }
-            String fileName = name.toString();
-            if (fileName.contains(File.separator)) {
-                fileName = fileName.replaceAll(File.separator, "_");
+            name.append(dataset.getDatasetAcquisition().getRank()).append("_")
+                    .append(index)
+                    .append(".");
+            if (srcFile.getName().endsWith(".nii.gz")) {
+                name.append("nii.gz");
+            } else {
+                name.append(FilenameUtils.getExtension(srcFile.getName()));
             }
-            File destFile = new File(workFolder.getAbsolutePath() + File.separator + fileName);
-            Files.copy(srcFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            index++;
         }
+        String fileName = name.toString();
+        if (fileName.contains(File.separator)) {
+            fileName = fileName.replaceAll(File.separator, "_");
+        }
+        return fileName;
     }
 
 }
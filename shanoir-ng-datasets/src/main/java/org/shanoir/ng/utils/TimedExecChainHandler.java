@@ -0,0 +1,60 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.utils;
+
+import java.io.IOException;
+
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times the requests of an http client to the PACS, until the response headers are
+ * received: the latency of the PACS, without the transfer of the response body.
+ * Added to the client with HttpClientBuilder.addExecInterceptorFirst().
+ */
+public class TimedExecChainHandler implements ExecChainHandler {
+
+	public static final String NAME = "metrics";
+
+	private final ShanoirMetrics metrics;
+
+	private final String metricName;
+
+	public TimedExecChainHandler(ShanoirMetrics metrics, String metricName) {
+		this.metrics = metrics;
+		this.metricName = metricName;
+	}
+
+	@Override
+	public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+			throws IOException, HttpException {
+		Timer.Sample sample = metrics.start();
+		String result = ShanoirMetrics.ERROR;
+		try {
+			ClassicHttpResponse response = chain.proceed(request, scope);
+			result = response.getCode() < 400 ? ShanoirMetrics.SUCCESS : Integer.toString(response.getCode());
+			return response;
+		} finally {
+			metrics.stop(sample, metricName, result, ShanoirMetrics.TAG_OPERATION, request.getMethod());
+		}
+	}
+
+}
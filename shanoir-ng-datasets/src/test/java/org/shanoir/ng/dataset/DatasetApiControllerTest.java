@@ -15,7 +15,9 @@
 package org.shanoir.ng.dataset;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.matchers.JUnitMatchers.containsString;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doNothing;
@@ -23,12 +25,19 @@ import static org.mockito.Mockito.times;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Before;
@@ -78,6 +87,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -293,6 +303,73 @@ public class DatasetApiControllerTest {
 		assertEquals(ShanoirEventType.DOWNLOAD_DATASET_EVENT, event.getEventType());
 	}
 
+	@Test
+	@WithMockKeycloakUser(id = 3, username = "jlouis", authorities = { "ROLE_ADMIN" })
+	public void testMassiveDownloadStreamedWithFailingDataset() throws Exception {
+		// GIVEN two dicom datasets, the second failing after its first file was sent
+		Dataset dataset = createDicomDataset(1L);
+		Dataset failingDataset = createDicomDataset(2L);
+		given(subjectRepository.findById(3L)).willReturn(Optional.of(subject));
+		Mockito.when(datasetServiceMock.findByIdIn(Mockito.anyList())).thenReturn(Arrays.asList(dataset, failingDataset));
+		Mockito.doAnswer(invocation -> {
+			ZipOutputStream zipOutputStream = invocation.getArgument(1);
+			Dataset downloaded = invocation.getArgument(4);
+			zipOutputStream.putNextEntry(new ZipEntry(invocation.getArgument(2) + "/" + downloaded.getId() + ".dcm"));
+			zipOutputStream.write("dicom".getBytes(StandardCharsets.UTF_8));
+			if (downloaded == failingDataset) {
+				throw new IOException("PACS unavailable");
+			}
+			zipOutputStream.closeEntry();
+			return null;
+		}).when(downloader).downloadDicomFilesForURLsAsZip(Mockito.anyList(), Mockito.any(ZipOutputStream.class), Mockito.anyString(), Mockito.anyString(), Mockito.any(Dataset.class));
+
+		// WHEN we export them
+		MvcResult result = mvc.perform(MockMvcRequestBuilders.post("/datasets/massiveDownload")
+				.param("format", "dcm")
+				.param("datasetIds", "1,2"))
+		.andExpect(status().isOk())
+		.andReturn();
+
+		// THEN the zip is complete, and ends with the list of failing datasets
+		List<String> entries = new ArrayList<>();
+		String errors = null;
+		try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+			ZipEntry entry;
+			while ((entry = zipInputStream.getNextEntry()) != null) {
+				entries.add(entry.getName());
+				if (entry.getName().equals("0000_ERROR_datasets.txt")) {
+					errors = new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8);
+				}
+			}
+		}
+		assertEquals(3, entries.size());
+		assertEquals("0000_ERROR_datasets.txt", entries.get(2));
+		assertNotNull(errors);
+		assertTrue(errors.contains("(ID = 2)"));
+		assertFalse(errors.contains("(ID = 1)"));
+		assertTrue(errors.contains("incomplete"));
+
+		ArgumentCaptor<ShanoirEvent> eventCatcher = ArgumentCaptor.forClass(ShanoirEvent.class);
+		Mockito.verify(eventService, times(2)).publishEvent(eventCatcher.capture());
+		assertEquals(ShanoirEvent.ERROR, eventCatcher.getValue().getStatus());
+	}
+
+	private Dataset createDicomDataset(Long id) {
+		Dataset dataset = new MrDataset();
+		dataset.setId(id);
+		dataset.setSubjectId(3L);
+		dataset.setDatasetAcquisition(dsAcq);
+		dataset.setUpdatedMetadata(updatedMetadata);
+		DatasetExpression expr = new DatasetExpression();
+		expr.setDatasetExpressionFormat(DatasetExpressionFormat.DICOM);
+		DatasetFile dsFile = new DatasetFile();
+		dsFile.setPacs(true);
+		dsFile.setPath("http://pacs/wado?requestType=WADO&studyUID=1.2&seriesUID=1.2." + id + "&objectUID=1.2." + id + ".1&contentType=application/dicom");
+		expr.setDatasetFiles(Collections.singletonList(dsFile));
+		dataset.setDatasetExpressions(Collections.singletonList(expr));
+		return dataset;
+	}
+
 	@Test
 	@WithMockKeycloakUser(id = 3, username = "jlouis", authorities = { "ROLE_ADMIN" })
 	public void testMassiveDownloadByDatasetsIdNoIds() {
@@ -21,6 +21,8 @@ import static org.junit.Assert.assertTrue;
 import java.util.Arrays;
 import java.util.List;
 
+import org.apache.commons.math3.util.Pair;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.shanoir.ng.dataset.modality.MrDataset;
@@ -34,6 +36,9 @@ import org.shanoir.ng.utils.Utils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -147,6 +152,16 @@ public class DatasetRepositoryTest {
 		assertEquals("Pet", ((PetDataset)foundedPet1).getType());
 	}
 	
+	@Test
+	public void findPageByStudyCenterOrStudyIdInTest() throws ShanoirException {
+		// dataset 2 in center 2 of study 1, dataset 3 in study 3, dataset 1 in center 1 of study 1
+		List<Pair<Long, Long>> studyCenterIds = Arrays.asList(new Pair<>(1L, 2L));
+		Page<Dataset> page = repository.findPageByStudyCenterOrStudyIdIn(studyCenterIds, Arrays.asList(3L), PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "id")));
+		assertEquals(2, page.getTotalElements());
+		assertEquals(Long.valueOf(3L), page.getContent().get(0).getId());
+		assertEquals(Long.valueOf(2L), page.getContent().get(1).getId());
+	}
+	
 	@Test
 	public void loadingStrategyTest() throws ShanoirException {
 		assertNotNull(repository.findById(1L).orElse(null).getDatasetAcquisition());
@@ -0,0 +1,209 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.dataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.shanoir.ng.dataset.modality.MrDataset;
+import org.shanoir.ng.dataset.model.Dataset;
+import org.shanoir.ng.dataset.repository.DatasetRepository;
+import org.shanoir.ng.dataset.repository.DatasetStudyCenter;
+import org.shanoir.ng.dataset.security.DatasetSecurityService;
+import org.shanoir.ng.datasetacquisition.model.DatasetAcquisition;
+import org.shanoir.ng.datasetacquisition.model.mr.MrDatasetAcquisition;
+import org.shanoir.ng.datasetacquisition.repository.DatasetAcquisitionRepository;
+import org.shanoir.ng.examination.model.Examination;
+import org.shanoir.ng.examination.repository.ExaminationRepository;
+import org.shanoir.ng.processing.model.DatasetProcessing;
+import org.shanoir.ng.shared.event.ShanoirEventService;
+import org.shanoir.ng.shared.exception.EntityNotFoundException;
+import org.shanoir.ng.shared.repository.StudyRepository;
+import org.shanoir.ng.solr.service.SolrService;
+import org.shanoir.ng.study.rights.StudyRightsService;
+import org.shanoir.ng.study.rights.StudyUserRightsRepository;
+import org.shanoir.ng.utils.ModelsUtil;
+import org.shanoir.ng.utils.usermock.WithMockKeycloakUser;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Tests the rights on dataset lists of DatasetSecurityService: the connected user
+ * can see the study 1, not the study 2.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class DatasetSecurityServiceTest {
+
+	private static final long LOGGED_USER_ID = 2L;
+	private static final String LOGGED_USER_USERNAME = "logged";
+	private static final String RIGHT = "CAN_SEE_ALL";
+
+	private static final Long ALLOWED_STUDY_ID = 1L;
+	private static final Long FORBIDDEN_STUDY_ID = 2L;
+	private static final Long CENTER_ID = 1L;
+
+	@Autowired
+	private DatasetSecurityService datasetSecurityService;
+
+	@MockBean
+	private DatasetRepository datasetRepository;
+
+	@MockBean
+	private DatasetAcquisitionRepository datasetAcquisitionRepository;
+
+	@MockBean
+	private ExaminationRepository examinationRepository;
+
+	@MockBean
+	private StudyRightsService rightsService;
+
+	@MockBean
+	private StudyUserRightsRepository rightsRepository;
+
+	@MockBean
+	StudyRepository studyRepository;
+
+	@MockBean
+	private ShanoirEventService shanoirEventService;
+
+	@MockBean
+	private SolrService solrService;
+
+	private Map<Long, Dataset> datasets = new HashMap<>();
+
+	/** Related studies, by dataset id */
+	private Map<Long, Set<Long>> relatedStudyIds = new HashMap<>();
+
+	@Before
+	public void setup() {
+		given(rightsService.hasRightOnStudies(Mockito.anySet(), Mockito.eq(RIGHT))).willAnswer(invocation -> {
+			Set<Long> studyIds = new HashSet<>(invocation.getArgument(0));
+			studyIds.retainAll(Arrays.asList(ALLOWED_STUDY_ID));
+			return studyIds;
+		});
+		given(rightsService.hasRightOnCenter(Mockito.anyLong(), Mockito.anyLong())).willReturn(true);
+		given(rightsService.hasRightOnCenter(Mockito.anySet(), Mockito.anyLong())).willReturn(true);
+		given(datasetRepository.findStudyCenters(Mockito.anyCollection())).willAnswer(invocation -> {
+			List<DatasetStudyCenter> studyCenters = ModelsUtil.createStudyCenters(invocation.getArgument(0), datasets.values().toArray(new Dataset[0]));
+			for (DatasetStudyCenter studyCenter : studyCenters) {
+				studyCenter.getRelatedStudyIds().addAll(relatedStudyIds.getOrDefault(studyCenter.getDatasetId(), new HashSet<>()));
+			}
+			return studyCenters;
+		});
+	}
+
+	@Test
+	@WithMockKeycloakUser(id = LOGGED_USER_ID, username = LOGGED_USER_USERNAME, authorities = { "ROLE_USER" })
+	public void testProcessedDatasetWithInputInAnotherStudy() throws EntityNotFoundException {
+		Dataset allowed = createAcquiredDataset(1L, ALLOWED_STUDY_ID);
+		Dataset forbidden = createAcquiredDataset(2L, FORBIDDEN_STUDY_ID);
+		Dataset processedFromAllowed = createProcessedDataset(10L, allowed);
+		Dataset processedFromBoth = createProcessedDataset(11L, allowed, forbidden);
+		Dataset processedTwice = createProcessedDataset(12L, processedFromAllowed);
+
+		assertTrue(datasetSecurityService.hasRightOnEveryDataset(Arrays.asList(10L), RIGHT));
+		assertTrue(datasetSecurityService.hasRightOnEveryDataset(Arrays.asList(12L), RIGHT));
+		// every input is required for a processed dataset
+		assertFalse(datasetSecurityService.hasRightOnEveryDataset(Arrays.asList(11L), RIGHT));
+		// one input is enough for a trusted processed dataset
+		assertTrue(datasetSecurityService.hasAtLeastRightOnOneDataset(Arrays.asList(11L), RIGHT));
+
+		List<Dataset> list = new ArrayList<>(Arrays.asList(processedFromAllowed, processedFromBoth, processedTwice, forbidden));
+		datasetSecurityService.filterDatasetList(list, RIGHT);
+		assertEquals(Arrays.asList(processedFromAllowed, processedTwice), list);
+	}
+
+	@Test
+	@WithMockKeycloakUser(id = LOGGED_USER_ID, username = LOGGED_USER_USERNAME, authorities = { "ROLE_USER" })
+	public void testDatasetOfRelatedStudy() throws EntityNotFoundException {
+		Dataset shared = createAcquiredDataset(3L, FORBIDDEN_STUDY_ID);
+		relatedStudyIds.put(3L, new HashSet<>(Arrays.asList(ALLOWED_STUDY_ID)));
+		createProcessedDataset(13L, shared);
+
+		// the related studies are accepted for a trusted dataset only
+		assertTrue(datasetSecurityService.hasAtLeastRightOnOneDataset(Arrays.asList(3L), RIGHT));
+		assertFalse(datasetSecurityService.hasRightOnEveryDataset(Arrays.asList(3L), RIGHT));
+		// the inputs of a processed dataset are trusted
+		assertTrue(datasetSecurityService.hasRightOnEveryDataset(Arrays.asList(13L), RIGHT));
+	}
+
+	@Test
+	@WithMockKeycloakUser(id = LOGGED_USER_ID, username = LOGGED_USER_USERNAME, authorities = { "ROLE_USER" })
+	public void testQueryCountDoesNotDependOnListSize() {
+		for (int size : new int[] { 2, 40 }) {
+			datasets.clear();
+			Mockito.clearInvocations(datasetRepository, rightsService);
+			List<Dataset> list = new ArrayList<>();
+			for (long i = 0; i < size; i++) {
+				Dataset acquired = createAcquiredDataset(1000L + i, i % 2 == 0 ? ALLOWED_STUDY_ID : FORBIDDEN_STUDY_ID);
+				Dataset processed = createProcessedDataset(2000L + i, acquired);
+				list.add(createProcessedDataset(3000L + i, processed));
+			}
+
+			datasetSecurityService.filterDatasetList(list, RIGHT);
+
+			assertEquals(size / 2, list.size());
+			// one query per level of processing, one rights check
+			Mockito.verify(datasetRepository, Mockito.times(3)).findStudyCenters(Mockito.anyCollection());
+			Mockito.verify(rightsService, Mockito.times(1)).hasRightOnStudies(Mockito.anySet(), Mockito.eq(RIGHT));
+			Mockito.verify(datasetRepository, Mockito.never()).findAllById(Mockito.any());
+			Mockito.verify(datasetRepository, Mockito.never()).findById(Mockito.any());
+		}
+	}
+
+	private Dataset createAcquiredDataset(Long id, Long studyId) {
+		Examination examination = ModelsUtil.createExamination(id);
+		examination.setStudyId(studyId);
+		examination.setCenterId(CENTER_ID);
+		DatasetAcquisition acquisition = new MrDatasetAcquisition();
+		acquisition.setExamination(examination);
+		Dataset dataset = new MrDataset();
+		dataset.setId(id);
+		dataset.setDatasetAcquisition(acquisition);
+		datasets.put(id, dataset);
+		return dataset;
+	}
+
+	private Dataset createProcessedDataset(Long id, Dataset... inputs) {
+		DatasetProcessing processing = new DatasetProcessing();
+		processing.setId(id);
+		processing.setInputDatasets(new ArrayList<>(Arrays.asList(inputs)));
+		Dataset dataset = new MrDataset();
+		dataset.setId(id);
+		dataset.setDatasetProcessing(processing);
+		datasets.put(id, dataset);
+		return dataset;
+	}
+
+}
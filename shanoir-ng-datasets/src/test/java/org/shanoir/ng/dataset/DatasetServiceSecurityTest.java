@@ -22,9 +22,11 @@ import static org.shanoir.ng.utils.assertion.AssertUtils.assertAccessDenied;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
+import org.apache.commons.math3.util.Pair;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
@@ -427,7 +429,10 @@ public class DatasetServiceSecurityTest {
 		given(datasetRepository.findAll(Mockito.any(Pageable.class))).willReturn(new PageImpl<>(Arrays.asList(new Dataset[]{dataset1, dataset3})));
 		given(datasetRepository.findAll()).willReturn(Utils.toList(dataset1, dataset2, dataset3, dataset4));
 		given(rightsRepository.findDistinctStudyIdByUserId(LOGGED_USER_ID, StudyUserRight.CAN_SEE_ALL.getId())).willReturn(Arrays.asList(1L, 2L));
-		given(datasetRepository.findByDatasetAcquisitionExaminationStudyIdIn(Arrays.asList(1L, 2L), PageRequest.of(0, 10).getSort())).willReturn(new PageImpl<>((Arrays.asList(new Dataset[]{dataset1, dataset2, dataset3}))));
+		given(rightsRepository.findByUserIdAndRight(LOGGED_USER_ID, StudyUserRight.CAN_SEE_ALL.getId())).willReturn(Arrays.asList(new StudyUser[]{su1}));
+		List<Pair<Long, Long>> studyCenterIds = new ArrayList<>();
+		studyCenterIds.add(new Pair<Long, Long>(1L, 1L));
+		given(datasetRepository.findPageByStudyCenterOrStudyIdIn(studyCenterIds, new HashSet<Long>(), PageRequest.of(0, 10))).willReturn(new PageImpl<>(Arrays.asList(new Dataset[]{dataset1}), PageRequest.of(0, 10), 1));
 		given(datasetRepository.findByDatasetAcquisitionExaminationStudyId(1L)).willReturn(new PageImpl<>((Arrays.asList(new Dataset[]{dataset1, dataset3}))));
 		
 		given(datasetRepository.findAllById(Utils.toList(1L))).willReturn(Utils.toList(dataset1));
@@ -436,6 +441,8 @@ public class DatasetServiceSecurityTest {
 		given(datasetRepository.findAllById(Utils.toList(2L))).willReturn(Utils.toList(dataset2));
 		given(datasetRepository.findAllById(Utils.toList(3L))).willReturn(Utils.toList(dataset3));
 		given(datasetRepository.findAllById(Utils.toList(4L))).willReturn(Utils.toList(dataset4));
+		given(datasetRepository.findStudyCenters(Mockito.anyCollection())).willAnswer(invocation ->
+				ModelsUtil.createStudyCenters(invocation.getArgument(0), dataset1, dataset2, dataset3, dataset4));
 		given(datasetRepository.findAllById(Utils.toList(1L, 2L, 3L, 4L))).willReturn(Utils.toList(dataset1, dataset2, dataset3, dataset4));
 		
 		given(datasetRepository.findByDatasetAcquisitionId(1L)).willReturn(Utils.toList(dataset1));
@@ -0,0 +1,143 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.dicom.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.shanoir.ng.dicom.web.service.DICOMWebService;
+import org.shanoir.ng.examination.model.Examination;
+import org.shanoir.ng.examination.service.ExaminationService;
+import org.shanoir.ng.shared.paging.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Tests the studies search of DICOMWebApiController, with the QIDO-RS queries of
+ * DICOMWebService stubbed: the studies arrive in any order and can be shared.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DICOMWebApiControllerTest {
+
+	private static final String DICOM_TAG_STUDY_INSTANCE_UID = "0020000D";
+
+	@Mock
+	private ExaminationService examinationService;
+
+	@Mock
+	private DICOMWebService dicomWebService;
+
+	@Mock
+	private StudyInstanceUIDHandler studyInstanceUIDHandler;
+
+	@Spy
+	private ObjectMapper mapper = new ObjectMapper();
+
+	@InjectMocks
+	private DICOMWebApiController controller;
+
+	/** StudyInstanceUID by examination id, examinations 1 and 3 sharing the same study */
+	private Map<Long, String> studyInstanceUIDs = new HashMap<>();
+
+	@Before
+	public void setup() {
+		studyInstanceUIDs.put(1L, "1.2.3.1");
+		studyInstanceUIDs.put(2L, "1.2.3.2");
+		studyInstanceUIDs.put(3L, "1.2.3.1");
+		studyInstanceUIDs.put(4L, "1.2.3.missing");
+		List<Examination> examinations = new ArrayList<>();
+		for (long id = 1; id <= 5; id++) {
+			Examination examination = new Examination();
+			examination.setId(id);
+			examinations.add(examination);
+		}
+		given(examinationService.findPage(any(Pageable.class), (String) any())).willReturn(new PageImpl<>(examinations));
+		given(studyInstanceUIDHandler.findStudyInstanceUIDFromCacheOrDatabase(anyString())).willAnswer(invocation -> {
+			String examinationUID = invocation.getArgument(0);
+			return studyInstanceUIDs.get(Long.valueOf(examinationUID.substring(StudyInstanceUIDHandler.PREFIX.length())));
+		});
+		doAnswer(invocation -> {
+			JsonNode root = invocation.getArgument(0);
+			((ObjectNode) root).with(DICOM_TAG_STUDY_INSTANCE_UID).putArray("Value").add((String) invocation.getArgument(1));
+			return null;
+		}).when(studyInstanceUIDHandler).replaceStudyInstanceUIDsWithExaminationUIDs(any(JsonNode.class), anyString(), anyBoolean());
+	}
+
+	@Test
+	public void testFindStudies() throws Exception {
+		JsonNode sharedStudy = createStudy("1.2.3.1");
+		// the first study of the page arrives last
+		CompletableFuture<JsonNode> sharedStudyFuture = new CompletableFuture<>();
+		Map<String, CompletableFuture<JsonNode>> studies = new HashMap<>();
+		studies.put("1.2.3.1", sharedStudyFuture);
+		studies.put("1.2.3.2", CompletableFuture.completedFuture(createStudy("1.2.3.2")));
+		studies.put("1.2.3.missing", CompletableFuture.completedFuture(null));
+		given(dicomWebService.findStudies(eq(Arrays.asList("1.2.3.1", "1.2.3.2", "1.2.3.1", "1.2.3.missing")))).willReturn(studies);
+		Map<String, String> params = new HashMap<>();
+		params.put("offset", "0");
+		params.put("limit", "10");
+
+		ResponseEntity<StreamingResponseBody> response = controller.findStudies(params);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompletableFuture.runAsync(() -> sharedStudyFuture.complete(sharedStudy));
+		response.getBody().writeTo(out);
+
+		// valid json, in the order of the page, without the missing study nor the examination without study
+		JsonNode result = mapper.readTree(out.toByteArray());
+		assertEquals(3, result.size());
+		for (int i = 0; i < result.size(); i++) {
+			long examinationId = i + 1;
+			assertEquals(StudyInstanceUIDHandler.PREFIX + examinationId, getStudyInstanceUID(result.get(i)));
+		}
+		// each examination of the shared study has its own copy
+		assertEquals("1.2.3.1", getStudyInstanceUID(sharedStudy));
+	}
+
+	private JsonNode createStudy(String studyInstanceUID) {
+		ObjectNode study = mapper.createObjectNode();
+		study.with(DICOM_TAG_STUDY_INSTANCE_UID).put("vr", "UI").putArray("Value").add(studyInstanceUID);
+		return study;
+	}
+
+	private String getStudyInstanceUID(JsonNode study) {
+		return study.path(DICOM_TAG_STUDY_INSTANCE_UID).path("Value").path(0).asText();
+	}
+
+}
@@ -0,0 +1,167 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.dicom.web;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.shanoir.ng.dataset.modality.MrDataset;
+import org.shanoir.ng.dataset.model.DatasetExpression;
+import org.shanoir.ng.dataset.model.DatasetExpressionFormat;
+import org.shanoir.ng.datasetacquisition.model.DatasetAcquisition;
+import org.shanoir.ng.datasetacquisition.model.mr.MrDatasetAcquisition;
+import org.shanoir.ng.datasetfile.DatasetFile;
+import org.shanoir.ng.examination.model.Examination;
+import org.shanoir.ng.examination.repository.ExaminationRepository;
+import org.shanoir.ng.examination.service.ExaminationService;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.shanoir.ng.utils.ModelsUtil;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test class for StudyInstanceUIDHandler: the streamed replacement against the tree one,
+ * and the examination to StudyInstanceUID cache.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class StudyInstanceUIDHandlerTest {
+
+	private static final String EXAMINATION_UID = StudyInstanceUIDHandler.PREFIX + "12";
+
+	private static final String SERIES_JSON = "[{"
+			+ "\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.4\"]},"
+			+ "\"0020000E\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.4.5\"]},"
+			+ "\"00081190\":{\"vr\":\"UR\",\"Value\":[\"http://pacs/rs/studies/1.2.3.4/series/1.2.3.4.5\"]},"
+			+ "\"00201209\":{\"vr\":\"IS\",\"Value\":[176]},"
+			+ "\"00081115\":{\"vr\":\"SQ\",\"Value\":[{\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.4\"]}}]}"
+			+ "},{"
+			+ "\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.4\"]},"
+			+ "\"00100010\":{\"vr\":\"PN\",\"Value\":[{\"Alphabetic\":\"Name\"}]},"
+			+ "\"00081190\":{\"vr\":\"UR\",\"Value\":[\"http://pacs/rs/studies/1.2.3.4/series/1.2.3.4.6\"]}"
+			+ "}]";
+
+	@Mock
+	private ExaminationService examinationService;
+
+	@Mock
+	private ExaminationRepository examinationRepository;
+
+	@InjectMocks
+	private StudyInstanceUIDHandler handler;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Before
+	public void setup() {
+		ReflectionTestUtils.setField(handler, "shanoirMetrics", new ShanoirMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(handler, "cacheMaxSize", 1);
+		ReflectionTestUtils.setField(handler, "cacheTtlMinutes", 60L);
+		ReflectionTestUtils.setField(handler, "cacheWarmSize", 10);
+		handler.init();
+	}
+
+	@Test
+	public void replaceStudyInstanceUIDsWithExaminationUIDsStreamed() throws IOException {
+		JsonNode root = mapper.readTree(SERIES_JSON);
+		handler.replaceStudyInstanceUIDsWithExaminationUIDs(root, EXAMINATION_UID, false);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		handler.replaceStudyInstanceUIDsWithExaminationUIDs(
+				new ByteArrayInputStream(SERIES_JSON.getBytes(StandardCharsets.UTF_8)), out, EXAMINATION_UID, false);
+		JsonNode streamed = mapper.readTree(out.toByteArray());
+
+		Assert.assertEquals(root, streamed);
+		Assert.assertEquals(EXAMINATION_UID, streamed.get(1).get("0020000D").get("Value").get(0).asText());
+		Assert.assertEquals("http://pacs/rs/studies/" + EXAMINATION_UID + "/series/1.2.3.4.5",
+				streamed.get(0).get("00081190").get("Value").get(0).asText());
+		// only the attributes of the top level datasets are replaced
+		Assert.assertEquals("1.2.3.4", streamed.get(0).get("00081115").get("Value").get(0).get("0020000D").get("Value").get(0).asText());
+	}
+
+	@Test
+	public void findStudyInstanceUIDFromCacheOrDatabase() {
+		given(examinationService.findById(12L)).willReturn(createExamination(12L, "1.2.3.4"));
+		given(examinationService.findById(13L)).willReturn(createExamination(13L, "1.2.3.5"));
+
+		Assert.assertEquals("1.2.3.4", handler.findStudyInstanceUIDFromCacheOrDatabase(EXAMINATION_UID));
+		Assert.assertEquals("1.2.3.4", handler.findStudyInstanceUIDFromCacheOrDatabase(EXAMINATION_UID));
+		verify(examinationService, times(1)).findById(12L);
+
+		// least recently used evicted
+		Assert.assertEquals("1.2.3.5", handler.findStudyInstanceUIDFromCacheOrDatabase(StudyInstanceUIDHandler.PREFIX + "13"));
+		Assert.assertEquals("1.2.3.4", handler.findStudyInstanceUIDFromCacheOrDatabase(EXAMINATION_UID));
+		verify(examinationService, times(2)).findById(12L);
+
+		// removed on delete
+		handler.removeExamination(12L);
+		Assert.assertEquals("1.2.3.4", handler.findStudyInstanceUIDFromCacheOrDatabase(EXAMINATION_UID));
+		verify(examinationService, times(3)).findById(12L);
+	}
+
+	@Test
+	public void warmExaminationUIDToStudyInstanceUIDCache() {
+		List<Long> examinationIds = Collections.singletonList(12L);
+		given(examinationRepository.findLatestIds(any())).willReturn(examinationIds);
+		given(examinationRepository.findPacsPathsByExaminationIdIn(examinationIds, DatasetExpressionFormat.DICOM.getId()))
+				.willReturn(Collections.singletonList(new Object[] { 12L, wadoPath("1.2.3.4") }));
+
+		handler.warmExaminationUIDToStudyInstanceUIDCache();
+
+		Assert.assertEquals("1.2.3.4", handler.findStudyInstanceUIDFromCacheOrDatabase(EXAMINATION_UID));
+		verifyNoInteractions(examinationService);
+	}
+
+	private Examination createExamination(Long id, String studyInstanceUID) {
+		DatasetFile file = new DatasetFile();
+		file.setPacs(true);
+		file.setPath(wadoPath(studyInstanceUID));
+		DatasetExpression expression = new DatasetExpression();
+		expression.setDatasetExpressionFormat(DatasetExpressionFormat.DICOM);
+		expression.setDatasetFiles(Collections.singletonList(file));
+		MrDataset dataset = new MrDataset();
+		dataset.setDatasetExpressions(Collections.singletonList(expression));
+		DatasetAcquisition acquisition = new MrDatasetAcquisition();
+		acquisition.setDatasets(Collections.singletonList(dataset));
+		Examination examination = ModelsUtil.createExamination(id);
+		examination.setDatasetAcquisitions(Collections.singletonList(acquisition));
+		return examination;
+	}
+
+	private static String wadoPath(String studyInstanceUID) {
+		return "http://pacs/wado?requestType=WADO&studyUID=" + studyInstanceUID + "&seriesUID=1.2&objectUID=1.2.3&contentType=application/dicom";
+	}
+
+}
@@ -0,0 +1,515 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.dicom.web.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.dicom.web.PacsStreamInterceptor;
+import org.shanoir.ng.dicom.web.service.DICOMWebService.PacsStream;
+import org.shanoir.ng.shared.exception.ShanoirException;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests the WADO-RS proxy of DICOMWebService against a local stub PACS: the forwarded
+ * headers and ranges, and the release of the PACS request when the streaming stops early.
+ * The rewritten json entities are tested as well, and the QIDO-RS batches of the studies
+ * search with a stubbed findStudy. The STOW-RS batches are sent to the stub PACS too.
+ */
+public class DICOMWebServiceTest {
+
+	private static final String STUDY_UID = "1.2.3";
+
+	private static final String SERIE_UID = "1.2.3.4";
+
+	private static final String ETAG = "\"stub-etag\"";
+
+	private static final String SERIES_JSON = "[{\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"" + STUDY_UID + "\"]}}]";
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/** Size of the large instance, never sent entirely when the streaming stops early */
+	private static final long LARGE_INSTANCE_SIZE = 1024L * CHUNK_SIZE;
+
+	private static final int STOW_FILE_SIZE = 400 * 1024;
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private HttpServer server;
+
+	private ExecutorService serverExecutor;
+
+	private DICOMWebService service;
+
+	private MockHttpServletRequest request;
+
+	private byte[] instance;
+
+	private final AtomicReference<String> receivedRange = new AtomicReference<>();
+
+	/** Counted down once the stub PACS can not write the large instance anymore */
+	private final CountDownLatch pacsWriteFailed = new CountDownLatch(1);
+
+	private final AtomicLong pacsBytesSent = new AtomicLong();
+
+	/** Holds the slow instance after its first chunk */
+	private final CountDownLatch slowInstanceReleased = new CountDownLatch(1);
+
+	/** Names of the files of each STOW-RS request received, and of the requests stored */
+	private final List<Set<String>> stowRequests = new CopyOnWriteArrayList<>();
+
+	private final List<Set<String>> storedStowRequests = new CopyOnWriteArrayList<>();
+
+	/** The STOW-RS requests with this file fail, as many times as failingStowAttempts */
+	private volatile String failingStowFile;
+
+	private final AtomicInteger failingStowAttempts = new AtomicInteger();
+
+	@Before
+	public void setup() throws IOException {
+		instance = new byte[100];
+		for (int i = 0; i < instance.length; i++) {
+			instance[i] = (byte) i;
+		}
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/rs/studies", this::handle);
+		serverExecutor = Executors.newFixedThreadPool(8);
+		server.setExecutor(serverExecutor);
+		server.start();
+		service = new DICOMWebService();
+		ReflectionTestUtils.setField(service, "shanoirMetrics", new ShanoirMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(service, "mapper", new ObjectMapper());
+		ReflectionTestUtils.setField(service, "dcm4cheeProtocol", "http://");
+		ReflectionTestUtils.setField(service, "dcm4cheeHost", "localhost");
+		ReflectionTestUtils.setField(service, "dcm4cheePort", String.valueOf(server.getAddress().getPort()));
+		ReflectionTestUtils.setField(service, "dicomWebRS", "/rs/studies");
+		ReflectionTestUtils.setField(service, "dicomWebHttpClientMaxTotal", 10);
+		ReflectionTestUtils.setField(service, "dicomWebHttpClientMaxPerRoute", 10);
+		ReflectionTestUtils.setField(service, "qidoBatchSize", 20);
+		ReflectionTestUtils.setField(service, "qidoMaxInFlight", 2);
+		ReflectionTestUtils.setField(service, "stowBatchMaxSizeMB", 256L);
+		ReflectionTestUtils.setField(service, "stowMaxInFlight", 2);
+		ReflectionTestUtils.setField(service, "stowRetries", 2);
+		service.init();
+		request = new MockHttpServletRequest();
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+	}
+
+	@After
+	public void tearDown() {
+		RequestContextHolder.resetRequestAttributes();
+		slowInstanceReleased.countDown();
+		service.destroy();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testHeadersForwarded() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = service.findInstance(STUDY_UID, SERIE_UID, "full", null);
+
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals("application/dicom", response.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+		assertEquals(instance.length, response.getHeaders().getContentLength());
+		assertEquals("bytes", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+		assertEquals(ETAG, response.getHeaders().getETag());
+		assertArrayEquals(instance, write(response));
+		assertTrue(getPacsStream().isClosed());
+	}
+
+	@Test
+	public void testRangeForwarded() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = service.findInstance(STUDY_UID, SERIE_UID, "full", "bytes=10-19");
+
+		assertEquals("bytes=10-19", receivedRange.get());
+		assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+		assertEquals("bytes 10-19/" + instance.length, response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+		assertEquals(10, response.getHeaders().getContentLength());
+		assertArrayEquals(Arrays.copyOfRange(instance, 10, 20), write(response));
+	}
+
+	@Test
+	public void testPacsStatusForwarded() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = service.findInstance(STUDY_UID, SERIE_UID, "missing", null);
+
+		assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+		assertEquals("Not found", new String(write(response), StandardCharsets.US_ASCII));
+		assertTrue(getPacsStream().isClosed());
+	}
+
+	@Test
+	public void testClientAbortCancelsPacsRequest() throws Exception {
+		ResponseEntity<StreamingResponseBody> response = service.findInstance(STUDY_UID, SERIE_UID, "large", null);
+		// client disconnected after the first chunk
+		OutputStream client = new OutputStream() {
+			private long written;
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				written += len;
+				if (written > CHUNK_SIZE) {
+					throw new IOException("Broken pipe");
+				}
+			}
+		};
+
+		try {
+			response.getBody().writeTo(client);
+			fail("The streaming should fail");
+		} catch (IOException e) {
+			assertEquals("Broken pipe", e.getMessage());
+		}
+
+		assertTrue(getPacsStream().isClosed());
+		// the rest of the instance is not read from the PACS
+		assertTrue(pacsWriteFailed.await(10, TimeUnit.SECONDS));
+		assertTrue(pacsBytesSent.get() < LARGE_INSTANCE_SIZE);
+	}
+
+	@Test
+	public void testTimeoutReleasesStreamingThread() throws Exception {
+		ResponseEntity<StreamingResponseBody> response = service.findInstance(STUDY_UID, SERIE_UID, "slow", null);
+		CompletableFuture<Void> streaming = CompletableFuture.runAsync(() -> {
+			try {
+				response.getBody().writeTo(new ByteArrayOutputStream());
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Thread.sleep(200);
+
+		// the servlet container times out the async request, while the PACS still holds the instance
+		new PacsStreamInterceptor().handleTimeout(new ServletWebRequest(request), null);
+
+		try {
+			streaming.get(10, TimeUnit.SECONDS);
+			fail("The streaming should be aborted");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertTrue(getPacsStream().isClosed());
+	}
+
+	@Test
+	public void testNotStreamedResponseClosedOnCompletion() throws Exception {
+		service.findInstance(STUDY_UID, SERIE_UID, "full", null);
+
+		new PacsStreamInterceptor().afterCompletion(new ServletWebRequest(request), null);
+
+		assertTrue(getPacsStream().isClosed());
+	}
+
+	@Test
+	public void testRewrittenEntityWithoutPacsLength() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = service.findSeriesOfStudy(STUDY_UID, (content, outputStream) -> {
+			outputStream.write("rewritten ".getBytes(StandardCharsets.US_ASCII));
+			content.transferTo(outputStream);
+		});
+
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals("application/dicom+json", response.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+		// the length and ranges of the PACS do not apply to the rewritten entity
+		assertEquals(-1, response.getHeaders().getContentLength());
+		assertNull(response.getHeaders().getETag());
+		assertEquals("rewritten " + SERIES_JSON, new String(write(response), StandardCharsets.US_ASCII));
+		assertTrue(getPacsStream().isClosed());
+	}
+
+	@Test
+	public void testErrorEntityNotRewritten() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = service.findSerieMetadataOfStudy(STUDY_UID, "unknown", (content, outputStream) -> {
+			fail("The error of the PACS should not be rewritten");
+		});
+
+		assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+		assertEquals("Not found", new String(write(response), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testFindStudiesByBatches() throws Exception {
+		DICOMWebService qidoService = spy(service);
+		List<String> queries = new CopyOnWriteArrayList<>();
+		// the PACS knows all the studies, except the missing one
+		doAnswer(invocation -> {
+			String uids = invocation.getArgument(0);
+			queries.add(uids);
+			List<String> studies = new ArrayList<>();
+			for (String uid : uids.split(",")) {
+				if (!uid.endsWith("missing")) {
+					studies.add("{\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"" + uid + "\"]}}");
+				}
+			}
+			return "[" + String.join(",", studies) + "]";
+		}).when(qidoService).findStudy(anyString());
+		List<String> uids = new ArrayList<>();
+		for (int i = 0; i < 44; i++) {
+			uids.add(STUDY_UID + "." + i);
+		}
+		uids.add(STUDY_UID + ".missing");
+		// a study shared by two examinations of the page is queried once
+		uids.add(STUDY_UID + ".0");
+
+		Map<String, CompletableFuture<JsonNode>> studies = qidoService.findStudies(uids);
+
+		assertEquals(45, studies.size());
+		for (int i = 0; i < 44; i++) {
+			String uid = STUDY_UID + "." + i;
+			assertEquals(uid, studies.get(uid).get(10, TimeUnit.SECONDS).path("0020000D").path("Value").path(0).asText());
+		}
+		assertNull(studies.get(STUDY_UID + ".missing").get(10, TimeUnit.SECONDS));
+		// batches of qidoBatchSize uids
+		assertEquals(3, queries.size());
+		int queriedUIDs = 0;
+		for (String query : queries) {
+			int batchSize = query.split(",").length;
+			assertTrue(batchSize == 20 || batchSize == 5);
+			queriedUIDs += batchSize;
+		}
+		assertEquals(45, queriedUIDs);
+	}
+
+	@Test
+	public void testStowBatches() throws Exception {
+		ReflectionTestUtils.setField(service, "stowBatchMaxSizeMB", 1L);
+		File folder = createDicomFolder(6, 3 * 1024 * 1024 / 2);
+
+		service.sendDicomFilesToPacs(folder);
+
+		// at most two small files per request of 1MB, the oversized file alone in its request
+		assertTrue(stowRequests.size() >= 4);
+		for (Set<String> request : stowRequests) {
+			assertTrue(request.contains("large.dcm") ? request.size() == 1 : request.size() <= 2);
+		}
+		assertStoredOnce(folder);
+	}
+
+	@Test
+	public void testStowFailedBatchSentAgain() throws Exception {
+		ReflectionTestUtils.setField(service, "stowBatchMaxSizeMB", 1L);
+		File folder = createDicomFolder(6, 0);
+		failingStowFile = "image0.dcm";
+		failingStowAttempts.set(1);
+
+		service.sendDicomFilesToPacs(folder);
+
+		// only the failed request is sent again
+		assertEquals(4, stowRequests.size());
+		assertEquals(3, storedStowRequests.size());
+		assertStoredOnce(folder);
+	}
+
+	@Test
+	public void testStowFailureReported() throws Exception {
+		ReflectionTestUtils.setField(service, "stowBatchMaxSizeMB", 1L);
+		ReflectionTestUtils.setField(service, "stowRetries", 1);
+		File folder = createDicomFolder(6, 0);
+		failingStowFile = "image0.dcm";
+		failingStowAttempts.set(Integer.MAX_VALUE);
+
+		try {
+			service.sendDicomFilesToPacs(folder);
+			fail("The failed request should be reported");
+		} catch (ShanoirException e) {
+			assertEquals("DICOMWeb: sendDicomFilesToPacs: 1 of 3 requests failed, last error: "
+					+ "DICOMWeb: sendMultipartRequest: response code not 200, but: 500", e.getMessage());
+		}
+		// the failed request is sent stowRetries more times, the others are stored
+		assertEquals(4, stowRequests.size());
+		assertEquals(2, storedStowRequests.size());
+	}
+
+	/**
+	 * Creates a folder of small dicom files, and of a large one if its size is not 0.
+	 * Each file starts with its name, to find it in the STOW-RS requests.
+	 */
+	private File createDicomFolder(int nbFiles, int largeFileSize) throws IOException {
+		File folder = testFolder.newFolder();
+		for (int i = 0; i < nbFiles; i++) {
+			createDicomFile(folder, "image" + i + ".dcm", STOW_FILE_SIZE);
+		}
+		if (largeFileSize > 0) {
+			createDicomFile(folder, "large.dcm", largeFileSize);
+		}
+		return folder;
+	}
+
+	private void createDicomFile(File folder, String name, int size) throws IOException {
+		byte[] content = new byte[size];
+		byte[] marker = ("<" + name + ">").getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(marker, 0, content, 0, marker.length);
+		Files.write(new File(folder, name).toPath(), content);
+	}
+
+	private void assertStoredOnce(File folder) {
+		List<String> stored = new ArrayList<>();
+		for (Set<String> request : storedStowRequests) {
+			stored.addAll(request);
+		}
+		assertEquals(new TreeSet<>(Arrays.asList(folder.list())), new TreeSet<>(stored));
+		assertEquals(folder.list().length, stored.size());
+	}
+
+	private byte[] write(ResponseEntity<StreamingResponseBody> response) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		response.getBody().writeTo(out);
+		return out.toByteArray();
+	}
+
+	private PacsStream getPacsStream() {
+		return (PacsStream) RequestContextHolder.getRequestAttributes().getAttribute(DICOMWebService.PACS_STREAM_ATTRIBUTE,
+				RequestAttributes.SCOPE_REQUEST);
+	}
+
+	/**
+	 * Answers WADO-RS instance requests: /rs/studies/{study}/series/{serie}/instances/{instance},
+	 * the instance being "full", "large" or "slow", and the series search: /rs/studies/{study}/series.
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		if ("POST".equals(exchange.getRequestMethod())) {
+			handleStow(exchange);
+			return;
+		}
+		String path = exchange.getRequestURI().getPath();
+		String instanceUID = path.substring(path.lastIndexOf('/') + 1);
+		exchange.getResponseHeaders().add("Content-Type", "series".equals(instanceUID) ? "application/dicom+json" : "application/dicom");
+		exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+		exchange.getResponseHeaders().add("ETag", ETAG);
+		try (OutputStream os = exchange.getResponseBody()) {
+			if ("full".equals(instanceUID)) {
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				receivedRange.set(range);
+				if (range != null) {
+					String[] bounds = range.substring("bytes=".length()).split("-");
+					int start = Integer.parseInt(bounds[0]);
+					int end = Integer.parseInt(bounds[1]);
+					exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + instance.length);
+					exchange.sendResponseHeaders(206, end - start + 1);
+					os.write(instance, start, end - start + 1);
+				} else {
+					exchange.sendResponseHeaders(200, instance.length);
+					os.write(instance);
+				}
+			} else if ("series".equals(instanceUID)) {
+				byte[] series = SERIES_JSON.getBytes(StandardCharsets.US_ASCII);
+				exchange.sendResponseHeaders(200, series.length);
+				os.write(series);
+			} else if ("large".equals(instanceUID)) {
+				exchange.sendResponseHeaders(200, LARGE_INSTANCE_SIZE);
+				try {
+					for (long sent = 0; sent < LARGE_INSTANCE_SIZE; sent += CHUNK_SIZE) {
+						os.write(new byte[CHUNK_SIZE]);
+						os.flush();
+						pacsBytesSent.addAndGet(CHUNK_SIZE);
+					}
+				} catch (IOException e) {
+					pacsWriteFailed.countDown();
+				}
+			} else if ("slow".equals(instanceUID)) {
+				exchange.sendResponseHeaders(200, 2 * CHUNK_SIZE);
+				os.write(new byte[CHUNK_SIZE]);
+				os.flush();
+				slowInstanceReleased.await(30, TimeUnit.SECONDS);
+				os.write(new byte[CHUNK_SIZE]);
+			} else {
+				byte[] error = "Not found".getBytes(StandardCharsets.US_ASCII);
+				exchange.sendResponseHeaders(404, error.length);
+				os.write(error);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// client gone
+		}
+	}
+
+	/**
+	 * Answers STOW-RS requests: /rs/studies, with the names of the files found in the multipart body.
+	 */
+	private void handleStow(HttpExchange exchange) throws IOException {
+		String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.ISO_8859_1);
+		Set<String> files = new TreeSet<>();
+		Matcher matcher = Pattern.compile("<([^<>]+\\.dcm)>").matcher(body);
+		while (matcher.find()) {
+			files.add(matcher.group(1));
+		}
+		stowRequests.add(files);
+		if (files.contains(failingStowFile) && failingStowAttempts.getAndDecrement() > 0) {
+			exchange.sendResponseHeaders(500, -1);
+		} else {
+			storedStowRequests.add(files);
+			exchange.sendResponseHeaders(200, -1);
+		}
+		exchange.close();
+	}
+
+}
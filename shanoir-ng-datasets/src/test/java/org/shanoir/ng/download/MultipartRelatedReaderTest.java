@@ -0,0 +1,94 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests the streamed reading of multipart/related bodies by MultipartRelatedReader,
+ * with well formed and malformed PACS responses.
+ */
+public class MultipartRelatedReaderTest {
+
+	private static final String BOUNDARY = "stub-pacs-boundary";
+
+	@Test
+	public void testPartsRead() throws IOException {
+		byte[] first = new byte[100 * 1024];
+		for (int i = 0; i < first.length; i++) {
+			first[i] = (byte) i;
+		}
+		byte[] second = "second part".getBytes(StandardCharsets.US_ASCII);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		body.write(("preamble\r\n--" + BOUNDARY + "\r\nContent-Type: application/dicom\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		body.write(first);
+		body.write(("\r\n--" + BOUNDARY + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		body.write(second);
+		body.write(("\r\n--" + BOUNDARY + "--\r\nepilogue").getBytes(StandardCharsets.US_ASCII));
+		MultipartRelatedReader reader = new MultipartRelatedReader(new ByteArrayInputStream(body.toByteArray()), BOUNDARY);
+
+		assertTrue(reader.nextPart());
+		assertEquals("application/dicom", reader.getPartContentType());
+		assertArrayEquals(first, reader.getPartInputStream().readAllBytes());
+		assertTrue(reader.nextPart());
+		assertEquals(null, reader.getPartContentType());
+		assertArrayEquals(second, reader.getPartInputStream().readAllBytes());
+		assertFalse(reader.nextPart());
+	}
+
+	@Test
+	public void testHeaderLineTooLong() throws IOException {
+		// a header line that never ends
+		InputStream in = new InputStream() {
+			private final byte[] start = ("--" + BOUNDARY + "\r\nContent-Type: ").getBytes(StandardCharsets.US_ASCII);
+			private int pos;
+			@Override
+			public int read() {
+				return pos < start.length ? start[pos++] : 'a';
+			}
+		};
+		MultipartRelatedReader reader = new MultipartRelatedReader(in, BOUNDARY);
+
+		try {
+			reader.nextPart();
+			fail("The header line should be rejected");
+		} catch (IOException e) {
+			assertEquals("Multipart header line too long.", e.getMessage());
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void testMissingCloseDelimiter() throws IOException {
+		byte[] body = ("--" + BOUNDARY + "\r\n\r\ntruncated").getBytes(StandardCharsets.US_ASCII);
+		MultipartRelatedReader reader = new MultipartRelatedReader(new ByteArrayInputStream(body), BOUNDARY);
+
+		assertTrue(reader.nextPart());
+		reader.getPartInputStream().readAllBytes();
+	}
+
+}
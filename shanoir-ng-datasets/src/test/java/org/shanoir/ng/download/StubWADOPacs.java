@@ -0,0 +1,153 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.download;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.shanoir.ng.utils.ModelsUtil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local PACS answering the WADO-RS serie and instance requests of one study,
+ * /rs/studies/{study}/series/{serie}[/instances/{instance}], with generated DICOM
+ * files: serie "1.2.3.n" has the instances "1.2.3.n.m".
+ */
+class StubWADOPacs {
+
+	static final String STUDY_UID = "1.2.3";
+
+	private static final String BOUNDARY = "stub-pacs-boundary";
+
+	private final int latencyMs;
+
+	/** instanceUID -> dicom file, by serieUID */
+	private final Map<String, Map<String, byte[]>> pacs = new HashMap<>();
+
+	private HttpServer server;
+
+	private ExecutorService serverExecutor;
+
+	/**
+	 * @param latencyMs
+	 *            waited before each answer, as a remote PACS
+	 */
+	StubWADOPacs(int nbSeries, int nbInstancesPerSerie, int instancePixelDataSize, int latencyMs) throws IOException {
+		this.latencyMs = latencyMs;
+		for (int serie = 0; serie < nbSeries; serie++) {
+			String serieUID = getSerieUID(serie);
+			Map<String, byte[]> instances = new HashMap<>();
+			for (int instance = 0; instance < nbInstancesPerSerie; instance++) {
+				String instanceUID = serieUID + "." + instance;
+				instances.put(instanceUID, ModelsUtil.createDicomFile(instanceUID, instancePixelDataSize));
+			}
+			pacs.put(serieUID, instances);
+		}
+	}
+
+	void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/rs/studies/", this::handle);
+		serverExecutor = Executors.newFixedThreadPool(32);
+		server.setExecutor(serverExecutor);
+		server.start();
+	}
+
+	void stop() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	static String getSerieUID(int serie) {
+		return STUDY_UID + "." + serie;
+	}
+
+	URL getInstanceURL(String serieUID, String instanceUID) throws MalformedURLException {
+		return new URL("http://localhost:" + server.getAddress().getPort() + "/rs/studies/" + STUDY_UID
+				+ "/series/" + serieUID + "/instances/" + instanceUID);
+	}
+
+	/**
+	 * @return the URLs of all the instances, serie after serie
+	 */
+	List<URL> getInstanceURLs() throws MalformedURLException {
+		List<URL> urls = new ArrayList<>();
+		for (int serie = 0; serie < pacs.size(); serie++) {
+			String serieUID = getSerieUID(serie);
+			for (int instance = 0; instance < pacs.get(serieUID).size(); instance++) {
+				urls.add(getInstanceURL(serieUID, serieUID + "." + instance));
+			}
+		}
+		return urls;
+	}
+
+	/**
+	 * @return dicom file by instanceUID, of all the series
+	 */
+	Map<String, byte[]> getInstances() {
+		Map<String, byte[]> instances = new HashMap<>();
+		pacs.values().forEach(instances::putAll);
+		return instances;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		if (latencyMs > 0) {
+			try {
+				Thread.sleep(latencyMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		String[] path = exchange.getRequestURI().getPath().split("/");
+		Map<String, byte[]> instances = path.length > 5 ? pacs.get(path[5]) : null;
+		List<byte[]> parts = new ArrayList<>();
+		if (instances != null && path.length == 6) {
+			parts.addAll(instances.values());
+		} else if (instances != null && path.length == 8 && instances.containsKey(path[7])) {
+			parts.add(instances.get(path[7]));
+		}
+		if (parts.isEmpty()) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			body.write(("--" + BOUNDARY + "\r\nContent-Type: application/dicom\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			body.write(part);
+			body.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+		}
+		body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+		exchange.getResponseHeaders().add("Content-Type", "multipart/related; type=\"application/dicom\"; boundary=" + BOUNDARY);
+		exchange.sendResponseHeaders(200, body.size());
+		try (OutputStream os = exchange.getResponseBody()) {
+			body.writeTo(os);
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.download;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs the number of instances retrieved per second by WADODownloaderService, in the
+ * different retrieval modes, from a local stub PACS that answers each request after a
+ * fixed latency. Not part of the default build: run with mvn test -Pbenchmark.
+ */
+public class WADODownloaderServiceBenchmark {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WADODownloaderServiceBenchmark.class);
+
+	private static final int NB_SERIES = 4;
+
+	private static final int NB_INSTANCES_PER_SERIE = 50;
+
+	private static final int INSTANCE_PIXEL_DATA_SIZE = 64 * 1024;
+
+	private static final int LATENCY_MS = 10;
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private StubWADOPacs pacs;
+
+	@Before
+	public void setup() throws IOException {
+		pacs = new StubWADOPacs(NB_SERIES, NB_INSTANCES_PER_SERIE, INSTANCE_PIXEL_DATA_SIZE, LATENCY_MS);
+		pacs.start();
+	}
+
+	@After
+	public void tearDown() {
+		pacs.stop();
+	}
+
+	@Test
+	public void benchmarkDownloadDicomFilesForURLs() throws Exception {
+		List<URL> urls = pacs.getInstanceURLs();
+		benchmark("sequential, instance level", 1, false, urls);
+		benchmark("8 in flight, instance level", 8, false, urls);
+		benchmark("8 in flight, serie level", 8, true, urls);
+	}
+
+	private void benchmark(String mode, int maxInFlight, boolean seriesLevel, List<URL> urls) throws Exception {
+		WADODownloaderService service = WADODownloaderServiceTest.createService(maxInFlight, seriesLevel);
+		File workFolder = testFolder.newFolder();
+		long start = System.nanoTime();
+		try {
+			service.downloadDicomFilesForURLs(urls, workFolder, "subject", null);
+		} finally {
+			service.destroy();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		assertEquals(urls.size(), workFolder.list().length);
+		LOG.info("WADO retrieval {}: {} instances in {} s, {} instances/s", mode, urls.size(),
+				String.format("%.2f", seconds), String.format("%.0f", urls.size() / seconds));
+	}
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Tests the WADO-RS retrieval of WADODownloaderService against a local stub PACS,
+ * in the different retrieval modes.
+ */
+public class WADODownloaderServiceTest {
+
+	private static final int NB_SERIES = 2;
+
+	private static final int NB_INSTANCES_PER_SERIE = 10;
+
+	private static final int INSTANCE_PIXEL_DATA_SIZE = 1024;
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private StubWADOPacs pacs;
+
+	@Before
+	public void setup() throws IOException {
+		pacs = new StubWADOPacs(NB_SERIES, NB_INSTANCES_PER_SERIE, INSTANCE_PIXEL_DATA_SIZE, 0);
+		pacs.start();
+	}
+
+	@After
+	public void tearDown() {
+		pacs.stop();
+	}
+
+	@Test
+	public void testDownloadDicomFilesForURLs() throws Exception {
+		List<URL> urls = pacs.getInstanceURLs();
+		download(1, false, urls);
+		download(8, false, urls);
+		download(8, true, urls);
+	}
+
+	@Test
+	public void testErrorFileForMissingInstance() throws Exception {
+		String serieUID = StubWADOPacs.getSerieUID(0);
+		List<URL> urls = new ArrayList<>();
+		urls.add(pacs.getInstanceURL(serieUID, serieUID + ".0"));
+		urls.add(pacs.getInstanceURL(serieUID, serieUID + ".missing"));
+		File workFolder = testFolder.newFolder();
+
+		createService(8, true).downloadDicomFilesForURLs(urls, workFolder, "subject", null);
+
+		assertTrue(new File(workFolder, serieUID + ".0.dcm").exists());
+		assertTrue(new File(workFolder, "0000_ERROR_0_" + serieUID + ".missing.txt").exists());
+		assertEquals(2, workFolder.list().length);
+	}
+
+	private void download(int maxInFlight, boolean seriesLevel, List<URL> urls) throws Exception {
+		WADODownloaderService service = createService(maxInFlight, seriesLevel);
+		File workFolder = testFolder.newFolder();
+		service.downloadDicomFilesForURLs(urls, workFolder, "subject", null);
+		service.destroy();
+
+		assertEquals(urls.size(), workFolder.list().length);
+		for (Map.Entry<String, byte[]> instance : pacs.getInstances().entrySet()) {
+			assertEquals(instance.getValue().length, new File(workFolder, instance.getKey() + ".dcm").length());
+		}
+	}
+
+	static WADODownloaderService createService(int maxInFlight, boolean seriesLevel) {
+		WADODownloaderService service = new WADODownloaderService();
+		ReflectionTestUtils.setField(service, "restTemplate", new RestTemplate());
+		ReflectionTestUtils.setField(service, "shanoirMetrics", new ShanoirMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(service, "wadoMaxInFlight", maxInFlight);
+		ReflectionTestUtils.setField(service, "wadoSeriesLevel", seriesLevel);
+		service.initRestTemplate();
+		return service;
+	}
+
+}
@@ -16,9 +16,12 @@ package org.shanoir.ng.examination;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.commons.math3.util.Pair;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.shanoir.ng.examination.model.Examination;
@@ -26,6 +29,9 @@ import org.shanoir.ng.examination.repository.ExaminationRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -88,6 +94,19 @@ public class ExaminationRepositoryTest {
 	// 	assertThat(examinationsDb.size()).isEqualTo(2);
 	// }
 
+	@Test
+	public void findPageByStudyCenterOrStudyIdIn() throws Exception {
+		// examination 1 in center 1 of study 1, examination 3 in study 3
+		List<Pair<Long, Long>> studyCenterIds = Arrays.asList(new Pair<>(STUDY_TEST_1_ID, 1L));
+		Page<Examination> page = repository.findPageByStudyCenterOrStudyIdIn(studyCenterIds, Arrays.asList(3L), PageRequest.of(1, 1, Sort.by("id")));
+		assertThat(page.getTotalElements()).isEqualTo(2);
+		assertThat(page.getContent().size()).isEqualTo(1);
+		assertThat(page.getContent().get(0).getId()).isEqualTo(3L);
+
+		page = repository.findPageByStudyCenterOrStudyIdIn(Collections.emptyList(), Collections.emptyList(), PageRequest.of(0, 10));
+		assertThat(page.getTotalElements()).isEqualTo(0);
+	}
+
 	@Test
 	public void findBySubjectId() throws Exception {
 		List<Examination> examinationsDb = repository.findBySubjectId(SUBJECT_TEST_1_ID);
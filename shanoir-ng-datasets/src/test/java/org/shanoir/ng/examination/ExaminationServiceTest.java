@@ -33,6 +33,8 @@ import org.shanoir.ng.shared.exception.ShanoirException;
 import org.shanoir.ng.shared.model.Subject;
 import org.shanoir.ng.shared.repository.SubjectRepository;
 import org.shanoir.ng.shared.service.MicroserviceRequestsService;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
+import org.shanoir.ng.solr.service.SolrService;
 import org.shanoir.ng.study.rights.StudyRightsService;
 import org.shanoir.ng.utils.ModelsUtil;
 import org.shanoir.ng.utils.usermock.WithMockKeycloakUser;
@@ -74,6 +76,9 @@ public class ExaminationServiceTest {
 	@Mock
 	private SubjectRepository subjectService;
 
+	@Mock
+	private SolrService solrService;
+
 
 	@Before
 	public void setup() throws ShanoirException {
@@ -116,6 +121,7 @@ public class ExaminationServiceTest {
 		Assert.assertTrue(UPDATED_EXAMINATION_COMMENT.equals(updatedExamination.getComment()));
 
 		Mockito.verify(examinationRepository, Mockito.times(1)).save(Mockito.any(Examination.class));
+		Mockito.verify(solrService, Mockito.times(1)).registerChanges(Mockito.eq(SolrIndexChangeType.EXAMINATION), Mockito.anyCollection());
 	}
 
 	@Test
@@ -0,0 +1,90 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.importer.dto.ImportJob;
+import org.shanoir.ng.importer.dto.Patient;
+import org.shanoir.ng.importer.dto.Serie;
+import org.shanoir.ng.importer.dto.Study;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ImportJobSeriesIteratorTest {
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private ObjectMapper objectMapper = new ObjectMapper();
+
+	@Test
+	public void testSeriesFile() throws Exception {
+		File seriesFile = testFolder.newFile("import-job-series.json");
+		Files.write(seriesFile.toPath(), Arrays.asList(
+				"{\"patient\":{\"patientID\":\"patient1\"}}",
+				"{\"study\":{\"studyInstanceUID\":\"1.2.3\"}}",
+				"{\"serie\":{\"seriesInstanceUID\":\"1.2.3.1\",\"selected\":true}}",
+				"{\"serie\":{\"seriesInstanceUID\":\"1.2.3.2\",\"selected\":false}}",
+				"{\"patient\":{\"patientID\":\"patient2\"}}",
+				"{\"study\":{\"studyInstanceUID\":\"1.2.4\"}}",
+				"{\"serie\":{\"seriesInstanceUID\":\"1.2.4.1\",\"selected\":true}}"));
+		ImportJob importJob = new ImportJob();
+		importJob.setSeriesFile(seriesFile.getAbsolutePath());
+		importJob.setSeriesCount(3);
+
+		try (ImportJobSeriesIterator seriesIt = new ImportJobSeriesIterator(importJob, objectMapper)) {
+			assertEquals(3, seriesIt.getSeriesCount());
+			assertEquals("1.2.3.1", seriesIt.next().getSeriesInstanceUID());
+			// the patient is known before its series
+			assertEquals(1, importJob.getPatients().size());
+			assertEquals("patient1", importJob.getPatients().get(0).getPatientID());
+			assertFalse(seriesIt.next().getSelected());
+			assertEquals("1.2.4.1", seriesIt.next().getSeriesInstanceUID());
+			assertEquals(2, importJob.getPatients().size());
+			assertFalse(seriesIt.hasNext());
+		}
+	}
+
+	@Test
+	public void testSeriesInMessage() throws Exception {
+		Serie serie = new Serie();
+		serie.setSeriesInstanceUID("1.2.3.1");
+		Study study = new Study();
+		study.setSeries(Collections.singletonList(serie));
+		Patient patient = new Patient();
+		patient.setStudies(Collections.singletonList(study));
+		ImportJob importJob = new ImportJob();
+		importJob.setPatients(Collections.singletonList(patient));
+
+		try (ImportJobSeriesIterator seriesIt = new ImportJobSeriesIterator(importJob, objectMapper)) {
+			assertEquals(1, seriesIt.getSeriesCount());
+			assertTrue(seriesIt.hasNext());
+			assertEquals(serie, seriesIt.next());
+			assertFalse(seriesIt.hasNext());
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
+import org.shanoir.ng.solr.repository.ShanoirMetadataRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import springfox.documentation.spring.web.plugins.DocumentationPluginsBootstrapper;
+import springfox.documentation.spring.web.plugins.WebMvcRequestHandlerProvider;
+
+/**
+ * Tests for the dataset id queries of the solr indexing.
+ *
+ */
+@RunWith(SpringRunner.class)
+@WebAppConfiguration
+@DataJpaTest
+@ActiveProfiles("test")
+public class ShanoirMetadataRepositoryTest {
+
+	@Autowired
+	private ShanoirMetadataRepository repository;
+
+	@MockBean
+	private AuthenticationManager authenticationManager;
+	@MockBean
+	private DocumentationPluginsBootstrapper documentationPluginsBootstrapper;
+	@MockBean
+	private WebMvcRequestHandlerProvider webMvcRequestHandlerProvider;
+
+	@Test
+	public void findDatasetIdsAfterTest() {
+		assertEquals(Arrays.asList(1L, 2L), repository.findDatasetIdsAfter(0L, 2));
+		assertEquals(Arrays.asList(3L), repository.findDatasetIdsAfter(2L, 2));
+		assertTrue(repository.findDatasetIdsAfter(3L, 2).isEmpty());
+	}
+
+	@Test
+	public void findDatasetIdsTest() {
+		assertEquals(Arrays.asList(3L), repository.findDatasetIds(SolrIndexChangeType.EXAMINATION, Collections.singletonList(3L)));
+		assertEquals(Arrays.asList(1L, 2L), sorted(repository.findDatasetIds(SolrIndexChangeType.STUDY, Collections.singletonList(1L))));
+		assertEquals(Arrays.asList(1L, 3L), sorted(repository.findDatasetIds(SolrIndexChangeType.CENTER, Collections.singletonList(1L))));
+		assertTrue(repository.findDatasetIds(SolrIndexChangeType.CENTER, Collections.emptyList()).isEmpty());
+	}
+
+	private List<Long> sorted(List<Long> ids) {
+		Collections.sort(ids);
+		return ids;
+	}
+
+}
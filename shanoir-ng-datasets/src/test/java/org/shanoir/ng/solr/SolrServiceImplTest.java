@@ -0,0 +1,171 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.solr;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.shanoir.ng.solr.model.ShanoirMetadata;
+import org.shanoir.ng.solr.model.ShanoirSolrDocument;
+import org.shanoir.ng.solr.model.SolrIndexChange;
+import org.shanoir.ng.solr.model.SolrIndexChangeType;
+import org.shanoir.ng.solr.repository.ShanoirMetadataRepository;
+import org.shanoir.ng.solr.repository.SolrIndexChangeRepository;
+import org.shanoir.ng.solr.service.SolrServiceImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.solr.core.SolrTemplate;
+import org.springframework.data.solr.core.query.SolrDataQuery;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test class for the incremental indexing and the full rebuild of SolrServiceImpl.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SolrServiceImplTest {
+
+	@Mock
+	private ShanoirMetadataRepository shanoirMetadataRepository;
+
+	@Mock
+	private SolrIndexChangeRepository solrIndexChangeRepository;
+
+	@Mock
+	private SolrTemplate solrTemplate;
+
+	@Mock
+	private SolrClient solrClient;
+
+	@InjectMocks
+	private SolrServiceImpl solrService;
+
+	@Before
+	public void setup() {
+		ReflectionTestUtils.setField(solrService, "shanoirMetrics", new ShanoirMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(solrService, "batchSize", 2);
+	}
+
+	@Test
+	public void indexChangesDeletesOnlyTheChangesRead() {
+		// change 2 is not committed yet when the first batch is read
+		List<SolrIndexChange> firstBatch = Arrays.asList(createChange(1L, SolrIndexChangeType.DATASET, 1L),
+				createChange(3L, SolrIndexChangeType.STUDY, 5L));
+		List<SolrIndexChange> secondBatch = Collections.singletonList(createChange(2L, SolrIndexChangeType.DATASET, 2L));
+		given(solrIndexChangeRepository.findAllByOrderByIdAsc(any(Pageable.class)))
+				.willReturn(firstBatch, secondBatch, Collections.emptyList());
+		given(shanoirMetadataRepository.findDatasetIds(SolrIndexChangeType.STUDY, Collections.singletonList(5L)))
+				.willReturn(Collections.singletonList(10L));
+		given(shanoirMetadataRepository.findDerivedDatasetIds(Collections.singletonList(10L)))
+				.willReturn(Collections.singletonList(11L));
+		given(shanoirMetadataRepository.findSolrDocs(any())).willAnswer(invocation -> {
+			List<Long> datasetIds = invocation.getArgument(0);
+			// dataset 1 was deleted
+			return datasetIds.stream().filter(id -> id != 1L).map(this::createMetadata).collect(Collectors.toList());
+		});
+
+		solrService.indexChanges();
+
+		ArgumentCaptor<List<Long>> deletedChanges = ArgumentCaptor.forClass(List.class);
+		verify(solrIndexChangeRepository, times(2)).deleteByIdIn(deletedChanges.capture());
+		Assert.assertEquals(Arrays.asList(1L, 3L), deletedChanges.getAllValues().get(0));
+		Assert.assertEquals(Collections.singletonList(2L), deletedChanges.getAllValues().get(1));
+
+		// datasets 1, 10 and 11 in batches of 2, then dataset 2
+		ArgumentCaptor<Collection<ShanoirSolrDocument>> documents = ArgumentCaptor.forClass(Collection.class);
+		verify(solrTemplate, times(3)).saveBeans(eq("shanoir"), documents.capture());
+		Assert.assertEquals(Arrays.asList(10L), datasetIds(documents.getAllValues().get(0)));
+		Assert.assertEquals(Arrays.asList(11L), datasetIds(documents.getAllValues().get(1)));
+		Assert.assertEquals(Arrays.asList(2L), datasetIds(documents.getAllValues().get(2)));
+		verify(solrTemplate, times(1)).delete(eq("shanoir"), any(SolrDataQuery.class));
+	}
+
+	@Test
+	public void indexChangesKeepsTheChangesOnFailure() {
+		given(solrIndexChangeRepository.findAllByOrderByIdAsc(any(Pageable.class)))
+				.willReturn(Collections.singletonList(createChange(1L, SolrIndexChangeType.DATASET, 1L)));
+		given(shanoirMetadataRepository.findSolrDocs(any())).willReturn(Collections.singletonList(createMetadata(1L)));
+		given(solrTemplate.saveBeans(eq("shanoir"), anyCollection())).willThrow(new IllegalStateException("solr down"));
+
+		solrService.indexChanges();
+
+		verify(solrIndexChangeRepository, never()).deleteByIdIn(any());
+	}
+
+	@Test
+	public void indexAllRebuildsTheShadowCoreAndSwapsIt() throws SolrServerException, IOException {
+		given(shanoirMetadataRepository.findDatasetIdsAfter(0L, 2)).willReturn(Arrays.asList(1L, 2L));
+		given(shanoirMetadataRepository.findDatasetIdsAfter(2L, 2)).willReturn(Collections.singletonList(3L));
+		given(shanoirMetadataRepository.findDatasetIdsAfter(3L, 2)).willReturn(Collections.emptyList());
+		given(shanoirMetadataRepository.findSolrDocs(any())).willAnswer(invocation -> {
+			List<Long> datasetIds = invocation.getArgument(0);
+			return datasetIds.stream().map(this::createMetadata).collect(Collectors.toList());
+		});
+		given(solrClient.request(any(CoreAdminRequest.class), any())).willReturn(new NamedList<>());
+
+		solrService.indexAll();
+
+		verify(solrTemplate).delete(eq("shanoir_rebuild"), any(SolrDataQuery.class));
+		verify(solrTemplate, times(2)).saveBeans(eq("shanoir_rebuild"), anyCollection());
+		verify(solrTemplate, never()).saveBeans(eq("shanoir"), anyCollection());
+		verify(solrTemplate).commit("shanoir_rebuild");
+		ArgumentCaptor<CoreAdminRequest> swap = ArgumentCaptor.forClass(CoreAdminRequest.class);
+		verify(solrClient).request(swap.capture(), any());
+		Assert.assertEquals("shanoir_rebuild", swap.getValue().getParams().get("core"));
+		Assert.assertEquals("shanoir", swap.getValue().getParams().get("other"));
+	}
+
+	private SolrIndexChange createChange(Long id, SolrIndexChangeType objectType, Long objectId) {
+		SolrIndexChange change = new SolrIndexChange(objectType, objectId);
+		change.setId(id);
+		return change;
+	}
+
+	private ShanoirMetadata createMetadata(Long datasetId) {
+		ShanoirMetadata metadata = new ShanoirMetadata();
+		metadata.setDatasetId(datasetId);
+		return metadata;
+	}
+
+	private List<Long> datasetIds(Collection<ShanoirSolrDocument> documents) {
+		return documents.stream().map(ShanoirSolrDocument::getDatasetId).collect(Collectors.toList());
+	}
+
+}
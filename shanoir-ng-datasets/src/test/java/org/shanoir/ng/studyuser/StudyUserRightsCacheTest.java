@@ -0,0 +1,136 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.studyuser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.shanoir.ng.shared.security.rights.StudyUserRight;
+import org.shanoir.ng.study.rights.StudyRights;
+import org.shanoir.ng.study.rights.StudyUser;
+import org.shanoir.ng.study.rights.StudyUserRightsCache;
+import org.shanoir.ng.study.rights.StudyUserRightsRepository;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StudyUserRightsCacheTest {
+
+	private static final Long USER_ID = 1L;
+
+	@Mock
+	private StudyUserRightsRepository repo;
+
+	@InjectMocks
+	private StudyUserRightsCache cache;
+
+	@Before
+	public void setup() {
+		ReflectionTestUtils.setField(cache, "maxUsers", 10);
+		StudyUser su1 = makeSU(1L, true, Arrays.asList(StudyUserRight.CAN_SEE_ALL, StudyUserRight.CAN_DOWNLOAD), Collections.emptyList());
+		StudyUser su2 = makeSU(2L, false, Arrays.asList(StudyUserRight.CAN_IMPORT), Arrays.asList(3L));
+		given(repo.findByUserId(USER_ID)).willReturn(Arrays.asList(su1, su2));
+	}
+
+	@Test
+	public void testRights() {
+		StudyRights rights1 = cache.getRights(USER_ID, 1L);
+		assertTrue(rights1.hasConfirmedRight(StudyUserRight.CAN_SEE_ALL));
+		assertTrue(rights1.hasConfirmedRight(StudyUserRight.CAN_DOWNLOAD));
+		assertFalse(rights1.hasConfirmedRight(StudyUserRight.CAN_ADMINISTRATE));
+		assertTrue(rights1.hasRightOnCenter(5L));
+
+		StudyRights rights2 = cache.getRights(USER_ID, 2L);
+		assertTrue(rights2.hasRight(StudyUserRight.CAN_IMPORT));
+		// not confirmed
+		assertFalse(rights2.hasConfirmedRight(StudyUserRight.CAN_IMPORT));
+		assertTrue(rights2.hasRightOnCenter(3L));
+		assertFalse(rights2.hasRightOnCenter(5L));
+
+		assertNull(cache.getRights(USER_ID, 3L));
+	}
+
+	@Test
+	public void testHitMissAndEviction() {
+		cache.getRights(USER_ID, 1L);
+		cache.getRights(USER_ID, 2L);
+		cache.getRights(USER_ID, 3L);
+		verify(repo, times(1)).findByUserId(USER_ID);
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+
+		cache.evict(Arrays.asList(USER_ID, 2L));
+		assertEquals(1, cache.getEvictionCount());
+		cache.getRights(USER_ID, 1L);
+		verify(repo, times(2)).findByUserId(USER_ID);
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testMaxUsers() {
+		for (long userId = 100; userId < 110; userId++) {
+			cache.getRights(userId);
+		}
+		assertEquals(10, cache.getSize());
+		cache.getRights(USER_ID);
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	public void testMetricsPublished() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ReflectionTestUtils.setField(cache, "shanoirMetrics", new ShanoirMetrics(registry));
+		cache.init();
+		cache.getRights(USER_ID, 1L);
+		cache.getRights(USER_ID, 2L);
+		cache.evict(Arrays.asList(USER_ID));
+		cache.getRights(USER_ID, 1L);
+
+		assertEquals(1, registry.get(ShanoirMetrics.STUDY_RIGHTS_CACHE).tag(ShanoirMetrics.TAG_RESULT, ShanoirMetrics.HIT).functionCounter().count(), 0);
+		assertEquals(2, registry.get(ShanoirMetrics.STUDY_RIGHTS_CACHE).tag(ShanoirMetrics.TAG_RESULT, ShanoirMetrics.MISS).functionCounter().count(), 0);
+		assertEquals(1, registry.get(ShanoirMetrics.STUDY_RIGHTS_CACHE_EVICTIONS).functionCounter().count(), 0);
+		assertEquals(1, registry.get(ShanoirMetrics.STUDY_RIGHTS_CACHE_SIZE).gauge().value(), 0);
+	}
+
+	private StudyUser makeSU(Long studyId, boolean confirmed, List<StudyUserRight> rights, List<Long> centerIds) {
+		StudyUser su = new StudyUser();
+		su.setId(studyId);
+		su.setUserId(USER_ID);
+		su.setStudyId(studyId);
+		su.setUserName("Jeannot");
+		su.setConfirmed(confirmed);
+		su.setStudyUserRights(rights);
+		su.setCenterIds(centerIds);
+		return su;
+	}
+
+}
@@ -14,21 +14,32 @@
 
 package org.shanoir.ng.utils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.lang3.RandomStringUtils;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
 import org.shanoir.ng.dataset.modality.CtDataset;
 import org.shanoir.ng.dataset.modality.MrDataset;
 import org.shanoir.ng.dataset.modality.PetDataset;
 import org.shanoir.ng.dataset.model.CardinalityOfRelatedSubjects;
 import org.shanoir.ng.dataset.model.Dataset;
 import org.shanoir.ng.dataset.model.DatasetMetadata;
+import org.shanoir.ng.dataset.repository.DatasetStudyCenter;
 import org.shanoir.ng.datasetacquisition.model.DatasetAcquisition;
 import org.shanoir.ng.datasetacquisition.model.ct.CtDatasetAcquisition;
 import org.shanoir.ng.datasetacquisition.model.mr.MrDatasetAcquisition;
 import org.shanoir.ng.datasetacquisition.model.pet.PetDatasetAcquisition;
 import org.shanoir.ng.examination.model.Examination;
+import org.shanoir.ng.processing.model.DatasetProcessing;
 import org.shanoir.ng.shared.model.Subject;
 import org.shanoir.ng.studycard.model.StudyCard;
 
@@ -97,6 +108,35 @@ public final class ModelsUtil {
 		return dataset;
 	}
 
+	/**
+	 * Create the study centers of the datasets, as found by DatasetRepository.findStudyCenters:
+	 * a processed dataset has no study, only the ids of its inputs.
+	 * 
+	 * @param datasetIds the ids to find
+	 * @param datasets the existing datasets
+	 * @return study centers.
+	 */
+	public static List<DatasetStudyCenter> createStudyCenters(Collection<Long> datasetIds, Dataset... datasets) {
+		List<DatasetStudyCenter> studyCenters = new ArrayList<>();
+		for (Dataset dataset : datasets) {
+			if (!datasetIds.contains(dataset.getId())) {
+				continue;
+			}
+			if (dataset.getDatasetAcquisition() != null) {
+				Examination examination = dataset.getDatasetAcquisition().getExamination();
+				studyCenters.add(new DatasetStudyCenter(dataset.getId(), examination.getStudyId(), examination.getCenterId(), null));
+			} else {
+				DatasetProcessing processing = dataset.getDatasetProcessing();
+				DatasetStudyCenter studyCenter = new DatasetStudyCenter(dataset.getId(), null, null, processing.getId());
+				for (Dataset input : processing.getInputDatasets()) {
+					studyCenter.getInputDatasetIds().add(input.getId());
+				}
+				studyCenters.add(studyCenter);
+			}
+		}
+		return studyCenters;
+	}
+
 	/**
 	 * Create an examination.
 	 * 
@@ -160,6 +200,26 @@ public final class ModelsUtil {
 		return studyCard;
 	}
 	
+	/**
+	 * Create a DICOM file of an MR image, in explicit VR little endian.
+	 * 
+	 * @param instanceUID
+	 * @param pixelDataSize
+	 * @return the bytes of the file.
+	 * @throws IOException
+	 */
+	public static byte[] createDicomFile(String instanceUID, int pixelDataSize) throws IOException {
+		Attributes attributes = new Attributes();
+		attributes.setString(Tag.SOPClassUID, VR.UI, UID.MRImageStorage);
+		attributes.setString(Tag.SOPInstanceUID, VR.UI, instanceUID);
+		attributes.setBytes(Tag.PixelData, VR.OW, new byte[pixelDataSize]);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (DicomOutputStream dos = new DicomOutputStream(out, UID.ExplicitVRLittleEndian)) {
+			dos.writeDataset(attributes.createFileMetaInformation(UID.ExplicitVRLittleEndian), attributes);
+		}
+		return out.toByteArray();
+	}
+
 	/*
 	 * Create an origin metadata for dataset.
 	 * 
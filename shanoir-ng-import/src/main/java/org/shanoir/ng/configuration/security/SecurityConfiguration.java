@@ -80,6 +80,8 @@ public class SecurityConfiguration extends KeycloakWebSecurityConfigurerAdapter
 				.disable()
 			.authorizeRequests()
 				.antMatchers("/v2/api-docs", "/configuration/**", "/swagger*/**", "/webjars/**").permitAll()
+				// served on the management port only, not proxied by nginx
+				.antMatchers("/actuator/health", "/actuator/prometheus").permitAll()
 				.anyRequest().authenticated();
 	}
 
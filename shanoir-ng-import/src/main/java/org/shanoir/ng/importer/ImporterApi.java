@@ -17,6 +17,7 @@ package org.shanoir.ng.importer;
 import java.io.IOException;
 
 import java.io.FileNotFoundException;
+import java.util.Map;
 
 import org.shanoir.ng.exchange.model.Exchange;
 import org.shanoir.ng.importer.dicom.query.DicomQuery;
@@ -67,6 +68,35 @@ public interface ImporterApi {
     ResponseEntity<Void> uploadFile(
     		@ApiParam(value = "tempDirId", required = true) @PathVariable("tempDirId") String tempDirId,
     		@ApiParam(value = "file") @RequestParam("file") MultipartFile file) throws RestServiceException, IOException;
+
+    @ApiOperation(value = "Get the chunks received in a specific temp dir", notes = "Get the checksums of the chunks received in a specific temp dir, by chunk index, to resume an interrupted upload", response = Map.class)
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "received chunks", response = Map.class),
+			@ApiResponse(code = 401, message = "unauthorized", response = Void.class),
+			@ApiResponse(code = 403, message = "forbidden", response = Void.class),
+			@ApiResponse(code = 422, message = "not existing temp dir", response = Void.class),
+			@ApiResponse(code = 500, message = "unexpected error", response = Error.class) })
+    @GetMapping(value = "{tempDirId}/chunks", produces = { "application/json" })
+    @PreAuthorize("hasRole('ADMIN') or (hasAnyRole('EXPERT', 'USER') and @importSecurityService.hasRightOnOneStudy('CAN_IMPORT'))")
+    ResponseEntity<Map<Integer, String>> getUploadedChunks(
+    		@ApiParam(value = "tempDirId", required = true) @PathVariable("tempDirId") String tempDirId) throws RestServiceException, IOException;
+
+    @ApiOperation(value = "Upload a chunk into a specific temp dir", notes = "Upload a part of a file, or a zip of small files, into a specific temp dir", response = Void.class)
+	@ApiResponses(value = {
+			@ApiResponse(code = 200, message = "chunk uploaded", response = Void.class),
+			@ApiResponse(code = 401, message = "unauthorized", response = Void.class),
+			@ApiResponse(code = 403, message = "forbidden", response = Void.class),
+			@ApiResponse(code = 422, message = "not existing temp dir or wrong checksum", response = Void.class),
+			@ApiResponse(code = 500, message = "unexpected error", response = Error.class) })
+    @PostMapping(value = "{tempDirId}/chunks/{chunkIndex}", consumes = { "multipart/form-data" })
+    @PreAuthorize("hasRole('ADMIN') or (hasAnyRole('EXPERT', 'USER') and @importSecurityService.hasRightOnOneStudy('CAN_IMPORT'))")
+    ResponseEntity<Void> uploadChunk(
+    		@ApiParam(value = "tempDirId", required = true) @PathVariable("tempDirId") String tempDirId,
+    		@ApiParam(value = "chunkIndex", required = true) @PathVariable("chunkIndex") Integer chunkIndex,
+    		@ApiParam(value = "SHA-256 of the chunk", required = true) @RequestParam("checksum") String checksum,
+    		@ApiParam(value = "file of the part, none for a zip of small files") @RequestParam(value = "fileName", required = false) String fileName,
+    		@ApiParam(value = "position of the part in the file") @RequestParam(value = "offset", required = false, defaultValue = "0") Long offset,
+    		@ApiParam(value = "chunk") @RequestParam("file") MultipartFile chunk) throws RestServiceException, IOException;
     
     @ApiOperation(value = "Start exchange", notes = "Start exchange", response = Void.class)
     @ApiResponses(value = {
@@ -30,6 +30,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -63,6 +64,7 @@ import org.shanoir.ng.importer.model.Serie;
 import org.shanoir.ng.importer.model.Study;
 import org.shanoir.ng.importer.model.Subject;
 import org.shanoir.ng.importer.model.SubjectStudy;
+import org.shanoir.ng.importer.upload.ChunkedUploadService;
 import org.shanoir.ng.shared.configuration.RabbitMQConfiguration;
 import org.shanoir.ng.shared.core.model.IdName;
 import org.shanoir.ng.shared.event.ShanoirEvent;
@@ -176,6 +178,9 @@ public class ImporterApiController implements ImporterApi {
 	@Autowired
 	private ShanoirEventService eventService;
 
+	@Autowired
+	private ChunkedUploadService chunkedUploadService;
+
 	@Override
 	public ResponseEntity<ImportJob> uploadDicomZipFile(
 			@ApiParam(value = "file detail") @RequestPart("file") final MultipartFile dicomZipFile)
@@ -272,6 +277,13 @@ public class ImporterApiController implements ImporterApi {
 		final File importJobDir = new File(userImportDir, tempDirId);
 		if (importJobDir.exists()) {
 			importJob.setWorkFolder(importJobDir.getAbsolutePath());
+			try {
+				chunkedUploadService.completeUpload(importJobDir);
+			} catch (ShanoirException | IOException e) {
+				LOG.error("Error while completing the upload of {}", tempDirId, e);
+				throw new RestServiceException(
+						new ErrorModel(HttpStatus.UNPROCESSABLE_ENTITY.value(), e.getMessage(), null));
+			}
 
 			removeUnselectedSeries(importJob);
 			LOG.info("Starting import job for user {} (userId: {}) with import job folder: {}", KeycloakUtil.getTokenUserName(), userId, importJob.getWorkFolder());
@@ -519,9 +531,9 @@ public class ImporterApiController implements ImporterApi {
 			throws ShanoirImportException {
 		for (File edfFile : edfMatchingFiles) {
 
-			// Parse the file
-			try (FileInputStream edfStream = new FileInputStream(edfFile)) {
-				EDFParserResult result = EDFParser.parseEDF(edfStream);
+			// Parse the header and annotations, the signal is only mapped
+			try {
+				EDFParserResult result = EDFParser.parseEDF(edfFile);
 
 				// Create channels
 				List<Channel> channels = new ArrayList<>();
@@ -704,6 +716,38 @@ public class ImporterApiController implements ImporterApi {
 		return null;
 	}
 
+	@Override
+	public ResponseEntity<Map<Integer, String>> getUploadedChunks(@PathVariable("tempDirId") String tempDirId)
+			throws RestServiceException, IOException {
+		final File importJobDir = getExistingImportJobDir(tempDirId);
+		return new ResponseEntity<>(chunkedUploadService.getReceivedChunks(importJobDir), HttpStatus.OK);
+	}
+
+	@Override
+	public ResponseEntity<Void> uploadChunk(@PathVariable("tempDirId") String tempDirId,
+			@PathVariable("chunkIndex") Integer chunkIndex, @RequestParam("checksum") String checksum,
+			@RequestParam(value = "fileName", required = false) String fileName,
+			@RequestParam(value = "offset", required = false, defaultValue = "0") Long offset,
+			@RequestParam("file") MultipartFile chunk) throws RestServiceException, IOException {
+		final File importJobDir = getExistingImportJobDir(tempDirId);
+		try (InputStream content = chunk.getInputStream()) {
+			chunkedUploadService.writeChunk(importJobDir, chunkIndex, checksum, fileName, offset, content);
+		} catch (ShanoirException e) {
+			throw new RestServiceException(new ErrorModel(HttpStatus.UNPROCESSABLE_ENTITY.value(), e.getMessage(), null));
+		}
+		return new ResponseEntity<>(HttpStatus.OK);
+	}
+
+	private File getExistingImportJobDir(String tempDirId) throws RestServiceException {
+		final File userImportDir = ImportUtils.getUserImportDir(importDir);
+		final File importJobDir = new File(userImportDir, tempDirId);
+		if (!importJobDir.exists()) {
+			throw new RestServiceException(new ErrorModel(HttpStatus.UNPROCESSABLE_ENTITY.value(),
+					"Upload called with not existing tempDirId.", null));
+		}
+		return importJobDir;
+	}
+
 	@Override
 	public ResponseEntity<Void> startImport(@RequestBody Exchange exchange)
 			throws RestServiceException, FileNotFoundException, IOException {
@@ -23,17 +23,21 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.PostConstruct;
+
 import org.shanoir.anonymization.anonymization.AnonymizationServiceImpl;
 import org.shanoir.ng.importer.dcm2nii.DatasetsCreatorAndNIfTIConverterService;
 import org.shanoir.ng.importer.dicom.ImagesCreatorAndDicomFileAnalyzerService;
-import org.shanoir.ng.importer.dicom.query.DicomStoreSCPServer;
-import org.shanoir.ng.importer.dicom.query.QueryPACSService;
+import org.shanoir.ng.importer.dicom.query.SerieRetrievalScheduler;
 import org.shanoir.ng.importer.model.Image;
 import org.shanoir.ng.importer.model.ImportJob;
-import org.shanoir.ng.importer.model.Instance;
 import org.shanoir.ng.importer.model.Patient;
 import org.shanoir.ng.importer.model.Serie;
 import org.shanoir.ng.importer.model.Study;
+import org.shanoir.ng.importer.pipeline.ImportJobSeriesWriter;
+import org.shanoir.ng.importer.pipeline.ImportPipeline;
+import org.shanoir.ng.importer.pipeline.ImportStage;
+import org.shanoir.ng.importer.pipeline.StagedJob;
 import org.shanoir.ng.shared.configuration.RabbitMQConfiguration;
 import org.shanoir.ng.shared.email.EmailBase;
 import org.shanoir.ng.shared.email.EmailDatasetImportFailed;
@@ -41,6 +45,7 @@ import org.shanoir.ng.shared.event.ShanoirEvent;
 import org.shanoir.ng.shared.event.ShanoirEventService;
 import org.shanoir.ng.shared.event.ShanoirEventType;
 import org.shanoir.ng.shared.exception.ShanoirException;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
 import org.shanoir.ng.study.rights.StudyUser;
 import org.shanoir.ng.study.rights.StudyUserRightsRepository;
 import org.shanoir.ng.utils.ImportUtils;
@@ -52,7 +57,6 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -78,14 +82,18 @@ public class ImporterManagerService {
 	 * anonymization project as simple as it is, without Spring annotations, to
 	 * be usable outside a Spring context, as e.g. in ShanoirUploader.
 	 * Maybe to change and think about deeper afterwards.
+	 * Created in init, with one worker pool shared by all the imports.
 	 */
-	private static final AnonymizationServiceImpl ANONYMIZER = new AnonymizationServiceImpl();
+	private AnonymizationServiceImpl anonymizer;
 	
 	@Autowired
-	private QueryPACSService queryPACSService;
-	
+	private SerieRetrievalScheduler serieRetrievalScheduler;
+
+	@Autowired
+	private ImportPipeline importPipeline;
+
 	@Autowired
-	private DicomStoreSCPServer dicomStoreSCPServer;
+	private ImportJobSeriesWriter importJobSeriesWriter;
 	
 	@Autowired
 	private ImagesCreatorAndDicomFileAnalyzerService imagesCreatorAndDicomFileAnalyzer;
@@ -101,19 +109,119 @@ public class ImporterManagerService {
 
 	@Autowired
 	private ShanoirEventService eventService;
+
+	@Autowired
+	private ShanoirMetrics shanoirMetrics;
 	
 	@Autowired
 	StudyUserRightsRepository studyUserRightRepo;
 
 	@Value("${shanoir.import.directory}")
 	private String importDir;
+
+	@Value("${shanoir.import.anonymization.threads:4}")
+	private int anonymizationThreads;
+
+	@Value("${shanoir.import.publication.claimCheck:true}")
+	private boolean claimCheck;
+
+	@PostConstruct
+	public void init() {
+		anonymizer = new AnonymizationServiceImpl(anonymizationThreads);
+	}
 	
-	@Async("asyncExecutor")
+	/**
+	 * Submits the import job to the import pipeline, that executes its stages
+	 * asynchronously, as soon as the pipeline has a place for it.
+	 */
 	public void manageImportJob(final Long userId, final HttpHeaders keycloakHeaders, final ImportJob importJob) {
 		ShanoirEvent event = new ShanoirEvent(ShanoirEventType.IMPORT_DATASET_EVENT, importJob.getExaminationId().toString(), userId, "Starting import configuration", ShanoirEvent.IN_PROGRESS, 0f);
 		eventService.publishEvent(event);
 		importJob.setShanoirEvent(event);
-		try {
+		ImportJobExecution execution = new ImportJobExecution(userId, importJob);
+		if (!importJob.isFromPacs() && !importJob.isFromShanoirUploader() && !importJob.isFromDicomZip()) {
+			execution.failed(null, new ShanoirException("Unsupported type of import."));
+			return;
+		}
+		importPipeline.submit(execution);
+	}
+
+	/**
+	 * The stages of an import job, run one after the other by the import pipeline.
+	 */
+	private class ImportJobExecution implements StagedJob {
+
+		private final Long userId;
+
+		private final ImportJob importJob;
+
+		private File importJobDir;
+
+		ImportJobExecution(Long userId, ImportJob importJob) {
+			this.userId = userId;
+			this.importJob = importJob;
+		}
+
+		@Override
+		public ShanoirEvent getEvent() {
+			return importJob.getShanoirEvent();
+		}
+
+		@Override
+		public boolean hasStage(ImportStage stage) {
+			switch (stage) {
+			case PACS_FETCH:
+				return importJob.isFromPacs();
+			case ANALYSIS:
+				// images creation and analyze of dicom files has been done after upload already for dicom zip
+				return importJob.isFromPacs() || importJob.isFromShanoirUploader();
+			default:
+				return true;
+			}
+		}
+
+		@Override
+		public String[] getMetricTags() {
+			return new String[] { ShanoirMetrics.TAG_STUDY, ShanoirMetrics.tagValue(importJob.getStudyId()),
+					ShanoirMetrics.TAG_MODALITY, getModality() };
+		}
+
+		@Override
+		public void runStage(ImportStage stage) throws Exception {
+			switch (stage) {
+			case PACS_FETCH:
+				fetchFromPacs();
+				break;
+			case ANALYSIS:
+				// convert instances to images, as already done after zip file upload
+				imagesCreatorAndDicomFileAnalyzer.createImagesAndAnalyzeDicomFiles(importJob.getPatients(), getImportJobDir().getAbsolutePath(), importJob.isFromPacs());
+				break;
+			case ANONYMIZATION:
+				anonymize();
+				break;
+			case CONVERSION:
+				for (Iterator<Patient> patientsIt = importJob.getPatients().iterator(); patientsIt.hasNext();) {
+					Patient patient = patientsIt.next();
+					Long converterId = importJob.getConverterId();
+					datasetsCreatorAndNIfTIConverter.createDatasetsAndRunConversion(patient, getImportJobDir(), converterId, importJob);
+				}
+				break;
+			case PUBLICATION:
+				// with claim check, the series are sent in a file of the import job folder
+				String message = claimCheck ? importJobSeriesWriter.createMessage(importJob, getImportJobDir())
+						: objectMapper.writeValueAsString(importJob);
+				rabbitTemplate.convertAndSend(RabbitMQConfiguration.IMPORTER_QUEUE_DATASET, message);
+				long importJobDirSize = ImportUtils.getDirectorySize(getImportJobDir().toPath());
+				LOG.info("user=" + KeycloakUtil.getTokenUserName() + ",size=" + ImportUtils.readableFileSize(importJobDirSize) + "," + importJob.toString());
+				break;
+			}
+		}
+
+		/**
+		 * In PACS import the dicom files are still in the PACS, we have to download them first
+		 * and then analyze them: what gives us a list of images for each serie.
+		 */
+		private void fetchFromPacs() throws ShanoirException {
 			// Always create a userId specific folder in the import work folder (the root of everything):
 			// split imports to clearly separate them into separate folders for each user
 			final String userImportDirFilePath = importDir + File.separator + Long.toString(userId);
@@ -121,50 +229,69 @@ public class ImporterManagerService {
 			if (!userImportDir.exists()) {
 				userImportDir.mkdirs(); // create if not yet existing, e.g. in case of PACS import
 			}
-			List<Patient> patients = importJob.getPatients();
-			// In PACS import the dicom files are still in the PACS, we have to download them first
-			// and then analyze them: what gives us a list of images for each serie.
-			final File importJobDir;
-			if (importJob.isFromPacs()) {
-				importJobDir = createImportJobDir(userImportDir.getAbsolutePath());
-				// at first all dicom files arrive normally in /tmp/shanoir-dcmrcv (see config DicomStoreSCPServer)
-				downloadAndMoveDicomFilesToImportJobDir(importJobDir, patients);
-				// convert instances to images, as already done after zip file upload
-				imagesCreatorAndDicomFileAnalyzer.createImagesAndAnalyzeDicomFiles(patients, importJobDir.getAbsolutePath(), true);
-			} else if (importJob.isFromShanoirUploader()) {
-				importJobDir = new File(importJob.getWorkFolder());
-				// convert instances to images, as already done after zip file upload
-				imagesCreatorAndDicomFileAnalyzer.createImagesAndAnalyzeDicomFiles(patients, importJobDir.getAbsolutePath(), false);
-			} else if (importJob.isFromDicomZip()) {
-				// images creation and analyze of dicom files has been done after upload already
-				importJobDir = new File(importJob.getWorkFolder());
-			} else {
-				throw new ShanoirException("Unsupported type of import.");
-			}
-						
+			importJobDir = createImportJobDir(userImportDir.getAbsolutePath());
+			// the dicom files are received by DicomStoreSCPServer directly in the import job folder
+			serieRetrievalScheduler.retrieveSeries(importJobDir, importJob.getPatients(), importJob.getShanoirEvent());
+		}
+
+		private void anonymize() throws ShanoirException, FileNotFoundException {
+			ShanoirEvent event = importJob.getShanoirEvent();
 			event.setMessage("Anonymizing dicom..");
 			eventService.publishEvent(event);
-			for (Iterator<Patient> patientsIt = patients.iterator(); patientsIt.hasNext();) {
+			for (Iterator<Patient> patientsIt = importJob.getPatients().iterator(); patientsIt.hasNext();) {
 				Patient patient = patientsIt.next();
 				// perform anonymization only in case of profile explicitly set
 				if (importJob.getAnonymisationProfileToUse() != null && !importJob.getAnonymisationProfileToUse().isEmpty()) {
-					ArrayList<File> dicomFiles = getDicomFilesForPatient(importJob, patient, importJobDir.getAbsolutePath());
+					ArrayList<File> dicomFiles = getDicomFilesForPatient(importJob, patient, getImportJobDir().getAbsolutePath());
 					final String subjectName = patient.getSubject().getName();
 					try {
-						ANONYMIZER.anonymizeForShanoir(dicomFiles, importJob.getAnonymisationProfileToUse(), subjectName, subjectName);
+						shanoirMetrics.time(ShanoirMetrics.ANONYMIZATION, () -> {
+							anonymizer.anonymizeForShanoir(dicomFiles, importJob.getAnonymisationProfileToUse(), subjectName, subjectName);
+							return null;
+						}, ShanoirMetrics.TAG_STUDY, ShanoirMetrics.tagValue(importJob.getStudyId()), ShanoirMetrics.TAG_MODALITY, getModality());
+						shanoirMetrics.increment(ShanoirMetrics.ANONYMIZATION_FILES, dicomFiles.size(),
+								ShanoirMetrics.TAG_STUDY, ShanoirMetrics.tagValue(importJob.getStudyId()));
 					} catch (Exception e) {
 						LOG.error(e.getMessage(), e);
 						throw new ShanoirException("Error during anonymization.");
 					}
 				}
-				Long converterId = importJob.getConverterId();
-				datasetsCreatorAndNIfTIConverter.createDatasetsAndRunConversion(patient, importJobDir, converterId, importJob);
 			}
-			this.rabbitTemplate.convertAndSend(RabbitMQConfiguration.IMPORTER_QUEUE_DATASET, objectMapper.writeValueAsString(importJob));
-			long importJobDirSize = ImportUtils.getDirectorySize(importJobDir.toPath());
-			LOG.info("user=" + KeycloakUtil.getTokenUserName() + ",size=" + ImportUtils.readableFileSize(importJobDirSize) + "," + importJob.toString());
-		} catch (Exception e) {
+		}
+
+		/**
+		 * @return the modality of the first serie, for the metrics
+		 */
+		private String getModality() {
+			if (importJob.getPatients() == null) {
+				return null;
+			}
+			for (Patient patient : importJob.getPatients()) {
+				for (Study study : patient.getStudies() != null ? patient.getStudies() : new ArrayList<Study>()) {
+					for (Serie serie : study.getSeries() != null ? study.getSeries() : new ArrayList<Serie>()) {
+						if (serie.getModality() != null) {
+							return serie.getModality();
+						}
+					}
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return the folder created for a PACS import, the upload folder otherwise
+		 */
+		private File getImportJobDir() {
+			if (importJobDir == null) {
+				importJobDir = new File(importJob.getWorkFolder());
+			}
+			return importJobDir;
+		}
+
+		@Override
+		public void failed(ImportStage stage, Exception e) {
 			LOG.error("Error during import for study {} and examination {}", importJob.getStudyId(), importJob.getExaminationId(), e);
+			ShanoirEvent event = importJob.getShanoirEvent();
 			event.setMessage("ERROR while importing data for study " + importJob.getStudyId() + " for examination " + importJob.getExaminationId() + ", please contact an administrator");
 			event.setStatus(ShanoirEvent.ERROR);
 			event.setProgress(1f);
@@ -246,46 +373,6 @@ public class ImporterManagerService {
 		return n;
 	}
 
-	/**
-	 * Calls a c-move for each serie involved, files are received via DicomStoreSCPServer.
-	 * 
-	 * @param patients
-	 * @throws ShanoirException
-	 */
-	private void downloadAndMoveDicomFilesToImportJobDir(final File importJobDir, List<Patient> patients) throws ShanoirException {
-		for (Iterator<Patient> patientsIt = patients.iterator(); patientsIt.hasNext();) {
-			Patient patient = patientsIt.next();
-			List<Study> studies = patient.getStudies();
-			for (Iterator<Study> studiesIt = studies.iterator(); studiesIt.hasNext();) {
-				Study study = studiesIt.next();
-				List<Serie> series = study.getSeries();
-				for (Iterator<Serie> seriesIt = series.iterator(); seriesIt.hasNext();) {
-					Serie serie = seriesIt.next();
-					queryPACSService.queryCMOVE(serie);
-					String serieID = serie.getSeriesInstanceUID();
-					File serieIDFolderDir = new File(importJobDir + File.separator + serieID);
-					if(!serieIDFolderDir.exists()) {
-						serieIDFolderDir.mkdirs();
-					} else {
-						throw new ShanoirException("Error while creating serie id folder: folder already exists.");
-					}
-					for (Iterator<Instance> iterator = serie.getInstances().iterator(); iterator.hasNext();) {
-						Instance instance = iterator.next();
-						String sopInstanceUID = instance.getSopInstanceUID();
-						File oldFile = new File(dicomStoreSCPServer.getStorageDirPath() + File.separator + serieID + File.separator + sopInstanceUID + DicomStoreSCPServer.DICOM_FILE_SUFFIX);
-						if (oldFile.exists()) {
-							File newFile = new File(importJobDir.getAbsolutePath() + File.separator + serieID + File.separator + oldFile.getName());
-							oldFile.renameTo(newFile);
-							LOG.debug("Moving file: {} to ", oldFile.getAbsolutePath(), newFile.getAbsolutePath());
-						} else {
-							throw new ShanoirException("Error while creating serie id folder: file to copy does not exist.");
-						}
-					}
-				}
-			}
-		}
-	}
-
 	/**
 	 * Using Java HashSet here to avoid duplicate files for anonymization.
 	 * For performance reasons already init with 5000 buckets, assuming,
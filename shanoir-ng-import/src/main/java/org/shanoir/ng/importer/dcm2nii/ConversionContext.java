@@ -0,0 +1,102 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.dcm2nii;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.shanoir.ng.utils.ShanoirExec.ProcessTracker;
+
+/**
+ * The state of the conversion of an import job, the series of the job being
+ * converted in parallel. Created for each job, as DatasetsCreatorAndNIfTIConverterService
+ * is shared by all the imports.
+ *
+ * The converter processes running for the job are kept, to destroy them when
+ * the conversion is cancelled: interrupting the threads waiting for them does
+ * not stop them.
+ */
+class ConversionContext implements ProcessTracker {
+
+	private final NIfTIConverter converter;
+
+	/** Logs of the conversion. */
+	private final StringBuilder conversionLogs = new StringBuilder();
+
+	/** Output files mapped by serie folder name (series UID). */
+	private final ConcurrentMap<String, List<String>> outputFiles = new ConcurrentHashMap<>();
+
+	/** Converter processes running. */
+	private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean cancelled;
+
+	ConversionContext(NIfTIConverter converter) {
+		this.converter = converter;
+	}
+
+	NIfTIConverter getConverter() {
+		return converter;
+	}
+
+	synchronized void appendLogs(String logs) {
+		if (conversionLogs.length() > 0) {
+			conversionLogs.append("\n");
+		}
+		conversionLogs.append(logs);
+	}
+
+	synchronized String getConversionLogs() {
+		return conversionLogs.toString();
+	}
+
+	/**
+	 * @param serieID
+	 * @return the output files of the serie, null before its first conversion,
+	 * only modified by the thread converting the serie
+	 */
+	List<String> getOutputFiles(String serieID) {
+		return outputFiles.get(serieID);
+	}
+
+	void setOutputFiles(String serieID, List<String> files) {
+		outputFiles.put(serieID, files);
+	}
+
+	@Override
+	public void started(Process process) {
+		processes.add(process);
+		// started by a thread not interrupted yet
+		if (cancelled) {
+			process.destroyForcibly();
+		}
+	}
+
+	@Override
+	public void ended(Process process) {
+		processes.remove(process);
+	}
+
+	/**
+	 * Destroys the converter processes running, and the ones started afterwards.
+	 */
+	void cancel() {
+		cancelled = true;
+		processes.forEach(Process::destroyForcibly);
+	}
+
+}
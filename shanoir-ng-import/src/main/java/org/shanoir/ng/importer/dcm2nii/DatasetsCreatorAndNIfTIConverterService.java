@@ -34,8 +34,16 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.transaction.Transactional;
 
 import org.apache.commons.io.FileUtils;
@@ -53,6 +61,7 @@ import org.shanoir.ng.importer.model.Patient;
 import org.shanoir.ng.importer.model.Serie;
 import org.shanoir.ng.importer.model.Study;
 import org.shanoir.ng.shared.configuration.RabbitMQConfiguration;
+import org.shanoir.ng.shared.event.ShanoirEvent;
 import org.shanoir.ng.shared.event.ShanoirEventService;
 import org.shanoir.ng.shared.exception.RestServiceException;
 import org.shanoir.ng.shared.exception.ShanoirException;
@@ -104,6 +113,9 @@ public class DatasetsCreatorAndNIfTIConverterService {
 	@Autowired
 	private ShanoirExec shanoirExec;
 
+	@Autowired
+	private NIfTIConversionCache conversionCache;
+
 	@Autowired
 	private ShanoirEventService shanoirEventService;
 	
@@ -134,14 +146,38 @@ public class DatasetsCreatorAndNIfTIConverterService {
 	@Value("${shanoir.conversion.dcm2nii.converters.clidcm.path.windows}")
 	private String clidcmPathWindows;
 
-	/** Logs of the conversion. */
-	private String conversionLogs;
+	@Value("${shanoir.import.conversion.threads:0}")
+	private int conversionThreads;
 
-	/** Output files mapped by series UID. */
-	private HashMap<String, List<String>> outputFiles = new HashMap<>();
+	/** Null if the series are converted by the calling thread */
+	private ExecutorService executor;
 
 	Random rand = new Random();
 
+	/**
+	 * The converters are external processes, that use the cpu: the pool shared
+	 * by all the imports has by default one thread per processor.
+	 */
+	@PostConstruct
+	public void init() {
+		int threads = conversionThreads > 0 ? conversionThreads : Runtime.getRuntime().availableProcessors();
+		if (threads > 1) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "nifti-conversion-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
 	@PreAuthorize("hasAnyRole('ADMIN', 'EXPERT', 'USER')")
 	public NIfTIConverter findById(Long id) {
 		return niftiConverterRepository.findById(id).orElse(null);
@@ -152,6 +188,11 @@ public class DatasetsCreatorAndNIfTIConverterService {
 		return niftiConverterRepository.findAll().stream().filter(converter -> converter.getIsActive()).collect(Collectors.toList());
 	}
 
+	/**
+	 * Converts the series of the patient in parallel, on the pool shared by all the imports,
+	 * each serie being converted in its own folder. The first failing serie cancels the
+	 * others, and destroys their converter processes.
+	 */
 	@PreAuthorize("hasAnyRole('ADMIN', 'EXPERT', 'USER')")
 	public void createDatasetsAndRunConversion(Patient patient, File workFolder, Long converterId, ImportJob importJob) throws ShanoirException {
 		File seriesFolderFile = new File(workFolder.getAbsolutePath() + File.separator + SERIES);
@@ -160,42 +201,80 @@ public class DatasetsCreatorAndNIfTIConverterService {
 		} else {
 			throw new ShanoirException("Error while creating series folder: folder already exists.");
 		}
-		conversionLogs = "";
-		List<Study> studies = patient.getStudies();
-		for (Iterator<Study> studiesIt = studies.iterator(); studiesIt.hasNext();) {
-			Study study = studiesIt.next();
-			List<Serie> series = study.getSeries();
-			float progress = 0;
-
-			for (Iterator<Serie> seriesIt = series.iterator(); seriesIt.hasNext();) {
-				Serie serie = seriesIt.next();
-
-				progress = progress + (0.5f / series.size());
-				importJob.getShanoirEvent().setProgress(progress);
-				importJob.getShanoirEvent().setMessage("Converting to nifti, serie: " + serie.getProtocolName());
-				shanoirEventService.publishEvent(importJob.getShanoirEvent());
-
-				if (serie.getSelected()) {
-					File serieIDFolderFile = createSerieIDFolderAndMoveFiles(workFolder, seriesFolderFile, serie);
-					boolean serieIdentifiedForNotSeparating;
-					try {
-						serieIdentifiedForNotSeparating = checkSerieForPropertiesString(serie, seriesProperties);
-						// if the serie is not one of the series, that should not be separated, please separate the series,
-						// otherwise just do not separate the series and keep all images for one nii conversion
-						serie.setDatasets(new ArrayList<Dataset>());
-						constructDicom(serieIDFolderFile, serie, serieIdentifiedForNotSeparating);
-						// we exclude MR Spectroscopy (MRS) from NIfTI conversion, see MRS on GitHub Wiki
-						if (!serie.getIsSpectroscopy()) {
-							constructNifti(serieIDFolderFile, serie, converterId);
-						}
-					} catch (NoSuchFieldException | SecurityException e) {
-						LOG.error(e.getMessage());
-					}
-					// as images/non-images are migrated to datasets, clear the list now
-					serie.getImages().clear();
-					serie.getNonImages().clear();
+		ConversionContext context = new ConversionContext(findById(converterId));
+		List<Serie> series = new ArrayList<>();
+		for (Iterator<Study> studiesIt = patient.getStudies().iterator(); studiesIt.hasNext();) {
+			series.addAll(studiesIt.next().getSeries());
+		}
+		AtomicInteger convertedSeries = new AtomicInteger();
+		List<Future<?>> conversions = new ArrayList<>();
+		try {
+			for (Serie serie : series) {
+				Callable<Void> conversion = () -> {
+					convertSerie(workFolder, seriesFolderFile, serie, context);
+					publishProgress(importJob, serie, convertedSeries.incrementAndGet(), series.size());
+					return null;
+				};
+				if (executor != null) {
+					conversions.add(executor.submit(conversion));
+				} else {
+					conversion.call();
+				}
+			}
+			for (Future<?> future : conversions) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ShanoirException("Interrupted during the conversion.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ShanoirException) {
+				throw (ShanoirException) e.getCause();
+			}
+			throw new ShanoirException("Error during the conversion: " + e.getCause().getMessage(), e.getCause());
+		} catch (ShanoirException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ShanoirException("Error during the conversion: " + e.getMessage(), e);
+		} finally {
+			conversions.forEach(future -> future.cancel(true));
+			context.cancel();
+		}
+		LOG.debug("conversionLogs : {}", context.getConversionLogs());
+	}
+
+	private void convertSerie(File workFolder, File seriesFolderFile, Serie serie, ConversionContext context) throws ShanoirException {
+		if (serie.getSelected()) {
+			File serieIDFolderFile = createSerieIDFolderAndMoveFiles(workFolder, seriesFolderFile, serie);
+			boolean serieIdentifiedForNotSeparating;
+			try {
+				serieIdentifiedForNotSeparating = checkSerieForPropertiesString(serie, seriesProperties);
+				// if the serie is not one of the series, that should not be separated, please separate the series,
+				// otherwise just do not separate the series and keep all images for one nii conversion
+				serie.setDatasets(new ArrayList<Dataset>());
+				constructDicom(serieIDFolderFile, serie, serieIdentifiedForNotSeparating);
+				// we exclude MR Spectroscopy (MRS) from NIfTI conversion, see MRS on GitHub Wiki
+				if (!serie.getIsSpectroscopy()) {
+					constructNifti(serieIDFolderFile, serie, context);
 				}
+			} catch (NoSuchFieldException | SecurityException e) {
+				LOG.error(e.getMessage());
 			}
+			// as images/non-images are migrated to datasets, clear the list now
+			serie.getImages().clear();
+			serie.getNonImages().clear();
+		}
+	}
+
+	/**
+	 * The event of the job is shared by the threads converting its series.
+	 */
+	private void publishProgress(ImportJob importJob, Serie serie, int convertedSeries, int nbSeries) {
+		ShanoirEvent event = importJob.getShanoirEvent();
+		synchronized (event) {
+			event.setProgress(0.5f * convertedSeries / nbSeries);
+			event.setMessage("Converted to nifti (" + convertedSeries + "/" + nbSeries + "), serie: " + serie.getProtocolName());
+			shanoirEventService.publishEvent(event);
 		}
 	}
 
@@ -322,28 +401,49 @@ public class DatasetsCreatorAndNIfTIConverterService {
 	}
 
 	/**
-	 * Execute the Nifti conversion
+	 * Execute the Nifti conversion, or copy the files of the same conversion
+	 * from the cache. The dicomifier conversions, done by another microservice
+	 * in sub folders, are not cached.
 	 *
 	 * @param converter
 	 * @param input folder
 	 * @param output folder
 	 * @param boolean is a 4D volume
-	 * @param boolean is convert to clidcm
+	 * @param context
 	 *
 	 */
-	private void convertToNiftiExec(NIfTIConverter converter, String inputFolder, String outputFolder, boolean is4D) {
+	private void convertToNiftiExec(NIfTIConverter converter, String inputFolder, String outputFolder, boolean is4D, ConversionContext context) {
 		if (converter == null) {
 			return;
 		}
+		String cacheKey = null;
+		if (conversionCache.isEnabled() && !converter.isDicomifier()) {
+			cacheKey = conversionCache.getKey(new File(inputFolder), converter.getId(), is4D);
+		}
+		if (cacheKey != null && conversionCache.restore(cacheKey, new File(outputFolder))) {
+			context.appendLogs("Conversion copied from the cache: " + cacheKey);
+			return;
+		}
+		final List<File> existingFiles = Arrays.asList(new File(outputFolder).listFiles());
+		runConverter(converter, inputFolder, outputFolder, is4D, context);
+		if (cacheKey != null) {
+			List<File> convertedFiles = diff(existingFiles, outputFolder).stream().filter(File::isFile).collect(Collectors.toList());
+			if (!containsPropFile(convertedFiles)) {
+				conversionCache.store(cacheKey, convertedFiles);
+			}
+		}
+	}
+
+	private void runConverter(NIfTIConverter converter, String inputFolder, String outputFolder, boolean is4D, ConversionContext context) {
 		String converterPath = convertersPath + converter.getName();
 		// Mcverter
 		if (converter.isMcverter()) {
 			is4D = true;
-			conversionLogs += shanoirExec.mcverterExec(inputFolder, converterPath, outputFolder, is4D);
+			context.appendLogs(shanoirExec.mcverterExec(inputFolder, converterPath, outputFolder, is4D, context));
 			// Clidcm
 		} else if (converter.isClidcm()) {
 			try {
-				conversionLogs += shanoirExec.clidcmExec(inputFolder, converterPath, outputFolder);
+				context.appendLogs(shanoirExec.clidcmExec(inputFolder, converterPath, outputFolder, context));
 			} catch (Exception e) {
 				LOG.debug("Error converting with clidcm outputfolder : " + outputFolder + " - is4D :" + is4D + " - ", e);
 			}
@@ -352,16 +452,16 @@ public class DatasetsCreatorAndNIfTIConverterService {
 			 * and '.bval' files because this is the type of files normally created by
 			 * dcm2nii .
 			 */
-			createBvecAndBval(outputFolder);
+			createBvecAndBval(outputFolder, context);
 			// Dicom2Nifti
 		} else if (converter.isDicom2Nifti()) {
-			conversionLogs += shanoirExec.dicom2niftiExec(inputFolder, converterPath, outputFolder);
+			context.appendLogs(shanoirExec.dicom2niftiExec(inputFolder, converterPath, outputFolder, context));
 			// dcm2nii
 		} else if (converter.isDicomifier()) {
-			conversionLogs += shanoirExec.dicomifier(inputFolder, outputFolder);
+			context.appendLogs(shanoirExec.dicomifier(inputFolder, outputFolder));
 		} else {
 			is4D = true;
-			conversionLogs += shanoirExec.dcm2niiExec(inputFolder, converterPath, outputFolder, is4D);
+			context.appendLogs(shanoirExec.dcm2niiExec(inputFolder, converterPath, outputFolder, is4D, context));
 		}
 	}
 
@@ -371,7 +471,7 @@ public class DatasetsCreatorAndNIfTIConverterService {
 	 *
 	 * @param path
 	 */
-	private List<File> createBvecAndBval(final String path) {
+	private List<File> createBvecAndBval(final String path, ConversionContext context) {
 		LOG.debug("createBvecAndBval : Begin, params : path={}", path);
 		List<File> bvecAndBval = new ArrayList<>();
 		final FilenameFilter filter = new FilenameFilter() {
@@ -390,7 +490,7 @@ public class DatasetsCreatorAndNIfTIConverterService {
 			}
 		}
 		if(bvecAndBval.isEmpty()) {
-			conversionLogs += "There was an error creating bvec and bval. DiffusionGradientOrientation and/or B0 values may be missing in DICOM file.";
+			context.appendLogs("There was an error creating bvec and bval. DiffusionGradientOrientation and/or B0 values may be missing in DICOM file.");
 		}
 		LOG.debug("createBvecAndBval : end");
 		return bvecAndBval;
@@ -457,26 +557,21 @@ public class DatasetsCreatorAndNIfTIConverterService {
 	}
 
 	/**
-	 * Remove unused files that are created during the conversion process.
+	 * Remove unused files that are created during the conversion process of a serie.
+	 *
+	 * @param serieOutputFiles the output files of the serie
 	 */
-	private void removeUnusedFiles() {
-		final List<File> toBeRemovedList = new ArrayList<>();
-		for (final List<String> listPath : outputFiles.values()) {
-			for (final String path : listPath) {
-				File file = new File(path);
-				if (file.getName().startsWith("o") || file.getName().startsWith("x")) {
-					toBeRemovedList.add(file);
+	private void removeUnusedFiles(List<String> serieOutputFiles) {
+		for (Iterator<String> iterator = serieOutputFiles.iterator(); iterator.hasNext();) {
+			File file = new File(iterator.next());
+			if (file.getName().startsWith("o") || file.getName().startsWith("x")) {
+				iterator.remove();
+				boolean success = file.delete();
+				if (!success) {
+					LOG.error("removeUnusedFiles : error while deleting {}", file);
 				}
 			}
 		}
-		for (final File toBeRemovedFile : toBeRemovedList) {
-			// TODO : ne marche pas
-			outputFiles.remove(toBeRemovedFile);
-			boolean success = toBeRemovedFile.delete();
-			if (!success) {
-				LOG.error("removeUnusedFiles : error while deleting {}", toBeRemovedFile);
-			}
-		}
 	}
 
 	/**
@@ -522,23 +617,16 @@ public class DatasetsCreatorAndNIfTIConverterService {
 	 * 
 	 * @todo the conversion progress needs to be send to the frontend to be displayed
 	 * 
-	 * @param serieIDFolderFile
+	 * @param dataset
+	 * @param directory
 	 * @param serie
-	 * @param seriesCounter
-	 * @param numberOfSeries
+	 * @param context
 	 * @throws SecurityException
 	 * @throws NoSuchFieldException
 	 */
-	private NIfTIConverter datasetToNiftiConversionLauncher(Dataset dataset, File directory, Serie serie, Long converterId, boolean isConvertAs4D, boolean isConvertWithClidcm) throws NoSuchFieldException, SecurityException {
-		// search for the existing files in the destination folder
-		if (conversionLogs != null && !"".equals(conversionLogs)) {
-			conversionLogs += "\n";
-		} else {
-			conversionLogs = "";
-		}
-		NIfTIConverter converter = findById(converterId);
-		convertToNiftiExec(converter, directory.getPath(), directory.getPath(), isConvertAs4D);
-		LOG.debug("conversionLogs : {}", conversionLogs);
+	private NIfTIConverter datasetToNiftiConversionLauncher(Dataset dataset, File directory, Serie serie, ConversionContext context, boolean isConvertAs4D, boolean isConvertWithClidcm) throws NoSuchFieldException, SecurityException {
+		NIfTIConverter converter = context.getConverter();
+		convertToNiftiExec(converter, directory.getPath(), directory.getPath(), isConvertAs4D, context);
 		return converter;
 	}
 
@@ -548,32 +636,33 @@ public class DatasetsCreatorAndNIfTIConverterService {
 	 * 
 	 * @return List of nifti files
 	 */
-	private List<File> niftiFileSorting(List<File> existingFiles, File directory, File serieIDFolderFile) {
+	private List<File> niftiFileSorting(List<File> existingFiles, File directory, File serieIDFolderFile, ConversionContext context) {
 		// If one of the output files is a prop file, there has been an error
 		List<File> niftiFileResult = null;
-		if (outputFiles.get(serieIDFolderFile.getName()) != null) {
+		List<String> serieOutputFiles = context.getOutputFiles(serieIDFolderFile.getName());
+		if (serieOutputFiles != null) {
 			List<File> niiFiles = diff(existingFiles, directory.getPath());
 			niftiFileResult = niiFiles;
 			if (!containsPropFile(niiFiles)) {
 				for (File niiFile : niiFiles) {
-					outputFiles.get(serieIDFolderFile.getName()).add(niiFile.getAbsolutePath());
+					serieOutputFiles.add(niiFile.getAbsolutePath());
 					LOG.debug("Path niiFile : {}", niiFile.getAbsolutePath());
 				}
 			}
 		} else {
-			List<String> niiPathList = new ArrayList<>();
-			if (!containsPropFile(diff(existingFiles, directory.getPath()))) {
-				List<File>  niiFileList = diff(existingFiles, directory.getPath());
+			serieOutputFiles = new ArrayList<>();
+			List<File> niiFileList = diff(existingFiles, directory.getPath());
+			if (!containsPropFile(niiFileList)) {
 				niftiFileResult = niiFileList;
 				for (File niiFile : niiFileList) {
-					niiPathList.add(niiFile.getAbsolutePath());
+					serieOutputFiles.add(niiFile.getAbsolutePath());
 					LOG.debug("Path niiFile : {}", niiFile.getAbsolutePath());
 				}
-				outputFiles.put(serieIDFolderFile.getName(), niiPathList);
+				context.setOutputFiles(serieIDFolderFile.getName(), serieOutputFiles);
 			}
 		}
 		// delete the unused files
-		removeUnusedFiles();
+		removeUnusedFiles(serieOutputFiles);
 		return niftiFileResult;
 	}
 
@@ -613,11 +702,11 @@ public class DatasetsCreatorAndNIfTIConverterService {
 	 * @param serieIDFolderFile
 	 * @param serie
 	 * @param serieIdentifiedForNotSeparating
-	 * @param convertedId
+	 * @param context
 	 * @throws NoSuchFieldException
 	 * 
 	 */
-	private void constructNifti(File serieIDFolderFile, final Serie serie, Long converterId) throws NoSuchFieldException {
+	private void constructNifti(File serieIDFolderFile, final Serie serie, ConversionContext context) throws NoSuchFieldException {
 
 		LOG.debug("convertToNifti : create nifti files for the serie : {}", serieIDFolderFile.getAbsolutePath());
 
@@ -640,11 +729,11 @@ public class DatasetsCreatorAndNIfTIConverterService {
 						final List<File> existingFiles = Arrays.asList(directory.listFiles());
 						NIfTIConverter converter = null;
 						try {
-							converter = datasetToNiftiConversionLauncher(dataset, directory, serie, converterId, isConvertAs4D, isConvertWithClidcm);
+							converter = datasetToNiftiConversionLauncher(dataset, directory, serie, context, isConvertAs4D, isConvertWithClidcm);
 						} catch (SecurityException e) {
 							LOG.error(e.getMessage());
 						}
-						List<File> niftiGeneratedFiles = converter.isDicomifier() ? niftiFileSortingDicom2Nifti(existingFiles, directory, dataset) : niftiFileSorting(existingFiles, directory, serieIDFolderFile);
+						List<File> niftiGeneratedFiles = converter.isDicomifier() ? niftiFileSortingDicom2Nifti(existingFiles, directory, dataset) : niftiFileSorting(existingFiles, directory, serieIDFolderFile, context);
 						constructNiftiExpressionAndDatasetFiles(converter, dataset, serie, niftiGeneratedFiles);
 						++index;
 					}
@@ -657,11 +746,11 @@ public class DatasetsCreatorAndNIfTIConverterService {
 					final List<File> existingFiles = Arrays.asList(serieIDFolderFile.listFiles());
 					NIfTIConverter converter = null;
 					try {
-						converter = datasetToNiftiConversionLauncher(dataset, serieIDFolderFile, serie, converterId, isConvertAs4D, isConvertWithClidcm);
+						converter = datasetToNiftiConversionLauncher(dataset, serieIDFolderFile, serie, context, isConvertAs4D, isConvertWithClidcm);
 					} catch (SecurityException e) {
 						LOG.error(e.getMessage());
 					}
-					List<File> niftiGeneratedFiles = converter.isDicomifier() ? niftiFileSortingDicom2Nifti(existingFiles, serieIDFolderFile, dataset) : niftiFileSorting(existingFiles, serieIDFolderFile, serieIDFolderFile);
+					List<File> niftiGeneratedFiles = converter.isDicomifier() ? niftiFileSortingDicom2Nifti(existingFiles, serieIDFolderFile, dataset) : niftiFileSorting(existingFiles, serieIDFolderFile, serieIDFolderFile, context);
 					constructNiftiExpressionAndDatasetFiles(converter, dataset, serie, niftiGeneratedFiles);
 				}
 			}
@@ -913,14 +1002,15 @@ public class DatasetsCreatorAndNIfTIConverterService {
 
 		result.mkdirs();
 
-		this.convertToNiftiExec(converter, workFolder, workFolderResult, false);
+		ConversionContext context = new ConversionContext(converter);
+		this.convertToNiftiExec(converter, workFolder, workFolderResult, false, context);
 		
 		if (converter.isDicomifier()) {
 			Dataset dataset = new Dataset();
 			dataset.setName("name");
 			niftiFileSortingDicom2Nifti(Collections.emptyList(), result, dataset);
 		} else {
-			niftiFileSorting(Collections.emptyList(), result, new File("serieId"));
+			niftiFileSorting(Collections.emptyList(), result, new File("serieId"), context);
 		}
 		
 		return true;
@@ -0,0 +1,294 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.dcm2nii;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.io.DicomInputStream;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * On disk cache of the NIfTI conversions: the files created by a converter (nii, bval, bvec, json..)
+ * are kept in one folder per conversion. A conversion is identified by a hash of the sorted
+ * SOPInstanceUIDs of the DICOM files converted, the converter id and the 4D flag, so a serie
+ * converted again, e.g. for a download or a reimport, is copied from the cache instead of
+ * running the converter.
+ *
+ * The total size of the cache is bounded: the least recently used conversions are removed.
+ * The index is kept in memory and rebuilt from the folder at startup.
+ */
+@Component
+public class NIfTIConversionCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NIfTIConversionCache.class);
+
+	private static final String TMP_SUFFIX = ".tmp";
+
+	@Autowired
+	private ShanoirMetrics shanoirMetrics;
+
+	@Value("${shanoir.import.conversion.cache.folder:/tmp/shanoir-nifti-cache}")
+	private String cacheFolderPath;
+
+	/** In MB, 0 to disable the cache */
+	@Value("${shanoir.import.conversion.cache.maxSize:10240}")
+	private long maxSize;
+
+	private File cacheFolder;
+
+	/** key -> size of the conversion, in access order */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long size;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		shanoirMetrics.counter(ShanoirMetrics.CONVERSION_CACHE, this, NIfTIConversionCache::getHitCount,
+				ShanoirMetrics.TAG_RESULT, ShanoirMetrics.HIT);
+		shanoirMetrics.counter(ShanoirMetrics.CONVERSION_CACHE, this, NIfTIConversionCache::getMissCount,
+				ShanoirMetrics.TAG_RESULT, ShanoirMetrics.MISS);
+		shanoirMetrics.counter(ShanoirMetrics.CONVERSION_CACHE_EVICTIONS, this, NIfTIConversionCache::getEvictionCount);
+		shanoirMetrics.gauge(ShanoirMetrics.CONVERSION_CACHE_SIZE, this, NIfTIConversionCache::getSize);
+		if (!isEnabled()) {
+			return;
+		}
+		cacheFolder = new File(cacheFolderPath);
+		cacheFolder.mkdirs();
+		File[] folders = cacheFolder.listFiles(File::isDirectory);
+		if (folders == null) {
+			return;
+		}
+		// the least recently modified first, as an approximation of the access order before the restart
+		Arrays.sort(folders, Comparator.comparingLong(File::lastModified));
+		synchronized (this) {
+			for (File folder : folders) {
+				if (folder.getName().endsWith(TMP_SUFFIX)) {
+					FileUtils.deleteQuietly(folder);
+				} else {
+					long folderSize = FileUtils.sizeOfDirectory(folder);
+					entries.put(folder.getName(), folderSize);
+					size += folderSize;
+				}
+			}
+			evict();
+		}
+		LOG.info("NIfTI conversion cache initialized: {}, {} conversions, {} MB", cacheFolderPath, entries.size(), size / FileUtils.ONE_MB);
+	}
+
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * @param dicomFolder the folder of the DICOM files to convert, read recursively
+	 * @param converterId
+	 * @param is4D
+	 * @return the key of the conversion, null if no DICOM file found
+	 */
+	public String getKey(File dicomFolder, Long converterId, boolean is4D) {
+		List<String> sopInstanceUIDs;
+		try (Stream<Path> paths = Files.walk(dicomFolder.toPath())) {
+			sopInstanceUIDs = paths.filter(Files::isRegularFile)
+					.map(path -> readSOPInstanceUID(path.toFile()))
+					.filter(uid -> uid != null)
+					.sorted()
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			LOG.error("Error while listing the DICOM files of {}", dicomFolder, e);
+			return null;
+		}
+		if (sopInstanceUIDs.isEmpty()) {
+			return null;
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String sopInstanceUID : sopInstanceUIDs) {
+				digest.update(sopInstanceUID.getBytes(StandardCharsets.US_ASCII));
+				digest.update((byte) '\n');
+			}
+			digest.update((converterId + "|" + is4D).getBytes(StandardCharsets.US_ASCII));
+			return Hex.encodeHexString(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Only the header is read, null if the file is not a DICOM file.
+	 */
+	private String readSOPInstanceUID(File file) {
+		try (DicomInputStream dIS = new DicomInputStream(file)) {
+			return dIS.readDataset(-1, Tag.PixelData).getString(Tag.SOPInstanceUID);
+		} catch (IOException | RuntimeException e) {
+			LOG.debug("Not a DICOM file: {}", file);
+			return null;
+		}
+	}
+
+	/**
+	 * Copies the files of the conversion into the output folder. The files are copied,
+	 * not linked, as the import may modify them, and outside of the lock not to block
+	 * the other conversions: if the conversion is evicted meanwhile, the files already
+	 * copied are removed and the conversion is not found.
+	 *
+	 * @param key
+	 * @param outputFolder
+	 * @return true if the conversion is in the cache
+	 */
+	public boolean restore(String key, File outputFolder) {
+		File[] files;
+		synchronized (this) {
+			Long entrySize = entries.get(key); // access order
+			if (entrySize == null) {
+				missCount.incrementAndGet();
+				return false;
+			}
+			files = new File(cacheFolder, key).listFiles();
+			if (files == null) {
+				// removed from the disk
+				LOG.warn("The conversion {} is not in the cache folder anymore", key);
+				entries.remove(key);
+				size -= entrySize;
+				missCount.incrementAndGet();
+				return false;
+			}
+		}
+		List<Path> copiedFiles = new ArrayList<>();
+		try {
+			for (File file : files) {
+				copiedFiles.add(Files.copy(file.toPath(), new File(outputFolder, file.getName()).toPath()));
+			}
+		} catch (IOException e) {
+			LOG.error("Error while copying the conversion {} from the cache", key, e);
+			copiedFiles.forEach(path -> FileUtils.deleteQuietly(path.toFile()));
+			missCount.incrementAndGet();
+			return false;
+		}
+		hitCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Adds the files of a conversion to the cache, the least recently used conversions
+	 * are removed if needed.
+	 *
+	 * @param key
+	 * @param files the files created by the converter, not the folders
+	 */
+	public void store(String key, List<File> files) {
+		if (files.isEmpty()) {
+			return;
+		}
+		// copied before being added to the index, not to block the other conversions
+		File tmpFolder = new File(cacheFolder, key + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+		long entrySize = 0;
+		try {
+			tmpFolder.mkdirs();
+			for (File file : files) {
+				Files.copy(file.toPath(), new File(tmpFolder, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				entrySize += file.length();
+			}
+		} catch (IOException e) {
+			LOG.error("Error while adding the conversion {} to the cache", key, e);
+			FileUtils.deleteQuietly(tmpFolder);
+			return;
+		}
+		synchronized (this) {
+			if (entries.containsKey(key) || !tmpFolder.renameTo(new File(cacheFolder, key))) {
+				// converted at the same time by another import
+				FileUtils.deleteQuietly(tmpFolder);
+				return;
+			}
+			entries.put(key, entrySize);
+			size += entrySize;
+			evict();
+		}
+	}
+
+	private void evict() {
+		long maxSizeBytes = maxSize * FileUtils.ONE_MB;
+		for (Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator(); size > maxSizeBytes && iterator.hasNext();) {
+			Map.Entry<String, Long> entry = iterator.next();
+			FileUtils.deleteQuietly(new File(cacheFolder, entry.getKey()));
+			size -= entry.getValue();
+			iterator.remove();
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of conversions copied from the cache
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of conversions not found in the cache
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @return the size of the files in the cache, in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized List<String> getKeys() {
+		return Collections.unmodifiableList(new ArrayList<>(entries.keySet()));
+	}
+
+}
@@ -22,12 +22,24 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.lang3.StringUtils;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.emf.MultiframeExtractor;
+import org.dcm4che3.io.BulkDataDescriptor;
 import org.dcm4che3.io.DicomInputStream;
 import org.shanoir.ng.importer.model.EchoTime;
 import org.shanoir.ng.importer.model.EquipmentDicom;
@@ -55,8 +67,13 @@ import org.springframework.stereotype.Service;
  * which are later necessary to separate datasets inside each serie:
  * acquisitionNumber, echoNumbers and imageOrientationsPatient.
  * 
- * In case of the import from pacs, the files are accessed using the STORAGE_PATTERN defined
- * in DicomStoreSCPServer.
+ * In case of the import from pacs, the files are accessed in the folders of the series
+ * (SeriesInstanceUID/SOPInstanceUID.dcm), in which DicomStoreSCPServer writes them.
+ * 
+ * Only the headers are parsed, the pixel data are skipped. The instances of all the series
+ * are analyzed in parallel, on a pool shared by all imports, and the images are added to
+ * their serie in the order of the instances. An import only has a bounded number of instances
+ * queued or analyzed at the same time, so that a big import does not delay the others.
  * 
  * @author mkain
  *
@@ -78,24 +95,132 @@ public class ImagesCreatorAndDicomFileAnalyzerService {
 	@Value("${shanoir.import.upload.folder}")
 	private String uploadFolder;
 
+	@Value("${shanoir.import.analysis.threads:4}")
+	private int analysisThreads;
+
+	/** Null if the files are analyzed by the calling thread */
+	private ExecutorService executor;
+
+	/** Maximum number of instances of one import queued or analyzed at the same time */
+	private int maxInFlightPerImport;
+
+	@PostConstruct
+	public void init() {
+		maxInFlightPerImport = 2 * analysisThreads;
+		if (analysisThreads > 1) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(analysisThreads, runnable -> {
+				Thread thread = new Thread(runnable, "dicom-analysis-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
 	public void createImagesAndAnalyzeDicomFiles(List<Patient> patients, String folderFileAbsolutePath, boolean isImportFromPACS)
 			throws FileNotFoundException {
-		// patient level
-		for (Iterator<Patient> patientsIt = patients.iterator(); patientsIt.hasNext();) {
-			Patient patient = patientsIt.next();
-			// study level
-			List<Study> studies = patient.getStudies();
-			for (Iterator<Study> studiesIt = studies.iterator(); studiesIt.hasNext();) {
-				Study study = studiesIt.next();
-				// serie level
-				List<Serie> series = study.getSeries();
-				for (Iterator<Serie> seriesIt = series.iterator(); seriesIt.hasNext();) {
-					Serie serie = seriesIt.next();
-					filterAndCreateImages(folderFileAbsolutePath, serie, isImportFromPACS);
-					getAdditionalMetaDataFromFirstInstanceOfSerie(folderFileAbsolutePath, serie, patient, isImportFromPACS);
+		List<SerieAnalysis> analyses = new ArrayList<>();
+		Semaphore inFlight = new Semaphore(maxInFlightPerImport);
+		try {
+			// patient level
+			for (Iterator<Patient> patientsIt = patients.iterator(); patientsIt.hasNext();) {
+				Patient patient = patientsIt.next();
+				// study level
+				List<Study> studies = patient.getStudies();
+				for (Iterator<Study> studiesIt = studies.iterator(); studiesIt.hasNext();) {
+					Study study = studiesIt.next();
+					// serie level
+					List<Serie> series = study.getSeries();
+					for (Iterator<Serie> seriesIt = series.iterator(); seriesIt.hasNext();) {
+						Serie serie = seriesIt.next();
+						analyses.add(new SerieAnalysis(patient, serie, analyzeInstances(folderFileAbsolutePath, serie, isImportFromPACS, inFlight)));
+					}
+				}
+			}
+			// the series are completed in the same order as before, the first non empty value is kept for the patient
+			for (SerieAnalysis analysis : analyses) {
+				filterAndCreateImages(analysis.serie, analysis.images);
+				getAdditionalMetaDataFromFirstInstanceOfSerie(folderFileAbsolutePath, analysis.serie, analysis.patient, isImportFromPACS);
+			}
+		} finally {
+			for (SerieAnalysis analysis : analyses) {
+				analysis.images.forEach(future -> future.cancel(true));
+			}
+		}
+	}
+
+	/**
+	 * The images of a serie, being analyzed.
+	 */
+	private static class SerieAnalysis {
+
+		private final Patient patient;
+
+		private final Serie serie;
+
+		/** One future per instance, null for the ignored instances */
+		private final List<Future<Image>> images;
+
+		SerieAnalysis(Patient patient, Serie serie, List<Future<Image>> images) {
+			this.patient = patient;
+			this.serie = serie;
+			this.images = images;
+		}
+	}
+
+	/**
+	 * Submits the analysis of each instance of the serie, the missing files
+	 * are detected before. Waits while the import has too many instances in flight.
+	 * 
+	 * @param folderFileAbsolutePath
+	 * @param serie
+	 * @param isImportFromPACS
+	 * @param inFlight the permits of the import
+	 * @return the images, in the order of the instances
+	 * @throws FileNotFoundException
+	 */
+	private List<Future<Image>> analyzeInstances(String folderFileAbsolutePath, Serie serie, boolean isImportFromPACS, Semaphore inFlight) throws FileNotFoundException {
+		List<Future<Image>> images = new ArrayList<>();
+		for (Iterator<Instance> instancesIt = serie.getInstances().iterator(); instancesIt.hasNext();) {
+			Instance instance = instancesIt.next();
+			File instanceFile = getFileFromInstance(instance, serie, folderFileAbsolutePath, isImportFromPACS);
+			if (executor != null) {
+				acquire(inFlight);
+				try {
+					images.add(executor.submit(() -> {
+						try {
+							return processDicomFileForAllInstances(instanceFile, folderFileAbsolutePath);
+						} finally {
+							inFlight.release();
+						}
+					}));
+				} catch (RejectedExecutionException e) {
+					inFlight.release();
+					throw e;
 				}
+			} else {
+				CompletableFuture<Image> image = new CompletableFuture<>();
+				image.complete(processDicomFileForAllInstances(instanceFile, folderFileAbsolutePath));
+				images.add(image);
 			}
 		}
+		return images;
+	}
+
+	private void acquire(Semaphore inFlight) {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during the analysis of the DICOM files.", e);
+		}
 	}
 
 	/**
@@ -114,22 +239,21 @@ public class ImagesCreatorAndDicomFileAnalyzerService {
 	}
 
 	/**
-	 * This method iterates over all instances, filters only the images
+	 * This method waits for the analysis of all instances, filters only the images
 	 * and puts them into a new list: images. For the moment non-images are
 	 * not implemented.
 	 * 
-	 * @param folderFileAbsolutePath
 	 * @param serie
-	 * @throws FileNotFoundException
+	 * @param analyzedImages
 	 */
-	private void filterAndCreateImages(String folderFileAbsolutePath, Serie serie, boolean isImportFromPACS) throws FileNotFoundException {
+	private void filterAndCreateImages(Serie serie, List<Future<Image>> analyzedImages) {
 		List<Image> images = new ArrayList<Image>();
 		List<Object> nonImages = new ArrayList<Object>();
-		List<Instance> instances = serie.getInstances();
-		for (Iterator<Instance> instancesIt = instances.iterator(); instancesIt.hasNext();) {
-			Instance instance = instancesIt.next();
-			File instanceFile = getFileFromInstance(instance, serie, folderFileAbsolutePath, isImportFromPACS);
-			processDicomFileForAllInstances(instanceFile, images, folderFileAbsolutePath);
+		for (Future<Image> analyzedImage : analyzedImages) {
+			Image image = getImage(analyzedImage);
+			if (image != null) {
+				images.add(image);
+			}
 		}
 		serie.setNonImages(nonImages);
 		serie.setNonImagesNumber(nonImages.size());
@@ -137,6 +261,20 @@ public class ImagesCreatorAndDicomFileAnalyzerService {
 		serie.setImagesNumber(images.size());
 	}
 
+	private Image getImage(Future<Image> analyzedImage) {
+		try {
+			return analyzedImage.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during the analysis of the DICOM files.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Error during the analysis of the DICOM files.", e.getCause());
+		}
+	}
+
 	/**
 	 * This method accesses to the dicom file of each instance and handles it.
 	 * 
@@ -183,35 +321,36 @@ public class ImagesCreatorAndDicomFileAnalyzerService {
 	/**
 	 * This method opens the connection to each dcm file and reads its attributes
 	 * and extracts meta-data from the dicom, that will be used later.
+	 * The pixel data are not read: only their position in the file is kept,
+	 * for the frame extraction of the enhanced MR.
 	 * 
 	 * @param dicomFile
-	 * @param serie
-	 * @param instances
-	 * @param instance
-	 * @param index
-	 * @param nonImages
-	 * @param images
+	 * @param folderFileAbsolutePath
+	 * @return the image, null if the instance is ignored or can not be read
 	 */
-	private void processDicomFileForAllInstances(File dicomFile, List<Image> images, String folderFileAbsolutePath) {
+	Image processDicomFileForAllInstances(File dicomFile, String folderFileAbsolutePath) {
 		try (DicomInputStream dIS = new DicomInputStream(dicomFile)) {
+			dIS.setIncludeBulkData(DicomInputStream.IncludeBulkData.URI);
+			dIS.setBulkDataDescriptor(BulkDataDescriptor.PIXELDATA);
 			Attributes attributes = dIS.readDataset(-1, -1);
 			// Some DICOM files with a particular SOPClassUID are ignored: such as Raw Data Storage etc.
 			if (dicomSerieAndInstanceAnalyzer.checkInstanceIsIgnored(attributes)) {
 				// do nothing here as instances list will be emptied after split between images and non-images
-			} else {
-				// divide here between non-images and images, non-images at first
-				Image image = new Image();
-				/**
-				 * Attention: the path of each image is always relative: either to the temporary folder created
-				 * with dicom zip import during the upload or with the DicomStoreSCPServer folder for PACS import
-				 */
-				String relativeFilePath = dicomFile.getAbsolutePath().replace(folderFileAbsolutePath + SLASH, "");
-				image.setPath(relativeFilePath);
-				addImageSeparateDatasetsInfo(image, attributes);
-				images.add(image);
+				return null;
 			}
+			// divide here between non-images and images, non-images at first
+			Image image = new Image();
+			/**
+			 * Attention: the path of each image is always relative: either to the temporary folder created
+			 * with dicom zip import during the upload or with the DicomStoreSCPServer folder for PACS import
+			 */
+			String relativeFilePath = dicomFile.getAbsolutePath().replace(folderFileAbsolutePath + SLASH, "");
+			image.setPath(relativeFilePath);
+			addImageSeparateDatasetsInfo(image, attributes);
+			return image;
 		} catch (IOException e) {
 			LOG.error("Error during DICOM file process.", e);
+			return null;
 		}
 	}
 	
@@ -225,7 +364,7 @@ public class ImagesCreatorAndDicomFileAnalyzerService {
 	private void processDicomFileForFirstInstance(File dicomFile, Serie serie, Patient patient) {
 		try (DicomInputStream dIS = new DicomInputStream(dicomFile)) {
 			LOG.debug("Process first DICOM file of serie {} path {}", serie.getSeriesInstanceUID() + " " + serie.getSeriesDescription(), dicomFile.getAbsolutePath());
-			Attributes attributes = dIS.readDataset(-1, -1);
+			Attributes attributes = dIS.readDataset(-1, Tag.PixelData);
 			checkPatientData(patient, attributes);
 			checkSerieData(serie, attributes);
 			addSeriesEquipment(serie, attributes);
@@ -2,12 +2,12 @@
  * Shanoir NG - Import, manage and share neuroimaging data
  * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
  * Contact us on https://project.inria.fr/shanoir/
- * 
+ *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
  * the Free Software Foundation, either version 3 of the License, or
  * (at your option) any later version.
- * 
+ *
  * You should have received a copy of the GNU General Public License
  * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
  */
@@ -15,80 +15,154 @@
 package org.shanoir.ng.importer.dicom.query;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.PDVInputStream;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.TransferCapability;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCEchoSCP;
+import org.dcm4che3.net.service.BasicCStoreSCP;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.shanoir.ng.shared.exception.ShanoirException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.weasis.dicom.param.AdvancedParams;
-import org.weasis.dicom.param.ConnectOptions;
-import org.weasis.dicom.param.DicomNode;
-import org.weasis.dicom.param.ListenerParams;
-import org.weasis.dicom.tool.DicomListener;
 
 /**
  * This class inits a DICOM server for StoreSCP within the microservice import.
  * As we have to use the same port to bind to, we can not initiate multiple instances
- * of a dicom server for each user/import ongoing in Shanoir. All files, send by the
- * server, that received the c-move, SCU in this case, arrive in our SCP in the same
- * folder: storageDirPath. The API of CStoreSCP does not provide a setStorageDir to
- * be changed during runtime, so we keep the same folder during the application runtime.
- * 
+ * of a dicom server for each user/import ongoing in Shanoir. The import, that sends
+ * the c-move, registers before the folder of each serie to retrieve: the files of
+ * these series are written directly into the folder of the import job. All other files
+ * arrive in the same folder: storageDirPath, in a folder with the SeriesInstanceUID.
+ *
  * @author mkain
  *
  */
 @Service
 public class DicomStoreSCPServer {
 
-	/**
-	 * In the brackets '{ggggeeee}' the dicom attribute value is used to be replaced.
-	 * We store in a folder with the SeriesInstanceUID and the file name of the SOPInstanceUID.
-	 */
-	private static final String STORAGE_PATTERN = "/{0020000E}/{00080018}";
-	
 	public static final String DICOM_FILE_SUFFIX = ".dcm";
 
+	private static final String PART_FILE_SUFFIX = ".part";
+
 	private static final Logger LOG = LoggerFactory.getLogger(DicomStoreSCPServer.class);
-	
+
 	@Value("${shanoir.import.pacs.store.aet.called.name}")
 	private String calledName;
 
 	@Value("${shanoir.import.pacs.store.aet.called.host}")
 	private String calledHost;
-	
+
 	@Value("${shanoir.import.pacs.store.aet.called.port}")
 	private Integer calledPort;
-	
+
 	@Value("${shanoir.import.pacs.store.folder}")
 	private String storageDirPath;
-	
+
+	/** SeriesInstanceUID -> folder of the serie in an import job */
+	private final ConcurrentMap<String, SerieRoute> routes = new ConcurrentHashMap<>();
+
+	private Device device;
+
+	private ExecutorService executor;
+
+	private ScheduledExecutorService scheduledExecutor;
+
 	@PostConstruct
 	private void initServer() {
-        DicomNode scpNode = new DicomNode(calledName, calledHost, calledPort);
         File storageDir = new File(storageDirPath);
         if (!storageDir.exists()) {
         		storageDir.mkdirs();
         }
-		AdvancedParams params = new AdvancedParams();
-        ConnectOptions connectOptions = new ConnectOptions();
-        connectOptions.setConnectTimeout(3000);
-        connectOptions.setAcceptTimeout(5000);
+        Connection connection = new Connection();
+        connection.setHostname(calledHost);
+        connection.setPort(calledPort);
+        connection.setConnectTimeout(3000);
+        connection.setAcceptTimeout(5000);
         // Concurrent DICOM operations
-        connectOptions.setMaxOpsInvoked(15);
-        connectOptions.setMaxOpsPerformed(15);
-        params.setConnectOptions(connectOptions);
-        ListenerParams lparams = new ListenerParams(params, true, STORAGE_PATTERN + DICOM_FILE_SUFFIX, null, null);
+        connection.setMaxOpsInvoked(15);
+        connection.setMaxOpsPerformed(15);
+        ApplicationEntity ae = new ApplicationEntity(calledName);
+        ae.setAssociationAcceptor(true);
+        ae.addConnection(connection);
+        ae.addTransferCapability(new TransferCapability(null, "*", TransferCapability.Role.SCP, "*"));
+        DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+        serviceRegistry.addDicomService(new BasicCEchoSCP());
+        serviceRegistry.addDicomService(new RoutingCStoreSCP());
+        device = new Device(calledName.toLowerCase());
+        device.addConnection(connection);
+        device.addApplicationEntity(ae);
+        device.setDimseRQHandler(serviceRegistry);
+        // one thread per association, the c-moves of the imports run in parallel
+        executor = Executors.newCachedThreadPool();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        device.setExecutor(executor);
+        device.setScheduledExecutor(scheduledExecutor);
         try {
-        		DicomListener listener = new DicomListener(storageDir);
-            listener.start(scpNode, lparams);
+            device.bindConnections();
         } catch (Exception e) {
            LOG.error(e.getMessage(), e);
         }
         LOG.info("DicomStoreSCPServer successfully initialized: {}, {}, {}, {}", calledName, calledHost, calledPort, storageDirPath);
 	}
 
+	@PreDestroy
+	private void stopServer() {
+		if (device != null) {
+			device.unbindConnections();
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			scheduledExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Registers the folder, in which the files of the serie are written when received.
+	 *
+	 * @param seriesInstanceUID
+	 * @param serieFolder
+	 * @param instanceListener called in the SCP thread, with each file of the serie received
+	 * @throws ShanoirException if the serie is already retrieved by another import
+	 */
+	public void addRoute(String seriesInstanceUID, File serieFolder, Consumer<File> instanceListener) throws ShanoirException {
+		if (routes.putIfAbsent(seriesInstanceUID, new SerieRoute(serieFolder, instanceListener)) != null) {
+			throw new ShanoirException("Error while retrieving serie " + seriesInstanceUID + ": already retrieved by another import.");
+		}
+	}
+
+	/**
+	 * The files of the serie received afterwards go again into the storage folder.
+	 *
+	 * @param seriesInstanceUID
+	 */
+	public void removeRoute(String seriesInstanceUID) {
+		routes.remove(seriesInstanceUID);
+	}
+
 	public String getStorageDirPath() {
 		return storageDirPath;
 	}
@@ -96,5 +170,86 @@ public class DicomStoreSCPServer {
 	public void setStorageDirPath(String storageDirPath) {
 		this.storageDirPath = storageDirPath;
 	}
-	
+
+	/**
+	 * The folder of a serie in an import job.
+	 */
+	private static class SerieRoute {
+
+		private final File serieFolder;
+
+		private final Consumer<File> instanceListener;
+
+		SerieRoute(File serieFolder, Consumer<File> instanceListener) {
+			this.serieFolder = serieFolder;
+			this.instanceListener = instanceListener;
+		}
+	}
+
+	/**
+	 * Streams an instance into a temporary file of the storage folder, reads its
+	 * SeriesInstanceUID without the pixel data and renames it into the folder of its serie.
+	 * The temporary file is removed on failure.
+	 *
+	 * @param iuid the SOPInstanceUID
+	 * @param fmi the file meta information
+	 * @param data writes the dataset of the instance
+	 * @return the file of the instance
+	 * @throws DicomServiceException if the instance could not be stored
+	 */
+	File storeInstance(String iuid, Attributes fmi, DatasetWriter data) throws IOException {
+		File partFile = new File(storageDirPath, iuid + PART_FILE_SUFFIX);
+		try {
+			try (DicomOutputStream out = new DicomOutputStream(partFile)) {
+				out.writeFileMetaInformation(fmi);
+				data.writeTo(out);
+			}
+			String seriesInstanceUID;
+			try (DicomInputStream in = new DicomInputStream(partFile)) {
+				seriesInstanceUID = in.readDataset(-1, Tag.PixelData).getString(Tag.SeriesInstanceUID);
+			}
+			SerieRoute route = routes.get(seriesInstanceUID);
+			File serieFolder = route != null ? route.serieFolder : new File(storageDirPath, seriesInstanceUID);
+			serieFolder.mkdirs();
+			File file = new File(serieFolder, iuid + DICOM_FILE_SUFFIX);
+			Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			LOG.debug("Received file: {}", file.getAbsolutePath());
+			if (route != null) {
+				route.instanceListener.accept(file);
+			}
+			return file;
+		} catch (Exception e) {
+			LOG.error("Error while storing instance {}", iuid, e);
+			Files.deleteIfExists(partFile.toPath());
+			throw new DicomServiceException(Status.ProcessingFailure, e);
+		}
+	}
+
+	/**
+	 * Writes the dataset of an instance, after its file meta information.
+	 */
+	@FunctionalInterface
+	interface DatasetWriter {
+		void writeTo(DicomOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Stores each received instance, see storeInstance.
+	 */
+	private class RoutingCStoreSCP extends BasicCStoreSCP {
+
+		RoutingCStoreSCP() {
+			super("*");
+		}
+
+		@Override
+		protected void store(Association as, PresentationContext pc, Attributes rq, PDVInputStream data, Attributes rsp)
+				throws IOException {
+			String cuid = rq.getString(Tag.AffectedSOPClassUID);
+			String iuid = rq.getString(Tag.AffectedSOPInstanceUID);
+			String tsuid = pc.getTransferSyntax();
+			storeInstance(iuid, as.createFileMetaInformation(iuid, cuid, tsuid), data::copyTo);
+		}
+	}
+
 }
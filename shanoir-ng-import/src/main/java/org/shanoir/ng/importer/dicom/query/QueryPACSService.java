@@ -127,7 +127,14 @@ public class QueryPACSService {
 		return importJob;
 	}
 	
-	public void queryCMOVE(Serie serie) {
+	/**
+	 * Retrieves the serie, the files are received via DicomStoreSCPServer.
+	 * Opens one association with the called AE, can be called concurrently.
+	 * 
+	 * @param serie
+	 * @return the state at the end of the c-move
+	 */
+	public DicomState queryCMOVE(Serie serie) {
 		DicomProgress progress = new DicomProgress();
 		progress.addProgressListener(new ProgressListener() {
 			@Override
@@ -139,7 +146,14 @@ public class QueryPACSService {
 				new DicomParam(Tag.SeriesInstanceUID, serie.getSeriesInstanceUID()) };
 		AdvancedParams options = new AdvancedParams();
 		options.getQueryOptions().add(QueryOption.RELATIONAL); // Required for QueryRetrieveLevel other than study
-		CMove.process(options, calling, called, calledNameSCP, progress, params);
+		return CMove.process(options, calling, called, calledNameSCP, progress, params);
+	}
+
+	/**
+	 * @return the title of the AE, the c-moves are sent to
+	 */
+	public String getCalledAET() {
+		return calledName;
 	}
 
 	/**
@@ -0,0 +1,226 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.dicom.query;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.dcm4che3.net.Status;
+import org.shanoir.ng.importer.model.Instance;
+import org.shanoir.ng.importer.model.Patient;
+import org.shanoir.ng.importer.model.Serie;
+import org.shanoir.ng.importer.model.Study;
+import org.shanoir.ng.shared.event.ShanoirEvent;
+import org.shanoir.ng.shared.event.ShanoirEventService;
+import org.shanoir.ng.shared.exception.ShanoirException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.weasis.dicom.param.DicomState;
+
+/**
+ * This class retrieves the series of an import from the PACS, with one c-move per serie.
+ * The c-moves of all the imports are sent by the same worker pool, several series are
+ * retrieved at the same time. The number of associations opened at the same time with
+ * each called AE is limited, not to overload the PACS.
+ *
+ * The files of each serie are written by DicomStoreSCPServer directly into the folder
+ * of the serie in the import job, each file received updates the progress of the import.
+ */
+@Service
+public class SerieRetrievalScheduler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SerieRetrievalScheduler.class);
+
+	@Autowired
+	private QueryPACSService queryPACSService;
+
+	@Autowired
+	private DicomStoreSCPServer dicomStoreSCPServer;
+
+	@Autowired
+	private ShanoirEventService eventService;
+
+	@Value("${shanoir.import.pacs.retrieve.threads:8}")
+	private int retrieveThreads;
+
+	@Value("${shanoir.import.pacs.retrieve.associationsPerAE:4}")
+	private int associationsPerAE;
+
+	/** Null if the series are retrieved by the calling thread */
+	private ExecutorService executor;
+
+	/** Called AE title -> associations available */
+	private final ConcurrentMap<String, Semaphore> associations = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		if (retrieveThreads > 1) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(retrieveThreads, runnable -> {
+				Thread thread = new Thread(runnable, "pacs-retrieve-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Retrieves all the series of the patients into the import job folder,
+	 * in one folder per serie named with the SeriesInstanceUID.
+	 *
+	 * @param importJobDir
+	 * @param patients
+	 * @param event the event of the import, updated with the files received
+	 * @throws ShanoirException
+	 */
+	public void retrieveSeries(final File importJobDir, List<Patient> patients, ShanoirEvent event) throws ShanoirException {
+		List<Serie> series = new ArrayList<>();
+		int nbInstances = 0;
+		for (Patient patient : patients) {
+			for (Study study : patient.getStudies()) {
+				for (Serie serie : study.getSeries()) {
+					series.add(serie);
+					nbInstances += serie.getInstances().size();
+				}
+			}
+		}
+		InstanceProgress progress = new InstanceProgress(event, nbInstances);
+		List<String> routedSeries = new ArrayList<>();
+		List<Future<DicomState>> moves = new ArrayList<>();
+		try {
+			for (Serie serie : series) {
+				String serieID = serie.getSeriesInstanceUID();
+				File serieIDFolderDir = new File(importJobDir + File.separator + serieID);
+				if(!serieIDFolderDir.exists()) {
+					serieIDFolderDir.mkdirs();
+				} else {
+					throw new ShanoirException("Error while creating serie id folder: folder already exists.");
+				}
+				dicomStoreSCPServer.addRoute(serieID, serieIDFolderDir, file -> progress.instanceReceived());
+				routedSeries.add(serieID);
+			}
+			for (Serie serie : series) {
+				if (executor != null) {
+					moves.add(executor.submit(() -> move(serie)));
+				} else {
+					CompletableFuture<DicomState> move = new CompletableFuture<>();
+					move.complete(move(serie));
+					moves.add(move);
+				}
+			}
+			for (int i = 0; i < series.size(); i++) {
+				DicomState state = moves.get(i).get();
+				if (state.getStatus() != Status.Success) {
+					LOG.warn("C-MOVE of serie {} ended with status {}: {}", series.get(i).getSeriesInstanceUID(),
+							Integer.toHexString(state.getStatus()), state.getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ShanoirException("Interrupted while retrieving series from PACS.", e);
+		} catch (ExecutionException e) {
+			LOG.error(e.getMessage(), e);
+			throw new ShanoirException("Error while retrieving series from PACS.", e.getCause());
+		} finally {
+			moves.forEach(move -> move.cancel(true));
+			routedSeries.forEach(dicomStoreSCPServer::removeRoute);
+		}
+		checkInstanceFiles(importJobDir, series);
+	}
+
+	/**
+	 * Sends the c-move, when an association with the called AE is available.
+	 */
+	private DicomState move(Serie serie) throws InterruptedException {
+		Semaphore semaphore = associations.computeIfAbsent(queryPACSService.getCalledAET(), aet -> new Semaphore(associationsPerAE));
+		semaphore.acquire();
+		try {
+			return queryPACSService.queryCMOVE(serie);
+		} finally {
+			semaphore.release();
+		}
+	}
+
+	private void checkInstanceFiles(File importJobDir, List<Serie> series) throws ShanoirException {
+		for (Serie serie : series) {
+			for (Instance instance : serie.getInstances()) {
+				File file = new File(importJobDir.getAbsolutePath() + File.separator + serie.getSeriesInstanceUID()
+						+ File.separator + instance.getSopInstanceUID() + DicomStoreSCPServer.DICOM_FILE_SUFFIX);
+				if (!file.exists()) {
+					throw new ShanoirException("Error while retrieving serie " + serie.getSeriesInstanceUID()
+							+ ": file of instance " + instance.getSopInstanceUID() + " not received.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates the event of the import with the number of files received, the event
+	 * is published when the percentage changes, not to send one message per file.
+	 */
+	private class InstanceProgress {
+
+		private final ShanoirEvent event;
+
+		private final int nbInstances;
+
+		private int nbReceived;
+
+		private int percentage = -1;
+
+		InstanceProgress(ShanoirEvent event, int nbInstances) {
+			this.event = event;
+			this.nbInstances = nbInstances;
+		}
+
+		/**
+		 * Called by the threads of DicomStoreSCPServer.
+		 */
+		synchronized void instanceReceived() {
+			nbReceived++;
+			int newPercentage = nbReceived * 100 / Math.max(nbInstances, nbReceived);
+			if (event != null && newPercentage != percentage) {
+				percentage = newPercentage;
+				event.setMessage("Retrieving from PACS: " + nbReceived + "/" + nbInstances + " files");
+				event.setProgress(newPercentage / 100f);
+				eventService.publishEvent(event);
+			}
+		}
+	}
+
+}
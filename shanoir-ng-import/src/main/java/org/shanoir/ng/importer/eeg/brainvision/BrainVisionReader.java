@@ -21,21 +21,23 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.regex.Pattern;
 import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.shanoir.ng.importer.model.Channel;
@@ -60,8 +62,10 @@ public class BrainVisionReader {
 	private static final Logger LOG = LoggerFactory.getLogger(BrainVisionReader.class);
 
 	private static final String NO_FILE_FOUND_ON_CURRENT_LOCATION = "No file found on current location.";
+	private static final Pattern DECIMAL_COMMA = Pattern.compile(",");
+	private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+
 	private String dataFileLocation;
-	private RandomAccessFile dataFile;
 	private DataFormat dataFormat;
 	private DataOrientation dataOrientation;
 	private DataType dataType;
@@ -76,12 +80,10 @@ public class BrainVisionReader {
 	private long pnts;
 	private double srate;
 	private float[] data;
-	private float[][] asciiData;
-	private boolean isAsciiRead;
 	private String[] channelNames;
 
-	private ByteBuffer buf;
-	private long nSamples;
+	private MappedByteBuffer[] dataRegions;
+	private int valuesPerRegion;
 	private int bytes;
 
 	private File file;
@@ -134,32 +136,18 @@ public class BrainVisionReader {
 			readPositionFile();
 		}
 
-		/**
-		 * Has to be set to 0 initially, reflects changes in buffer size
-		 */
 		if (dataFormat != null) {
 			if (dataFormat.equals(DataFormat.BINARY)) {
-				try {
-					eegFile = new File(dataFileLocation);
-					dataFile = new RandomAccessFile(dataFileLocation, "r");
-				} catch (FileNotFoundException ex) {
-					LOG.error(ex.getMessage());
-				}
-
-				if (pnts == 0 && dataFile != null) {
-					try {
-						pnts = (int) (dataFile.length() / bytes / nbchan);
-					} catch (IOException ex) {
-						LOG.error(ex.getMessage());
-					}
+				eegFile = new File(dataFileLocation);
+				if (!eegFile.exists()) {
+					LOG.error(ERROR_TEMPLATE_MSG, NO_FILE_FOUND_ON_CURRENT_LOCATION, dataFileLocation);
+				} else if (pnts == 0) {
+					pnts = eegFile.length() / bytes / nbchan;
 				}
 			}
 		} else {
 			throw new ShanoirImportException("Could not find basic configuration in .vhdr file");
 		}
-
-		nSamples = 1;
-		isAsciiRead = false;
 	}
 
 	/**
@@ -463,119 +451,174 @@ public class BrainVisionReader {
 		}
 	}
 
+	/**
+	 * Reads the samples [from, to[ of a channel into the data array, see getData().
+	 */
 	public void read(final int channel, final long from, final long to) {
-		int nbSamples = (int) (to - from);
-		if (this.nSamples != nbSamples) {
-			prepareBuffers(nbSamples);
+		try {
+			data = read(new int[] { channel }, from, to)[0];
+		} catch (IOException e) {
+			LOG.error(e.getMessage());
 		}
+	}
 
+	/**
+	 * Reads the samples [from, to[ of all the channels, in a single pass over the
+	 * data file, whatever its orientation.
+	 *
+	 * @param from the first sample
+	 * @param to the sample after the last one, limited to the number of samples
+	 * @return the values by channel, in the channel units
+	 * @throws IOException
+	 */
+	public float[][] readAll(final long from, final long to) throws IOException {
+		int[] channelIndexes = new int[nbchan];
+		for (int i = 0; i < nbchan; i++) {
+			channelIndexes[i] = i;
+		}
+		return read(channelIndexes, from, to);
+	}
+
+	/**
+	 * Reads the samples [from, to[ of some channels, in a single pass over the data file.
+	 *
+	 * @param channelIndexes the channels to read
+	 * @param from the first sample
+	 * @param to the sample after the last one, limited to the number of samples
+	 * @return the values of each channel read, in the channel units
+	 * @throws IOException
+	 */
+	public float[][] read(final int[] channelIndexes, final long from, final long to) throws IOException {
+		int nbSamples = (int) Math.max(0, (pnts > 0 ? Math.min(to, pnts) : to) - from);
 		if (dataFormat.equals(DataFormat.BINARY)) {
-			readBinary(channel, from);
+			return readBinary(channelIndexes, from, nbSamples);
 		} else if (dataFormat.equals(DataFormat.ASCII)) {
-			if (!isAsciiRead) {
-				asciiData = readAscii(new File(dataFileLocation));
-				isAsciiRead = true;
-			}
-			System.arraycopy(asciiData[channel], (int) from, data, 0, data.length);
+			return readAscii(channelIndexes, from, nbSamples);
 		}
+		throw new IOException("Cannot recognize specific BrainVision format");
 	}
 
 	/**
-	 * Reads the first data value of channel 1
-	 *
-	 * @param dataFile file with data content
-	 * @param channel
-	 * @param epochToRead the epoch which have to be read.
-	 * @return
+	 * Decodes the values from the mapped data file: multiplexed samples are read
+	 * one after the other, all channels of a sample together, vectorized ones
+	 * channel after channel.
 	 */
-	private float[] readBinary(final int channel, final long from) {
-		try {
-			FileChannel inChannel = dataFile.getChannel();
-			// Set the start position in the file
-
-			buf.clear();
-			if (dataOrientation.equals(DataOrientation.MULTIPLEXED)) {
-				inChannel.position((from * nbchan + channel) * bytes);
-			} else if (dataOrientation.equals(DataOrientation.VECTORIZED)) {
-				inChannel.position((channel * pnts + from) * bytes);
+	private float[][] readBinary(final int[] channelIndexes, final long from, final int nbSamples) throws IOException {
+		mapDataFile();
+		float[][] values = new float[channelIndexes.length][nbSamples];
+		float[] resolutions = new float[channelIndexes.length];
+		for (int c = 0; c < channelIndexes.length; c++) {
+			resolutions[c] = channels.get(channelIndexes[c]).getResolution();
+		}
+		if (dataOrientation.equals(DataOrientation.MULTIPLEXED)) {
+			for (int s = 0; s < nbSamples; s++) {
+				long firstValue = (from + s) * nbchan;
+				for (int c = 0; c < channelIndexes.length; c++) {
+					values[c][s] = (float) (getBinaryValue(firstValue + channelIndexes[c]) * resolutions[c]);
+				}
 			}
-
-			final int increment = nbchan * bytes - bytes;
-			final boolean flag = dataOrientation.equals(DataOrientation.MULTIPLEXED);
-			final int localBytes = this.bytes;
-
-			int nRead = inChannel.read(buf);
-			if (nRead != -1) {
-				// Make buffer ready for read
-				buf.rewind();
-				for (int i = 0; i < data.length; i++) {
-					if (localBytes == 2) {
-						data[i] = buf.getShort() * channelResolution;
-					} else if (localBytes == 4) {
-						data[i] = buf.getFloat();
-					} else if (localBytes == 8) {
-						data[i] = (float) buf.getDouble();
-					}
-
-					if (flag) {
-						// This is the next sample in this epoch for the given channel
-						buf.position(buf.position() + increment);
-					}
+		} else if (dataOrientation.equals(DataOrientation.VECTORIZED)) {
+			for (int c = 0; c < channelIndexes.length; c++) {
+				long firstValue = channelIndexes[c] * pnts + from;
+				for (int s = 0; s < nbSamples; s++) {
+					values[c][s] = (float) (getBinaryValue(firstValue + s) * resolutions[c]);
 				}
 			}
-		} catch (IOException e) {
-			LOG.error(e.getMessage());
+		} else {
+			throw new IOException("Cannot recognize specific BrainVision orientation");
 		}
-		return data;
+		return values;
 	}
 
-	private float[][] readAscii(final File dataFileLocation) {
-		float[][] out = null;
-		try (BufferedReader in = new BufferedReader(new FileReader(dataFileLocation))) {
-			out = in.lines()
-					.map(e -> e.replaceAll(",", "."))
-					.map(e -> e.replaceAll("\\s+", " "))
-					.map(e -> e.split(" "))
-					.map(e -> doubleToFloat(Arrays.stream(e).skip(skipColumns).mapToDouble(i -> Double.parseDouble(i)).toArray()))
-					.toArray(float[][]::new);
-
-		} catch (FileNotFoundException e) {
-			LOG.error(ERROR_TEMPLATE_MSG, NO_FILE_FOUND_ON_CURRENT_LOCATION, e.getMessage());
-		} catch (IOException e) {
-			LOG.error(e.getMessage());
+	private double getBinaryValue(final long index) {
+		ByteBuffer region = dataRegions[(int) (index / valuesPerRegion)];
+		int position = (int) (index % valuesPerRegion) * bytes;
+		switch (binaryFormat) {
+		case UINT_16:
+			return region.getShort(position) & 0xFFFF;
+		case IEEE_FLOAT_32:
+			return region.getFloat(position);
+		case IEEE_FLOAT_64:
+			return region.getDouble(position);
+		default:
+			return region.getShort(position);
 		}
-		return out;
 	}
 
-	private void prepareBuffers(final int nSamples) {
-		this.nSamples = nSamples;
-		data = new float[nSamples];
-
-		if (dataFormat.equals(DataFormat.BINARY) && dataType.equals(DataType.TIMEDOMAIN)) {
-			if (dataOrientation.equals(DataOrientation.MULTIPLEXED)) {
-				buf = ByteBuffer.allocateDirect(bytes * nSamples * nbchan);
-			} else if (dataOrientation.equals(DataOrientation.VECTORIZED)) {
-				buf = ByteBuffer.allocateDirect(bytes * nSamples);
+	/**
+	 * Maps the data file once, in regions of at most 2GB holding whole values.
+	 * The mapping stays valid once the file is closed.
+	 */
+	private synchronized void mapDataFile() throws IOException {
+		if (dataRegions != null) {
+			return;
+		}
+		try (FileChannel inChannel = FileChannel.open(eegFile.toPath(), StandardOpenOption.READ)) {
+			long nbValues = inChannel.size() / bytes;
+			valuesPerRegion = Integer.MAX_VALUE / bytes;
+			MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((nbValues + valuesPerRegion - 1) / valuesPerRegion)];
+			for (int i = 0; i < regions.length; i++) {
+				long firstValue = (long) i * valuesPerRegion;
+				long nbRegionValues = Math.min(valuesPerRegion, nbValues - firstValue);
+				regions[i] = inChannel.map(FileChannel.MapMode.READ_ONLY, firstValue * bytes, nbRegionValues * bytes);
+				regions[i].order(useBigEndianOrder ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
 			}
+			dataRegions = regions;
+		}
+	}
 
-			if (useBigEndianOrder) {
-				buf.order(ByteOrder.BIG_ENDIAN);
+	/**
+	 * Reads the values line by line, only keeping the ones of the range: a multiplexed
+	 * file has a line per sample, a vectorized one a line per channel.
+	 */
+	private float[][] readAscii(final int[] channelIndexes, final long from, final int nbSamples) throws IOException {
+		float[][] values = new float[channelIndexes.length][nbSamples];
+		try (BufferedReader in = Files.newBufferedReader(new File(dataFileLocation).toPath(), StandardCharsets.UTF_8)) {
+			for (int i = 0; i < skipLines; i++) {
+				in.readLine();
+			}
+			if (dataOrientation.equals(DataOrientation.VECTORIZED)) {
+				for (int channel = 0; channel < nbchan; channel++) {
+					String line = in.readLine();
+					if (line == null) {
+						break;
+					}
+					String[] columns = null;
+					for (int c = 0; c < channelIndexes.length; c++) {
+						if (channelIndexes[c] == channel) {
+							columns = columns != null ? columns : splitAsciiLine(line);
+							for (int s = 0; s < nbSamples; s++) {
+								values[c][s] = Float.parseFloat(columns[(int) (skipColumns + from + s)]);
+							}
+						}
+					}
+				}
 			} else {
-				buf.order(ByteOrder.LITTLE_ENDIAN);
+				for (long i = 0; i < from; i++) {
+					in.readLine();
+				}
+				for (int s = 0; s < nbSamples; s++) {
+					String line = in.readLine();
+					if (line == null) {
+						break;
+					}
+					String[] columns = splitAsciiLine(line);
+					for (int c = 0; c < channelIndexes.length; c++) {
+						values[c][s] = Float.parseFloat(columns[skipColumns + channelIndexes[c]]);
+					}
+				}
 			}
-
-		} else if (dataFormat.equals(DataFormat.ASCII) && dataType.equals(DataType.TIMEDOMAIN)) {
-			// Nothing to be done here
-		} else {
-			LOG.error("Cannot recognize specific BrainVision format");
 		}
+		return values;
+	}
 
+	private static String[] splitAsciiLine(final String line) {
+		return WHITESPACES.split(DECIMAL_COMMA.matcher(line.trim()).replaceAll("."));
 	}
 
 	public void close() throws IOException {
-		if (dataFormat != null && dataFormat.equals(DataFormat.BINARY) && dataFile != null) {
-			dataFile.close();
-		}
+		// the mapping is released with the reader
+		dataRegions = null;
 	}
 
 	public double getSrate() {
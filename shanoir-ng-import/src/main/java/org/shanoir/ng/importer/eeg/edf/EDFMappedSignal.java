@@ -0,0 +1,124 @@
+/*
+ * (The MIT license)
+ *
+ * Copyright (c) 2012 MIPT (mr.santak@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.shanoir.ng.importer.eeg.edf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+ * This class gives access to the data records of an EDF-File mapped in memory:
+ * the samples are decoded on demand, nothing is loaded on the heap, whatever the
+ * size of the file. The channels are the ones of the header, without the
+ * annotation channel.
+ *
+ * The buffers are only read with absolute positions, so the signal can be read
+ * by several threads.
+ */
+public class EDFMappedSignal
+{
+	private final MappedByteBuffer[] regions;
+	private final int recordsPerRegion;
+	private final int bytesPerRecord;
+	private final long numberOfRecords;
+
+	/** Position of the samples of each channel in a data record, in bytes */
+	private final int[] channelOffsets;
+	private final int[] numberOfSamples;
+	private final double[] unitsInDigit;
+
+	EDFMappedSignal(MappedByteBuffer[] regions, int recordsPerRegion, int bytesPerRecord, long numberOfRecords,
+			int[] channelOffsets, int[] numberOfSamples, double[] unitsInDigit)
+	{
+		this.regions = regions;
+		this.recordsPerRegion = recordsPerRegion;
+		this.bytesPerRecord = bytesPerRecord;
+		this.numberOfRecords = numberOfRecords;
+		this.channelOffsets = channelOffsets;
+		this.numberOfSamples = numberOfSamples;
+		this.unitsInDigit = unitsInDigit;
+		for (ByteBuffer region : regions)
+		{
+			region.order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	public int getNumberOfChannels()
+	{
+		return numberOfSamples.length;
+	}
+
+	public long getNumberOfSamples(int channel)
+	{
+		return numberOfRecords * numberOfSamples[channel];
+	}
+
+	public double getUnitsInDigit(int channel)
+	{
+		return unitsInDigit[channel];
+	}
+
+	public short getDigitalValue(int channel, long sample)
+	{
+		long record = sample / numberOfSamples[channel];
+		int indexInRecord = (int) (sample % numberOfSamples[channel]);
+		return regions[(int) (record / recordsPerRegion)].getShort(
+				(int) (record % recordsPerRegion) * bytesPerRecord + channelOffsets[channel] + indexInRecord * 2);
+	}
+
+	public double getValueInUnits(int channel, long sample)
+	{
+		return getDigitalValue(channel, sample) * unitsInDigit[channel];
+	}
+
+	/**
+	 * Decodes the values in units of consecutive samples of a channel, record by record.
+	 *
+	 * @param channel
+	 *            the channel, annotation channel excluded
+	 * @param firstSample
+	 *            the first sample to read
+	 * @param values
+	 *            filled with the values, up to its length or to the end of the signal
+	 * @return the number of values read
+	 */
+	public int read(int channel, long firstSample, double[] values)
+	{
+		int count = (int) Math.max(0, Math.min(values.length, getNumberOfSamples(channel) - firstSample));
+		int samplesInRecord = numberOfSamples[channel];
+		long sample = firstSample;
+		int read = 0;
+		while (read < count)
+		{
+			long record = sample / samplesInRecord;
+			int indexInRecord = (int) (sample % samplesInRecord);
+			ByteBuffer region = regions[(int) (record / recordsPerRegion)];
+			int position = (int) (record % recordsPerRegion) * bytesPerRecord + channelOffsets[channel] + indexInRecord * 2;
+			int samples = Math.min(samplesInRecord - indexInRecord, count - read);
+			for (int i = 0; i < samples; i++)
+			{
+				values[read++] = region.getShort(position + i * 2) * unitsInDigit[channel];
+			}
+			sample += samples;
+		}
+		return count;
+	}
+}
@@ -20,13 +20,19 @@
  */
 package org.shanoir.ng.importer.eeg.edf;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -56,6 +62,32 @@ public class EDFParser
 		return result;
 	}
 
+	/**
+	 * Parse an EDF-File without loading its data records: the header and the
+	 * annotations are parsed, and the data records are mapped in memory, see
+	 * {@link EDFParserResult#getMappedSignal()}. The result has no signal.
+	 *
+	 * @param file
+	 *            the EDF-File
+	 * @return the parsed result
+	 * @throws EDFParserException
+	 *             if there is an error during parsing
+	 */
+	public static EDFParserResult parseEDF(File file) throws EDFParserException
+	{
+		EDFParserResult result;
+		try (InputStream is = new FileInputStream(file))
+		{
+			result = parseHeader(is);
+		} catch (IOException e)
+		{
+			throw new EDFParserException(e);
+		}
+		mapSignal(file, result);
+
+		return result;
+	}
+
 	/**
 	 * Parse the InputStream which should be at the start of an EDF-File. The
 	 * method returns an object containing the complete header of the EDF-File
@@ -169,22 +201,106 @@ public class EDFParser
 		}
 	}
 
-	private static List<EDFAnnotation> parseAnnotation(EDFHeader header, EDFSignal signal)
+	/**
+	 * Map the data records of an EDF-File in memory. This method should be
+	 * invoked only after parseHeader method. The annotations are read from
+	 * the mapped records, the other channels are decoded on demand.
+	 *
+	 * @param file
+	 *            the EDF-File
+	 * @param result
+	 *            results from {parseHeader(is) parseHeader} method
+	 * @throws EDFParserException
+	 *             if the file can not be mapped
+	 */
+	private static void mapSignal(File file, EDFParserResult result) throws EDFParserException
 	{
+		EDFHeader header = result.getHeader();
 
-		if (!header.formatVersion.startsWith("EDF+")) {
-			return Collections.emptyList();
+		int[] channelOffsets = new int[header.numberOfChannels];
+		int bytesPerRecord = 0;
+		for (int i = 0; i < header.numberOfChannels; i++)
+		{
+			channelOffsets[i] = bytesPerRecord;
+			bytesPerRecord += header.numberOfSamples[i] * 2;
+		}
+
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			// -1 records if the file was still being recorded
+			long numberOfRecords = (ch.size() - header.bytesInHeader) / bytesPerRecord;
+			if (header.numberOfRecords >= 0)
+			{
+				numberOfRecords = Math.min(header.numberOfRecords, numberOfRecords);
+			}
+			// records are never split between two regions, a region being at most 2GB
+			int recordsPerRegion = Math.max(1, Integer.MAX_VALUE / bytesPerRecord);
+			MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((numberOfRecords + recordsPerRegion - 1) / recordsPerRegion)];
+			for (int i = 0; i < regions.length; i++)
+			{
+				long firstRecord = (long) i * recordsPerRegion;
+				long records = Math.min(recordsPerRegion, numberOfRecords - firstRecord);
+				regions[i] = ch.map(FileChannel.MapMode.READ_ONLY,
+						header.bytesInHeader + firstRecord * bytesPerRecord, records * bytesPerRecord);
+			}
+
+			int annotationIndex = getAnnotationIndex(header);
+			if (annotationIndex == -1)
+			{
+				result.annotations = Collections.emptyList();
+			} else
+			{
+				int annotationBytes = header.numberOfSamples[annotationIndex] * 2;
+				byte[] b = new byte[(int) numberOfRecords * annotationBytes];
+				for (int i = 0; i < numberOfRecords; i++)
+				{
+					ByteBuffer region = regions[i / recordsPerRegion].duplicate();
+					region.position((i % recordsPerRegion) * bytesPerRecord + channelOffsets[annotationIndex]);
+					region.get(b, i * annotationBytes, annotationBytes);
+				}
+				removeAnnotationChannel(header, annotationIndex);
+				System.arraycopy(channelOffsets, annotationIndex + 1, channelOffsets, annotationIndex,
+						channelOffsets.length - annotationIndex - 1);
+				result.annotations = parseAnnotations(b);
+			}
+
+			double[] unitsInDigit = new double[header.numberOfChannels];
+			int[] numberOfSamples = new int[header.numberOfChannels];
+			channelOffsets = Arrays.copyOf(channelOffsets, header.numberOfChannels);
+			for (int i = 0; i < header.numberOfChannels; i++)
+			{
+				unitsInDigit[i] = (header.maxInUnits[i] - header.minInUnits[i])
+						/ (header.digitalMax[i] - header.digitalMin[i]);
+				numberOfSamples[i] = header.numberOfSamples[i];
+			}
+
+			// the mapping stays valid once the channel is closed
+			result.mappedSignal = new EDFMappedSignal(regions, recordsPerRegion, bytesPerRecord, numberOfRecords,
+					channelOffsets, numberOfSamples, unitsInDigit);
+		} catch (IOException e)
+		{
+			throw new EDFParserException(e);
 		}
+	}
 
-		int annotationIndex = -1;
+	private static int getAnnotationIndex(EDFHeader header)
+	{
+		if (!header.formatVersion.startsWith("EDF+")) {
+			return -1;
+		}
 		for (int i = 0; i < header.numberOfChannels; i++)
 		{
 			if ("EDF Annotations".equals(header.channelLabels[i].trim()))
 			{
-				annotationIndex = i;
-				break;
+				return i;
 			}
 		}
+		return -1;
+	}
+
+	private static List<EDFAnnotation> parseAnnotation(EDFHeader header, EDFSignal signal)
+	{
+		int annotationIndex = getAnnotationIndex(header);
 		if (annotationIndex == -1) {
 			return Collections.emptyList();
 		}
@@ -249,22 +365,27 @@ public class EDFParser
 	}
 
 	private static void removeAnnotationSignal(EDFHeader header, EDFSignal signal, int annotationIndex)
+	{
+		removeAnnotationChannel(header, annotationIndex);
+
+		signal.digitalValues = ParseUtils.removeElement(signal.digitalValues, annotationIndex);
+		signal.unitsInDigit = ParseUtils.removeElement(signal.unitsInDigit, annotationIndex);
+		signal.valuesInUnits = ParseUtils.removeElement(signal.valuesInUnits, annotationIndex);
+	}
+
+	private static void removeAnnotationChannel(EDFHeader header, int annotationIndex)
 	{
 		header.numberOfChannels--;
-		ParseUtils.removeElement(header.channelLabels, annotationIndex);
-		ParseUtils.removeElement(header.transducerTypes, annotationIndex);
-		ParseUtils.removeElement(header.dimensions, annotationIndex);
-		ParseUtils.removeElement(header.minInUnits, annotationIndex);
-		ParseUtils.removeElement(header.maxInUnits, annotationIndex);
-		ParseUtils.removeElement(header.digitalMin, annotationIndex);
-		ParseUtils.removeElement(header.digitalMax, annotationIndex);
-		ParseUtils.removeElement(header.prefilterings, annotationIndex);
-		ParseUtils.removeElement(header.numberOfSamples, annotationIndex);
-		ParseUtils.removeElement(header.reserveds, annotationIndex);
-
-		ParseUtils.removeElement(signal.digitalValues, annotationIndex);
-		ParseUtils.removeElement(signal.unitsInDigit, annotationIndex);
-		ParseUtils.removeElement(signal.valuesInUnits, annotationIndex);
+		header.channelLabels = ParseUtils.removeElement(header.channelLabels, annotationIndex);
+		header.transducerTypes = ParseUtils.removeElement(header.transducerTypes, annotationIndex);
+		header.dimensions = ParseUtils.removeElement(header.dimensions, annotationIndex);
+		header.minInUnits = ParseUtils.removeElement(header.minInUnits, annotationIndex);
+		header.maxInUnits = ParseUtils.removeElement(header.maxInUnits, annotationIndex);
+		header.digitalMin = ParseUtils.removeElement(header.digitalMin, annotationIndex);
+		header.digitalMax = ParseUtils.removeElement(header.digitalMax, annotationIndex);
+		header.prefilterings = ParseUtils.removeElement(header.prefilterings, annotationIndex);
+		header.numberOfSamples = ParseUtils.removeElement(header.numberOfSamples, annotationIndex);
+		header.reserveds = ParseUtils.removeElement(header.reserveds, annotationIndex);
 	}
 
 	private static void parseChannelInformation(InputStream is, EDFParserResult result) throws EDFParserException
@@ -29,6 +29,7 @@ public class EDFParserResult
 {
         EDFHeader header;
         EDFSignal signal;
+        EDFMappedSignal mappedSignal;
         List<EDFAnnotation> annotations;
 
         public EDFHeader getHeader()
@@ -41,6 +42,14 @@ public class EDFParserResult
                 return signal;
         }
 
+        /**
+         * @return the data records mapped in memory, if parsed from a file
+         */
+        public EDFMappedSignal getMappedSignal()
+        {
+                return mappedSignal;
+        }
+
         public List<EDFAnnotation> getAnnotations()
         {
                 return annotations;
@@ -0,0 +1,110 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.annotation.PostConstruct;
+
+import org.shanoir.ng.importer.model.ImportJob;
+import org.shanoir.ng.importer.model.Patient;
+import org.shanoir.ng.importer.model.Serie;
+import org.shanoir.ng.importer.model.Study;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Claim check of an import job sent to the datasets MS: the patients, studies and series,
+ * with all the dataset files, are written into the import job folder, shared by both MS,
+ * and the message only contains the job without them, with the path of the file and the
+ * number of series. The file has one line per patient, study and serie, in this order,
+ * so the datasets MS reads it one serie at a time.
+ */
+@Component
+public class ImportJobSeriesWriter {
+
+	public static final String SERIES_FILE = "import-job-series.json";
+
+	static final String PATIENT = "patient";
+
+	static final String STUDY = "study";
+
+	static final String SERIE = "serie";
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	/** Writes each patient and study without its children, written on the next lines */
+	private ObjectMapper linesMapper;
+
+	/** Writes the job without its patients, written into the series file */
+	private ObjectMapper messageMapper;
+
+	@PostConstruct
+	public void init() {
+		linesMapper = objectMapper.copy()
+				.addMixIn(Patient.class, PatientWithoutStudies.class)
+				.addMixIn(Study.class, StudyWithoutSeries.class);
+		messageMapper = objectMapper.copy()
+				.addMixIn(ImportJob.class, ImportJobWithoutPatients.class);
+	}
+
+	/**
+	 * @param importJob
+	 * @param importJobDir
+	 * @return the message of the job, its patients being written into the import job folder
+	 * @throws IOException
+	 */
+	public String createMessage(ImportJob importJob, File importJobDir) throws IOException {
+		File seriesFile = new File(importJobDir, SERIES_FILE);
+		int seriesCount = 0;
+		try (SequenceWriter writer = linesMapper.writer().withRootValueSeparator("\n").writeValues(seriesFile)) {
+			for (Patient patient : importJob.getPatients()) {
+				writer.write(Collections.singletonMap(PATIENT, patient));
+				for (Study study : patient.getStudies()) {
+					writer.write(Collections.singletonMap(STUDY, study));
+					for (Serie serie : study.getSeries()) {
+						writer.write(Collections.singletonMap(SERIE, serie));
+						seriesCount++;
+					}
+				}
+			}
+		}
+		ObjectNode message = messageMapper.valueToTree(importJob);
+		message.put("seriesFile", seriesFile.getAbsolutePath());
+		message.put("seriesCount", seriesCount);
+		return messageMapper.writeValueAsString(message);
+	}
+
+	@JsonIgnoreProperties({ "patients" })
+	private abstract static class ImportJobWithoutPatients {
+	}
+
+	@JsonIgnoreProperties({ "studies" })
+	private abstract static class PatientWithoutStudies {
+	}
+
+	@JsonIgnoreProperties({ "series" })
+	private abstract static class StudyWithoutSeries {
+	}
+
+}
@@ -0,0 +1,288 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.shanoir.ng.shared.event.ShanoirEvent;
+import org.shanoir.ng.shared.event.ShanoirEventService;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * This class executes the import jobs in stages: PACS fetch, analysis, anonymization,
+ * conversion and publication. Each stage has its own worker pool, sized to the resource
+ * it uses, so the stages of different jobs overlap: a job is converted while the next
+ * one is anonymized, instead of all the jobs using the disk and the cpu at the same time.
+ *
+ * The number of jobs in the pipeline is limited: the other jobs wait in a queue and are
+ * informed of their position with their ShanoirEvent. As a job is in one stage at a time,
+ * the queue of each stage is bounded by this number.
+ *
+ * The security context of the user, who started the job, is set for each stage.
+ *
+ * The duration of each stage, the time waited for its threads, the jobs running it
+ * and waiting for it are published by ShanoirMetrics, tagged by stage.
+ */
+@Service
+public class ImportPipeline {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ImportPipeline.class);
+
+	private static final ImportStage[] STAGES = ImportStage.values();
+
+	@Autowired
+	private ShanoirEventService eventService;
+
+	@Autowired
+	private ShanoirMetrics shanoirMetrics;
+
+	@Value("${shanoir.import.pipeline.maxJobs:10}")
+	private int maxJobs;
+
+	@Value("${shanoir.import.pipeline.pacs.threads:2}")
+	private int pacsThreads;
+
+	@Value("${shanoir.import.pipeline.analysis.threads:2}")
+	private int analysisThreads;
+
+	@Value("${shanoir.import.pipeline.anonymization.threads:2}")
+	private int anonymizationThreads;
+
+	@Value("${shanoir.import.pipeline.conversion.threads:2}")
+	private int conversionThreads;
+
+	@Value("${shanoir.import.pipeline.publication.threads:1}")
+	private int publicationThreads;
+
+	private final Map<ImportStage, ThreadPoolExecutor> executors = new EnumMap<>(ImportStage.class);
+
+	/** The jobs waiting to be admitted in the pipeline, guarded by this */
+	private final Deque<PipelineJob> waitingJobs = new ArrayDeque<>();
+
+	/** Guarded by this */
+	private int runningJobs;
+
+	@PostConstruct
+	public void init() {
+		executors.put(ImportStage.PACS_FETCH, createExecutor(ImportStage.PACS_FETCH, pacsThreads));
+		executors.put(ImportStage.ANALYSIS, createExecutor(ImportStage.ANALYSIS, analysisThreads));
+		executors.put(ImportStage.ANONYMIZATION, createExecutor(ImportStage.ANONYMIZATION, anonymizationThreads));
+		executors.put(ImportStage.CONVERSION, createExecutor(ImportStage.CONVERSION, conversionThreads));
+		executors.put(ImportStage.PUBLICATION, createExecutor(ImportStage.PUBLICATION, publicationThreads));
+		for (ImportStage stage : STAGES) {
+			shanoirMetrics.gauge(ShanoirMetrics.IMPORT_STAGE_QUEUE, this, pipeline -> pipeline.getQueueDepth(stage),
+					ShanoirMetrics.TAG_STAGE, stage.name());
+			shanoirMetrics.gauge(ShanoirMetrics.IMPORT_STAGE_ACTIVE, this, pipeline -> pipeline.getActiveCount(stage),
+					ShanoirMetrics.TAG_STAGE, stage.name());
+		}
+		shanoirMetrics.gauge(ShanoirMetrics.IMPORT_JOBS, this, ImportPipeline::getWaitingJobs, ShanoirMetrics.TAG_STATE, "waiting");
+		shanoirMetrics.gauge(ShanoirMetrics.IMPORT_JOBS, this, ImportPipeline::getRunningJobs, ShanoirMetrics.TAG_STATE, "running");
+	}
+
+	private ThreadPoolExecutor createExecutor(ImportStage stage, int threads) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		String prefix = "import-" + stage.name().toLowerCase().replace('_', '-') + "-";
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxJobs), runnable -> {
+			Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void destroy() {
+		executors.values().forEach(ThreadPoolExecutor::shutdownNow);
+	}
+
+	/**
+	 * Starts the job if the pipeline is not full, queues it otherwise.
+	 *
+	 * @param job
+	 */
+	public void submit(StagedJob job) {
+		PipelineJob pipelineJob = new PipelineJob(job, SecurityContextHolder.getContext());
+		synchronized (this) {
+			if (runningJobs >= maxJobs) {
+				waitingJobs.addLast(pipelineJob);
+				publishPosition(pipelineJob, waitingJobs.size());
+				return;
+			}
+			runningJobs++;
+		}
+		runNextStage(pipelineJob, 0);
+	}
+
+	/**
+	 * Submits the first stage of the job from the index, that is not skipped.
+	 */
+	private void runNextStage(PipelineJob pipelineJob, int stageIndex) {
+		int index = stageIndex;
+		while (index < STAGES.length && !pipelineJob.job.hasStage(STAGES[index])) {
+			index++;
+		}
+		if (index == STAGES.length) {
+			finish(pipelineJob, null);
+			return;
+		}
+		ImportStage stage = STAGES[index];
+		int nextIndex = index + 1;
+		long submitTime = System.nanoTime();
+		executors.get(stage).execute(() -> {
+			long startTime = System.nanoTime();
+			shanoirMetrics.record(ShanoirMetrics.IMPORT_STAGE_WAIT, startTime - submitTime, ShanoirMetrics.TAG_STAGE, stage.name());
+			Timer.Sample sample = shanoirMetrics.start();
+			SecurityContextHolder.setContext(pipelineJob.securityContext);
+			try {
+				pipelineJob.job.runStage(stage);
+			} catch (Exception e) {
+				shanoirMetrics.stop(sample, ShanoirMetrics.IMPORT_STAGE, ShanoirMetrics.ERROR, getMetricTags(pipelineJob, stage));
+				pipelineJob.latencies.put(stage, System.nanoTime() - startTime);
+				try {
+					pipelineJob.job.failed(stage, e);
+				} catch (Exception failedException) {
+					LOG.error("Error while handling the failure of import job {} in {}",
+							pipelineJob.job.getEvent().getObjectId(), stage, failedException);
+				} finally {
+					// the place in the pipeline is released in any case
+					finish(pipelineJob, stage);
+				}
+				return;
+			} finally {
+				SecurityContextHolder.clearContext();
+			}
+			shanoirMetrics.stop(sample, ShanoirMetrics.IMPORT_STAGE, ShanoirMetrics.SUCCESS, getMetricTags(pipelineJob, stage));
+			pipelineJob.latencies.put(stage, System.nanoTime() - startTime);
+			runNextStage(pipelineJob, nextIndex);
+		});
+	}
+
+	/**
+	 * The tags of the job, read once the stage is done: the modality is known after the PACS fetch.
+	 */
+	private String[] getMetricTags(PipelineJob pipelineJob, ImportStage stage) {
+		String[] jobTags = pipelineJob.job.getMetricTags();
+		String[] tags = new String[jobTags.length + 2];
+		tags[0] = ShanoirMetrics.TAG_STAGE;
+		tags[1] = stage.name();
+		System.arraycopy(jobTags, 0, tags, 2, jobTags.length);
+		return tags;
+	}
+
+	/**
+	 * Releases the place of the job in the pipeline and admits the next waiting job.
+	 *
+	 * @param failedStage null if the job succeeded
+	 */
+	private void finish(PipelineJob pipelineJob, ImportStage failedStage) {
+		StringBuilder latencies = new StringBuilder();
+		pipelineJob.latencies.forEach((stage, nanos) -> latencies.append(" ").append(stage).append("=")
+				.append(TimeUnit.NANOSECONDS.toMillis(nanos)).append("ms"));
+		LOG.info("Import job {} {}, stages:{}", pipelineJob.job.getEvent().getObjectId(),
+				failedStage == null ? "done" : "failed in " + failedStage, latencies);
+		PipelineJob nextJob;
+		synchronized (this) {
+			nextJob = waitingJobs.pollFirst();
+			if (nextJob == null) {
+				runningJobs--;
+			} else {
+				int position = 1;
+				for (Iterator<PipelineJob> iterator = waitingJobs.iterator(); iterator.hasNext(); position++) {
+					publishPosition(iterator.next(), position);
+				}
+			}
+		}
+		if (nextJob != null) {
+			ShanoirEvent event = nextJob.job.getEvent();
+			event.setMessage("Starting import configuration");
+			eventService.publishEvent(event);
+			runNextStage(nextJob, 0);
+		}
+	}
+
+	private void publishPosition(PipelineJob pipelineJob, int position) {
+		ShanoirEvent event = pipelineJob.job.getEvent();
+		event.setMessage("Import queued, position " + position + " in the queue");
+		eventService.publishEvent(event);
+	}
+
+	/**
+	 * @return the number of jobs waiting to be admitted in the pipeline
+	 */
+	public synchronized int getWaitingJobs() {
+		return waitingJobs.size();
+	}
+
+	/**
+	 * @return the number of jobs in the pipeline, in a stage or waiting for the next one
+	 */
+	public synchronized int getRunningJobs() {
+		return runningJobs;
+	}
+
+	/**
+	 * @param stage
+	 * @return the number of jobs waiting for a thread of the stage
+	 */
+	public int getQueueDepth(ImportStage stage) {
+		return executors.get(stage).getQueue().size();
+	}
+
+	/**
+	 * @param stage
+	 * @return the number of jobs running the stage
+	 */
+	public int getActiveCount(ImportStage stage) {
+		return executors.get(stage).getActiveCount();
+	}
+
+	/**
+	 * A job in the pipeline, with the security context of its user.
+	 */
+	private static class PipelineJob {
+
+		private final StagedJob job;
+
+		private final SecurityContext securityContext;
+
+		/** Only modified by the thread running the current stage */
+		private final Map<ImportStage, Long> latencies = new EnumMap<>(ImportStage.class);
+
+		PipelineJob(StagedJob job, SecurityContext securityContext) {
+			this.job = job;
+			this.securityContext = securityContext;
+		}
+	}
+
+}
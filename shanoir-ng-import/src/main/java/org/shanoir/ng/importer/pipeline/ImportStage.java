@@ -0,0 +1,38 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.pipeline;
+
+/**
+ * The stages of an import job, in their order of execution. Each stage has its
+ * own worker pool in ImportPipeline, sized to the resource it uses.
+ */
+public enum ImportStage {
+
+	/** Download of the dicom files from the PACS: network */
+	PACS_FETCH,
+
+	/** Analysis of the dicom files headers: disk */
+	ANALYSIS,
+
+	/** Anonymization of the dicom files: disk and cpu */
+	ANONYMIZATION,
+
+	/** Creation of the datasets and NIfTI conversion: cpu */
+	CONVERSION,
+
+	/** Sending of the import job to the datasets microservice */
+	PUBLICATION;
+
+}
@@ -0,0 +1,56 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.pipeline;
+
+import org.shanoir.ng.shared.event.ShanoirEvent;
+
+/**
+ * A job executed by ImportPipeline, one stage after the other.
+ */
+public interface StagedJob {
+
+	/**
+	 * @return the event of the job, updated with its position while waiting to be admitted
+	 */
+	ShanoirEvent getEvent();
+
+	/**
+	 * @param stage
+	 * @return false if the stage is skipped for this job
+	 */
+	boolean hasStage(ImportStage stage);
+
+	/**
+	 * @return the tags of the metrics of the stages of the job, as key value pairs
+	 */
+	String[] getMetricTags();
+
+	/**
+	 * Runs the stage, the next stage is only run if no exception is thrown.
+	 *
+	 * @param stage
+	 * @throws Exception
+	 */
+	void runStage(ImportStage stage) throws Exception;
+
+	/**
+	 * Called instead of the next stages, when a stage failed.
+	 *
+	 * @param stage
+	 * @param e
+	 */
+	void failed(ImportStage stage, Exception e);
+
+}
@@ -0,0 +1,222 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.upload;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.shanoir.ng.shared.exception.ShanoirException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * This class receives the chunks of a resumable upload for an import temp dir.
+ * A chunk is either a part of a big file, or a zip of small files. The chunks of an
+ * upload are numbered by the client.
+ *
+ * Each chunk comes with the SHA-256 of its content: it is staged in a folder next to
+ * the temp dir, not to be seen by the import, and only used once its checksum is
+ * verified. A part is then written at its offset in the staged file, an archive is
+ * extracted in its own staging folder. The received chunks are recorded with their
+ * checksum, so a client can ask which chunks it has to send again after an interruption.
+ * Receiving a chunk again is harmless: the same bytes are written at the same place.
+ *
+ * When the upload is complete, the staged files are moved into the temp dir. As for
+ * the upload of single files, a file name already existing in the temp dir is refused.
+ */
+@Service
+public class ChunkedUploadService {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+	private static final String CHUNKS_FOLDER_SUFFIX = ".chunks";
+
+	/** Checksums of the received chunks, by chunk index */
+	private static final String RECEIVED_FOLDER = "received";
+
+	/** Chunks being received, before the checksum verification */
+	private static final String INCOMING_FOLDER = "incoming";
+
+	/** Files assembled from their parts */
+	private static final String PARTS_FOLDER = "parts";
+
+	/** Files extracted from the archives, one folder per chunk */
+	private static final String ARCHIVES_FOLDER = "archives";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * @param importJobDir
+	 * @return the checksums of the received chunks, by chunk index
+	 * @throws IOException
+	 */
+	public Map<Integer, String> getReceivedChunks(File importJobDir) throws IOException {
+		Map<Integer, String> receivedChunks = new TreeMap<>();
+		File[] chunkFiles = new File(getChunksFolder(importJobDir), RECEIVED_FOLDER).listFiles();
+		if (chunkFiles != null) {
+			for (File chunkFile : chunkFiles) {
+				receivedChunks.put(Integer.valueOf(chunkFile.getName()),
+						new String(Files.readAllBytes(chunkFile.toPath()), StandardCharsets.US_ASCII));
+			}
+		}
+		return receivedChunks;
+	}
+
+	/**
+	 * Stages a chunk, and records it if its checksum is correct.
+	 *
+	 * @param importJobDir
+	 * @param chunkIndex
+	 * @param checksum the SHA-256 of the content, in hex
+	 * @param fileName the file of the part, null for a zip of small files
+	 * @param offset the position of the part in the file
+	 * @param content
+	 * @throws IOException
+	 * @throws ShanoirException if the checksum does not match, the chunk has to be sent again
+	 */
+	public void writeChunk(File importJobDir, int chunkIndex, String checksum, String fileName, long offset,
+			InputStream content) throws IOException, ShanoirException {
+		File chunksFolder = getChunksFolder(importJobDir);
+		File incomingFolder = new File(chunksFolder, INCOMING_FOLDER);
+		incomingFolder.mkdirs();
+		File incomingChunk = new File(incomingFolder, Integer.toString(chunkIndex));
+		try {
+			MessageDigest digest = createDigest();
+			try (DigestInputStream digestInputStream = new DigestInputStream(content, digest)) {
+				Files.copy(digestInputStream, incomingChunk.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			String receivedChecksum = Hex.encodeHexString(digest.digest());
+			if (!receivedChecksum.equalsIgnoreCase(checksum)) {
+				LOG.warn("Chunk {} of upload {} corrupted: checksum {} instead of {}", chunkIndex, importJobDir.getName(),
+						receivedChecksum, checksum);
+				throw new ShanoirException("Checksum mismatch for chunk " + chunkIndex + ", chunk has to be sent again.");
+			}
+			if (fileName != null) {
+				File partsFolder = new File(chunksFolder, PARTS_FOLDER);
+				partsFolder.mkdirs();
+				writePart(new File(partsFolder, FilenameUtils.getName(fileName)), offset, incomingChunk);
+			} else {
+				extractArchive(new File(new File(chunksFolder, ARCHIVES_FOLDER), Integer.toString(chunkIndex)), incomingChunk);
+			}
+			File receivedFolder = new File(chunksFolder, RECEIVED_FOLDER);
+			receivedFolder.mkdirs();
+			Files.write(new File(receivedFolder, Integer.toString(chunkIndex)).toPath(), receivedChecksum.getBytes(StandardCharsets.US_ASCII));
+		} finally {
+			FileUtils.deleteQuietly(incomingChunk);
+		}
+	}
+
+	/**
+	 * Moves the files received into the temp dir, and removes the staging folder.
+	 * Nothing to do if the upload was not chunked.
+	 *
+	 * @param importJobDir
+	 * @throws IOException
+	 * @throws ShanoirException if a file name exists already in the temp dir
+	 */
+	public void completeUpload(File importJobDir) throws IOException, ShanoirException {
+		File chunksFolder = getChunksFolder(importJobDir);
+		if (!chunksFolder.exists()) {
+			return;
+		}
+		List<File> files = new ArrayList<>();
+		File[] parts = new File(chunksFolder, PARTS_FOLDER).listFiles();
+		if (parts != null) {
+			files.addAll(Arrays.asList(parts));
+		}
+		File[] archives = new File(chunksFolder, ARCHIVES_FOLDER).listFiles();
+		if (archives != null) {
+			for (File archive : archives) {
+				files.addAll(Arrays.asList(archive.listFiles()));
+			}
+		}
+		for (File file : files) {
+			try {
+				Files.move(file.toPath(), new File(importJobDir, file.getName()).toPath());
+			} catch (FileAlreadyExistsException e) {
+				throw new ShanoirException("Duplicate file name in tempDir, could not create file " + file.getName() + " as file exists already.", e);
+			}
+		}
+		FileUtils.deleteQuietly(chunksFolder);
+	}
+
+	/**
+	 * The parts of a file can arrive in parallel, each one writes its own range.
+	 */
+	private void writePart(File file, long offset, File part) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileChannel partChannel = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+			long size = partChannel.size();
+			long position = 0;
+			while (position < size) {
+				position += channel.transferFrom(partChannel, offset + position, size - position);
+			}
+		}
+	}
+
+	/**
+	 * The archive is extracted in its own folder, replaced if the chunk is received again.
+	 */
+	private void extractArchive(File archiveFolder, File archive) throws IOException {
+		FileUtils.deleteDirectory(archiveFolder);
+		archiveFolder.mkdirs();
+		try (ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE))) {
+			ZipEntry entry;
+			while ((entry = zipInputStream.getNextEntry()) != null) {
+				if (!entry.isDirectory()) {
+					// the uploaded folders are flat, no path accepted in the entry names
+					File file = new File(archiveFolder, FilenameUtils.getName(entry.getName()));
+					Files.copy(zipInputStream, file.toPath());
+				}
+			}
+		}
+	}
+
+	private File getChunksFolder(File importJobDir) {
+		return new File(importJobDir.getParentFile(), importJobDir.getName() + CHUNKS_FOLDER_SUFFIX);
+	}
+
+	private MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -51,6 +51,18 @@ public class ShanoirExec {
 
 	@Autowired
 	RestTemplate restTemplate;
+
+	/**
+	 * Notified of the processes started by exec, so that the caller can destroy
+	 * them when its task is cancelled.
+	 */
+	public interface ProcessTracker {
+
+		void started(Process process);
+
+		void ended(Process process);
+
+	}
 	
 	/**
 	 * Exec the clidcm command to convert Dicom files to Nifti files.
@@ -61,10 +73,12 @@ public class ShanoirExec {
 	 *            the clidcm path
 	 * @param outputFolder
 	 *            the output folder
+	 * @param tracker
+	 *            notified of the process started, may be null
 	 *
 	 * @return the string
 	 */
-	public String clidcmExec(final String inputFolder, final String clidcmPath, final String outputFolder) {
+	public String clidcmExec(final String inputFolder, final String clidcmPath, final String outputFolder, final ProcessTracker tracker) {
 		LOG.debug("clidcmExec : Begin");
 		LOG.debug("clidcmExec : {}", clidcmPath);
 
@@ -93,7 +107,7 @@ public class ShanoirExec {
 			envp[i + 1] = "LD_LIBRARY_PATH=$LD_LIBRARY_PATH:" + clidcmPathLib;
 		}
 
-		final String result = exec(cmd, envp);
+		final String result = exec(cmd, envp, tracker);
 
 		LOG.debug("clidcmExec : End");
 		return result;
@@ -113,7 +127,7 @@ public class ShanoirExec {
 	 * @return the string
 	 */
 	public String dcm2niiExec(final String inputFolder, final String dcm2niiPath, final String outputFolder) {
-		return dcm2niiExec(inputFolder, dcm2niiPath, outputFolder,false);
+		return dcm2niiExec(inputFolder, dcm2niiPath, outputFolder, false, null);
 	}
 
 
@@ -128,10 +142,12 @@ public class ShanoirExec {
 	 *            the output folder
 	 *  @param is4D
 	 *            is a 4D nifti
+	 * @param tracker
+	 *            notified of the process started, may be null
 	 *
 	 * @return the string
 	 */
-	public String dcm2niiExec(final String inputFolder, final String dcm2niiPath, final String outputFolder, boolean is4D) {
+	public String dcm2niiExec(final String inputFolder, final String dcm2niiPath, final String outputFolder, boolean is4D, final ProcessTracker tracker) {
 		LOG.debug("dcm2niiExec : Begin");
 		LOG.debug("dcm2niiExec : {}", dcm2niiPath);
 
@@ -254,7 +270,7 @@ public class ShanoirExec {
 
 		LOG.debug("CMD DCM2NII {}", Arrays.asList(cmd));
 
-		final String result = exec(cmd);
+		final String result = exec(cmd, null, tracker);
 
 		LOG.debug("dcm2niiExec : End");
 		return result;
@@ -269,10 +285,12 @@ public class ShanoirExec {
 	 *            the mcverter path
 	 * @param outputFolder
 	 *            the output folder
+	 * @param tracker
+	 *            notified of the process started, may be null
 	 *
 	 * @return the string
 	 */
-	public String mcverterExec(final String inputFolder, final String mcverterPath, final String outputFolder, boolean is4D) {
+	public String mcverterExec(final String inputFolder, final String mcverterPath, final String outputFolder, boolean is4D, final ProcessTracker tracker) {
 		LOG.debug("mcverterExec : Begin");
 		LOG.debug("mcverterExec : {}", mcverterPath);
 
@@ -311,7 +329,7 @@ public class ShanoirExec {
 			cmd[9] = "-d";
 		}
 
-		final String result = exec(cmd);
+		final String result = exec(cmd, null, tracker);
 
 		LOG.debug("mcverterExec : End");
 		return result;
@@ -432,10 +450,12 @@ public class ShanoirExec {
 	 *            the dicom2nifti path
 	 * @param outputFolder
 	 *            the output folder
+	 * @param tracker
+	 *            notified of the process started, may be null
 	 *
 	 * @return the string
 	 */
-	public String dicom2niftiExec(String inputFolder, final String dicom2niftiPath, final String outputFolder) {
+	public String dicom2niftiExec(String inputFolder, final String dicom2niftiPath, final String outputFolder, final ProcessTracker tracker) {
 		LOG.debug("dicom2niftiExec : Begin");
 
 		LOG.debug("dicom2niftiExec : {}", dicom2niftiPath);
@@ -464,7 +484,7 @@ public class ShanoirExec {
 
 		LOG.debug("CMD DICOM2NIFTI {}", Arrays.asList(cmd));
 
-		final String result = exec(cmd);
+		final String result = exec(cmd, null, tracker);
 
 		LOG.debug("dicom2niftiExec : End");
 		return result;
@@ -521,6 +541,23 @@ public class ShanoirExec {
 	 * @return the output result
 	 */
 	public String exec(final String[] cmd, final String[] envp) {
+		return exec(cmd, envp, null);
+	}
+
+	/**
+	 * Execute the command line given in argument. The process is destroyed
+	 * if the calling thread is interrupted.
+	 *
+	 * @param cmd
+	 *            the command line as a string array
+	 * @param envp
+	 *            the environment, or null to inherit the current one
+	 * @param tracker
+	 *            notified of the process started, may be null
+	 *
+	 * @return the output result
+	 */
+	public String exec(final String[] cmd, final String[] envp, final ProcessTracker tracker) {
 
 		StringBuilder executingCommand = new StringBuilder("");
 		for (final String item : cmd) {
@@ -531,10 +568,14 @@ public class ShanoirExec {
 		StreamGobbler errorGobbler = null;
 		StreamGobbler outputGobbler = null;
 		String result = null;
+		Process proc = null;
 		try {
 			Runtime rt = Runtime.getRuntime();
 
-			final Process proc = rt.exec(cmd, envp);
+			proc = rt.exec(cmd, envp);
+			if (tracker != null) {
+				tracker.started(proc);
+			}
 
 			// any error message?
 			errorGobbler = new StreamGobbler(proc.getErrorStream(), "ERROR");
@@ -561,6 +602,10 @@ public class ShanoirExec {
 			LOG.debug("exec : ExitValue: {}", exitVal);
 		} catch (final Exception exc) {
 			LOG.error("exec : {}", exc.getMessage());
+			if (exc instanceof InterruptedException) {
+				proc.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
 			if (errorGobbler != null && outputGobbler != null) {
 				result = errorGobbler.getStringDisplay();
 				if (result != null && !"".equals(result)) {
@@ -569,6 +614,10 @@ public class ShanoirExec {
 				result += outputGobbler.getStringDisplay();
 				return result;
 			}
+		} finally {
+			if (tracker != null && proc != null) {
+				tracker.ended(proc);
+			}
 		}
 		if (errorGobbler != null) {
 			result = errorGobbler.getStringDisplay();
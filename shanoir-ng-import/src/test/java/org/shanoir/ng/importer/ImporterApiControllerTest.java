@@ -42,6 +42,7 @@ import org.shanoir.ng.importer.dicom.ImportJobConstructorService;
 import org.shanoir.ng.importer.dicom.query.QueryPACSService;
 import org.shanoir.ng.importer.model.EegDataset;
 import org.shanoir.ng.importer.model.EegImportJob;
+import org.shanoir.ng.importer.upload.ChunkedUploadService;
 import org.shanoir.ng.shared.event.ShanoirEventService;
 import org.shanoir.ng.shared.exception.ShanoirException;
 import org.shanoir.ng.utils.ImportUtils;
@@ -114,6 +115,9 @@ public class ImporterApiControllerTest {
 	@MockBean
 	private ShanoirEventService shanoirEventService;
 
+	@MockBean
+	private ChunkedUploadService chunkedUploadService;
+
 	@Before
 	public void setup() throws ShanoirException, IOException {
 		gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").create();
@@ -0,0 +1,225 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.dcm2nii;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.shanoir.ng.importer.model.Dataset;
+import org.shanoir.ng.importer.model.ExpressionFormat;
+import org.shanoir.ng.importer.model.Image;
+import org.shanoir.ng.importer.model.ImportJob;
+import org.shanoir.ng.importer.model.Patient;
+import org.shanoir.ng.importer.model.Serie;
+import org.shanoir.ng.shared.event.ShanoirEvent;
+import org.shanoir.ng.shared.event.ShanoirEventService;
+import org.shanoir.ng.shared.event.ShanoirEventType;
+import org.shanoir.ng.shared.exception.ShanoirException;
+import org.shanoir.ng.utils.ModelsUtil;
+import org.shanoir.ng.utils.ShanoirExec;
+import org.shanoir.ng.utils.ShanoirExec.ProcessTracker;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests the parallel conversion of the series of an import, with a stubbed converter
+ * that writes a nifti file and a temporary file in the folder of each serie.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DatasetsCreatorAndNIfTIConverterServiceTest {
+
+	private static final int NB_SERIES = 3;
+
+	private static final int NB_IMAGES_PER_SERIE = 2;
+
+	private static final long CONVERTER_ID = 4L;
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	@Mock
+	private NIfTIConverterRepository niftiConverterRepository;
+
+	@Mock
+	private ShanoirExec shanoirExec;
+
+	@Mock
+	private NIfTIConversionCache conversionCache;
+
+	@Mock
+	private ShanoirEventService shanoirEventService;
+
+	@InjectMocks
+	private DatasetsCreatorAndNIfTIConverterService service;
+
+	private File workFolder;
+
+	private ImportJob importJob;
+
+	@Before
+	public void setup() throws IOException {
+		ReflectionTestUtils.setField(service, "seriesProperties", "seriesDescription==*DTI*");
+		ReflectionTestUtils.setField(service, "convertWithClidcm", "seriesDescription==*CLIDCM*");
+		ReflectionTestUtils.setField(service, "convertersPath", "/opt/nifti-converters/");
+		ReflectionTestUtils.setField(service, "conversionThreads", NB_SERIES + 1);
+		service.init();
+		NIfTIConverter converter = new NIfTIConverter();
+		converter.setId(CONVERTER_ID);
+		converter.setName("dcm2niix");
+		converter.setNIfTIConverterType(NIfTIConverterType.DCM2NII);
+		given(niftiConverterRepository.findById(CONVERTER_ID)).willReturn(Optional.of(converter));
+		workFolder = testFolder.newFolder("importJob");
+		importJob = new ImportJob();
+		importJob.setShanoirEvent(new ShanoirEvent(ShanoirEventType.IMPORT_DATASET_EVENT, "1", 1L, "Starting import...", ShanoirEvent.IN_PROGRESS));
+	}
+
+	@After
+	public void tearDown() {
+		service.destroy();
+	}
+
+	@Test
+	public void testSeriesConvertedInParallel() throws Exception {
+		// each converter waits for the others: the series are converted at the same time
+		CyclicBarrier allSeriesConverting = new CyclicBarrier(NB_SERIES);
+		given(shanoirExec.dcm2niiExec(anyString(), anyString(), anyString(), anyBoolean(), any())).willAnswer(invocation -> {
+			allSeriesConverting.await(10, TimeUnit.SECONDS);
+			File outputFolder = new File((String) invocation.getArgument(2));
+			new File(outputFolder, outputFolder.getName() + ".nii.gz").createNewFile();
+			// temporary file of the converter, removed by the import
+			new File(outputFolder, "o" + outputFolder.getName() + ".nii.gz").createNewFile();
+			return "converted " + outputFolder.getName();
+		});
+		Patient patient = createPatient();
+
+		service.createDatasetsAndRunConversion(patient, workFolder, CONVERTER_ID, importJob);
+
+		for (Serie serie : patient.getStudies().get(0).getSeries()) {
+			File serieFolder = new File(new File(workFolder, "SERIES"), serie.getSeriesInstanceUID());
+			assertEquals(1, serie.getDatasets().size());
+			Dataset dataset = serie.getDatasets().get(0);
+			assertEquals(NB_IMAGES_PER_SERIE, dataset.getExpressionFormats().get(0).getDatasetFiles().size());
+			ExpressionFormat nifti = dataset.getExpressionFormats().get(1);
+			assertEquals("nii", nifti.getType());
+			// only the nifti file of the serie, the files of the series converted at the same time are not mixed
+			assertEquals(1, nifti.getDatasetFiles().size());
+			assertTrue(nifti.getDatasetFiles().get(0).getPath().endsWith("/" + serie.getSeriesInstanceUID() + ".nii.gz"));
+			assertTrue(new File(serieFolder, serie.getSeriesInstanceUID() + ".nii.gz").exists());
+			assertFalse(new File(serieFolder, "o" + serie.getSeriesInstanceUID() + ".nii.gz").exists());
+			assertTrue(serie.getImages().isEmpty());
+		}
+		assertEquals(0.5f, importJob.getShanoirEvent().getProgress(), 0f);
+		assertTrue(importJob.getShanoirEvent().getMessage().startsWith("Converted to nifti (" + NB_SERIES + "/" + NB_SERIES + ")"));
+	}
+
+	@Test
+	public void testConverterProcessesDestroyedOnFailure() throws Exception {
+		List<Process> processes = new CopyOnWriteArrayList<>();
+		CountDownLatch processesStarted = new CountDownLatch(NB_SERIES - 1);
+		given(shanoirExec.dcm2niiExec(anyString(), anyString(), anyString(), anyBoolean(), any())).willAnswer(invocation -> {
+			if (((String) invocation.getArgument(2)).endsWith(ModelsUtil.getSeriesInstanceUID(0))) {
+				// fails once the converters of the other series are running
+				processesStarted.await(10, TimeUnit.SECONDS);
+				throw new IllegalStateException("Conversion failed");
+			}
+			Process process = mock(Process.class);
+			processes.add(process);
+			return runProcess(invocation.getArgument(4), process, processesStarted);
+		});
+
+		try {
+			service.createDatasetsAndRunConversion(createPatient(), workFolder, CONVERTER_ID, importJob);
+			fail("The conversion should fail");
+		} catch (ShanoirException e) {
+			assertEquals("Error during the conversion: Conversion failed", e.getMessage());
+		}
+		// the series still converting are cancelled, with their converter process
+		assertEquals(NB_SERIES - 1, processes.size());
+		for (Process process : processes) {
+			verify(process, times(1)).destroyForcibly();
+		}
+	}
+
+	/**
+	 * Simulates a converter process, running until the thread is interrupted.
+	 */
+	private String runProcess(ProcessTracker tracker, Process process, CountDownLatch processesStarted) {
+		tracker.started(process);
+		processesStarted.countDown();
+		try {
+			Thread.sleep(10000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return "interrupted";
+	}
+
+	/**
+	 * The series of ModelsUtil, with the images already created by the analysis of their files.
+	 */
+	private Patient createPatient() throws IOException {
+		Patient patient = ModelsUtil.createPatient(NB_SERIES, 0);
+		int serieNumber = 0;
+		for (Serie serie : patient.getStudies().get(0).getSeries()) {
+			serie.setSelected(true);
+			serie.setIsSpectroscopy(false);
+			serie.setSeriesDescription("DTI " + serieNumber);
+			serie.setProtocolName("DTI");
+			List<Image> images = new ArrayList<>();
+			for (int imageNumber = 0; imageNumber < NB_IMAGES_PER_SERIE; imageNumber++) {
+				String path = "serie" + serieNumber + File.separator + "image" + imageNumber + ".dcm";
+				File file = new File(workFolder, path);
+				file.getParentFile().mkdirs();
+				file.createNewFile();
+				Image image = new Image();
+				image.setPath(path);
+				image.setFlipAngle("90");
+				images.add(image);
+			}
+			serie.setImages(images);
+			serie.setNonImages(new ArrayList<>());
+			serieNumber++;
+		}
+		return patient;
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.dcm2nii;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class NIfTIConversionCacheTest {
+
+	private static final int NIFTI_SIZE = 400 * 1024;
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private NIfTIConversionCache cache;
+
+	@Before
+	public void setup() throws IOException {
+		cache = createCache(testFolder.newFolder("cache"), registry);
+	}
+
+	@Test
+	public void testKey() throws IOException {
+		File serie1 = createSerie("serie1", "1.2.3", "1.2.4");
+		// same instances, other files and order
+		File serie1Copy = createSerie("serie1Copy", "1.2.4", "1.2.3");
+		Files.write(new File(serie1Copy, "DICOMDIR.txt").toPath(), "not dicom".getBytes());
+		File serie2 = createSerie("serie2", "1.2.3");
+
+		String key = cache.getKey(serie1, 1L, false);
+		assertEquals(key, cache.getKey(serie1Copy, 1L, false));
+		assertNotEquals(key, cache.getKey(serie1, 2L, false));
+		assertNotEquals(key, cache.getKey(serie1, 1L, true));
+		assertNotEquals(key, cache.getKey(serie2, 1L, false));
+		assertNull(cache.getKey(testFolder.newFolder("empty"), 1L, false));
+	}
+
+	@Test
+	public void testStoreAndRestore() throws IOException {
+		File serie = createSerie("serie", "1.2.3");
+		String key = cache.getKey(serie, 1L, true);
+		File output = testFolder.newFolder("output");
+		assertFalse(cache.restore(key, output));
+
+		File nifti = createFile(serie, "serie.nii", 10);
+		File bval = createFile(serie, "serie.bval", 1);
+		cache.store(key, Arrays.asList(nifti, bval));
+
+		assertTrue(cache.restore(key, output));
+		assertArrayEquals(Files.readAllBytes(nifti.toPath()), Files.readAllBytes(new File(output, "serie.nii").toPath()));
+		assertTrue(new File(output, "serie.bval").exists());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, registry.get(ShanoirMetrics.CONVERSION_CACHE).tag(ShanoirMetrics.TAG_RESULT, ShanoirMetrics.HIT).functionCounter().count(), 0);
+		assertEquals(1, registry.get(ShanoirMetrics.CONVERSION_CACHE).tag(ShanoirMetrics.TAG_RESULT, ShanoirMetrics.MISS).functionCounter().count(), 0);
+		assertEquals(cache.getSize(), registry.get(ShanoirMetrics.CONVERSION_CACHE_SIZE).gauge().value(), 0);
+	}
+
+	@Test
+	public void testRestoredFilesAreCopies() throws IOException {
+		File serie = createSerie("serie", "1.2.3");
+		String key = cache.getKey(serie, 1L, true);
+		File nifti = createFile(serie, "serie.nii", 10);
+		cache.store(key, Collections.singletonList(nifti));
+		File output = testFolder.newFolder("output");
+		assertTrue(cache.restore(key, output));
+
+		// the file modified by an import is not modified in the cache
+		Files.write(new File(output, "serie.nii").toPath(), new byte[] { 1 });
+		File otherOutput = testFolder.newFolder("otherOutput");
+		assertTrue(cache.restore(key, otherOutput));
+		assertArrayEquals(Files.readAllBytes(nifti.toPath()), Files.readAllBytes(new File(otherOutput, "serie.nii").toPath()));
+	}
+
+	@Test
+	public void testRestoreFailureRemovesTheCopiedFiles() throws IOException {
+		File serie = createSerie("serie", "1.2.3");
+		String key = cache.getKey(serie, 1L, true);
+		cache.store(key, Arrays.asList(createFile(serie, "serie.bval", 1), createFile(serie, "serie.nii", 10)));
+		File output = testFolder.newFolder("output");
+		// one of the files cannot be copied
+		File existing = createFile(output, "serie.nii", 3);
+
+		assertFalse(cache.restore(key, output));
+		assertEquals(Collections.singletonList(existing), Arrays.asList(output.listFiles()));
+		assertEquals(3, existing.length());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testConversionRemovedFromTheDisk() throws IOException {
+		File serie = createSerie("serie", "1.2.3");
+		String key = cache.getKey(serie, 1L, true);
+		cache.store(key, Collections.singletonList(createFile(serie, "serie.nii", 10)));
+		FileUtils.deleteDirectory(new File(testFolder.getRoot(), "cache/" + key));
+
+		assertFalse(cache.restore(key, testFolder.newFolder("output")));
+		assertTrue(cache.getKeys().isEmpty());
+		assertEquals(0, cache.getSize());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws IOException {
+		String[] keys = new String[3];
+		for (int i = 0; i < keys.length; i++) {
+			File serie = createSerie("serie" + i, "1.2." + i);
+			keys[i] = cache.getKey(serie, 1L, false);
+			cache.store(keys[i], Collections.singletonList(createFile(serie, "serie" + i + ".nii", NIFTI_SIZE)));
+			if (i == 1) {
+				// serie0 used after serie1
+				assertTrue(cache.restore(keys[0], testFolder.newFolder()));
+			}
+		}
+		// 1 MB: only two conversions kept
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(1, registry.get(ShanoirMetrics.CONVERSION_CACHE_EVICTIONS).functionCounter().count(), 0);
+		assertEquals(Arrays.asList(keys[0], keys[2]), cache.getKeys());
+		assertFalse(new File(testFolder.getRoot(), "cache/" + keys[1]).exists());
+
+		// index rebuilt at startup
+		NIfTIConversionCache restarted = createCache(new File(testFolder.getRoot(), "cache"), new SimpleMeterRegistry());
+		assertEquals(2 * NIFTI_SIZE, restarted.getSize());
+	}
+
+	private NIfTIConversionCache createCache(File cacheFolder, SimpleMeterRegistry meterRegistry) {
+		NIfTIConversionCache conversionCache = new NIfTIConversionCache();
+		ReflectionTestUtils.setField(conversionCache, "cacheFolderPath", cacheFolder.getAbsolutePath());
+		ReflectionTestUtils.setField(conversionCache, "maxSize", 1L);
+		ReflectionTestUtils.setField(conversionCache, "shanoirMetrics", new ShanoirMetrics(meterRegistry));
+		conversionCache.init();
+		return conversionCache;
+	}
+
+	private File createSerie(String name, String... sopInstanceUIDs) throws IOException {
+		File folder = testFolder.newFolder(name);
+		for (String sopInstanceUID : sopInstanceUIDs) {
+			Attributes attributes = new Attributes();
+			attributes.setString(Tag.SOPClassUID, VR.UI, UID.MRImageStorage);
+			attributes.setString(Tag.SOPInstanceUID, VR.UI, sopInstanceUID);
+			attributes.setBytes(Tag.PixelData, VR.OW, new byte[64]);
+			try (DicomOutputStream dos = new DicomOutputStream(new File(folder, name + "_" + sopInstanceUID + ".dcm"))) {
+				dos.writeDataset(attributes.createFileMetaInformation(UID.ExplicitVRLittleEndian), attributes);
+			}
+		}
+		return folder;
+	}
+
+	private File createFile(File folder, String name, int size) throws IOException {
+		File file = new File(folder, name);
+		byte[] content = new byte[size];
+		Arrays.fill(content, (byte) name.length());
+		Files.write(file.toPath(), content);
+		return file;
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.dicom;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.dcm4che3.io.DicomInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.importer.model.Instance;
+import org.shanoir.ng.importer.model.Patient;
+import org.shanoir.ng.importer.model.Serie;
+import org.shanoir.ng.utils.ModelsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Logs the number of files analyzed per second, reading the whole files as done before
+ * and reading only the headers with ImagesCreatorAndDicomFileAnalyzerService, with 1
+ * and 4 threads. Not part of the default build: run with mvn test -Pbenchmark.
+ */
+public class ImagesCreatorAndDicomFileAnalyzerServiceBenchmark {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ImagesCreatorAndDicomFileAnalyzerServiceBenchmark.class);
+
+	private static final int NB_SERIES = 4;
+
+	private static final int NB_INSTANCES_PER_SERIE = 250;
+
+	private static final int INSTANCE_PIXEL_DATA_SIZE = 256 * 256 * 2;
+
+	private static final int[] NB_THREADS = { 1, 4 };
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	@Test
+	public void benchmarkAnalysis() throws Exception {
+		File folder = testFolder.newFolder();
+		List<File> files = createFiles(folder);
+		// warm up the file cache and the code, the headers only mode is not favoured
+		readFully(files, 1);
+
+		for (int nbThreads : NB_THREADS) {
+			long start = System.nanoTime();
+			readFully(files, nbThreads);
+			log("whole files, " + nbThreads + " thread(s)", files.size(), start);
+		}
+		for (int nbThreads : NB_THREADS) {
+			List<Patient> patients = createPatients();
+			ImagesCreatorAndDicomFileAnalyzerService service = createService(nbThreads);
+			try {
+				long start = System.nanoTime();
+				service.createImagesAndAnalyzeDicomFiles(patients, folder.getAbsolutePath(), false);
+				log("headers only, " + nbThreads + " thread(s)", files.size(), start);
+			} finally {
+				service.destroy();
+			}
+		}
+	}
+
+	/**
+	 * The reading done before for each instance.
+	 */
+	private void readFully(List<File> files, int nbThreads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+		try {
+			List<Callable<Void>> readings = new ArrayList<>();
+			for (File file : files) {
+				readings.add(() -> {
+					try (DicomInputStream dIS = new DicomInputStream(file)) {
+						dIS.readDataset(-1, -1);
+					}
+					return null;
+				});
+			}
+			for (Future<Void> reading : executor.invokeAll(readings)) {
+				reading.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void log(String mode, int nbFiles, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		LOG.info("DICOM analysis {}: {} files in {} s, {} files/s", mode, nbFiles,
+				String.format("%.2f", seconds), String.format("%.0f", nbFiles / seconds));
+	}
+
+	private ImagesCreatorAndDicomFileAnalyzerService createService(int nbThreads) {
+		ImagesCreatorAndDicomFileAnalyzerService service = new ImagesCreatorAndDicomFileAnalyzerService();
+		ReflectionTestUtils.setField(service, "dicomSerieAndInstanceAnalyzer", new DicomSerieAndInstanceAnalyzer());
+		ReflectionTestUtils.setField(service, "analysisThreads", nbThreads);
+		service.init();
+		return service;
+	}
+
+	private List<File> createFiles(File folder) throws IOException {
+		List<File> files = new ArrayList<>();
+		for (int serie = 0; serie < NB_SERIES; serie++) {
+			for (int instance = 0; instance < NB_INSTANCES_PER_SERIE; instance++) {
+				File file = new File(folder, ModelsUtil.getSOPInstanceUID(serie, instance) + ".dcm");
+				ModelsUtil.writeDicomFile(file, ModelsUtil.createMRAttributes(serie, instance, INSTANCE_PIXEL_DATA_SIZE));
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * The model of the files, created for each run as it is completed by the analysis.
+	 */
+	private List<Patient> createPatients() {
+		Patient patient = ModelsUtil.createPatient(NB_SERIES, NB_INSTANCES_PER_SERIE);
+		for (Serie serie : patient.getStudies().get(0).getSeries()) {
+			for (Instance instance : serie.getInstances()) {
+				instance.setReferencedFileID(new String[] { instance.getSopInstanceUID() + ".dcm" });
+			}
+		}
+		return Collections.singletonList(patient);
+	}
+
+}
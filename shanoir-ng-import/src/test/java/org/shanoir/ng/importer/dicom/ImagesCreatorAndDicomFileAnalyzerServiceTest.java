@@ -0,0 +1,181 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.dicom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.importer.model.Image;
+import org.shanoir.ng.importer.model.Instance;
+import org.shanoir.ng.importer.model.Patient;
+import org.shanoir.ng.importer.model.Serie;
+import org.shanoir.ng.utils.ModelsUtil;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests the header only and parallel analysis of ImagesCreatorAndDicomFileAnalyzerService,
+ * on generated DICOM files.
+ */
+public class ImagesCreatorAndDicomFileAnalyzerServiceTest {
+
+	private static final int NB_SERIES = 4;
+
+	private static final int NB_INSTANCES_PER_SERIE = 20;
+
+	private static final int INSTANCE_PIXEL_DATA_SIZE = 1024;
+
+	private static final int FRAME_PIXEL_DATA_SIZE = 256 * 256 * 2;
+
+	/** Raw data storage instance in each serie, ignored by the analysis */
+	private static final int IGNORED_INSTANCE = 5;
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private List<ImagesCreatorAndDicomFileAnalyzerService> services = new ArrayList<>();
+
+	@After
+	public void tearDown() {
+		services.forEach(ImagesCreatorAndDicomFileAnalyzerService::destroy);
+	}
+
+	@Test
+	public void testImagesInInstancesOrder() throws Exception {
+		File folder = testFolder.newFolder();
+		List<Patient> patients = createPatients(folder);
+
+		createService(4).createImagesAndAnalyzeDicomFiles(patients, folder.getAbsolutePath(), false);
+
+		for (Serie serie : patients.get(0).getStudies().get(0).getSeries()) {
+			// the raw data instance is ignored
+			assertEquals(NB_INSTANCES_PER_SERIE - 1, serie.getImagesNumber().intValue());
+			int instance = 0;
+			for (Image image : serie.getImages()) {
+				if (instance == IGNORED_INSTANCE) {
+					instance++;
+				}
+				assertEquals(getFileName(serie, instance), image.getPath());
+				assertEquals(Double.valueOf(instance), image.getEchoTimes().iterator().next().getEchoTime());
+				instance++;
+			}
+		}
+	}
+
+	@Test
+	public void testEnhancedMRPixelDataNotRead() throws Exception {
+		File folder = testFolder.newFolder();
+		File file = new File(folder, "enhanced.dcm");
+		Attributes attributes = new Attributes();
+		attributes.setString(Tag.SOPClassUID, VR.UI, UID.EnhancedMRImageStorage);
+		attributes.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+		attributes.setInt(Tag.NumberOfFrames, VR.IS, 2);
+		attributes.setInt(Tag.Rows, VR.US, 256);
+		attributes.setInt(Tag.Columns, VR.US, 256);
+		attributes.setInt(Tag.SamplesPerPixel, VR.US, 1);
+		attributes.setInt(Tag.BitsAllocated, VR.US, 16);
+		Sequence sharedGroups = attributes.newSequence(Tag.SharedFunctionalGroupsSequence, 1);
+		Attributes sharedGroup = new Attributes();
+		Attributes planeOrientation = new Attributes();
+		planeOrientation.setDouble(Tag.ImageOrientationPatient, VR.DS, 1, 0, 0, 0, 1, 0);
+		sharedGroup.newSequence(Tag.PlaneOrientationSequence, 1).add(planeOrientation);
+		sharedGroups.add(sharedGroup);
+		Sequence perFrameGroups = attributes.newSequence(Tag.PerFrameFunctionalGroupsSequence, 2);
+		for (int frame = 0; frame < 2; frame++) {
+			Attributes perFrameGroup = new Attributes();
+			Attributes echo = new Attributes();
+			echo.setDouble(Tag.EffectiveEchoTime, VR.FD, 10.0 + frame);
+			perFrameGroup.newSequence(Tag.MREchoSequence, 1).add(echo);
+			perFrameGroups.add(perFrameGroup);
+		}
+		attributes.setBytes(Tag.PixelData, VR.OW, new byte[2 * FRAME_PIXEL_DATA_SIZE]);
+		ModelsUtil.writeDicomFile(file, attributes);
+		// the second frame is missing: the file can only be analyzed if the pixel data are not read
+		try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+			truncated.setLength(truncated.length() - FRAME_PIXEL_DATA_SIZE);
+		}
+		try (DicomInputStream dIS = new DicomInputStream(file)) {
+			dIS.readDataset(-1, -1);
+			fail("The pixel data of the truncated file should not be readable");
+		} catch (EOFException e) {
+			// expected
+		}
+
+		Image image = createService(1).processDicomFileForAllInstances(file, folder.getAbsolutePath());
+
+		assertEquals("enhanced.dcm", image.getPath());
+		assertEquals(Arrays.asList(1.0, 0.0, 0.0, 0.0, 1.0, 0.0), image.getImageOrientationPatient());
+	}
+
+	private ImagesCreatorAndDicomFileAnalyzerService createService(int nbThreads) {
+		ImagesCreatorAndDicomFileAnalyzerService service = new ImagesCreatorAndDicomFileAnalyzerService();
+		ReflectionTestUtils.setField(service, "dicomSerieAndInstanceAnalyzer", new DicomSerieAndInstanceAnalyzer());
+		ReflectionTestUtils.setField(service, "analysisThreads", nbThreads);
+		service.init();
+		services.add(service);
+		return service;
+	}
+
+	/**
+	 * Creates the files only once in the folder, the model each time as it is completed by the analysis.
+	 * The echo time of each image is its instance number.
+	 */
+	private List<Patient> createPatients(File folder) throws IOException {
+		Patient patient = ModelsUtil.createPatient(NB_SERIES, NB_INSTANCES_PER_SERIE);
+		int serieNumber = 0;
+		for (Serie serie : patient.getStudies().get(0).getSeries()) {
+			int instanceNumber = 0;
+			for (Instance instance : serie.getInstances()) {
+				String fileName = getFileName(serie, instanceNumber);
+				File file = new File(folder, fileName);
+				if (!file.exists()) {
+					Attributes attributes = ModelsUtil.createMRAttributes(serieNumber, instanceNumber, INSTANCE_PIXEL_DATA_SIZE);
+					if (instanceNumber == IGNORED_INSTANCE) {
+						attributes.setString(Tag.SOPClassUID, VR.UI, UID.RawDataStorage);
+					}
+					attributes.setDouble(Tag.EchoTime, VR.DS, instanceNumber);
+					ModelsUtil.writeDicomFile(file, attributes);
+				}
+				instance.setReferencedFileID(new String[] { fileName });
+				instanceNumber++;
+			}
+			serieNumber++;
+		}
+		return Collections.singletonList(patient);
+	}
+
+	private String getFileName(Serie serie, int instance) {
+		return serie.getSeriesInstanceUID() + "_" + instance + ".dcm";
+	}
+
+}
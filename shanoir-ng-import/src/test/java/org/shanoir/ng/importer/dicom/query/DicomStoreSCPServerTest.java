@@ -0,0 +1,129 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.dicom.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.shared.exception.ShanoirException;
+
+/**
+ * Tests the routing of the instances received by the store SCP of DicomStoreSCPServer,
+ * without the DICOM network layer.
+ */
+public class DicomStoreSCPServerTest {
+
+	private static final String ROUTED_SERIE_UID = "1.2.3.1";
+
+	private static final String OTHER_SERIE_UID = "1.2.3.2";
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private DicomStoreSCPServer server;
+
+	private File storageDir;
+
+	@Before
+	public void setup() throws IOException {
+		storageDir = testFolder.newFolder("storage");
+		server = new DicomStoreSCPServer();
+		server.setStorageDirPath(storageDir.getAbsolutePath());
+	}
+
+	@Test
+	public void testInstancesRoutedBySeriesInstanceUID() throws Exception {
+		File serieFolder = testFolder.newFolder("import", ROUTED_SERIE_UID);
+		List<File> received = new ArrayList<>();
+		server.addRoute(ROUTED_SERIE_UID, serieFolder, received::add);
+
+		File routed = store(ROUTED_SERIE_UID, ROUTED_SERIE_UID + ".1");
+		File stored = store(OTHER_SERIE_UID, OTHER_SERIE_UID + ".1");
+
+		assertEquals(new File(serieFolder, ROUTED_SERIE_UID + ".1.dcm"), routed);
+		assertEquals(Collections.singletonList(routed), received);
+		assertEquals(new File(new File(storageDir, OTHER_SERIE_UID), OTHER_SERIE_UID + ".1.dcm"), stored);
+		try (DicomInputStream in = new DicomInputStream(routed)) {
+			Attributes attributes = in.readDataset(-1, -1);
+			assertEquals(ROUTED_SERIE_UID + ".1", attributes.getString(Tag.SOPInstanceUID));
+			assertArrayEquals(new byte[16], attributes.getBytes(Tag.PixelData));
+		}
+		assertNoPartFile();
+
+		// once the import is done, the files of the serie go into the storage folder again
+		server.removeRoute(ROUTED_SERIE_UID);
+		File late = store(ROUTED_SERIE_UID, ROUTED_SERIE_UID + ".2");
+		assertEquals(new File(new File(storageDir, ROUTED_SERIE_UID), ROUTED_SERIE_UID + ".2.dcm"), late);
+		assertEquals(1, received.size());
+	}
+
+	@Test
+	public void testPartFileRemovedOnFailure() throws Exception {
+		String iuid = ROUTED_SERIE_UID + ".1";
+		try {
+			server.storeInstance(iuid, Attributes.createFileMetaInformation(iuid, UID.MRImageStorage, UID.ExplicitVRLittleEndian), out -> {
+				out.write(new byte[128]);
+				throw new IOException("Association aborted");
+			});
+			fail("The instance should not be stored");
+		} catch (DicomServiceException e) {
+			assertEquals(Status.ProcessingFailure, e.getStatus());
+		}
+		assertEquals(0, storageDir.list().length);
+	}
+
+	@Test(expected = ShanoirException.class)
+	public void testSerieRetrievedByOneImportOnly() throws Exception {
+		server.addRoute(ROUTED_SERIE_UID, testFolder.newFolder(), file -> {});
+		server.addRoute(ROUTED_SERIE_UID, testFolder.newFolder(), file -> {});
+	}
+
+	private File store(String seriesInstanceUID, String iuid) throws IOException {
+		Attributes attributes = new Attributes();
+		attributes.setString(Tag.SOPClassUID, VR.UI, UID.MRImageStorage);
+		attributes.setString(Tag.SOPInstanceUID, VR.UI, iuid);
+		attributes.setString(Tag.SeriesInstanceUID, VR.UI, seriesInstanceUID);
+		attributes.setBytes(Tag.PixelData, VR.OW, new byte[16]);
+		return server.storeInstance(iuid, Attributes.createFileMetaInformation(iuid, UID.MRImageStorage, UID.ExplicitVRLittleEndian),
+				out -> out.writeDataset(null, attributes));
+	}
+
+	private void assertNoPartFile() {
+		for (File file : storageDir.listFiles()) {
+			if (file.getName().endsWith(".part")) {
+				fail("Temporary file not removed: " + file.getName());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.dicom.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.dcm4che3.net.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.shanoir.ng.importer.model.Instance;
+import org.shanoir.ng.importer.model.Serie;
+import org.shanoir.ng.shared.event.ShanoirEvent;
+import org.shanoir.ng.shared.event.ShanoirEventService;
+import org.shanoir.ng.shared.event.ShanoirEventType;
+import org.shanoir.ng.utils.ModelsUtil;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.weasis.dicom.param.DicomState;
+
+/**
+ * Tests the concurrent c-moves of SerieRetrievalScheduler, against a stubbed PACS that
+ * sends the files of each serie to the listener registered in DicomStoreSCPServer.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SerieRetrievalSchedulerTest {
+
+	private static final int NB_SERIES = 5;
+
+	private static final int NB_INSTANCES_PER_SERIE = 50;
+
+	private static final int ASSOCIATIONS_PER_AE = 2;
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	@Mock
+	private QueryPACSService queryPACSService;
+
+	@Mock
+	private DicomStoreSCPServer dicomStoreSCPServer;
+
+	@Mock
+	private ShanoirEventService eventService;
+
+	@InjectMocks
+	private SerieRetrievalScheduler scheduler;
+
+	/** SeriesInstanceUID -> folder and listener registered by the import */
+	private final ConcurrentMap<String, File> serieFolders = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Consumer<File>> listeners = new ConcurrentHashMap<>();
+
+	private final AtomicInteger associations = new AtomicInteger();
+
+	private final AtomicInteger maxAssociations = new AtomicInteger();
+
+	@Before
+	public void setup() throws Exception {
+		ReflectionTestUtils.setField(scheduler, "retrieveThreads", 8);
+		ReflectionTestUtils.setField(scheduler, "associationsPerAE", ASSOCIATIONS_PER_AE);
+		scheduler.init();
+		doAnswer(invocation -> {
+			serieFolders.put(invocation.getArgument(0), invocation.getArgument(1));
+			listeners.put(invocation.getArgument(0), invocation.getArgument(2));
+			return null;
+		}).when(dicomStoreSCPServer).addRoute(anyString(), any(File.class), any());
+		DicomState success = mock(DicomState.class);
+		given(success.getStatus()).willReturn(Status.Success);
+		given(queryPACSService.getCalledAET()).willReturn("PACS");
+		given(queryPACSService.queryCMOVE(any(Serie.class))).willAnswer(invocation -> {
+			Serie serie = invocation.getArgument(0);
+			maxAssociations.accumulateAndGet(associations.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(20);
+				for (Instance instance : serie.getInstances()) {
+					File file = new File(serieFolders.get(serie.getSeriesInstanceUID()), instance.getSopInstanceUID() + ".dcm");
+					file.createNewFile();
+					listeners.get(serie.getSeriesInstanceUID()).accept(file);
+				}
+			} finally {
+				associations.decrementAndGet();
+			}
+			return success;
+		});
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.destroy();
+	}
+
+	@Test
+	public void testRetrieveSeries() throws Exception {
+		File importJobDir = testFolder.newFolder();
+		ShanoirEvent event = new ShanoirEvent(ShanoirEventType.IMPORT_DATASET_EVENT, "1", 1L, "Starting import...", ShanoirEvent.IN_PROGRESS);
+		List<String> messages = new CopyOnWriteArrayList<>();
+		doAnswer(invocation -> {
+			messages.add(((ShanoirEvent) invocation.getArgument(0)).getMessage());
+			return null;
+		}).when(eventService).publishEvent(any(ShanoirEvent.class));
+
+		scheduler.retrieveSeries(importJobDir, Collections.singletonList(ModelsUtil.createPatient(NB_SERIES, NB_INSTANCES_PER_SERIE)), event);
+
+		int nbInstances = NB_SERIES * NB_INSTANCES_PER_SERIE;
+		for (int serie = 0; serie < NB_SERIES; serie++) {
+			assertEquals(NB_INSTANCES_PER_SERIE, new File(importJobDir, ModelsUtil.getSeriesInstanceUID(serie)).list().length);
+			verify(dicomStoreSCPServer).removeRoute(ModelsUtil.getSeriesInstanceUID(serie));
+		}
+		// the c-moves are concurrent, within the limit of associations of the PACS
+		assertTrue(maxAssociations.get() <= ASSOCIATIONS_PER_AE);
+		// the event is published once per percentage, not once per file
+		assertTrue(messages.size() <= 101);
+		assertEquals("Retrieving from PACS: " + nbInstances + "/" + nbInstances + " files", messages.get(messages.size() - 1));
+		assertEquals(1f, event.getProgress(), 0f);
+	}
+
+}
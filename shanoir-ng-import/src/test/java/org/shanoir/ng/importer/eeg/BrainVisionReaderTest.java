@@ -6,9 +6,16 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.shanoir.ng.importer.eeg.brainvision.BrainVisionReader;
 import org.shanoir.ng.importer.model.Channel;
 import org.shanoir.ng.importer.model.Event;
@@ -21,6 +28,9 @@ import org.shanoir.ng.shared.exception.ShanoirImportException;
  */
 public class BrainVisionReaderTest {
 
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
 	BrainVisionReader reader;
 	File vhdrFile = new File("./src/main/resources/tests/eeg/ROBEEG_BACGU020_dlpfc_l_0002.vhdr");
 
@@ -77,4 +87,85 @@ public class BrainVisionReaderTest {
 		assertNull(event2.getDate());
 
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testReadMultiplexedInt16() throws Exception {
+		// 3 channels, 4 samples: value = 10 * sample + channel
+		ByteBuffer eeg = ByteBuffer.allocate(3 * 4 * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int sample = 0; sample < 4; sample++) {
+			for (int channel = 0; channel < 3; channel++) {
+				eeg.putShort((short) (10 * sample + channel));
+			}
+		}
+		reader = new BrainVisionReader(createFiles("BINARY", "MULTIPLEXED", "INT_16", "NO", eeg.array()));
+		assertEquals(4, reader.getPnts());
+
+		float[][] values = reader.readAll(1, 10);
+		assertEquals(3, values.length);
+		assertEquals(3, values[0].length);
+		for (int channel = 0; channel < 3; channel++) {
+			for (int sample = 1; sample < 4; sample++) {
+				// channel resolution of 0.5
+				assertEquals((10 * sample + channel) * 0.5f, values[channel][sample - 1], 0);
+			}
+		}
+
+		reader.read(2, 0, 2);
+		assertEquals(1f, reader.getData()[0], 0);
+		assertEquals(6f, reader.getData()[1], 0);
+	}
+
+	@Test
+	public void testReadVectorizedFloatBigEndian() throws Exception {
+		ByteBuffer eeg = ByteBuffer.allocate(3 * 4 * 4).order(ByteOrder.BIG_ENDIAN);
+		for (int channel = 0; channel < 3; channel++) {
+			for (int sample = 0; sample < 4; sample++) {
+				eeg.putFloat(10 * sample + channel + 0.25f);
+			}
+		}
+		reader = new BrainVisionReader(createFiles("BINARY", "VECTORIZED", "IEEE_FLOAT_32", "YES", eeg.array()));
+
+		float[][] values = reader.read(new int[] { 2, 0 }, 2, 4);
+		assertEquals((22 + 0.25f) * 0.5f, values[0][0], 0);
+		assertEquals((32 + 0.25f) * 0.5f, values[0][1], 0);
+		assertEquals((20 + 0.25f) * 0.5f, values[1][0], 0);
+	}
+
+	@Test
+	public void testReadAsciiMultiplexed() throws Exception {
+		String eeg = "C1 C2 C3\n0 1 2\n10 11 12,5\n20 21 22\n";
+		reader = new BrainVisionReader(createFiles("ASCII", "MULTIPLEXED", "INT_16", "NO", eeg.getBytes(StandardCharsets.UTF_8)));
+
+		float[][] values = reader.readAll(1, 3);
+		assertEquals(10f, values[0][0], 0);
+		assertEquals(12.5f, values[2][0], 0);
+		assertEquals(21f, values[1][1], 0);
+	}
+
+	private File createFiles(String dataFormat, String orientation, String binaryFormat, String bigEndian, byte[] eeg)
+			throws IOException {
+		StringBuilder vhdr = new StringBuilder("Brain Vision Data Exchange Header File Version 1.0\n")
+				.append("[Common Infos]\n")
+				.append("DataFile=test.eeg\n")
+				.append("DataFormat=").append(dataFormat).append("\n")
+				.append("DataOrientation=").append(orientation).append("\n")
+				.append("NumberOfChannels=3\n")
+				.append("SamplingInterval=1000\n")
+				.append("[Binary Infos]\n")
+				.append("BinaryFormat=").append(binaryFormat).append("\n")
+				.append("UseBigEndianOrder=").append(bigEndian).append("\n")
+				.append("[ASCII Infos]\n")
+				.append("SkipLines=1\n")
+				.append("[Channel Infos]\n");
+		for (int channel = 1; channel <= 3; channel++) {
+			vhdr.append("Ch").append(channel).append("=C").append(channel).append(",,0.5,uV\n");
+		}
+		if ("ASCII".equals(dataFormat)) {
+			vhdr.append("DataPoints=3\n");
+		}
+		File vhdrFile = testFolder.newFile("test.vhdr");
+		Files.write(vhdrFile.toPath(), vhdr.toString().getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(testFolder.getRoot(), "test.eeg").toPath(), eeg);
+		return vhdrFile;
+	}
+}
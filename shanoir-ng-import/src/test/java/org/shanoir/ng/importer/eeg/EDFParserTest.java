@@ -0,0 +1,146 @@
+package org.shanoir.ng.importer.eeg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.importer.eeg.edf.EDFMappedSignal;
+import org.shanoir.ng.importer.eeg.edf.EDFParser;
+import org.shanoir.ng.importer.eeg.edf.EDFParserResult;
+
+/**
+ * Test class for EDF parser, the mapped signal against the loaded one.
+ */
+public class EDFParserTest {
+
+	private static final String[] LABELS = { "EEG1", "EDF Annotations", "EEG2" };
+
+	private static final int[] SAMPLES = { 4, 16, 2 };
+
+	private static final int RECORDS = 3;
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	@Test
+	public void testMappedSignal() throws IOException {
+		File edfFile = createEdfFile();
+
+		EDFParserResult loaded;
+		try (InputStream is = new FileInputStream(edfFile)) {
+			loaded = EDFParser.parseEDF(is);
+		}
+		EDFParserResult mapped = EDFParser.parseEDF(edfFile);
+
+		// the annotation channel is removed, whatever its position
+		assertNull(mapped.getSignal());
+		assertEquals(2, mapped.getHeader().getNumberOfChannels());
+		assertEquals("EEG2", mapped.getHeader().getChannelLabels()[1].trim());
+		assertEquals("EEG2", loaded.getHeader().getChannelLabels()[1].trim());
+
+		EDFMappedSignal signal = mapped.getMappedSignal();
+		assertEquals(2, signal.getNumberOfChannels());
+		for (int channel = 0; channel < 2; channel++) {
+			double[] values = loaded.getSignal().getValuesInUnits()[channel];
+			assertEquals(values.length, signal.getNumberOfSamples(channel));
+			for (int sample = 0; sample < values.length; sample++) {
+				assertEquals(loaded.getSignal().getDigitalValues()[channel][sample], signal.getDigitalValue(channel, sample));
+				assertEquals(values[sample], signal.getValueInUnits(channel, sample), 0);
+			}
+			// across records, up to the end of the signal
+			double[] read = new double[values.length];
+			assertEquals(values.length - 1, signal.read(channel, 1, read));
+			for (int sample = 1; sample < values.length; sample++) {
+				assertEquals(values[sample], read[sample - 1], 0);
+			}
+		}
+
+		assertEquals(loaded.getAnnotations().size(), mapped.getAnnotations().size());
+		for (int i = 0; i < loaded.getAnnotations().size(); i++) {
+			assertEquals(loaded.getAnnotations().get(i).toString(), mapped.getAnnotations().get(i).toString());
+		}
+	}
+
+	private File createEdfFile() throws IOException {
+		int channels = LABELS.length;
+		StringBuilder header = new StringBuilder();
+		header.append(pad("0", 8)).append(pad("X X X X", 80)).append(pad("Startdate X X X X", 80))
+				.append(pad("01.01.20", 8)).append(pad("10.00.00", 8)).append(pad(String.valueOf(256 * (channels + 1)), 8))
+				.append(pad("EDF+C", 44)).append(pad(String.valueOf(RECORDS), 8)).append(pad("1", 8))
+				.append(pad(String.valueOf(channels), 4));
+		for (String label : LABELS) {
+			header.append(pad(label, 16));
+		}
+		for (int i = 0; i < channels; i++) {
+			header.append(pad("", 80));
+		}
+		for (int i = 0; i < channels; i++) {
+			header.append(pad("uV", 8));
+		}
+		for (int i = 0; i < channels; i++) {
+			header.append(pad("-100", 8));
+		}
+		for (int i = 0; i < channels; i++) {
+			header.append(pad("100", 8));
+		}
+		for (int i = 0; i < channels; i++) {
+			header.append(pad("-32768", 8));
+		}
+		for (int i = 0; i < channels; i++) {
+			header.append(pad("32767", 8));
+		}
+		for (int i = 0; i < channels; i++) {
+			header.append(pad("", 80));
+		}
+		for (int nos : SAMPLES) {
+			header.append(pad(String.valueOf(nos), 8));
+		}
+		for (int i = 0; i < channels; i++) {
+			header.append(pad("", 32));
+		}
+
+		ByteBuffer data = ByteBuffer.allocate(RECORDS * (SAMPLES[0] + SAMPLES[1] + SAMPLES[2]) * 2);
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		for (int record = 0; record < RECORDS; record++) {
+			for (int channel = 0; channel < channels; channel++) {
+				if (channel == 1) {
+					byte[] tal = new byte[SAMPLES[channel] * 2];
+					byte[] text = ("+" + record + "\u0014\u0014\u0000+" + record + ".5\u00150.2\u0014Stim" + record + "\u0014\u0000")
+							.getBytes(StandardCharsets.US_ASCII);
+					System.arraycopy(text, 0, tal, 0, text.length);
+					data.put(tal);
+				} else {
+					for (int sample = 0; sample < SAMPLES[channel]; sample++) {
+						data.putShort((short) ((record * 1000 + sample) * (channel == 0 ? 1 : -7)));
+					}
+				}
+			}
+		}
+
+		File edfFile = testFolder.newFile("test.edf");
+		Files.write(edfFile.toPath(), header.toString().getBytes(StandardCharsets.US_ASCII));
+		Files.write(edfFile.toPath(), data.array(), StandardOpenOption.APPEND);
+		return edfFile;
+	}
+
+	private static String pad(String value, int size) {
+		StringBuilder padded = new StringBuilder(value);
+		while (padded.length() < size) {
+			padded.append(' ');
+		}
+		return padded.toString();
+	}
+
+}
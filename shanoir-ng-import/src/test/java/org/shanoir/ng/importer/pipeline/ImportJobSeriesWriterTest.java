@@ -0,0 +1,94 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.importer.model.ImportJob;
+import org.shanoir.ng.importer.model.Patient;
+import org.shanoir.ng.importer.model.Serie;
+import org.shanoir.ng.importer.model.Study;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ImportJobSeriesWriterTest {
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private ObjectMapper objectMapper = new ObjectMapper();
+
+	private ImportJobSeriesWriter writer = new ImportJobSeriesWriter();
+
+	@Before
+	public void setup() {
+		ReflectionTestUtils.setField(writer, "objectMapper", objectMapper);
+		writer.init();
+	}
+
+	@Test
+	public void testCreateMessage() throws Exception {
+		Patient patient = new Patient();
+		patient.setPatientID("patientID");
+		Study study = new Study();
+		study.setStudyInstanceUID("1.2.3");
+		study.setSeries(Arrays.asList(createSerie("1.2.3.1"), createSerie("1.2.3.2")));
+		patient.setStudies(Collections.singletonList(study));
+		ImportJob importJob = new ImportJob();
+		importJob.setExaminationId(1L);
+		importJob.setPatients(Collections.singletonList(patient));
+		File importJobDir = testFolder.newFolder("importJob");
+
+		JsonNode message = objectMapper.readTree(writer.createMessage(importJob, importJobDir));
+
+		assertFalse(message.has("patients"));
+		assertEquals(1L, message.get("examinationId").asLong());
+		assertEquals(2, message.get("seriesCount").asInt());
+		File seriesFile = new File(importJobDir, ImportJobSeriesWriter.SERIES_FILE);
+		assertEquals(seriesFile.getAbsolutePath(), message.get("seriesFile").asText());
+
+		List<String> lines = Files.readAllLines(seriesFile.toPath());
+		assertEquals(4, lines.size());
+		JsonNode patientLine = objectMapper.readTree(lines.get(0));
+		assertEquals("patientID", patientLine.get(ImportJobSeriesWriter.PATIENT).get("patientID").asText());
+		assertFalse(patientLine.get(ImportJobSeriesWriter.PATIENT).has("studies"));
+		assertFalse(objectMapper.readTree(lines.get(1)).get(ImportJobSeriesWriter.STUDY).has("series"));
+		assertEquals("1.2.3.2", objectMapper.readTree(lines.get(3)).get(ImportJobSeriesWriter.SERIE).get("seriesInstanceUID").asText());
+		// the job itself is not modified
+		assertTrue(importJob.getPatients().get(0).getStudies().get(0).getSeries().size() == 2);
+	}
+
+	private Serie createSerie(String seriesInstanceUID) {
+		Serie serie = new Serie();
+		serie.setSeriesInstanceUID(seriesInstanceUID);
+		serie.setSelected(true);
+		return serie;
+	}
+
+}
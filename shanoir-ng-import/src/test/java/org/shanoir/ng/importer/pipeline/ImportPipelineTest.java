@@ -0,0 +1,192 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.shanoir.ng.shared.event.ShanoirEvent;
+import org.shanoir.ng.shared.event.ShanoirEventService;
+import org.shanoir.ng.shared.event.ShanoirEventType;
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ImportPipelineTest {
+
+	@Mock
+	private ShanoirEventService eventService;
+
+	@InjectMocks
+	private ImportPipeline pipeline;
+
+	private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Before
+	public void setup() {
+		ReflectionTestUtils.setField(pipeline, "shanoirMetrics", new ShanoirMetrics(registry));
+		ReflectionTestUtils.setField(pipeline, "maxJobs", 1);
+		ReflectionTestUtils.setField(pipeline, "pacsThreads", 1);
+		ReflectionTestUtils.setField(pipeline, "analysisThreads", 1);
+		ReflectionTestUtils.setField(pipeline, "anonymizationThreads", 1);
+		ReflectionTestUtils.setField(pipeline, "conversionThreads", 1);
+		ReflectionTestUtils.setField(pipeline, "publicationThreads", 1);
+		pipeline.init();
+	}
+
+	@After
+	public void tearDown() {
+		pipeline.destroy();
+	}
+
+	@Test
+	public void testStagesAndAdmission() throws Exception {
+		CountDownLatch blockFirstJob = new CountDownLatch(1);
+		TestJob first = new TestJob(null, blockFirstJob);
+		TestJob second = new TestJob(null, null);
+
+		pipeline.submit(first);
+		pipeline.submit(second);
+		// the pipeline is full, the second job waits
+		assertEquals(1, pipeline.getWaitingJobs());
+		assertEquals("Import queued, position 1 in the queue", second.getEvent().getMessage());
+
+		blockFirstJob.countDown();
+		assertTrue(second.done.await(10, TimeUnit.SECONDS));
+		// PACS fetch skipped
+		List<ImportStage> expected = Arrays.asList(ImportStage.ANALYSIS, ImportStage.ANONYMIZATION, ImportStage.CONVERSION, ImportStage.PUBLICATION);
+		assertEquals(expected, first.stages);
+		assertEquals(expected, second.stages);
+		assertNull(first.failedStage);
+		assertEquals(0, pipeline.getWaitingJobs());
+		assertEquals(2, getStageTimer(ImportStage.CONVERSION, ShanoirMetrics.SUCCESS).count());
+		assertEquals(2, registry.get(ShanoirMetrics.IMPORT_STAGE_WAIT).tag(ShanoirMetrics.TAG_STAGE, ImportStage.CONVERSION.name()).timer().count());
+		assertNull(registry.find(ShanoirMetrics.IMPORT_STAGE).tag(ShanoirMetrics.TAG_STAGE, ImportStage.PACS_FETCH.name()).timer());
+		assertEquals(0, registry.get(ShanoirMetrics.IMPORT_STAGE_ACTIVE).tag(ShanoirMetrics.TAG_STAGE, ImportStage.CONVERSION.name()).gauge().value(), 0);
+	}
+
+	@Test
+	public void testFailedStage() throws Exception {
+		TestJob failing = new TestJob(ImportStage.ANONYMIZATION, null);
+		TestJob next = new TestJob(null, null);
+
+		pipeline.submit(failing);
+		pipeline.submit(next);
+
+		assertTrue(next.done.await(10, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(ImportStage.ANALYSIS, ImportStage.ANONYMIZATION), failing.stages);
+		assertEquals(ImportStage.ANONYMIZATION, failing.failedStage);
+		assertEquals(1, getStageTimer(ImportStage.ANONYMIZATION, ShanoirMetrics.ERROR).count());
+		assertEquals(4, next.stages.size());
+	}
+
+	@Test
+	public void testFailureHandlerThrowing() throws Exception {
+		TestJob failing = new TestJob(ImportStage.ANALYSIS, null) {
+			@Override
+			public void failed(ImportStage stage, Exception e) {
+				super.failed(stage, e);
+				throw new IllegalStateException("failed to clean the import folder");
+			}
+		};
+		TestJob next = new TestJob(null, null);
+
+		pipeline.submit(failing);
+		pipeline.submit(next);
+
+		// the failing job still releases its place in the pipeline
+		assertTrue(next.done.await(10, TimeUnit.SECONDS));
+		assertEquals(ImportStage.ANALYSIS, failing.failedStage);
+		assertEquals(4, next.stages.size());
+	}
+
+	private Timer getStageTimer(ImportStage stage, String result) {
+		return registry.get(ShanoirMetrics.IMPORT_STAGE).tag(ShanoirMetrics.TAG_STAGE, stage.name())
+				.tag(ShanoirMetrics.TAG_RESULT, result).tag(ShanoirMetrics.TAG_STUDY, "1").timer();
+	}
+
+	private static class TestJob implements StagedJob {
+
+		private final ShanoirEvent event = new ShanoirEvent(ShanoirEventType.IMPORT_DATASET_EVENT, "1", 1L, "", ShanoirEvent.IN_PROGRESS, 0f);
+
+		private final ImportStage failingStage;
+
+		private final CountDownLatch blockAnalysis;
+
+		private final List<ImportStage> stages = new CopyOnWriteArrayList<>();
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile ImportStage failedStage;
+
+		TestJob(ImportStage failingStage, CountDownLatch blockAnalysis) {
+			this.failingStage = failingStage;
+			this.blockAnalysis = blockAnalysis;
+		}
+
+		@Override
+		public ShanoirEvent getEvent() {
+			return event;
+		}
+
+		@Override
+		public boolean hasStage(ImportStage stage) {
+			return stage != ImportStage.PACS_FETCH;
+		}
+
+		@Override
+		public String[] getMetricTags() {
+			return new String[] { ShanoirMetrics.TAG_STUDY, "1" };
+		}
+
+		@Override
+		public void runStage(ImportStage stage) throws Exception {
+			stages.add(stage);
+			if (stage == ImportStage.ANALYSIS && blockAnalysis != null) {
+				blockAnalysis.await();
+			}
+			if (stage == failingStage) {
+				throw new IllegalStateException("failed");
+			}
+			if (stage == ImportStage.PUBLICATION) {
+				done.countDown();
+			}
+		}
+
+		@Override
+		public void failed(ImportStage stage, Exception e) {
+			failedStage = stage;
+			done.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.importer.upload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shanoir.ng.shared.exception.ShanoirException;
+
+public class ChunkedUploadServiceTest {
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	private ChunkedUploadService service = new ChunkedUploadService();
+
+	private File importJobDir;
+
+	@Before
+	public void setup() throws IOException {
+		importJobDir = testFolder.newFolder("12345");
+	}
+
+	@Test
+	public void testPartsInAnyOrder() throws Exception {
+		byte[] content = new byte[1000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		byte[] part1 = Arrays.copyOfRange(content, 0, 600);
+		byte[] part2 = Arrays.copyOfRange(content, 600, 1000);
+		service.writeChunk(importJobDir, 1, DigestUtils.sha256Hex(part2), "serie.dcm", 600, new ByteArrayInputStream(part2));
+		service.writeChunk(importJobDir, 0, DigestUtils.sha256Hex(part1), "serie.dcm", 0, new ByteArrayInputStream(part1));
+		// sent again after an interruption
+		service.writeChunk(importJobDir, 1, DigestUtils.sha256Hex(part2), "serie.dcm", 600, new ByteArrayInputStream(part2));
+
+		Map<Integer, String> receivedChunks = service.getReceivedChunks(importJobDir);
+		assertEquals(2, receivedChunks.size());
+		assertEquals(DigestUtils.sha256Hex(part2), receivedChunks.get(1));
+		// nothing in the import folder before the end of the upload
+		assertEquals(0, importJobDir.list().length);
+
+		service.completeUpload(importJobDir);
+		assertArrayEquals(content, Files.readAllBytes(new File(importJobDir, "serie.dcm").toPath()));
+		assertEquals(1, importJobDir.list().length);
+		assertTrue(service.getReceivedChunks(importJobDir).isEmpty());
+	}
+
+	@Test
+	public void testArchive() throws Exception {
+		byte[] archive = createArchive("image1.dcm", "../image2.dcm");
+		service.writeChunk(importJobDir, 0, DigestUtils.sha256Hex(archive), null, 0, new ByteArrayInputStream(archive));
+		// sent again after an interruption
+		service.writeChunk(importJobDir, 0, DigestUtils.sha256Hex(archive), null, 0, new ByteArrayInputStream(archive));
+		assertEquals(DigestUtils.sha256Hex(archive), service.getReceivedChunks(importJobDir).get(0));
+
+		service.completeUpload(importJobDir);
+		assertTrue(new File(importJobDir, "image1.dcm").exists());
+		assertTrue(new File(importJobDir, "image2.dcm").exists());
+		assertFalse(new File(testFolder.getRoot(), "image2.dcm").exists());
+		assertTrue(service.getReceivedChunks(importJobDir).isEmpty());
+	}
+
+	@Test
+	public void testWrongChecksum() throws Exception {
+		byte[] archive = createArchive("image1.dcm");
+		try {
+			service.writeChunk(importJobDir, 0, DigestUtils.sha256Hex("original"), null, 0, new ByteArrayInputStream(archive));
+			fail();
+		} catch (ShanoirException e) {
+			// sent again by the client
+		}
+		assertTrue(service.getReceivedChunks(importJobDir).isEmpty());
+
+		// the corrupted chunk is not used
+		service.completeUpload(importJobDir);
+		assertEquals(0, importJobDir.list().length);
+	}
+
+	@Test
+	public void testDuplicateFileName() throws Exception {
+		Files.write(new File(importJobDir, "image1.dcm").toPath(), "uploaded before".getBytes());
+		byte[] archive = createArchive("image1.dcm");
+		service.writeChunk(importJobDir, 0, DigestUtils.sha256Hex(archive), null, 0, new ByteArrayInputStream(archive));
+
+		try {
+			service.completeUpload(importJobDir);
+			fail();
+		} catch (ShanoirException e) {
+			// refused, as for the upload of single files
+		}
+		assertEquals("uploaded before", new String(Files.readAllBytes(new File(importJobDir, "image1.dcm").toPath())));
+	}
+
+	private byte[] createArchive(String... names) throws IOException {
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(zip)) {
+			for (String name : names) {
+				zipOutputStream.putNextEntry(new ZipEntry(name));
+				zipOutputStream.write(name.getBytes());
+				zipOutputStream.closeEntry();
+			}
+		}
+		return zip.toByteArray();
+	}
+
+}
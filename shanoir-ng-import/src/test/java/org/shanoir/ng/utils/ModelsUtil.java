@@ -14,6 +14,22 @@
 
 package org.shanoir.ng.utils;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.shanoir.ng.importer.model.Instance;
+import org.shanoir.ng.importer.model.Patient;
+import org.shanoir.ng.importer.model.Serie;
+import org.shanoir.ng.importer.model.Study;
+
 /**
  * Utility class for test. Generates models.
  * 
@@ -22,4 +38,88 @@ package org.shanoir.ng.utils;
  */
 public final class ModelsUtil {
 
+	// DICOM data
+	public static final String STUDY_INSTANCE_UID = "1.2.3";
+
+	private ModelsUtil() {
+	}
+
+	/**
+	 * @return "1.2.3.serie"
+	 */
+	public static String getSeriesInstanceUID(int serie) {
+		return STUDY_INSTANCE_UID + "." + serie;
+	}
+
+	/**
+	 * @return "1.2.3.serie.instance"
+	 */
+	public static String getSOPInstanceUID(int serie, int instance) {
+		return getSeriesInstanceUID(serie) + "." + instance;
+	}
+
+	/**
+	 * Create a patient with one study of series of instances, without files.
+	 * 
+	 * @param nbSeries
+	 * @param nbInstancesPerSerie
+	 * @return patient.
+	 */
+	public static Patient createPatient(int nbSeries, int nbInstancesPerSerie) {
+		List<Serie> series = new ArrayList<>();
+		for (int serieNumber = 0; serieNumber < nbSeries; serieNumber++) {
+			Serie serie = new Serie();
+			serie.setSeriesInstanceUID(getSeriesInstanceUID(serieNumber));
+			List<Instance> instances = new ArrayList<>();
+			for (int instanceNumber = 0; instanceNumber < nbInstancesPerSerie; instanceNumber++) {
+				Instance instance = new Instance();
+				instance.setSopInstanceUID(getSOPInstanceUID(serieNumber, instanceNumber));
+				instances.add(instance);
+			}
+			serie.setInstances(instances);
+			series.add(serie);
+		}
+		Study study = new Study();
+		study.setStudyInstanceUID(STUDY_INSTANCE_UID);
+		study.setSeries(series);
+		Patient patient = new Patient();
+		patient.setStudies(Collections.singletonList(study));
+		return patient;
+	}
+
+	/**
+	 * Create the attributes of an MR image of a serie.
+	 * 
+	 * @param serie
+	 * @param instance
+	 * @param pixelDataSize
+	 * @return attributes.
+	 */
+	public static Attributes createMRAttributes(int serie, int instance, int pixelDataSize) {
+		Attributes attributes = new Attributes();
+		attributes.setString(Tag.SOPClassUID, VR.UI, UID.MRImageStorage);
+		attributes.setString(Tag.SOPInstanceUID, VR.UI, getSOPInstanceUID(serie, instance));
+		attributes.setString(Tag.StudyInstanceUID, VR.UI, STUDY_INSTANCE_UID);
+		attributes.setString(Tag.SeriesInstanceUID, VR.UI, getSeriesInstanceUID(serie));
+		attributes.setString(Tag.Modality, VR.CS, "MR");
+		attributes.setInt(Tag.AcquisitionNumber, VR.IS, 1);
+		attributes.setDouble(Tag.ImageOrientationPatient, VR.DS, 1, 0, 0, 0, 1, 0);
+		attributes.setInt(Tag.EchoNumbers, VR.IS, 1);
+		attributes.setBytes(Tag.PixelData, VR.OW, new byte[pixelDataSize]);
+		return attributes;
+	}
+
+	/**
+	 * Write a DICOM file, in explicit VR little endian.
+	 * 
+	 * @param file
+	 * @param attributes
+	 * @throws IOException
+	 */
+	public static void writeDicomFile(File file, Attributes attributes) throws IOException {
+		try (DicomOutputStream dos = new DicomOutputStream(file)) {
+			dos.writeDataset(attributes.createFileMetaInformation(UID.ExplicitVRLittleEndian), attributes);
+		}
+	}
+
 }
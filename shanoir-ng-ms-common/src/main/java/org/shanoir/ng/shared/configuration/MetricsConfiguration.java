@@ -0,0 +1,45 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.shared.configuration;
+
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.shanoir.ng.shared.metrics.TimedRabbitTemplate;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.boot.autoconfigure.amqp.RabbitTemplateConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Instrumentation shared by all microservices, see ShanoirMetrics.
+ * The metrics are published on the management port, not proxied by nginx.
+ */
+@Configuration
+@Profile("!test")
+public class MetricsConfiguration {
+
+	/**
+	 * Replaces the RabbitTemplate of Spring Boot, configured the same way.
+	 */
+	@Bean
+	public RabbitTemplate rabbitTemplate(RabbitTemplateConfigurer configurer, ConnectionFactory connectionFactory,
+			ShanoirMetrics metrics) {
+		RabbitTemplate template = new TimedRabbitTemplate(metrics);
+		configurer.configure(template, connectionFactory);
+		return template;
+	}
+
+}
@@ -0,0 +1,216 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.shared.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timers, counters and gauges of the microservices, published by the Prometheus
+ * endpoint of each of them. All the metric and tag names are declared here, so
+ * the same tag has the same name in all microservices and the dashboards can
+ * aggregate them: study, modality, stage, ...
+ *
+ * The tags are given as key value pairs, a null value is published as "unknown".
+ */
+@Component
+public class ShanoirMetrics {
+
+	/** Duration of the stages of the import jobs */
+	public static final String IMPORT_STAGE = "shanoir.import.stage";
+
+	/** Import jobs waiting to be admitted in the import pipeline or running in it */
+	public static final String IMPORT_JOBS = "shanoir.import.jobs";
+
+	/** Import jobs waiting for a thread of a stage */
+	public static final String IMPORT_STAGE_QUEUE = "shanoir.import.stage.queue";
+
+	/** Time waited by the import jobs for a thread of a stage */
+	public static final String IMPORT_STAGE_WAIT = "shanoir.import.stage.wait";
+
+	/** Import jobs running a stage */
+	public static final String IMPORT_STAGE_ACTIVE = "shanoir.import.stage.active";
+
+	/** Lookups of the NIfTI conversion cache of the import, hit or miss */
+	public static final String CONVERSION_CACHE = "shanoir.import.conversion.cache";
+
+	public static final String CONVERSION_CACHE_EVICTIONS = "shanoir.import.conversion.cache.evictions";
+
+	/** Size of the files of the NIfTI conversion cache, in bytes */
+	public static final String CONVERSION_CACHE_SIZE = "shanoir.import.conversion.cache.size";
+
+	public static final String ANONYMIZATION = "shanoir.anonymization";
+
+	public static final String ANONYMIZATION_FILES = "shanoir.anonymization.files";
+
+	/** Requests sent to the PACS to download dicom files */
+	public static final String WADO_FETCH = "shanoir.wado.fetch";
+
+	/** Requests sent to the PACS by the DICOMWeb API */
+	public static final String DICOMWEB_REQUEST = "shanoir.dicomweb.request";
+
+	/** Lookups of the examination to StudyInstanceUID cache of the DICOMWeb API, hit or miss */
+	public static final String DICOMWEB_CACHE = "shanoir.dicomweb.cache";
+
+	public static final String DICOMWEB_CACHE_SIZE = "shanoir.dicomweb.cache.size";
+
+	/** Checks of the study rights of the users cache, hit or miss */
+	public static final String STUDY_RIGHTS_CACHE = "shanoir.study.rights.cache";
+
+	public static final String STUDY_RIGHTS_CACHE_EVICTIONS = "shanoir.study.rights.cache.evictions";
+
+	/** Number of users in the study rights cache */
+	public static final String STUDY_RIGHTS_CACHE_SIZE = "shanoir.study.rights.cache.size";
+
+	public static final String SOLR_QUERY = "shanoir.solr.query";
+
+	public static final String SOLR_INDEX = "shanoir.solr.index";
+
+	/** Round trips of convertSendAndReceive to the other microservices */
+	public static final String RABBITMQ_RPC = "shanoir.rabbitmq.rpc";
+
+	public static final String TAG_STUDY = "study";
+
+	public static final String TAG_MODALITY = "modality";
+
+	public static final String TAG_STAGE = "stage";
+
+	public static final String TAG_OPERATION = "operation";
+
+	public static final String TAG_QUEUE = "queue";
+
+	public static final String TAG_STATE = "state";
+
+	public static final String TAG_RESULT = "result";
+
+	public static final String SUCCESS = "success";
+
+	public static final String ERROR = "error";
+
+	public static final String TIMEOUT = "timeout";
+
+	public static final String UNKNOWN = "unknown";
+
+	public static final String HIT = "hit";
+
+	public static final String MISS = "miss";
+
+	private final MeterRegistry registry;
+
+	@Autowired
+	public ShanoirMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * @return a sample to stop with stop(), when the timed operation is done
+	 */
+	public Timer.Sample start() {
+		return Timer.start(registry);
+	}
+
+	/**
+	 * Records the duration of an operation started with start().
+	 *
+	 * @param sample
+	 * @param name
+	 * @param result success, error, ...
+	 * @param tags
+	 */
+	public void stop(Timer.Sample sample, String name, String result, String... tags) {
+		sample.stop(registry.timer(name, toTags(tags).and(TAG_RESULT, result)));
+	}
+
+	/**
+	 * Runs and times an operation, tagged with its result, success or error.
+	 *
+	 * @param name
+	 * @param call
+	 * @param tags
+	 * @return the result of the operation
+	 * @throws E the exception of the operation
+	 */
+	public <T, E extends Exception> T time(String name, TimedCall<T, E> call, String... tags) throws E {
+		Timer.Sample sample = start();
+		String result = ERROR;
+		try {
+			T value = call.call();
+			result = SUCCESS;
+			return value;
+		} finally {
+			stop(sample, name, result, tags);
+		}
+	}
+
+	/**
+	 * Records a duration measured by the caller.
+	 *
+	 * @param name
+	 * @param nanos
+	 * @param tags
+	 */
+	public void record(String name, long nanos, String... tags) {
+		registry.timer(name, toTags(tags)).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void increment(String name, double amount, String... tags) {
+		registry.counter(name, toTags(tags)).increment(amount);
+	}
+
+	/**
+	 * Publishes a count kept by the object, read at each scrape: the count must only increase.
+	 */
+	public <T> void counter(String name, T object, ToDoubleFunction<T> count, String... tags) {
+		FunctionCounter.builder(name, object, count).tags(toTags(tags)).register(registry);
+	}
+
+	/**
+	 * Publishes a value read on the object at each scrape.
+	 */
+	public <T> void gauge(String name, T object, ToDoubleFunction<T> value, String... tags) {
+		registry.gauge(name, toTags(tags), object, value);
+	}
+
+	private static Tags toTags(String... tags) {
+		String[] keyValues = new String[tags.length];
+		for (int i = 0; i < tags.length; i++) {
+			keyValues[i] = tags[i] != null ? tags[i] : UNKNOWN;
+		}
+		return Tags.of(keyValues);
+	}
+
+	/**
+	 * Tag value of an id, a study id for example.
+	 */
+	public static String tagValue(Object value) {
+		return value != null ? value.toString() : UNKNOWN;
+	}
+
+	@FunctionalInterface
+	public interface TimedCall<T, E extends Exception> {
+
+		T call() throws E;
+
+	}
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.shared.metrics;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * RabbitTemplate timing the round trips of sendAndReceive and convertSendAndReceive,
+ * by queue: a call to another microservice without reply in time is tagged as timeout.
+ * The listeners are timed by their containers, with the spring.rabbitmq.listener metric.
+ */
+public class TimedRabbitTemplate extends RabbitTemplate {
+
+	private final ShanoirMetrics metrics;
+
+	public TimedRabbitTemplate(ShanoirMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	protected Message doSendAndReceive(String exchange, String routingKey, Message message,
+			CorrelationData correlationData) {
+		Timer.Sample sample = metrics.start();
+		String result = ShanoirMetrics.ERROR;
+		try {
+			Message reply = super.doSendAndReceive(exchange, routingKey, message, correlationData);
+			result = reply != null ? ShanoirMetrics.SUCCESS : ShanoirMetrics.TIMEOUT;
+			return reply;
+		} finally {
+			String queue = exchange == null || exchange.isEmpty() ? routingKey : exchange;
+			metrics.stop(sample, ShanoirMetrics.RABBITMQ_RPC, result, ShanoirMetrics.TAG_QUEUE, queue);
+		}
+	}
+
+}
@@ -81,6 +81,8 @@ public class SecurityConfiguration extends KeycloakWebSecurityConfigurerAdapter
 			.authorizeRequests()
 				.antMatchers("/studies/public/data").permitAll()
 				.antMatchers("/v2/api-docs", "/configuration/**", "/swagger*/**", "/webjars/**").permitAll()
+				// served on the management port only, not proxied by nginx
+				.antMatchers("/actuator/health", "/actuator/prometheus").permitAll()
 				.anyRequest().authenticated();
 	}
 
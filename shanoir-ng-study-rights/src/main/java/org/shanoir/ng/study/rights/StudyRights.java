@@ -0,0 +1,78 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.study.rights;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.shanoir.ng.shared.security.rights.StudyUserRight;
+
+/**
+ * Immutable copy of the rights of a user on a study, as kept in StudyUserRightsCache:
+ * one bit per right and the centers the user is restricted to.
+ */
+public class StudyRights {
+
+	private final int rights;
+
+	private final boolean confirmed;
+
+	/** Empty if the user is not restricted to some centers */
+	private final Set<Long> centerIds;
+
+	public StudyRights(StudyUser studyUser) {
+		int bits = 0;
+		if (studyUser.getStudyUserRights() != null) {
+			for (StudyUserRight right : studyUser.getStudyUserRights()) {
+				bits |= 1 << right.getId();
+			}
+		}
+		this.rights = bits;
+		this.confirmed = studyUser.isConfirmed();
+		this.centerIds = studyUser.getCenterIds() == null ? Collections.emptySet()
+				: Collections.unmodifiableSet(new HashSet<>(studyUser.getCenterIds()));
+	}
+
+	/**
+	 * @return true if the user has the right, whether confirmed or not
+	 */
+	public boolean hasRight(StudyUserRight right) {
+		return (rights & (1 << right.getId())) != 0;
+	}
+
+	/**
+	 * @return true if the user has the right and is a confirmed member of the study
+	 */
+	public boolean hasConfirmedRight(StudyUserRight right) {
+		return confirmed && hasRight(right);
+	}
+
+	public boolean isConfirmed() {
+		return confirmed;
+	}
+
+	/**
+	 * @return true if the user is not restricted to some centers or if the center is one of them
+	 */
+	public boolean hasRightOnCenter(Long centerId) {
+		return centerIds.isEmpty() || centerIds.contains(centerId);
+	}
+
+	public Set<Long> getCenterIds() {
+		return centerIds;
+	}
+
+}
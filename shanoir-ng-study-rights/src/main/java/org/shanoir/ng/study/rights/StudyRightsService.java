@@ -15,21 +15,19 @@
 package org.shanoir.ng.study.rights;
 
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.shanoir.ng.shared.security.rights.StudyUserRight;
 import org.shanoir.ng.utils.KeycloakUtil;
-import org.shanoir.ng.utils.Utils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
 
 @Service
 public class StudyRightsService {
 		
 	@Autowired
-	private StudyUserRightsRepository repo;
+	private StudyUserRightsCache cache;
 	
 	
 	/**
@@ -44,12 +42,10 @@ public class StudyRightsService {
 		if (userId == null) {
 			throw new IllegalStateException("UserId should not be null. Cannot check rights on the study " + studyId);
 		}
-		StudyUser founded = repo.findByUserIdAndStudyId(userId, studyId);
+		StudyRights founded = cache.getRights(userId, studyId);
 		return
 				founded != null
-				&& founded.getStudyUserRights() != null
-				&& founded.getStudyUserRights().contains(StudyUserRight.valueOf(rightStr))
-				&& founded.isConfirmed();
+				&& founded.hasConfirmedRight(StudyUserRight.valueOf(rightStr));
     }
    
     public boolean hasRightOnCenter(Long studyId, Long centerId) {
@@ -57,12 +53,11 @@ public class StudyRightsService {
 		if (userId == null) {
 			throw new IllegalStateException("UserId should not be null. Cannot check rights on the study " + studyId);
 		}
-		StudyUser founded = repo.findByUserIdAndStudyId(userId, studyId);
+		StudyRights founded = cache.getRights(userId, studyId);
 		
 		return
 				founded != null
-				&& 
-				( founded.getCenterIds().isEmpty() || founded.getCenterIds().contains(centerId) );
+				&& founded.hasRightOnCenter(centerId);
     }
 
     /*
@@ -73,16 +68,14 @@ public class StudyRightsService {
 		if (userId == null) {
 			throw new IllegalStateException("UserId should not be null. Cannot check rights");
 		}
-		List<StudyUser> founded = Utils.toList(repo.findByUserIdAndStudyIdIn(userId, studies));
-		
-		if (CollectionUtils.isEmpty(founded)) {
-			return false;
-		}
-		boolean hasRight = false;
-		for (StudyUser su  : founded) {
-			hasRight = hasRight || CollectionUtils.isEmpty(su.getCenterIds()) || su.getCenterIds().contains(centerId);
+		Map<Long, StudyRights> founded = cache.getRights(userId);
+		for (Long studyId : studies) {
+			StudyRights su = founded.get(studyId);
+			if (su != null && su.hasRightOnCenter(centerId)) {
+				return true;
+			}
 		}
-		return hasRight;
+		return false;
     }
 
     /**
@@ -95,10 +88,10 @@ public class StudyRightsService {
     public boolean hasOneRightOnStudy(Long studyId, String... rightStrs) {
 		Long userId = KeycloakUtil.getTokenUserId();
 		if (userId == null) throw new IllegalStateException("UserId should not be null. Cannot check rights on the study " + studyId);
-		StudyUser founded = repo.findByUserIdAndStudyId(userId, studyId);
-		if (founded != null && founded.getStudyUserRights() != null) {
+		StudyRights founded = cache.getRights(userId, studyId);
+		if (founded != null) {
 			for (String rightStr : rightStrs) {
-				if (founded.getStudyUserRights().contains(StudyUserRight.valueOf(rightStr)) && founded.isConfirmed()) return true;
+				if (founded.hasConfirmedRight(StudyUserRight.valueOf(rightStr))) return true;
 			}
 		}
 		return false;
@@ -116,14 +109,14 @@ public class StudyRightsService {
 		if (userId == null) {
 			throw new IllegalStateException("UserId should not be null. Cannot check rights on the studies " + studyIds);
 		}
-		Iterable<StudyUser> founded = repo.findByUserIdAndStudyIdIn(userId, studyIds);
+		Map<Long, StudyRights> founded = cache.getRights(userId);
+		StudyUserRight right = StudyUserRight.valueOf(rightStr);
 		Set<Long> validIds = new HashSet<>();
-		if (founded != null) {
-			for (StudyUser su : founded) {
-				if (su.getStudyUserRights().contains(StudyUserRight.valueOf(rightStr)) && su.isConfirmed()) {
-					validIds.add(su.getStudyId());
-				}
-			}			
+		for (Long studyId : studyIds) {
+			StudyRights su = founded.get(studyId);
+			if (su != null && su.hasConfirmedRight(right)) {
+				validIds.add(studyId);
+			}
 		}
 		return validIds;
 	}
@@ -139,13 +132,11 @@ public class StudyRightsService {
 		if (userId == null) {
 			throw new IllegalStateException("UserId should not be null. Cannot check rights.");
 		}
-		Iterable<StudyUser> founded = repo.findByUserId(userId);
-		if (founded != null) {
-			for (StudyUser su : founded) {
-				if (su.getStudyUserRights().contains(StudyUserRight.valueOf(rightStr)) && su.isConfirmed()) {
-					return true;
-				}
-			}			
+		StudyUserRight right = StudyUserRight.valueOf(rightStr);
+		for (StudyRights su : cache.getRights(userId).values()) {
+			if (su.hasConfirmedRight(right)) {
+				return true;
+			}
 		}
 		return false;
 	}
@@ -0,0 +1,155 @@
+/**
+ * Shanoir NG - Import, manage and share neuroimaging data
+ * Copyright (C) 2009-2019 Inria - https://www.inria.fr/
+ * Contact us on https://project.inria.fr/shanoir/
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see https://www.gnu.org/licenses/gpl-3.0.html
+ */
+
+package org.shanoir.ng.study.rights;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.shanoir.ng.shared.metrics.ShanoirMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * In memory cache of the study rights of the users, to avoid one query on the
+ * study users for each rights check. All the rights of a user are loaded at once,
+ * at the first check, and kept until StudyUserUpdateService receives a command
+ * for one of the study users of this user.
+ *
+ * The rights are loaded inside the computation of the map entry: an eviction
+ * done during the loading waits for it, so an entry read before the update of
+ * the study users can not stay in the cache.
+ */
+@Component
+public class StudyUserRightsCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StudyUserRightsCache.class);
+
+	@Autowired
+	private StudyUserRightsRepository repo;
+
+	@Autowired
+	private ShanoirMetrics shanoirMetrics;
+
+	@Value("${shanoir.study-rights.cache.max-users:10000}")
+	private int maxUsers;
+
+	/** userId -> studyId -> rights */
+	private final ConcurrentMap<Long, Map<Long, StudyRights>> rightsByUser = new ConcurrentHashMap<>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		shanoirMetrics.counter(ShanoirMetrics.STUDY_RIGHTS_CACHE, this, StudyUserRightsCache::getHitCount,
+				ShanoirMetrics.TAG_RESULT, ShanoirMetrics.HIT);
+		shanoirMetrics.counter(ShanoirMetrics.STUDY_RIGHTS_CACHE, this, StudyUserRightsCache::getMissCount,
+				ShanoirMetrics.TAG_RESULT, ShanoirMetrics.MISS);
+		shanoirMetrics.counter(ShanoirMetrics.STUDY_RIGHTS_CACHE_EVICTIONS, this, StudyUserRightsCache::getEvictionCount);
+		shanoirMetrics.gauge(ShanoirMetrics.STUDY_RIGHTS_CACHE_SIZE, this, StudyUserRightsCache::getSize);
+	}
+
+	/**
+	 * @param userId
+	 * @return the rights of the user, by study id
+	 */
+	public Map<Long, StudyRights> getRights(Long userId) {
+		Map<Long, StudyRights> rights = rightsByUser.get(userId);
+		if (rights != null) {
+			hitCount.incrementAndGet();
+			return rights;
+		}
+		if (rightsByUser.size() >= maxUsers) {
+			LOG.info("Study rights cache full ({} users): cleared", rightsByUser.size());
+			evictAll();
+		}
+		return rightsByUser.computeIfAbsent(userId, this::load);
+	}
+
+	/**
+	 * @param userId
+	 * @param studyId
+	 * @return the rights of the user on the study, null if not a member
+	 */
+	public StudyRights getRights(Long userId, Long studyId) {
+		return getRights(userId).get(studyId);
+	}
+
+	private Map<Long, StudyRights> load(Long userId) {
+		missCount.incrementAndGet();
+		Map<Long, StudyRights> rights = new HashMap<>();
+		Iterable<StudyUser> studyUsers = repo.findByUserId(userId);
+		if (studyUsers != null) {
+			for (StudyUser studyUser : studyUsers) {
+				rights.put(studyUser.getStudyId(), new StudyRights(studyUser));
+			}
+		}
+		return Collections.unmodifiableMap(rights);
+	}
+
+	/**
+	 * Removes the rights of the users, to be reloaded at their next check.
+	 *
+	 * @param userIds
+	 */
+	public void evict(Collection<Long> userIds) {
+		for (Long userId : userIds) {
+			if (userId != null && rightsByUser.remove(userId) != null) {
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	public void evictAll() {
+		evictionCount.addAndGet(rightsByUser.size());
+		rightsByUser.clear();
+	}
+
+	/**
+	 * @return the number of checks answered from the cache
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of checks that loaded the rights from the database
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public int getSize() {
+		return rightsByUser.size();
+	}
+
+}
@@ -23,6 +23,7 @@ import java.util.Set;
 
 import org.shanoir.ng.shared.security.rights.StudyUserRight;
 import org.shanoir.ng.study.rights.StudyUser;
+import org.shanoir.ng.study.rights.StudyUserRightsCache;
 import org.shanoir.ng.study.rights.StudyUserRightsRepository;
 import org.shanoir.ng.study.rights.command.CommandType;
 import org.shanoir.ng.study.rights.command.StudyUserCommand;
@@ -41,6 +42,9 @@ public class StudyUserUpdateService {
 	@Autowired
 	private StudyUserRightsRepository studyUserRepository;
 
+	@Autowired
+	private StudyUserRightsCache rightsCache;
+
     public void processCommands(Iterable<StudyUserCommand> commands) {
         
         List<StudyUser> toBeCreated = new ArrayList<>();
@@ -60,8 +64,11 @@ public class StudyUserUpdateService {
 			}
         }
         
+        // users whose cached rights are outdated by the commands
+        Set<Long> toBeEvicted = new HashSet<>();
         Iterable<StudyUser> toBeUpdatedDb = studyUserRepository.findAllById(toBeUpdated.keySet());
         for (StudyUser existingSu : toBeUpdatedDb) {
+        	toBeEvicted.add(existingSu.getUserId());
         	StudyUser replacingSu = toBeUpdated.get(existingSu.getId());
 			existingSu.setReceiveStudyUserReport(replacingSu.isReceiveStudyUserReport());
 			existingSu.setReceiveNewImportReport(replacingSu.isReceiveNewImportReport());
@@ -73,6 +80,7 @@ public class StudyUserUpdateService {
         if (!toBeCreated.isEmpty()) {
         	LOG.debug("Saving {} new study-user(s)", toBeCreated.size());
         	for (StudyUser su : toBeCreated) {
+        		toBeEvicted.add(su.getUserId());
         		LOG.debug("getId : {}", su.getId());
         		LOG.debug("getUserName : {}", su.getUserName());
         		LOG.debug("getStudyId : {}", su.getStudyId());
@@ -93,7 +101,12 @@ public class StudyUserUpdateService {
         }
         if (!toBeDeleted.isEmpty()) {
         	LOG.debug("Deleting {} study-user(s)", toBeDeleted.size());
+        	for (StudyUser deletedSu : studyUserRepository.findAllById(toBeDeleted)) {
+        		toBeEvicted.add(deletedSu.getUserId());
+        	}
         	studyUserRepository.deleteByIdIn(toBeDeleted);
         }
+        // after the saves, so a reload of the rights reads the new study users
+        rightsCache.evict(toBeEvicted);
     }
 }
\ No newline at end of file
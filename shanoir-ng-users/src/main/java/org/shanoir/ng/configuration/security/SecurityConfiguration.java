@@ -82,6 +82,8 @@ public class SecurityConfiguration extends KeycloakWebSecurityConfigurerAdapter
 				.antMatchers("/accountrequest").permitAll()
 				.antMatchers("/extensionrequest").permitAll()
 				.antMatchers("/last_login_date").permitAll()
+				// served on the management port only, not proxied by nginx
+				.antMatchers("/actuator/health", "/actuator/prometheus").permitAll()
 				.anyRequest().authenticated();
 		// the swagger API of is not exposed here for security reasons (MK)
 	}
@@ -118,9 +118,9 @@ public class HttpService {
 		return null;
 	}
 
-	public CloseableHttpResponse postFile(String url, String tempDirId, File file) {
+	public CloseableHttpResponse postFile(String url, File file) {
 		try {
-			HttpPost httpPost = new HttpPost(url + tempDirId);
+			HttpPost httpPost = new HttpPost(url);
 			httpPost.addHeader("Authorization", "Bearer " + ShUpOnloadConfig.getTokenString());
 			MultipartEntityBuilder builder = MultipartEntityBuilder.create();
 			builder.addBinaryBody("file", file, ContentType.create("application/octet-stream"), file.getName());
@@ -133,13 +133,13 @@ public class HttpService {
 		}
 		return null;
 	}
-
-	public CloseableHttpResponse postFile(String url, File file) {
+	
+	public CloseableHttpResponse postBytes(String url, byte[] content, String fileName) {
 		try {
 			HttpPost httpPost = new HttpPost(url);
 			httpPost.addHeader("Authorization", "Bearer " + ShUpOnloadConfig.getTokenString());
 			MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-			builder.addBinaryBody("file", file, ContentType.create("application/octet-stream"), file.getName());
+			builder.addBinaryBody("file", content, ContentType.create("application/octet-stream"), fileName);
 			HttpEntity entity = builder.build();
 			httpPost.setEntity(entity);
 			CloseableHttpResponse response = httpClient.execute(httpPost, context);
@@ -149,7 +149,7 @@ public class HttpService {
 		}
 		return null;
 	}
-	
+
 	public CloseableHttpResponse postFileMultipartRelated(String url, File file) {
 		try {
 			MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create().setBoundary(BOUNDARY);
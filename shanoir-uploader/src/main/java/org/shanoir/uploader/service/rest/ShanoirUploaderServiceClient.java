@@ -414,20 +414,61 @@ public class ShanoirUploaderServiceClient {
 		return null;
 	}
 	
-	public void uploadFile(String tempDirId, File file) throws Exception {
-		try (CloseableHttpResponse response = httpService.postFile(this.serviceURLImporterCreateTempDir, tempDirId,
-				file)) {
+	/**
+	 * @param tempDirId
+	 * @return the checksums of the chunks received by the server, by chunk index,
+	 * null if the tempDir does not exist anymore on the server
+	 */
+	public Map<Integer, String> getUploadedChunks(String tempDirId) throws IOException {
+		try (CloseableHttpResponse response = httpService.get(this.serviceURLImporterCreateTempDir + tempDirId + "/chunks")) {
+			if (response == null) {
+				throw new IOException("Could not get uploaded chunks of tempDirId " + tempDirId);
+			}
 			int code = response.getCode();
 			if (code == HttpStatus.SC_OK) {
+				Map<?, ?> chunks = Util.getMappedObject(response, Map.class);
+				Map<Integer, String> uploadedChunks = new HashMap<Integer, String>();
+				if (chunks != null) {
+					for (Map.Entry<?, ?> chunk : chunks.entrySet()) {
+						uploadedChunks.put(Integer.valueOf(chunk.getKey().toString()), chunk.getValue().toString());
+					}
+				}
+				return uploadedChunks;
 			} else {
-				logger.error("Error in uploadFile: with tempDirId " + tempDirId + " with file (path: "
-						+ file.getAbsolutePath() + ", size in bytes: " + Files.size(file.toPath()) + "), status code: "
-						+ code + ", message: " + apiResponseMessages.getOrDefault(code, "unknown status code"));
-				throw new Exception("Error in uploadFile");
+				logger.warn("Could not get uploaded chunks of tempDirId " + tempDirId + " (status code: " + code
+						+ ", message: " + apiResponseMessages.getOrDefault(code, "unknown status code") + ")");
+				return null;
 			}
 		}
 	}
-	
+
+	/**
+	 * Uploads a chunk: a part of a file, or a zip of small files if fileName is null.
+	 */
+	public void uploadChunk(String tempDirId, int chunkIndex, String checksum, String fileName, long offset,
+			byte[] content) throws Exception {
+		URIBuilder b = new URIBuilder(this.serviceURLImporterCreateTempDir + tempDirId + "/chunks/" + chunkIndex);
+		b.addParameter("checksum", checksum);
+		if (fileName != null) {
+			b.addParameter("fileName", fileName);
+			b.addParameter("offset", Long.toString(offset));
+		}
+		URL url = b.build().toURL();
+		try (CloseableHttpResponse response = httpService.postBytes(url.toString(), content,
+				fileName != null ? fileName : "chunk" + chunkIndex + ".zip")) {
+			if (response == null) {
+				throw new IOException("Error in uploadChunk: no response for chunk " + chunkIndex);
+			}
+			int code = response.getCode();
+			if (code != HttpStatus.SC_OK) {
+				logger.error("Error in uploadChunk: with tempDirId " + tempDirId + " with chunk " + chunkIndex
+						+ " (size in bytes: " + content.length + "), status code: " + code + ", message: "
+						+ apiResponseMessages.getOrDefault(code, "unknown status code"));
+				throw new Exception("Error in uploadChunk");
+			}
+		}
+	}
+
 	public void uploadDicom(File file) throws Exception {
 		try (CloseableHttpResponse response = httpService.postFile(this.serviceURLImporterUploadDicom, file)) {
 			int code = response.getCode();
@@ -0,0 +1,213 @@
+package org.shanoir.uploader.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.log4j.Logger;
+import org.shanoir.uploader.service.rest.ShanoirUploaderServiceClient;
+
+/**
+ * This class uploads the files of a folder in chunks, several chunks in parallel.
+ * Small files, as most DICOM files, are packed into zip chunks, to avoid one request
+ * per file on slow links, and big files are split into parts.
+ *
+ * The chunks are numbered in the order of the sorted file names, so the same folder
+ * gives the same chunks after a restart: the chunks already received by the server,
+ * with the same checksum, are not sent again.
+ */
+public class ChunkedUpload {
+
+	private static Logger logger = Logger.getLogger(ChunkedUpload.class);
+
+	private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+	/** Files smaller than this size are packed into zip chunks */
+	private static final int SMALL_FILE_SIZE = 1024 * 1024;
+
+	private static final int PARALLEL_CHUNKS = 4;
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	private final ShanoirUploaderServiceClient uploadServiceClient;
+
+	private final String tempDirId;
+
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+	private long totalSize;
+
+	public ChunkedUpload(ShanoirUploaderServiceClient uploadServiceClient, String tempDirId, List<File> files) {
+		this.uploadServiceClient = uploadServiceClient;
+		this.tempDirId = tempDirId;
+		createChunks(files);
+	}
+
+	private void createChunks(List<File> files) {
+		List<File> sortedFiles = new ArrayList<File>(files);
+		sortedFiles.sort(Comparator.comparing(File::getName));
+		Chunk archive = null;
+		for (File file : sortedFiles) {
+			long length = file.length();
+			totalSize += length;
+			if (length < SMALL_FILE_SIZE) {
+				if (archive == null) {
+					archive = new Chunk(chunks.size(), null, 0, 0);
+					chunks.add(archive);
+				}
+				archive.files.add(file);
+				archive.length += length;
+				if (archive.length >= CHUNK_SIZE) {
+					archive = null;
+				}
+			} else {
+				for (long offset = 0; offset < length; offset += CHUNK_SIZE) {
+					chunks.add(new Chunk(chunks.size(), file, offset, Math.min(CHUNK_SIZE, length - offset)));
+				}
+			}
+		}
+	}
+
+	public int getChunkCount() {
+		return chunks.size();
+	}
+
+	/**
+	 * Uploads the chunks not yet received by the server.
+	 *
+	 * @param uploadedChunks the checksums of the chunks received by the server, by chunk index
+	 * @param percentageListener called with the percentage of uploaded bytes
+	 * @throws Exception if a chunk could not be uploaded
+	 */
+	public void upload(Map<Integer, String> uploadedChunks, IntConsumer percentageListener) throws Exception {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_CHUNKS, runnable -> {
+			Thread thread = new Thread(runnable, "upload-chunk-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicLong uploadedSize = new AtomicLong();
+		AtomicInteger skippedChunks = new AtomicInteger();
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (Chunk chunk : chunks) {
+				futures.add(executor.submit(() -> {
+					byte[] content = chunk.read();
+					String checksum = sha256Hex(content);
+					if (checksum.equals(uploadedChunks.get(chunk.index))) {
+						skippedChunks.incrementAndGet();
+					} else {
+						uploadChunk(chunk, checksum, content);
+					}
+					long size = uploadedSize.addAndGet(chunk.length);
+					synchronized (percentageListener) {
+						percentageListener.accept(totalSize == 0 ? 100 : (int) (size * 100 / totalSize));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		logger.info("Upload: " + chunks.size() + " chunks for tempDirId " + tempDirId + ", "
+				+ skippedChunks.get() + " already uploaded.");
+	}
+
+	private void uploadChunk(Chunk chunk, String checksum, byte[] content) throws Exception {
+		for (int attempt = 1;; attempt++) {
+			try {
+				uploadServiceClient.uploadChunk(tempDirId, chunk.index, checksum,
+						chunk.file != null ? chunk.file.getName() : null, chunk.offset, content);
+				return;
+			} catch (Exception e) {
+				if (attempt == MAX_ATTEMPTS) {
+					throw e;
+				}
+				logger.warn("Upload of chunk " + chunk.index + " failed, attempt " + attempt + ": " + e.getMessage());
+				Thread.sleep(attempt * 1000L);
+			}
+		}
+	}
+
+	private static String sha256Hex(byte[] content) throws NoSuchAlgorithmException {
+		StringBuilder checksum = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+			checksum.append(String.format("%02x", b));
+		}
+		return checksum.toString();
+	}
+
+	/**
+	 * A part of a file, or a zip of small files if file is null.
+	 */
+	private static class Chunk {
+
+		private final int index;
+
+		private final File file;
+
+		private final long offset;
+
+		private long length;
+
+		private final List<File> files = new ArrayList<File>();
+
+		Chunk(int index, File file, long offset, long length) {
+			this.index = index;
+			this.file = file;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		byte[] read() throws IOException {
+			if (file != null) {
+				byte[] content = new byte[(int) length];
+				try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+					randomAccessFile.seek(offset);
+					randomAccessFile.readFully(content);
+				}
+				return content;
+			}
+			ByteArrayOutputStream archive = new ByteArrayOutputStream((int) length);
+			try (ZipOutputStream zipOutputStream = new ZipOutputStream(archive)) {
+				for (File smallFile : files) {
+					ZipEntry entry = new ZipEntry(smallFile.getName());
+					// same zip, so same checksum, for the same files
+					entry.setTime(smallFile.lastModified());
+					zipOutputStream.putNextEntry(entry);
+					Files.copy(smallFile.toPath(), zipOutputStream);
+					zipOutputStream.closeEntry();
+				}
+			}
+			return archive.toByteArray();
+		}
+	}
+
+}
@@ -38,6 +38,9 @@ public class UploadJob {
 	private String uploadDate;
 	
 	private UploadState uploadState;
+
+	/** The temp dir on the server, kept to resume an interrupted upload */
+	private String tempDirId;
 	
 	private Collection<Serie> series;
 	
@@ -79,6 +82,14 @@ public class UploadJob {
 		this.uploadState = state;
 	}
 
+	public String getTempDirId() {
+		return tempDirId;
+	}
+
+	public void setTempDirId(String tempDirId) {
+		this.tempDirId = tempDirId;
+	}
+
 	@XmlElementWrapper(name="series")
 	@XmlElement(name="serie")
 	public Collection<Serie> getSeries() {
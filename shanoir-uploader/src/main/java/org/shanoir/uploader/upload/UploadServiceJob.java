@@ -4,9 +4,11 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
@@ -140,21 +142,33 @@ public class UploadServiceJob implements Job {
 			UploadJobManager uploadJobManager, NominativeDataUploadJobManager nominativeDataUploadJobManager,
 			CurrentNominativeDataController currentNominativeDataController) {
 		try {
-			String tempDirId = uploadServiceClient.createTempDir();
-			logger.info("Upload: tempDirId for import: " + tempDirId);
-			int i = 0;
-			for (Iterator<File> iterator = allFiles.iterator(); iterator.hasNext();) {
-				File file = (File) iterator.next();
-				i++;
-				logger.debug("UploadServiceJob started to upload file: " + file.getName());
-				uploadServiceClient.uploadFile(tempDirId, file);
-				logger.debug("UploadServiceJob finished to upload file: " + file.getName());
-				uploadPercentage = i * 100 / allFiles.size() + " %";
+			// reuse the tempDir of an interrupted upload, if still on the server
+			String tempDirId = uploadJob.getTempDirId();
+			Map<Integer, String> uploadedChunks = null;
+			if (tempDirId != null) {
+				uploadedChunks = uploadServiceClient.getUploadedChunks(tempDirId);
+			}
+			if (uploadedChunks == null) {
+				tempDirId = uploadServiceClient.createTempDir();
+				if (tempDirId == null) {
+					throw new Exception("Could not create tempDir on server.");
+				}
+				uploadedChunks = Collections.emptyMap();
+				uploadJob.setTempDirId(tempDirId);
+				uploadJobManager.writeUploadJob(uploadJob);
+				logger.info("Upload: tempDirId for import: " + tempDirId);
+			} else {
+				logger.info("Upload: resume upload to tempDirId: " + tempDirId + ", " + uploadedChunks.size()
+						+ " chunks already uploaded.");
+			}
+			ChunkedUpload chunkedUpload = new ChunkedUpload(uploadServiceClient, tempDirId, allFiles);
+			chunkedUpload.upload(uploadedChunks, percentage -> {
+				uploadPercentage = percentage + " %";
 				nominativeDataUploadJob.setUploadPercentage(uploadPercentage);
 				currentNominativeDataController.updateNominativeDataPercentage(folder, uploadPercentage);
 				nominativeDataUploadJobManager.writeUploadDataJob(nominativeDataUploadJob);
 				logger.debug("Upload percentage of folder " + folder.getName() + " = " + uploadPercentage + ".");
-			}
+			});
 			logger.info("Upload: " + allFiles.size() + " uploaded files to tempDirId: " + tempDirId);
 			/**
 			 * Explicitly upload the upload-job.xml as the last file to avoid sync problems on server in case of
@@ -207,4 +221,4 @@ public class UploadServiceJob implements Job {
 		uploadServiceClient.startImportJob(importJobJson);
 	}
 	
-}
\ No newline at end of file
+}
\ No newline at end of file
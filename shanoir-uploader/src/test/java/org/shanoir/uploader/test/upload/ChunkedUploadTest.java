@@ -0,0 +1,177 @@
+package org.shanoir.uploader.test.upload;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.shanoir.uploader.service.rest.ShanoirUploaderServiceClient;
+import org.shanoir.uploader.upload.ChunkedUpload;
+
+/**
+ * This class tests the chunks of a folder upload, with a client that keeps
+ * the chunks instead of sending them to the server.
+ */
+public class ChunkedUploadTest {
+
+	private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+	private static final String TEMP_DIR_ID = "12345";
+
+	@TempDir
+	Path folder;
+
+	private List<File> files;
+
+	private byte[] bigFileContent;
+
+	@BeforeEach
+	public void setup() throws IOException {
+		files = new ArrayList<File>();
+		// not in the order of the names
+		for (String name : new String[] { "image3.dcm", "image1.dcm", "image2.dcm" }) {
+			files.add(Files.write(folder.resolve(name), name.getBytes()).toFile());
+		}
+		bigFileContent = new byte[CHUNK_SIZE + 1000];
+		for (int i = 0; i < bigFileContent.length; i++) {
+			bigFileContent[i] = (byte) i;
+		}
+		files.add(Files.write(folder.resolve("serie.nii"), bigFileContent).toFile());
+	}
+
+	@Test
+	public void uploadSmallFilesZippedAndBigFilesInParts() throws Exception {
+		RecordingClient client = new RecordingClient(0);
+		ChunkedUpload upload = new ChunkedUpload(client, TEMP_DIR_ID, files);
+		List<Integer> percentages = new ArrayList<Integer>();
+
+		upload.upload(new HashMap<Integer, String>(), percentages::add);
+
+		assertEquals(3, upload.getChunkCount());
+		assertEquals(3, client.chunks.size());
+		// the small files are in the first chunk, in the order of their names
+		ReceivedChunk archive = client.chunks.get(0);
+		assertNull(archive.fileName);
+		assertEquals(Arrays.asList("image1.dcm", "image2.dcm", "image3.dcm"), getEntryNames(archive.content));
+		// the big file is split into parts, written at their offset
+		byte[] bigFile = new byte[bigFileContent.length];
+		for (int index = 1; index <= 2; index++) {
+			ReceivedChunk part = client.chunks.get(index);
+			assertEquals("serie.nii", part.fileName);
+			System.arraycopy(part.content, 0, bigFile, (int) part.offset, part.content.length);
+		}
+		assertEquals(CHUNK_SIZE, client.chunks.get(2).offset);
+		assertArrayEquals(bigFileContent, bigFile);
+		assertEquals(Integer.valueOf(100), percentages.get(percentages.size() - 1));
+	}
+
+	@Test
+	public void resumeSendsOnlyTheChunksNotReceived() throws Exception {
+		RecordingClient client = new RecordingClient(0);
+		new ChunkedUpload(client, TEMP_DIR_ID, files).upload(new HashMap<Integer, String>(), percentage -> {});
+		Map<Integer, String> uploadedChunks = new HashMap<Integer, String>();
+		uploadedChunks.put(0, client.chunks.get(0).checksum);
+		uploadedChunks.put(1, client.chunks.get(1).checksum);
+		// received by the server with another content
+		uploadedChunks.put(2, "0000");
+
+		RecordingClient restartedClient = new RecordingClient(0);
+		new ChunkedUpload(restartedClient, TEMP_DIR_ID, files).upload(uploadedChunks, percentage -> {});
+
+		assertEquals(1, restartedClient.chunks.size());
+		assertEquals(client.chunks.get(2).checksum, restartedClient.chunks.get(2).checksum);
+	}
+
+	@Test
+	public void failedChunkRetried() throws Exception {
+		RecordingClient client = new RecordingClient(1);
+
+		new ChunkedUpload(client, TEMP_DIR_ID, files).upload(new HashMap<Integer, String>(), percentage -> {});
+
+		assertEquals(3, client.chunks.size());
+		assertEquals(2, client.attempts.get(0).get());
+	}
+
+	@Test
+	public void failedUploadAfterThreeAttempts() throws Exception {
+		RecordingClient client = new RecordingClient(3);
+		ChunkedUpload upload = new ChunkedUpload(client, TEMP_DIR_ID, files.subList(0, 1));
+
+		assertThrows(IOException.class, () -> upload.upload(new HashMap<Integer, String>(), percentage -> {}));
+		assertEquals(3, client.attempts.get(0).get());
+	}
+
+	private List<String> getEntryNames(byte[] archive) throws IOException {
+		List<String> names = new ArrayList<String>();
+		try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+			ZipEntry entry;
+			while ((entry = zipInputStream.getNextEntry()) != null) {
+				names.add(entry.getName());
+			}
+		}
+		return names;
+	}
+
+	private static class ReceivedChunk {
+
+		private final String checksum;
+
+		private final String fileName;
+
+		private final long offset;
+
+		private final byte[] content;
+
+		ReceivedChunk(String checksum, String fileName, long offset, byte[] content) {
+			this.checksum = checksum;
+			this.fileName = fileName;
+			this.offset = offset;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * Keeps the chunks uploaded, the first attempts of each chunk fail.
+	 */
+	private static class RecordingClient extends ShanoirUploaderServiceClient {
+
+		private final int failingAttempts;
+
+		private final Map<Integer, ReceivedChunk> chunks = new ConcurrentHashMap<Integer, ReceivedChunk>();
+
+		private final Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+		RecordingClient(int failingAttempts) {
+			this.failingAttempts = failingAttempts;
+		}
+
+		@Override
+		public void uploadChunk(String tempDirId, int chunkIndex, String checksum, String fileName, long offset,
+				byte[] content) throws Exception {
+			assertEquals(TEMP_DIR_ID, tempDirId);
+			if (attempts.computeIfAbsent(chunkIndex, index -> new AtomicInteger()).incrementAndGet() <= failingAttempts) {
+				throw new IOException("Connection reset");
+			}
+			chunks.put(chunkIndex, new ReceivedChunk(checksum, fileName, offset, content));
+		}
+	}
+
+}